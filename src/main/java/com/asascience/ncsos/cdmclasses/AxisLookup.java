@@ -0,0 +1,249 @@
+package com.asascience.ncsos.cdmclasses;
+
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.util.LruCache;
+
+import ucar.nc2.dataset.CoordinateAxis1D;
+import ucar.nc2.dataset.CoordinateAxis1DTime;
+
+import java.util.Arrays;
+
+/**
+ * Values of a one dimensional coordinate axis held as a primitive array, with nearest
+ * and range lookups. Monotonic axes (the usual case) are searched in O(log n); other
+ * axes fall back to a linear scan.
+ * <p>
+ * Lookups of local datasets are shared between requests, keyed by the dataset location
+ * and axis name, and dropped once the file's modification time changes.
+ */
+public final class AxisLookup {
+
+    /** System property used to override the number of axes kept */
+    public static final String MAX_ENTRIES_PROPERTY = "ncsos.axisCache.maxEntries";
+    private static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static final LruCache<String, AxisLookup> cache =
+            new LruCache<String, AxisLookup>(Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+
+    private final double[] values;
+    // 1 if ascending, -1 if descending, 0 if not monotonic
+    private final int direction;
+    private long lastModified;
+
+    /**
+     * @param values coordinate values, in axis order
+     */
+    public AxisLookup(double[] values) {
+        this.values = values;
+        this.direction = findDirection(values);
+    }
+
+    /**
+     * @param axis a coordinate axis
+     * @return the lookup of the axis values
+     */
+    public static AxisLookup forAxis(CoordinateAxis1D axis) {
+        String key = axis.getDatasetLocation() + "#" + axis.getFullName();
+        long lastModified = DatasetHandlerAdapter.getLastModified(axis.getDatasetLocation());
+        AxisLookup lookup = getCached(key, lastModified);
+        if (lookup == null) {
+            lookup = new AxisLookup(axis.getCoordValues());
+            putCached(key, lastModified, lookup);
+        }
+        return lookup;
+    }
+
+    /**
+     * @param axis a time axis
+     * @return the lookup of the axis times, in millis
+     */
+    public static AxisLookup forTimeAxis(CoordinateAxis1DTime axis) {
+        String key = axis.getDatasetLocation() + "#" + axis.getFullName() + "#millis";
+        long lastModified = DatasetHandlerAdapter.getLastModified(axis.getDatasetLocation());
+        AxisLookup lookup = getCached(key, lastModified);
+        if (lookup == null) {
+            double[] millis = new double[(int) axis.getSize()];
+            for (int i = 0; i < millis.length; i++) {
+                millis[i] = axis.getCalendarDate(i).getMillis();
+            }
+            lookup = new AxisLookup(millis);
+            putCached(key, lastModified, lookup);
+        }
+        return lookup;
+    }
+
+    private static AxisLookup getCached(String key, long lastModified) {
+        AxisLookup lookup = cache.get(key);
+        return (lookup != null && lookup.lastModified == lastModified) ? lookup : null;
+    }
+
+    private static void putCached(String key, long lastModified, AxisLookup lookup) {
+        // without a modification time (e.g. remote datasets) the axis may change unnoticed
+        if (lastModified <= 0)
+            return;
+        lookup.lastModified = lastModified;
+        cache.put(key, lookup);
+    }
+
+    /**
+     * Removes all cached lookups
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    private static int findDirection(double[] values) {
+        if (values.length < 2)
+            return 1;
+        int direction = (values[1] >= values[0]) ? 1 : -1;
+        for (int i = 1; i < values.length; i++) {
+            double step = values[i] - values[i - 1];
+            // NaN steps are neither ascending nor descending
+            if (!(direction > 0 ? step >= 0 : step <= 0))
+                return 0;
+        }
+        return direction;
+    }
+
+    /**
+     * @return the axis values; must not be modified
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return the value at an index
+     */
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the number of values of the axis
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Finds the value closest to the one requested; of equally close values the first is returned
+     * @param value value to find
+     * @return index of the closest value; -1 if the axis is empty or the value is NaN
+     */
+    public int nearest(double value) {
+        if (values.length == 0 || Double.isNaN(value))
+            return -1;
+        if (direction == 0) {
+            double bestDiff = Double.MAX_VALUE;
+            int best = -1;
+            for (int i = 0; i < values.length; i++) {
+                double diff = Math.abs(values[i] - value);
+                if (diff < bestDiff) {
+                    bestDiff = diff;
+                    best = i;
+                }
+            }
+            return best;
+        }
+        int upper = firstPast(value);
+        int index;
+        if (upper == 0)
+            index = 0;
+        else if (upper == values.length)
+            index = values.length - 1;
+        else
+            index = (Math.abs(values[upper - 1] - value) <= Math.abs(values[upper] - value)) ? upper - 1 : upper;
+        // the first of repeated values
+        while (index > 0 && values[index - 1] == values[index])
+            index--;
+        return index;
+    }
+
+    /**
+     * Finds the longitude closest to the one requested, measuring distances around the
+     * globe so that e.g. 359 is next to 0 and -180 is the same as 180
+     * @param lon longitude to find, in degrees
+     * @return index of the closest longitude; -1 if the axis is empty or the value is NaN
+     */
+    public int nearestLon(double lon) {
+        if (values.length == 0 || Double.isNaN(lon))
+            return -1;
+        if (direction == 0) {
+            double bestDiff = Double.MAX_VALUE;
+            int best = -1;
+            for (int i = 0; i < values.length; i++) {
+                double diff = lonDistance(values[i], lon);
+                if (diff < bestDiff) {
+                    bestDiff = diff;
+                    best = i;
+                }
+            }
+            return best;
+        }
+        // the axis may be in [-180, 180] or [0, 360]; look for the value in both conventions
+        int best = -1;
+        double bestDiff = Double.MAX_VALUE;
+        for (double candidate : new double[]{lon, lon - 360, lon + 360}) {
+            int index = nearest(candidate);
+            double diff = lonDistance(values[index], lon);
+            if (diff < bestDiff || (diff == bestDiff && index < best)) {
+                bestDiff = diff;
+                best = index;
+            }
+        }
+        return best;
+    }
+
+    private static double lonDistance(double a, double b) {
+        double diff = Math.abs(a - b) % 360;
+        return Math.min(diff, 360 - diff);
+    }
+
+    /**
+     * @param min lower bound, inclusive
+     * @param max upper bound, inclusive
+     * @return indices of the values within the bounds, in axis order
+     */
+    public int[] indicesBetween(double min, double max) {
+        if (direction == 0) {
+            int[] indices = new int[values.length];
+            int count = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] >= min && values[i] <= max)
+                    indices[count++] = i;
+            }
+            return Arrays.copyOf(indices, count);
+        }
+        int first, last;
+        if (direction > 0) {
+            first = firstPast(min);
+            last = firstPast(Math.nextUp(max)) - 1;
+        } else {
+            first = firstPast(max);
+            last = firstPast(Math.nextAfter(min, Double.NEGATIVE_INFINITY)) - 1;
+        }
+        if (last < first)
+            return new int[0];
+        int[] indices = new int[last - first + 1];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = first + i;
+        }
+        return indices;
+    }
+
+    /**
+     * @return index of the first value not before the given value in axis order
+     * (not less than it if ascending, not greater than it if descending)
+     */
+    private int firstPast(double value) {
+        int low = 0, high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            boolean before = (direction > 0) ? values[mid] < value : values[mid] > value;
+            if (before) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
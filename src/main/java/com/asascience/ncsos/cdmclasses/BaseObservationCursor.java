@@ -0,0 +1,169 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.ma2.DataType;
+import ucar.ma2.StructureData;
+import ucar.ma2.StructureMembers;
+
+import java.io.IOException;
+
+/**
+ * Holds the current record of an {@link ObservationCursor}. Values are kept in primitive
+ * arrays that are reused for every record.
+ */
+public abstract class BaseObservationCursor implements ObservationCursor {
+
+    protected final String[] variableNames;
+    protected final double[] values;
+    protected final DataType[] dataTypes;
+    protected final String[] stringValues;
+    protected long time;
+    protected int stationIndex = NO_STATION;
+    protected int bin = NO_BIN;
+    protected int location = 0;
+
+    /**
+     * @param variableNames names of the variables of every record
+     */
+    protected BaseObservationCursor(String[] variableNames) {
+        this.variableNames = variableNames;
+        this.values = new double[variableNames.length];
+        this.dataTypes = new DataType[variableNames.length];
+        this.stringValues = new String[variableNames.length];
+    }
+
+    /**
+     * Reads the values of all variables of the cursor from the data of a point feature
+     * @param data data of the point feature
+     * @throws IOException if a variable is not part of the data
+     */
+    protected void readValues(StructureData data) throws IOException {
+        for (int i = 0; i < variableNames.length; i++) {
+            StructureMembers.Member member = data.findMember(variableNames[i]);
+            if (member == null) {
+                throw new IOException("variable " + variableNames[i] + " was not found");
+            }
+            DataType type = member.getDataType();
+            if (type.isNumeric()) {
+                setValue(i, data.convertScalarDouble(member), type);
+            } else {
+                setValue(i, data.getScalarObject(member).toString());
+            }
+        }
+    }
+
+    /**
+     * Sets a numeric value of the current record
+     */
+    protected void setValue(int variable, double value, DataType type) {
+        values[variable] = value;
+        dataTypes[variable] = type;
+        stringValues[variable] = null;
+    }
+
+    /**
+     * Sets a non numeric value of the current record
+     */
+    protected void setValue(int variable, String value) {
+        values[variable] = Double.NaN;
+        dataTypes[variable] = DataType.STRING;
+        stringValues[variable] = value;
+    }
+
+    /**
+     * Reads a single value from the data of a point feature
+     * @return the value; NaN if the member does not exist or is not numeric
+     */
+    protected static double readDouble(StructureData data, String name) {
+        StructureMembers.Member member = data.findMember(name);
+        if (member == null || !member.getDataType().isNumeric())
+            return Double.NaN;
+        return data.convertScalarDouble(member);
+    }
+
+    /**
+     * @param variableNames names of the variables
+     * @return a cursor without any record
+     */
+    public static ObservationCursor empty(String[] variableNames) {
+        return new BaseObservationCursor(variableNames) {
+            @Override
+            public boolean next() {
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public String[] getVariableNames() {
+        return variableNames;
+    }
+
+    @Override
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public int getStationIndex() {
+        return stationIndex;
+    }
+
+    @Override
+    public int getBin() {
+        return bin;
+    }
+
+    @Override
+    public int getLocation() {
+        return location;
+    }
+
+    @Override
+    public boolean isNumeric(int variable) {
+        return stringValues[variable] == null;
+    }
+
+    @Override
+    public double getValue(int variable) {
+        return values[variable];
+    }
+
+    @Override
+    public String getStringValue(int variable) {
+        return stringValues[variable];
+    }
+
+    @Override
+    public DataType getDataType(int variable) {
+        return dataTypes[variable];
+    }
+
+    @Override
+    public String formatValue(int variable) {
+        if (stringValues[variable] != null)
+            return stringValues[variable];
+        DataType type = dataTypes[variable];
+        double value = values[variable];
+        if (type == null || Double.isNaN(value))
+            return Double.toString(value);
+        // as the value boxed in its own type prints, so unsigned values keep their signed form
+        switch (type) {
+            case BYTE:
+                return Byte.toString((byte) value);
+            case SHORT:
+                return Short.toString((short) value);
+            case INT:
+                return Integer.toString((int) value);
+            case LONG:
+                return Long.toString((long) value);
+            case FLOAT:
+                return Float.toString((float) value);
+            default:
+                return Double.toString(value);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
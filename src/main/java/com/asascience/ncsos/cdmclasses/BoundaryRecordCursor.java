@@ -0,0 +1,56 @@
+package com.asascience.ncsos.cdmclasses;
+
+import java.io.IOException;
+
+/**
+ * Cursor over the single record of a station with the earliest or the latest time, for
+ * sources whose records are not known to be sorted by time. The source is read through
+ * once; only the record kept so far is held.
+ */
+class BoundaryRecordCursor extends BaseObservationCursor {
+
+    private final ObservationCursor source;
+    private final boolean latest;
+    private boolean read = false;
+
+    /**
+     * @param source cursor over all the records of the station
+     * @param latest true for the record with the latest time, false for the earliest
+     */
+    BoundaryRecordCursor(ObservationCursor source, boolean latest) {
+        super(source.getVariableNames());
+        this.source = source;
+        this.latest = latest;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (read)
+            return false;
+        read = true;
+        boolean found = false;
+        while (source.next()) {
+            long sourceTime = source.getTime();
+            // of several records at the boundary, keep the last one for latest and the first one for first
+            if (found && (latest ? sourceTime < time : sourceTime >= time))
+                continue;
+            found = true;
+            time = sourceTime;
+            stationIndex = source.getStationIndex();
+            bin = source.getBin();
+            location = source.getLocation();
+            for (int i = 0; i < variableNames.length; i++) {
+                if (source.isNumeric(i))
+                    setValue(i, source.getValue(i), source.getDataType(i));
+                else
+                    setValue(i, source.getStringValue(i));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+}
@@ -0,0 +1,105 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.ma2.DataType;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Cursor over records held in memory. Used to read a station on one thread and hand its
+ * records to another; values are kept in primitive arrays, one row per record.
+ */
+public class BufferedObservationCursor extends BaseObservationCursor {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int[] stations = new int[INITIAL_CAPACITY];
+    private int[] bins = new int[INITIAL_CAPACITY];
+    private int[] locations = new int[INITIAL_CAPACITY];
+    private double[] rowValues;
+    private DataType[] rowTypes;
+    // only allocated once a non numeric value is read
+    private String[] rowStrings;
+    private int size = 0;
+    private int position = -1;
+
+    private BufferedObservationCursor(String[] variableNames) {
+        super(variableNames);
+        rowValues = new double[INITIAL_CAPACITY * variableNames.length];
+        rowTypes = new DataType[INITIAL_CAPACITY * variableNames.length];
+    }
+
+    /**
+     * Reads all records of a cursor into memory; the cursor is not closed
+     * @param source cursor to read
+     * @return a cursor over the same records
+     * @throws IOException if the source could not be read
+     */
+    public static BufferedObservationCursor read(ObservationCursor source) throws IOException {
+        String[] names = source.getVariableNames();
+        BufferedObservationCursor buffer = new BufferedObservationCursor(names);
+        int width = names.length;
+        while (source.next()) {
+            int row = buffer.size;
+            if (row == buffer.times.length)
+                buffer.grow();
+            buffer.times[row] = source.getTime();
+            buffer.stations[row] = source.getStationIndex();
+            buffer.bins[row] = source.getBin();
+            buffer.locations[row] = source.getLocation();
+            for (int i = 0; i < width; i++) {
+                buffer.rowTypes[row * width + i] = source.getDataType(i);
+                if (source.isNumeric(i)) {
+                    buffer.rowValues[row * width + i] = source.getValue(i);
+                } else {
+                    if (buffer.rowStrings == null)
+                        buffer.rowStrings = new String[buffer.rowValues.length];
+                    buffer.rowValues[row * width + i] = Double.NaN;
+                    buffer.rowStrings[row * width + i] = source.getStringValue(i);
+                }
+            }
+            buffer.size++;
+        }
+        return buffer;
+    }
+
+    private void grow() {
+        int capacity = times.length * 2;
+        times = Arrays.copyOf(times, capacity);
+        stations = Arrays.copyOf(stations, capacity);
+        bins = Arrays.copyOf(bins, capacity);
+        locations = Arrays.copyOf(locations, capacity);
+        rowValues = Arrays.copyOf(rowValues, capacity * variableNames.length);
+        rowTypes = Arrays.copyOf(rowTypes, capacity * variableNames.length);
+        if (rowStrings != null)
+            rowStrings = Arrays.copyOf(rowStrings, capacity * variableNames.length);
+    }
+
+    /**
+     * @return number of records held
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean next() {
+        if (position + 1 >= size)
+            return false;
+        position++;
+        time = times[position];
+        stationIndex = stations[position];
+        bin = bins[position];
+        location = locations[position];
+        int width = variableNames.length;
+        for (int i = 0; i < width; i++) {
+            int cell = position * width + i;
+            if (rowStrings != null && rowStrings[cell] != null)
+                setValue(i, rowStrings[cell]);
+            else
+                setValue(i, rowValues[cell], rowTypes[cell]);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,254 @@
+package com.asascience.ncsos.cdmclasses;
+
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.util.LruCache;
+
+import ucar.ma2.ArrayDouble;
+import ucar.nc2.dataset.CoordinateAxis2D;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spatial index over the cells of a curvilinear grid, whose latitudes and longitudes are
+ * 2D (y, x) arrays. The cells are kept in a KD-tree on (latitude, longitude) so that the
+ * nearest cell and the cells in a bounding box are found in logarithmic time instead of
+ * by scanning the whole grid.
+ * <p>
+ * Distances are measured in degrees, with longitude differences scaled by the cosine of
+ * the requested latitude and taken around the globe. Indexes of local datasets are shared
+ * between requests and dropped once the file's modification time changes.
+ */
+public final class CurvilinearIndex {
+
+    /** System property used to override the number of grids kept */
+    public static final String MAX_ENTRIES_PROPERTY = "ncsos.curvilinearIndexCache.maxEntries";
+    private static final int DEFAULT_MAX_ENTRIES = 16;
+
+    private static final LruCache<String, CurvilinearIndex> cache =
+            new LruCache<String, CurvilinearIndex>(Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+
+    private final double[] lats;
+    private final double[] lons;
+    private final int nx;
+    // cell indices in tree order: the node of a range is its middle element, split on
+    // latitude at even depths and on longitude at odd depths
+    private final int[] tree;
+    private long lastModified;
+
+    /**
+     * State of a nearest cell search
+     */
+    private static class Search {
+        double queryLat;
+        double queryLon;
+        double lonScale;
+        double bestDistance = Double.MAX_VALUE;
+        int best = -1;
+    }
+
+    /**
+     * @param lats latitudes of the cells, row by row
+     * @param lons longitudes of the cells, row by row
+     * @param nx number of cells in a row
+     */
+    public CurvilinearIndex(double[] lats, double[] lons, int nx) {
+        this.lats = lats;
+        this.lons = lons;
+        this.nx = nx;
+        int count = 0;
+        for (int i = 0; i < lats.length; i++) {
+            if (!Double.isNaN(lats[i]) && !Double.isNaN(lons[i]))
+                count++;
+        }
+        // cells without coordinates (e.g. masked land) are left out
+        this.tree = new int[count];
+        count = 0;
+        for (int i = 0; i < lats.length; i++) {
+            if (!Double.isNaN(lats[i]) && !Double.isNaN(lons[i]))
+                tree[count++] = i;
+        }
+        build(0, tree.length, 0);
+    }
+
+    /**
+     * @param latAxis 2D latitude axis of the grid
+     * @param lonAxis 2D longitude axis of the grid
+     * @return the index of the grid
+     */
+    public static CurvilinearIndex forAxes(CoordinateAxis2D latAxis, CoordinateAxis2D lonAxis) {
+        String location = latAxis.getDatasetLocation();
+        String key = location + "#" + latAxis.getFullName() + "#" + lonAxis.getFullName();
+        long lastModified = DatasetHandlerAdapter.getLastModified(location);
+        CurvilinearIndex index = cache.get(key);
+        if (index != null && index.lastModified == lastModified)
+            return index;
+        index = new CurvilinearIndex(flatten(latAxis.getCoordValuesArray()), flatten(lonAxis.getCoordValuesArray()),
+                latAxis.getShape(1));
+        // without a modification time (e.g. remote datasets) the grid may change unnoticed
+        if (lastModified > 0) {
+            index.lastModified = lastModified;
+            cache.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Removes all cached indexes
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    private static double[] flatten(ArrayDouble.D2 values) {
+        return (double[]) values.get1DJavaArray(double.class);
+    }
+
+    private double key(int cell, int depth) {
+        return (depth % 2 == 0) ? lats[cell] : lons[cell];
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo < 2)
+            return;
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Partially sorts tree[lo..hi] so that the element at k has the keys at most
+     * as large on its left and at least as large on its right
+     */
+    private void select(int lo, int hi, int k, int depth) {
+        while (lo < hi) {
+            double pivot = key(tree[(lo + hi) >>> 1], depth);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (key(tree[i], depth) < pivot) i++;
+                while (key(tree[j], depth) > pivot) j--;
+                if (i <= j) {
+                    int swap = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    /**
+     * @return number of cells in a row
+     */
+    public int getXSize() {
+        return nx;
+    }
+
+    /**
+     * @return latitude of a cell
+     */
+    public double getLat(int y, int x) {
+        return lats[y * nx + x];
+    }
+
+    /**
+     * @return longitude of a cell
+     */
+    public double getLon(int y, int x) {
+        return lons[y * nx + x];
+    }
+
+    /**
+     * Finds the cell closest to a location
+     * @param lat latitude, in degrees
+     * @param lon longitude, in degrees
+     * @return y and x index of the cell; null if the grid has no cell with coordinates
+     */
+    public int[] nearest(double lat, double lon) {
+        if (tree.length == 0 || Double.isNaN(lat) || Double.isNaN(lon))
+            return null;
+        Search search = new Search();
+        search.queryLat = lat;
+        search.lonScale = Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+        // the grid may be in [-180, 180] or [0, 360]
+        for (double candidate : new double[]{lon, lon - 360, lon + 360}) {
+            search.queryLon = candidate;
+            searchNearest(search, 0, tree.length, 0);
+        }
+        return new int[]{search.best / nx, search.best % nx};
+    }
+
+    private void searchNearest(Search search, int lo, int hi, int depth) {
+        if (lo >= hi)
+            return;
+        int mid = (lo + hi) >>> 1;
+        int cell = tree[mid];
+        double dLat = search.queryLat - lats[cell];
+        double dLon = (search.queryLon - lons[cell]) * search.lonScale;
+        double distance = dLat * dLat + dLon * dLon;
+        if (distance < search.bestDistance || (distance == search.bestDistance && cell < search.best)) {
+            search.bestDistance = distance;
+            search.best = cell;
+        }
+        double split = (depth % 2 == 0) ? dLat : dLon;
+        if (split < 0) {
+            searchNearest(search, lo, mid, depth + 1);
+            if (split * split <= search.bestDistance)
+                searchNearest(search, mid + 1, hi, depth + 1);
+        } else {
+            searchNearest(search, mid + 1, hi, depth + 1);
+            if (split * split <= search.bestDistance)
+                searchNearest(search, lo, mid, depth + 1);
+        }
+    }
+
+    /**
+     * Finds the cells within a bounding box
+     * @param minLat southern bound, in degrees
+     * @param maxLat northern bound, in degrees
+     * @param minLon western bound, in degrees
+     * @param maxLon eastern bound, in degrees; the box crosses the antimeridian if smaller than minLon
+     * @return y and x index of every cell in the box, in grid order
+     */
+    public List<int[]> within(double minLat, double maxLat, double minLon, double maxLon) {
+        if (maxLon < minLon)
+            maxLon += 360;
+        List<Integer> cells = new ArrayList<Integer>();
+        // the same box in both longitude conventions
+        for (double shift : new double[]{0, -360, 360}) {
+            searchWithin(0, tree.length, 0, minLat, maxLat, minLon + shift, maxLon + shift, cells);
+        }
+        Collections.sort(cells);
+        List<int[]> result = new ArrayList<int[]>();
+        int previous = -1;
+        for (int cell : cells) {
+            if (cell != previous)
+                result.add(new int[]{cell / nx, cell % nx});
+            previous = cell;
+        }
+        return result;
+    }
+
+    private void searchWithin(int lo, int hi, int depth, double minLat, double maxLat, double minLon, double maxLon,
+                              List<Integer> cells) {
+        if (lo >= hi)
+            return;
+        int mid = (lo + hi) >>> 1;
+        int cell = tree[mid];
+        if (lats[cell] >= minLat && lats[cell] <= maxLat && lons[cell] >= minLon && lons[cell] <= maxLon)
+            cells.add(cell);
+        double value = key(cell, depth);
+        double min = (depth % 2 == 0) ? minLat : minLon;
+        double max = (depth % 2 == 0) ? maxLat : maxLon;
+        if (min <= value)
+            searchWithin(lo, mid, depth + 1, minLat, maxLat, minLon, maxLon, cells);
+        if (value <= max)
+            searchWithin(mid + 1, hi, depth + 1, minLat, maxLat, minLon, maxLon, cells);
+    }
+}
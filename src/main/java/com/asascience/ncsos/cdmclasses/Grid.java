@@ -1,9 +1,16 @@
 package com.asascience.ncsos.cdmclasses;
 
 import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.Dimension;
 import ucar.nc2.constants.CF;
 import ucar.nc2.dataset.CoordinateAxis1D;
 import ucar.nc2.dataset.CoordinateAxis1DTime;
+import ucar.nc2.dataset.CoordinateAxis2D;
+import ucar.nc2.dataset.VariableDS;
 import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.GridDataset;
 import ucar.nc2.dt.GridDatatype;
@@ -30,6 +37,8 @@ public class Grid extends baseCDMClass implements iStationData {
     private GridDataset GridData;
     private final Map<String, String> latLonRequest;
     DateFormatter dateFormatter = new DateFormatter();
+    // calendar of the time axis, which the times of the records are written in
+    private ucar.nc2.time.Calendar timeCalendar;
 
     /**
      * Constructs a new Grid with parameters passed in
@@ -63,16 +72,6 @@ public class Grid extends baseCDMClass implements iStationData {
 		return latLonRequest;
 	}
 
-	/**
-     * Adds a Date entry to the builder from the dates array
-     * @param builder the StringBuilder being built
-     * @param dates Date array from which the first date value (0 index) is pulled from
-     */
-    private String addDateEntry( CalendarDate date) {
-        return ("time=")+(date.toString())+",";
-       // builder.append(",");
-    }
-
     /**
      * Attempts to collect the depth values from latLons and returns them in an array
      * @param latLons hash map that has lat,lon and maybe depth
@@ -83,7 +82,7 @@ public class Grid extends baseCDMClass implements iStationData {
     	int[] retVal = new int[latLons.get(LAT).length];
     	CoordinateAxis1D depthData = (CoordinateAxis1D) GridData.getDataVariable(DEPTH);
     	if (depthData != null) {
-    		double[] depthDbl = depthData.getCoordValues();
+    		AxisLookup depthLookup = AxisLookup.forAxis(depthData);
     		String[] requestedDepths = null;
     		if(latLonRequest.containsKey(DEPTH)){
     			requestedDepths = latLonRequest.get(DEPTH).split("[,]");
@@ -92,7 +91,7 @@ public class Grid extends baseCDMClass implements iStationData {
     			for (int i=0;i<retVal.length;i++) {
     				currIndex = (i < requestedDepths.length) ? i : requestedDepths.length - 1;
     				try {
-    					retVal[i] = findBestIndex(depthDbl, Double.parseDouble(requestedDepths[currIndex]));
+    					retVal[i] = depthLookup.nearest(Double.parseDouble(requestedDepths[currIndex]));
     				} catch (Exception e) {
     					System.out.println("Could not parse: " + requestedDepths[currIndex] + " - " + e.getMessage());
     					retVal[i] = 0;
@@ -198,169 +197,318 @@ public class Grid extends baseCDMClass implements iStationData {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    /**
+     * Formats the time of a record the way grid responses write it: as the time axis'
+     * CalendarDate, rather than with the ISO formatter of the other feature types
+     * @param millis time of the record, in millis
+     * @return the formatted time
+     */
+    public String formatTime(long millis) {
+        return CalendarDate.of(timeCalendar, millis).toString();
+    }
+
     @Override
-    public String getDataResponse(int stNum) {
-        if (GridData != null) {
-            StringBuilder builder = new StringBuilder();
-            Array data = null;
+    public ObservationCursor getObservationCursor(int stNum) throws IOException {
+        if (GridData == null || GridData.getGrids().isEmpty()) {
+            return BaseObservationCursor.empty(variableNames);
+        }
+        GridDatatype grid = GridData.getGrids().get(0);
+        GridCoordSystem gcs = grid.getCoordinateSystem();
+
+        String lat_name;
+        String lon_name;
+        String depth_name = null;
+        CoordinateAxis1DTime coordTime = gcs.getTimeAxis1D();
+        if (coordTime.getSize() > 0)
+            timeCalendar = coordTime.getCalendarDate(0).getCalendar();
+        int[] timeRange = getTimeIndexRange(coordTime, getResumeTime(stNum));
+
+        // y and x index and coordinates of each requested location
+        Map<String, Integer[]> latLonDepthHash;
+        AxisLookup latLookup = null;
+        AxisLookup lonLookup = null;
+        CurvilinearIndex curvilinear = getCurvilinearIndex(gcs);
+        if (curvilinear != null) {
+            lat_name = gcs.getYHorizAxis().getFullName();
+            lon_name = gcs.getXHorizAxis().getFullName();
+            latLonDepthHash = findCurvilinearIndexs(curvilinear, latLonRequest);
+        } else {
+            lat_name = gcs.getYHorizAxis().getOriginalVariable().getFullName();
+            lon_name = gcs.getXHorizAxis().getOriginalVariable().getFullName();
+            lonLookup = AxisLookup.forAxis((CoordinateAxis1D) GridData.getDataVariable(lon_name));
+            latLookup = AxisLookup.forAxis((CoordinateAxis1D) GridData.getDataVariable(lat_name));
+            latLonDepthHash = findDataIndexs(lonLookup, latLookup, latLonRequest);
+        }
+        Integer[] yIndices = latLonDepthHash.get(LAT);
+        Integer[] xIndices = latLonDepthHash.get(LON);
+        double[] locationLats = new double[yIndices.length];
+        double[] locationLons = new double[xIndices.length];
+        for (int i = 0; i < yIndices.length; i++) {
+            locationLats[i] = (curvilinear != null) ? curvilinear.getLat(yIndices[i], xIndices[i]) : latLookup.getValue(yIndices[i]);
+            locationLons[i] = (curvilinear != null) ? curvilinear.getLon(yIndices[i], xIndices[i]) : lonLookup.getValue(xIndices[i]);
+        }
+        double[] depthDbl = null;
 
-            GridDatatype grid = GridData.getGrids().get(0);
-            GridCoordSystem gcs = grid.getCoordinateSystem();
-            
-            String lat_name   =  gcs.getYHorizAxis().getOriginalVariable().getFullName();
-            String lon_name   = gcs.getXHorizAxis().getOriginalVariable().getFullName();
-            String depth_name = null;
-            Integer timeIstart = null;
-            Integer timeIend = -1;
-            CoordinateAxis1DTime coordTime = gcs.getTimeAxis1D();
-
-            if (this.eventTimes == null){
-            	timeIstart = 0;
-            	timeIend = (int) (coordTime.getSize() -1);
-            }
-            else if (eventTimes.size() > 1) {
-            	// find all times between two specified
-            	CalendarDate dtStart = CalendarDateFormatter.isoStringToCalendarDate(null, eventTimes.get(0));
-                CalendarDate dtEnd = CalendarDateFormatter.isoStringToCalendarDate(null, eventTimes.get(1));
-                for(Integer timeIndex = 0; timeIndex < coordTime.getSize(); timeIndex++){
-                	CalendarDate cD = coordTime.getCalendarDate(timeIndex);
-                	if(timeIstart == null && (cD.getDifferenceInMsecs(dtStart) == 0 || cD.isAfter(dtStart))){
-                		timeIstart = timeIndex;
-                	}
-                	if(cD.getDifferenceInMsecs(dtEnd) == 0 || (cD.isBefore(dtEnd) && timeIstart != null)){
-                		timeIend = timeIndex;
-                	}
+        CoordinateAxis1D depthAxis = gcs.getVerticalAxis();
+        if (depthAxis != null) {
+            depth_name = depthAxis.getOriginalVariable().getFullName();
+            depthDbl = AxisLookup.forAxis((CoordinateAxis1D) GridData.getDataVariable(depth_name)).getValues();
+        }
+
+        int[] depthHeights = new int[latLonDepthHash.get(LON).length];
+        Map<Integer, List<Integer>> allDepths = new HashMap<Integer, List<Integer>>();
+        Boolean zeroDepths = true;
+
+        for (String vars : variableNames) {
+            if (vars.equalsIgnoreCase(DEPTH)) {
+                // we do want depths
+                zeroDepths = false;
+                if (this.latLonRequest.containsKey(DEPTH)) {
+                    depthHeights = checkAndGetDepthIndices(latLonDepthHash);
+                    for (int i = 0; i < depthHeights.length; i++) {
+                        List<Integer> oneVal = new ArrayList<Integer>();
+                        oneVal.add(depthHeights[i]);
+                        allDepths.put(i, oneVal);
+                    }
+                } else {
+                    List<Double> depthVals = this.getDepths(grid.getShortName());
+                    List<Integer> depthIndexList = new ArrayList<Integer>();
+                    for (int i = 0; i < depthVals.size(); i++) {
+                        depthIndexList.add(i);
+                    }
+                    for (int i = 0; i < latLonDepthHash.get(LON).length; i++) {
+                        allDepths.put(i, depthIndexList);
+                    }
                 }
-            } //if single event time        
-            else {
-               // get closest time
-            	CalendarDate dtStart = CalendarDateFormatter.isoStringToCalendarDate(null, eventTimes.get(0));
-            	long cDiff;
-            	long savedDiff = Long.MAX_VALUE;
-            	Integer currIndex = null;
-            	for(Integer timeIndex = 0; timeIndex <= timeIend; timeIndex++){
-                	CalendarDate cD = coordTime.getCalendarDate(timeIndex);
-
-            		cDiff = cD.getDifferenceInMsecs(dtStart);
-            		
-            		if(currIndex == null ||  Math.abs(cDiff) < savedDiff){
-            			savedDiff = Math.abs(cDiff);
-            			currIndex = timeIndex;
-            		}
-            	}
-            	timeIstart = currIndex;
-            	timeIend = currIndex;
+                break;
             }
-            double[] lonDbl = ((CoordinateAxis1D)GridData.getDataVariable(lon_name)).getCoordValues();
-            double[] latDbl = ((CoordinateAxis1D)GridData.getDataVariable(lat_name)).getCoordValues();
-            double[] depthDbl = null;
-
-            CoordinateAxis1D depthAxis = GridData.getGrids().get(0).getCoordinateSystem().getVerticalAxis();
-            if (depthAxis != null) {
-                depth_name = depthAxis.getOriginalVariable().getFullName();
-                depthDbl = ((CoordinateAxis1D)GridData.getDataVariable(depth_name)).getCoordValues();
+        }
+
+        if (zeroDepths) {
+            for (int i = 0; i < depthHeights.length; i++) {
+                List<Integer> oneVal = new ArrayList<Integer>();
+                oneVal.add(0);
+                allDepths.put(i, oneVal);
             }
+        }
 
-            Map<String, Integer[]> latLonDepthHash = findDataIndexs(lonDbl, latDbl, latLonRequest);
-
-            int[] depthHeights = new int[latLonDepthHash.get(LON).length];
-            Map<Integer, List<Integer>> allDepths = new HashMap<Integer, List<Integer>>();
-            Boolean zeroDepths = true;
-
-            for(String vars : variableNames) {
-                if(vars.equalsIgnoreCase(DEPTH)) {
-                    // we do want depths
-                    zeroDepths = false;
-                    if(this.latLonRequest.containsKey(DEPTH)){
-                    	depthHeights = checkAndGetDepthIndices(latLonDepthHash);
-                    	 for(int i=0; i<depthHeights.length; i++) {
-                    		 List<Integer> oneVal = new ArrayList<Integer>();
-                    		 oneVal.add(depthHeights[i]);
-                    		 allDepths.put(i, oneVal);
-                    	 }
-                    }
-                    else {
-                    	
-                    	List<Double> depthVals = this.getDepths(grid.getShortName());
-                    	List<Integer> depthIndexList = new ArrayList<Integer>();
-                    	for(int i=0; i <depthVals.size(); i++){
-                    		depthIndexList.add(i);
-                    	}
-                    	for(int i=0; i<latLonDepthHash.get(LON).length; i++) {
-                    		allDepths.put(i, depthIndexList);
-                    	}
+        List<String> names = new ArrayList<String>();
+        if (depthDbl != null)
+            names.add(depth_name);
+        names.add(lat_name);
+        names.add(lon_name);
+        List<GridDatatype> requestedGrids = new ArrayList<GridDatatype>();
+        for (GridDatatype dataGrid : GridData.getGrids()) {
+            if (isInVariableNames(dataGrid.getName())) {
+                requestedGrids.add(dataGrid);
+                names.add(dataGrid.getName());
+            }
+        }
+        if (timeRange == null || requestedGrids.isEmpty()) {
+            return BaseObservationCursor.empty(names.toArray(new String[names.size()]));
+        }
+        return new GridCursor(names.toArray(new String[names.size()]), stNum, coordTime, timeRange,
+                yIndices, xIndices, allDepths, locationLats, locationLons, depthDbl, requestedGrids);
+    }
+
+    /**
+     * Finds the time indices matching the requested event time(s): all times, the times
+     * within a requested range or the time closest to a single requested time
+     * @param coordTime time axis of the grids
+     * @param resumeTime time a paged request resumes at; Long.MIN_VALUE for none
+     * @return first and last time index; null if no time matches
+     */
+    private int[] getTimeIndexRange(CoordinateAxis1DTime coordTime, long resumeTime) {
+        AxisLookup times = AxisLookup.forTimeAxis(coordTime);
+        int timeIstart = -1;
+        int timeIend = -1;
+        if (this.eventTimes == null || this.eventTimes.isEmpty()) {
+            timeIstart = 0;
+            timeIend = times.size() - 1;
+        } else if (eventTimes.size() > 1) {
+            // find all times between two specified
+            CalendarDate dtStart = CalendarDateFormatter.isoStringToCalendarDate(null, eventTimes.get(0));
+            CalendarDate dtEnd = CalendarDateFormatter.isoStringToCalendarDate(null, eventTimes.get(1));
+            int[] indices = times.indicesBetween(dtStart.getMillis(), dtEnd.getMillis());
+            if (indices.length > 0) {
+                timeIstart = indices[0];
+                timeIend = indices[indices.length - 1];
+            }
+        } else {
+            // get closest time
+            CalendarDate dtStart = CalendarDateFormatter.isoStringToCalendarDate(null, eventTimes.get(0));
+            timeIstart = times.nearest(dtStart.getMillis());
+            timeIend = timeIstart;
+        }
+        // records are ordered by time first, so a paged request starts at its resume time
+        while (timeIstart >= 0 && timeIstart <= timeIend && times.getValue(timeIstart) < resumeTime) {
+            timeIstart++;
+        }
+        if (timeIstart < 0 || timeIend < timeIstart)
+            return null;
+        return new int[]{timeIstart, timeIend};
+    }
+
+    /**
+     * Reads the requested grids at the requested locations, one record per time, location
+     * and depth. The values of a record are the depth (if the grids have a vertical axis),
+     * latitude, longitude and one value per requested grid. Each grid is read as a
+     * [time, depth] column per location with one hyperslab read per block of time steps,
+     * and records are then taken from those columns.
+     */
+    private static class GridCursor extends BaseObservationCursor {
+
+        // number of time steps read at once per location and grid
+        private static final int TIME_BLOCK = 1024;
+
+        private final CoordinateAxis1DTime coordTime;
+        private final int timeEnd;
+        private final Integer[] latIndices;
+        private final Integer[] lonIndices;
+        private final Map<Integer, List<Integer>> allDepths;
+        private final double[] locationLats;
+        private final double[] locationLons;
+        private final double[] depthDbl;
+        private final List<GridDatatype> grids;
+        // position of the time, z, y and x dimension of each grid's variable; -1 if absent
+        private final int[][] dimensions;
+        private final int firstGrid;
+        // columns of the current block of time steps, per location and grid
+        private final Array[][] columns;
+        private final int[] depthMin;
+        private final int[] depthMax;
+
+        private int timeIndex;
+        private int depthPosition = -1;
+        private int blockStart = -1;
+        private int blockEnd = -1;
+
+        GridCursor(String[] variableNames, int stNum, CoordinateAxis1DTime coordTime, int[] timeRange,
+                   Integer[] latIndices, Integer[] lonIndices, Map<Integer, List<Integer>> allDepths,
+                   double[] locationLats, double[] locationLons, double[] depthDbl, List<GridDatatype> grids) {
+            super(variableNames);
+            this.stationIndex = stNum;
+            this.coordTime = coordTime;
+            this.timeIndex = timeRange[0];
+            this.timeEnd = timeRange[1];
+            this.latIndices = latIndices;
+            this.lonIndices = lonIndices;
+            this.allDepths = allDepths;
+            this.locationLats = locationLats;
+            this.locationLons = locationLons;
+            this.depthDbl = depthDbl;
+            this.grids = grids;
+            this.dimensions = new int[grids.size()][];
+            for (int l = 0; l < grids.size(); l++) {
+                this.dimensions[l] = findDimensions(grids.get(l));
+            }
+            this.firstGrid = (depthDbl != null) ? 3 : 2;
+            this.columns = new Array[latIndices.length][grids.size()];
+            this.depthMin = new int[latIndices.length];
+            this.depthMax = new int[latIndices.length];
+            for (int loc = 0; loc < latIndices.length; loc++) {
+                List<Integer> depths = allDepths.get(loc);
+                depthMin[loc] = depths.isEmpty() ? 0 : Collections.min(depths);
+                depthMax[loc] = depths.isEmpty() ? 0 : Collections.max(depths);
+            }
+        }
+
+        /**
+         * Finds the time, z, y and x dimensions of a grid in its variable. The grid's own
+         * dimension indices are in canonical order, while the variable may store its
+         * dimensions in any order and is read in that order.
+         */
+        private static int[] findDimensions(GridDatatype grid) {
+            VariableDS var = grid.getVariable();
+            return new int[]{findDimension(var, grid.getTimeDimension()), findDimension(var, grid.getZDimension()),
+                    findDimension(var, grid.getYDimension()), findDimension(var, grid.getXDimension())};
+        }
+
+        private static int findDimension(VariableDS var, Dimension dimension) {
+            return (dimension == null) ? -1 : var.findDimensionIndex(dimension.getShortName());
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            // loop order: time, location, depth
+            while (timeIndex <= timeEnd) {
+                if (location < latIndices.length) {
+                    List<Integer> depths = allDepths.get(location);
+                    if (++depthPosition < depths.size()) {
+                        readRecord(depths.get(depthPosition));
+                        return true;
                     }
-                    break;
+                    depthPosition = -1;
+                    location++;
+                } else {
+                    location = 0;
+                    timeIndex++;
                 }
             }
-            
-            if (zeroDepths) {
-                for(int i=0; i<depthHeights.length; i++) {
-                    List<Integer> oneVal = new ArrayList<Integer>();
-           		 	oneVal.add(0);
-           		 	allDepths.put(i, oneVal);
-                }
+            return false;
+        }
+
+        private void readRecord(int depthIndex) throws IOException {
+            if (timeIndex > blockEnd)
+                readBlock();
+            time = coordTime.getCalendarDate(timeIndex).getMillis();
+            int v = 0;
+            if (depthDbl != null) {
+                setValue(v++, depthDbl[depthIndex], DataType.DOUBLE);
+                bin = depthIndex;
             }
+            setValue(v++, locationLats[location], DataType.DOUBLE);
+            setValue(v, locationLons[location], DataType.DOUBLE);
+            for (int l = 0; l < grids.size(); l++) {
+                Array column = columns[location][l];
+                Index index = column.getIndex();
+                if (dimensions[l][0] >= 0)
+                    index.setDim(dimensions[l][0], timeIndex - blockStart);
+                if (dimensions[l][1] >= 0)
+                    index.setDim(dimensions[l][1], depthIndex - depthMin[location]);
+                setValue(firstGrid + l, column.getFloat(index), DataType.FLOAT);
+            }
+        }
 
-            for(Integer timeIndex = timeIstart; timeIndex <= timeIend; timeIndex++){
-            	for (int k=0; k<latLonDepthHash.get(LAT).length; k++) {
-            		for(Integer depthIndex : allDepths.get(k)){
-
-            			CalendarDate cD = coordTime.getCalendarDate(timeIndex);
-            			String startStr = "";
-
-            			//modify for requested dates, add in for loop
-            			startStr = addDateEntry(cD);
-
-            			// add depth
-            			if(depthDbl != null) {
-            				startStr += (depth_name)+("=")+(depthDbl[depthIndex])+(",");
-            				startStr += (BIN_STR)+(depthIndex)+(",");
-            				//builder.append(depth_name).append("=").append(depthDbl[depthIndex]).append(",");
-            				//builder.append(BIN_STR).append(depthIndex).append(",");
-            			}
-            			startStr += (STATION_STR + stNum) +(",");
-
-            			startStr += lat_name + "="+latDbl[latLonDepthHash.get(LAT)[k]]+(",");
-            			startStr += lon_name + ("=") + (lonDbl[latLonDepthHash.get(LON)[k]]) +(",");
-            			
-            			
-            			//builder.append(STATION_STR + stNum).append(",");
-
-            			//builder.append(lat_name).append("=").append(latDbl[latLonDepthHash.get(LAT)[k]]).append(",");
-            			//builder.append(lon_name).append("=").append(lonDbl[latLonDepthHash.get(LON)[k]]).append(",");
-            			// get data slices
-            			String dataName;
-            			for (int l=0; l<GridData.getGrids().size();l++) {
-            				dataName = GridData.getGrids().get(l).getName();
-            				if (isInVariableNames(GridData.getGrids().get(l).getName())) {
-            					try {
-                    				builder.append(startStr);
-
-            						grid = GridData.getGrids().get(l);
-            						int latI = latLonDepthHash.get(LAT)[k];
-            						int lonI = latLonDepthHash.get(LON)[k];
-            						data = grid.readDataSlice(timeIndex, depthIndex, latI, lonI);
-            						builder.append(dataName).append("=").append(data.getFloat(0)).append(";");
-            					} catch (Exception ex) {
-            						System.out.println("Error in reading data slice, index " + l + " - " + ex.getMessage());
-            						builder.delete(0, builder.length());
-            						builder.append("ERROR= reading data slice from GridData: ").append(ex.getLocalizedMessage());
-            						return builder.toString();
-            					}
-            				}
-            			}
-            			//if(builder.length() > 0)
-            			//	builder.deleteCharAt(builder.length()-1);
-            			//builder.append(";");
-            		}
-            	}
+        /**
+         * Reads the columns of every location and grid for the next block of time steps
+         */
+        private void readBlock() throws IOException {
+            blockStart = timeIndex;
+            blockEnd = Math.min(timeIndex + TIME_BLOCK - 1, timeEnd);
+            for (int loc = 0; loc < latIndices.length; loc++) {
+                for (int l = 0; l < grids.size(); l++) {
+                    columns[loc][l] = readColumn(grids.get(l), dimensions[l], loc);
+                }
             }
-            //builder.append(" ").append("\n");
-            return builder.toString();
         }
-        return DATA_RESPONSE_ERROR + Grid.class;
 
+        /**
+         * Reads the [blockStart:blockEnd, depthMin:depthMax] column of a grid at a location;
+         * the array keeps the dimensions of the grid's variable, in the variable's order
+         * @param dims position of the time, z, y and x dimension in the variable
+         */
+        private Array readColumn(GridDatatype grid, int[] dims, int loc) throws IOException {
+            VariableDS var = grid.getVariable();
+            List<Range> ranges = new ArrayList<Range>();
+            try {
+                for (int d = 0; d < var.getRank(); d++) {
+                    if (d == dims[0])
+                        ranges.add(new Range(blockStart, blockEnd));
+                    else if (d == dims[1])
+                        ranges.add(new Range(depthMin[loc], depthMax[loc]));
+                    else if (d == dims[2])
+                        ranges.add(new Range(latIndices[loc], latIndices[loc]));
+                    else if (d == dims[3])
+                        ranges.add(new Range(lonIndices[loc], lonIndices[loc]));
+                    else
+                        ranges.add(new Range(0, 0));
+                }
+                return var.read(ranges);
+            } catch (InvalidRangeException ex) {
+                throw new IOException("could not read " + grid.getName() + ": " + ex.getMessage());
+            }
+        }
     }
 
     @Override
@@ -407,19 +555,28 @@ public class Grid extends baseCDMClass implements iStationData {
     }
 
     public double getClosestLat(int stNum){
-  
-        String lat_name   = GridData.getGrids().get(0).getCoordinateSystem().getYHorizAxis().getOriginalVariable().getFullName();
-        String lon_name   = GridData.getGrids().get(0).getCoordinateSystem().getXHorizAxis().getOriginalVariable().getFullName();
-        double[] lonDbl = ((CoordinateAxis1D)GridData.getDataVariable(lon_name)).getCoordValues();
-        double[] latDbl = ((CoordinateAxis1D)GridData.getDataVariable(lat_name)).getCoordValues();
-        return latDbl[this.findBestIndexLon(latDbl, (Double.valueOf( this.latLonRequest.get(LAT).split(",")[0])))];
+        GridCoordSystem gcs = GridData.getGrids().get(0).getCoordinateSystem();
+        CurvilinearIndex curvilinear = getCurvilinearIndex(gcs);
+        if (curvilinear != null) {
+            int[] cell = nearestCurvilinearCell(curvilinear);
+            return curvilinear.getLat(cell[0], cell[1]);
+        }
+        String lat_name   = gcs.getYHorizAxis().getOriginalVariable().getFullName();
+        AxisLookup latLookup = AxisLookup.forAxis((CoordinateAxis1D) GridData.getDataVariable(lat_name));
+        return latLookup.getValue(latLookup.nearest(Double.valueOf(this.latLonRequest.get(LAT).split(",")[0])));
 
     }
     
     public double getClosestLon(int stNum){
-    	   String lon_name   = GridData.getGrids().get(0).getCoordinateSystem().getXHorizAxis().getOriginalVariable().getFullName();
-           double[] lonDbl = ((CoordinateAxis1D)GridData.getDataVariable(lon_name)).getCoordValues();
-           return lonDbl[this.findBestIndexLon(lonDbl, (Double.valueOf( this.latLonRequest.get(LON).split(",")[0])))];
+           GridCoordSystem gcs = GridData.getGrids().get(0).getCoordinateSystem();
+           CurvilinearIndex curvilinear = getCurvilinearIndex(gcs);
+           if (curvilinear != null) {
+               int[] cell = nearestCurvilinearCell(curvilinear);
+               return curvilinear.getLon(cell[0], cell[1]);
+           }
+    	   String lon_name   = gcs.getXHorizAxis().getOriginalVariable().getFullName();
+           AxisLookup lonLookup = AxisLookup.forAxis((CoordinateAxis1D) GridData.getDataVariable(lon_name));
+           return lonLookup.getValue(lonLookup.nearestLon(Double.valueOf(this.latLonRequest.get(LON).split(",")[0])));
     }
     
  
@@ -548,7 +705,7 @@ public class Grid extends baseCDMClass implements iStationData {
      * @param latLonRequest map with the latitude and longitude request(s)
      * @return map with arrays of indices for latitude and longitude
      */
-    private Map<String, Integer[]> findDataIndexs(double[] lonDbl, double[] latDbl, Map<String, String> latLonRequest) {
+    private Map<String, Integer[]> findDataIndexs(AxisLookup lonLookup, AxisLookup latLookup, Map<String, String> latLonRequest) {
         Map<String, Integer[]> latLonIndex = new HashMap<String, Integer[]>();
         String lonVal = latLonRequest.get(LON);
         String latVal = latLonRequest.get(LAT);
@@ -578,7 +735,7 @@ public class Grid extends baseCDMClass implements iStationData {
             try {
                 if (lons[j].contains("_")) {
                     String[] bounds = lons[j].split("_");
-                    requestedLons = arrayFromValueRange(bounds, lonDbl, requestedLons);
+                    requestedLons = arrayFromValueRange(bounds, lonLookup, requestedLons);
                 } else {
                     requestedLons[j] = Double.parseDouble(lons[j]);
                 }
@@ -591,7 +748,7 @@ public class Grid extends baseCDMClass implements iStationData {
             try {
                 if (lats[k].contains("_")) {
                     String[] bounds = lats[k].split("_");
-                    requestedLats = arrayFromValueRange(bounds, latDbl, requestedLats);
+                    requestedLats = arrayFromValueRange(bounds, latLookup, requestedLats);
                 } else {
                     requestedLats[k] = Double.parseDouble(lats[k]);
                 }
@@ -609,15 +766,15 @@ public class Grid extends baseCDMClass implements iStationData {
         // get our indices
         for(int i=0;i<requestedArrayLength;i++) {
             if(requestedLons.length > i) {
-                retLons[i] = findBestIndexLon(lonDbl, requestedLons[i]);
+                retLons[i] = lonLookup.nearestLon(requestedLons[i]);
             } else {
-                retLons[i] = findBestIndexLon(lonDbl, requestedLons[requestedLons.length - 1]);
+                retLons[i] = lonLookup.nearestLon(requestedLons[requestedLons.length - 1]);
             }
 
             if(requestedLats.length > i) {
-                retLats[i] = findBestIndex(latDbl, requestedLats[i]);
+                retLats[i] = latLookup.nearest(requestedLats[i]);
             } else {
-                retLats[i] = findBestIndex(latDbl, requestedLats[requestedLats.length - 1]);
+                retLats[i] = latLookup.nearest(requestedLats[requestedLats.length - 1]);
             }
         }
 
@@ -629,14 +786,105 @@ public class Grid extends baseCDMClass implements iStationData {
 
     }
     
+    /**
+     * @param gcs coordinate system of the grids
+     * @return the spatial index of the grid cells if the grids have 2D latitudes and longitudes; null otherwise
+     */
+    private CurvilinearIndex getCurvilinearIndex(GridCoordSystem gcs) {
+        // without a projection, the horizontal axes of a curvilinear grid are its 2D latitudes and longitudes
+        if (gcs.getYHorizAxis() instanceof CoordinateAxis2D && gcs.getXHorizAxis() instanceof CoordinateAxis2D) {
+            return CurvilinearIndex.forAxes((CoordinateAxis2D) gcs.getYHorizAxis(), (CoordinateAxis2D) gcs.getXHorizAxis());
+        }
+        return null;
+    }
+
+    /**
+     * @return the cell closest to the first requested location
+     */
+    private int[] nearestCurvilinearCell(CurvilinearIndex curvilinear) {
+        double lat = Double.valueOf(this.latLonRequest.get(LAT).split(",")[0].split("_")[0]);
+        double lon = Double.valueOf(this.latLonRequest.get(LON).split(",")[0].split("_")[0]);
+        return curvilinear.nearest(lat, lon);
+    }
+
+    /**
+     * Finds the y and x indices of the requested locations of a curvilinear grid. Requested
+     * latitudes and longitudes are paired in order; a pair of ranges ("min_max") selects every
+     * cell within the box, any other pair the cell closest to it (the middle of a range).
+     * @param curvilinear spatial index of the grid cells
+     * @param latLonRequest requested latitudes and longitudes
+     * @return y indices under LAT and x indices under LON
+     * @throws IOException if a requested location can not be parsed; requests are checked
+     * with {@link #parseBounds(String)} before they get here
+     */
+    private Map<String, Integer[]> findCurvilinearIndexs(CurvilinearIndex curvilinear, Map<String, String> latLonRequest)
+            throws IOException {
+        String[] lats = latLonRequest.get(LAT).split(",");
+        String[] lons = latLonRequest.get(LON).split(",");
+        List<Integer> yIndices = new ArrayList<Integer>();
+        List<Integer> xIndices = new ArrayList<Integer>();
+        int count = Math.max(lats.length, lons.length);
+        for (int i = 0; i < count; i++) {
+            double[] latBounds, lonBounds;
+            try {
+                latBounds = parseBounds(lats[Math.min(i, lats.length - 1)]);
+                lonBounds = parseBounds(lons[Math.min(i, lons.length - 1)]);
+            } catch (IllegalArgumentException ex) {
+                _log.warn("Could not find the requested location of the grid: " + ex.getMessage());
+                throw new IOException(ex.getMessage(), ex);
+            }
+            List<int[]> cells;
+            if (latBounds.length == 2 && lonBounds.length == 2) {
+                cells = curvilinear.within(Math.min(latBounds[0], latBounds[1]), Math.max(latBounds[0], latBounds[1]),
+                        lonBounds[0], lonBounds[1]);
+            } else {
+                double lat = (latBounds.length == 2) ? (latBounds[0] + latBounds[1]) / 2 : latBounds[0];
+                double lon = (lonBounds.length == 2) ? (lonBounds[0] + lonBounds[1]) / 2 : lonBounds[0];
+                cells = new ArrayList<int[]>();
+                int[] cell = curvilinear.nearest(lat, lon);
+                if (cell != null)
+                    cells.add(cell);
+            }
+            for (int[] cell : cells) {
+                yIndices.add(cell[0]);
+                xIndices.add(cell[1]);
+            }
+        }
+        Map<String, Integer[]> latLonIndex = new HashMap<String, Integer[]>();
+        latLonIndex.put(LAT, yIndices.toArray(new Integer[yIndices.size()]));
+        latLonIndex.put(LON, xIndices.toArray(new Integer[xIndices.size()]));
+        return latLonIndex;
+    }
+
+    /**
+     * Parses a requested latitude or longitude
+     * @param value a single value or a "min_max" range
+     * @return the value or the two bounds
+     * @throws IllegalArgumentException if the value is neither
+     */
+    public static double[] parseBounds(String value) {
+        String[] bounds = value.split("_", -1);
+        if (bounds.length > 2)
+            throw new IllegalArgumentException("Invalid coordinate " + value);
+        double[] parsed = new double[bounds.length];
+        try {
+            for (int i = 0; i < bounds.length; i++) {
+                parsed[i] = Double.parseDouble(bounds[i]);
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid coordinate " + value, ex);
+        }
+        return parsed;
+    }
+
     /**
      * iterate through the arrayToSearch array for values that lie in out boundaries
      * @param bounds the upper & lower bounds of the desired values
-     * @param arrayToSearch array to search for values inside given bounds
+     * @param axisToSearch axis to search for values inside given bounds
      * @param arrayToExpand the array to add the desired values to
      * @return arrayToExpand with the new values added
      */
-    private double[] arrayFromValueRange(String[] bounds, double[] arrayToSearch, double[] arrayToExpand) {
+    private double[] arrayFromValueRange(String[] bounds, AxisLookup axisToSearch, double[] arrayToExpand) {
         double minVal, maxVal;
         try {
             minVal = Double.parseDouble(bounds[0]);
@@ -654,68 +902,15 @@ public class Grid extends baseCDMClass implements iStationData {
             minVal = maxVal;
             maxVal = temp;
         }
-        // looking for a range of doubles, iterate through the arrayToSearch array for values that lie in out boundaries
-        ArrayList<Double> builder = new ArrayList<Double>();
-        for (int k=0;k<arrayToExpand.length;k++) {
-            builder.add(arrayToExpand[k]);
-        }
-        for (int l=0;l<arrayToSearch.length;l++) {
-            if (arrayToSearch[l] >= minVal && arrayToSearch[l] <= maxVal) {
-                builder.add(arrayToSearch[l]);
-            }
-        }
-        arrayToExpand = new double[builder.size()];
-        for(int i=0;i<builder.size();i++) {
-            arrayToExpand[i] = builder.get(i).doubleValue();
+        // looking for a range of doubles, append the axis values that lie in our boundaries
+        int[] indices = axisToSearch.indicesBetween(minVal, maxVal);
+        double[] expanded = Arrays.copyOf(arrayToExpand, arrayToExpand.length + indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            expanded[arrayToExpand.length + i] = axisToSearch.getValue(indices[i]);
         }
-        return arrayToExpand;
+        return expanded;
     }
     
-    /**
-     * iterate through valueArray to find the index with the value closest to 'valueToFind'
-     * @param valueArray array to iterate through
-     * @param valueToFind value to find
-     * @return index of value closest to 'valueToFind'
-     */
-    private int findBestIndex(double[] valueArray, double valueToFind){
-        // iterate through the array to find the index with the value closest to 'valueToFind'
-        double bestDiffValue = Double.MAX_VALUE;
-        int retIndex = -1;
-        for(int i=0; i<valueArray.length; i++) {
-           double curDiffValue = valueArray[i] - valueToFind;
-           if(Math.abs(curDiffValue) < bestDiffValue) {
-               bestDiffValue = Math.abs(curDiffValue);
-               retIndex = i;
-           }
-        }
-        return retIndex;
-    }
-
-    private int findBestIndexLon(double[] valueArray, double valueToFind){
-        // iterate through the array to find the index with the value closest to 'valueToFind'
-        double bestDiffValue = Double.MAX_VALUE;
-        int retIndex = -1;
-        double uValueToFind = valueToFind % 360; // make 0-360
-        for(int i=0; i<valueArray.length; i++) {
-        	double cVal = valueArray[i] % 360;
-        	double curDiffValue;
-    		curDiffValue = cVal - uValueToFind;
-    		double meth2;
-        	 if(uValueToFind > cVal){
-        		   meth2 = (360 - uValueToFind) + cVal;
-        	 }
-        	 else{
-        		 meth2 = (360 - cVal) + uValueToFind;
-        	 }        	   
-        	 curDiffValue = Math.min(curDiffValue, meth2);
-       
-        	if(Math.abs(curDiffValue) < bestDiffValue) {
-               bestDiffValue = Math.abs(curDiffValue);
-               retIndex = i;
-           }
-        }
-        return retIndex;
-    }
     public List<String> getLocationsString(int stNum) {
         List<String> retval = new ArrayList<String>();
         retval.add(this.getLowerLat(stNum) + " " + this.getLowerLon(stNum));
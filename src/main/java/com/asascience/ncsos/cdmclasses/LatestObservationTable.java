@@ -0,0 +1,219 @@
+package com.asascience.ncsos.cdmclasses;
+
+import com.asascience.ncsos.util.LruCache;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
+import ucar.nc2.Dimension;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latest observation of every station of a multidimensional time series dataset, one
+ * column per variable, so that "latest" requests for any set of stations are answered
+ * without reading the dataset again. A column is read for all stations the first time a
+ * variable is requested.
+ * <p>
+ * Tables are shared between requests; they are keyed by the dataset location and belong
+ * to one {@link StationTimeIndex}. The index is rebuilt once the dataset is modified (e.g.
+ * its unlimited dimension grows), and the table with it.
+ */
+final class LatestObservationTable {
+
+    /** System property used to override the number of datasets kept */
+    public static final String MAX_ENTRIES_PROPERTY = "ncsos.latestTable.maxEntries";
+    private static final int DEFAULT_MAX_ENTRIES = 32;
+
+    private static final LruCache<String, LatestObservationTable> cache =
+            new LruCache<String, LatestObservationTable>(Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+
+    private final StationTimeIndex timeIndex;
+    private final Map<String, Column> columns = new HashMap<String, Column>();
+
+    private LatestObservationTable(StationTimeIndex timeIndex) {
+        this.timeIndex = timeIndex;
+    }
+
+    /**
+     * Returns the table of a dataset, creating it on first use
+     * @param dataset the open dataset
+     * @param timeIndex current time index of the dataset
+     * @return the table
+     */
+    static LatestObservationTable get(NetcdfDataset dataset, StationTimeIndex timeIndex) {
+        String location = dataset.getLocation();
+        if (location == null)
+            return new LatestObservationTable(timeIndex);
+        synchronized (cache) {
+            LatestObservationTable table = cache.get(location);
+            if (table == null || table.timeIndex != timeIndex) {
+                table = new LatestObservationTable(timeIndex);
+                cache.put(location, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Removes all cached tables
+     */
+    static void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Opens a cursor over the latest observation of a station
+     * @param dataset the open dataset, read for the variables not in the table yet
+     * @param variableNames variables of the record
+     * @param stationIndex station index of the record
+     * @param fileStation index of an indexed station in the dataset
+     * @return the cursor; null if a variable is not dimensioned by station and time only
+     * @throws IOException if a variable could not be read
+     */
+    ObservationCursor cursor(NetcdfDataset dataset, String[] variableNames, int stationIndex, int fileStation)
+            throws IOException {
+        if (timeIndex.getCount(fileStation) == 0)
+            return BaseObservationCursor.empty(variableNames);
+        final Column[] row = new Column[variableNames.length];
+        for (int i = 0; i < variableNames.length; i++) {
+            row[i] = getColumn(dataset, variableNames[i]);
+            if (row[i] == null)
+                return null;
+        }
+        final int station = fileStation;
+        final long latest = timeIndex.getTime(fileStation, timeIndex.getCount(fileStation) - 1);
+        BaseObservationCursor cursor = new BaseObservationCursor(variableNames) {
+            private boolean read = false;
+
+            @Override
+            public boolean next() {
+                if (read)
+                    return false;
+                read = true;
+                time = latest;
+                for (int i = 0; i < row.length; i++) {
+                    int index = row[i].shared ? 0 : station;
+                    if (row[i].strings != null)
+                        setValue(i, row[i].strings[index]);
+                    else
+                        setValue(i, row[i].values[index], row[i].type);
+                }
+                return true;
+            }
+        };
+        cursor.stationIndex = stationIndex;
+        return cursor;
+    }
+
+    private Column getColumn(NetcdfDataset dataset, String variableName) throws IOException {
+        synchronized (columns) {
+            if (columns.containsKey(variableName))
+                return columns.get(variableName);
+        }
+        Column column = readColumn(dataset, variableName);
+        synchronized (columns) {
+            columns.put(variableName, column);
+        }
+        return column;
+    }
+
+    /**
+     * Reads the latest value of a variable for every station
+     * @return the column; null if the variable is not dimensioned by station and time only
+     */
+    private Column readColumn(NetcdfDataset dataset, String variableName) throws IOException {
+        Variable var = dataset.findVariable(variableName);
+        if (var == null || !(var.getDataType().isNumeric() || var.getDataType().isString()))
+            return null;
+        int stationAxis = -1;
+        int obsAxis = -1;
+        List<Dimension> dims = var.getDimensions();
+        for (int d = 0; d < dims.size(); d++) {
+            String name = dims.get(d).getShortName();
+            if (name != null && name.equals(timeIndex.getStationDimension()))
+                stationAxis = d;
+            else if (name != null && name.equals(timeIndex.getObsDimension()))
+                obsAxis = d;
+            else
+                return null;
+        }
+        int numStations = (stationAxis >= 0) ? var.getShape()[stationAxis] : 1;
+        Column column = new Column(numStations, var.getDataType(), stationAxis < 0);
+        try {
+            if (timeIndex.isOrthogonal()) {
+                // stations share their times, so their latest values are one slice of the variable
+                int count = timeIndex.getCount(0);
+                if (count == 0)
+                    return column;
+                int obs = timeIndex.getObsIndex(0, count - 1);
+                Array slice = var.read(getSection(var, stationAxis, obsAxis, -1, obs));
+                for (int s = 0; s < numStations; s++) {
+                    column.set(s, slice, (stationAxis >= 0) ? s : 0);
+                }
+            } else {
+                for (int s = 0; s < numStations; s++) {
+                    if (!timeIndex.isIndexed(s) || timeIndex.getCount(s) == 0)
+                        continue;
+                    int obs = timeIndex.getObsIndex(s, timeIndex.getCount(s) - 1);
+                    column.set(s, var.read(getSection(var, stationAxis, obsAxis, s, obs)), 0);
+                }
+            }
+        } catch (InvalidRangeException ex) {
+            throw new IOException("could not read the latest values of " + variableName + ": " + ex.getMessage());
+        }
+        return column;
+    }
+
+    /**
+     * @param station index of the station to read; -1 for all stations
+     * @param obs index of the observation to read
+     */
+    private static Section getSection(Variable var, int stationAxis, int obsAxis, int station, int obs)
+            throws InvalidRangeException {
+        List<Range> ranges = new ArrayList<Range>();
+        for (int d = 0; d < var.getRank(); d++) {
+            if (d == stationAxis)
+                ranges.add((station < 0) ? new Range(0, var.getShape()[d] - 1) : new Range(station, station));
+            else if (d == obsAxis)
+                ranges.add(new Range(obs, obs));
+        }
+        return new Section(ranges);
+    }
+
+    /**
+     * Latest value of a variable for every station
+     */
+    private static final class Column {
+        final DataType type;
+        // the variable has no station dimension, so its one value is every station's
+        final boolean shared;
+        final double[] values;
+        // only allocated for non numeric variables
+        final String[] strings;
+
+        Column(int numStations, DataType type, boolean shared) {
+            this.type = type;
+            this.shared = shared;
+            this.values = new double[numStations];
+            this.strings = type.isNumeric() ? null : new String[numStations];
+            Arrays.fill(values, Double.NaN);
+        }
+
+        void set(int station, Array array, int index) {
+            if (strings != null)
+                strings[station] = String.valueOf(array.getObject(index));
+            else
+                values[station] = array.getDouble(index);
+        }
+    }
+}
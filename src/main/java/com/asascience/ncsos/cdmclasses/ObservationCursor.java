@@ -0,0 +1,91 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.ma2.DataType;
+
+import java.io.IOException;
+
+/**
+ * Pull based, typed access to the observations of one requested station (or feature).
+ * The cursor is positioned before the first record; each call to {@link #next()} moves
+ * it to the following record, whose time, station index, profile bin and values can
+ * then be read without any intermediate strings.
+ * A cursor holds resources of the underlying dataset and must be closed.
+ * @see iStationData#getObservationCursor(int)
+ */
+public interface ObservationCursor {
+
+    /** Station index of records that are not tied to a station (trajectories, sections) */
+    int NO_STATION = -1;
+    /** Bin of records that are not part of a profile */
+    int NO_BIN = -1;
+
+    /**
+     * @return names of the variables of every record, in the order of their indices
+     */
+    String[] getVariableNames();
+
+    /**
+     * Moves to the next record
+     * @return false when there are no more records
+     * @throws IOException if the data could not be read
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return time of the current record, in milliseconds since the epoch
+     */
+    long getTime();
+
+    /**
+     * @return station index of the current record; {@link #NO_STATION} if not applicable
+     */
+    int getStationIndex();
+
+    /**
+     * @return index of the profile bin (height/depth) of the current record; {@link #NO_BIN} if not applicable
+     */
+    int getBin();
+
+    /**
+     * @return index of the location of the current record among the locations the cursor
+     * reads (e.g. the points of a grid request); 0 for cursors over a single location
+     */
+    int getLocation();
+
+    /**
+     * @param variable index of the variable
+     * @return whether the value of the variable is numeric; non numeric values are read with {@link #getStringValue(int)}
+     */
+    boolean isNumeric(int variable);
+
+    /**
+     * @param variable index of the variable
+     * @return numeric value of the variable in the current record; NaN for non numeric values
+     */
+    double getValue(int variable);
+
+    /**
+     * @param variable index of the variable
+     * @return value of a non numeric variable in the current record; null for numeric values
+     */
+    String getStringValue(int variable);
+
+    /**
+     * @param variable index of the variable
+     * @return data type of the value of the variable in the current record
+     */
+    DataType getDataType(int variable);
+
+    /**
+     * Formats a value with the precision of the variable's data type
+     * (e.g. a float is written as a float, not as a widened double)
+     * @param variable index of the variable
+     * @return the value of the variable in the current record
+     */
+    String formatValue(int variable);
+
+    /**
+     * Releases the resources held by the cursor
+     */
+    void close();
+}
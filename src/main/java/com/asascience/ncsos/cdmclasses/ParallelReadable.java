@@ -0,0 +1,23 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.IOException;
+
+/**
+ * Data sets whose stations can also be read from another open copy of the dataset, so
+ * that several stations of a request can be read at once on separate threads.
+ */
+public interface ParallelReadable {
+
+    /**
+     * Opens a cursor over the observations of a requested station, read from a copy of the
+     * dataset rather than the one given to {@link iStationData#setData(Object)}
+     * @param stNum index of the station in the request
+     * @param featureCollection feature collection of the copy
+     * @param dataset the copy
+     * @return cursor to be closed by the caller
+     * @throws IOException if the data could not be read
+     */
+    public ObservationCursor getObservationCursor(int stNum, Object featureCollection, NetcdfDataset dataset) throws IOException;
+}
@@ -0,0 +1,97 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.nc2.ft.PointFeature;
+import ucar.nc2.ft.PointFeatureIterator;
+
+import java.io.IOException;
+
+/**
+ * Cursor over the point features of one or more point feature iterators, keeping the
+ * points whose time lies in a window. Subclasses reading several features (e.g. the
+ * profiles of a station) supply the following iterators through {@link #nextIterator()}.
+ */
+class PointFeatureCursor extends BaseObservationCursor {
+
+    private final long start;
+    private final long end;
+    private PointFeatureIterator iterator;
+    private int skip = 0;
+    private boolean sorted = false;
+
+    /**
+     * @param variableNames variables read from every point
+     * @param stationIndex station index of every record
+     * @param iterator first iterator; may be null if {@link #nextIterator()} supplies them all
+     * @param start earliest time kept, in millis
+     * @param end latest time kept, in millis
+     */
+    PointFeatureCursor(String[] variableNames, int stationIndex, PointFeatureIterator iterator, long start, long end) {
+        super(variableNames);
+        this.stationIndex = stationIndex;
+        this.iterator = iterator;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Declares the points of the iterator to be in time order, so that reading stops at the
+     * first point after the window. Point feature iterators cannot seek: the leading points
+     * known to be before the window are still read by the iterator, and only discarded here
+     * without their time being checked or their values copied.
+     * @param skip number of leading points before the window
+     */
+    void setSortedWindow(int skip) {
+        this.skip = skip;
+        this.sorted = true;
+    }
+
+    /**
+     * @return the iterator to read once the current one is exhausted; null when done
+     */
+    protected PointFeatureIterator nextIterator() throws IOException {
+        return null;
+    }
+
+    /**
+     * Makes a point the current record
+     */
+    protected void readRecord(PointFeature point) throws IOException {
+        time = point.getObservationTimeAsCalendarDate().getMillis();
+        readValues(point.getData());
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (true) {
+            if (iterator == null) {
+                iterator = nextIterator();
+                if (iterator == null)
+                    return false;
+            }
+            while (iterator.hasNext()) {
+                PointFeature point = iterator.next();
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                long pointTime = point.getObservationTimeAsCalendarDate().getMillis();
+                if (pointTime >= start && pointTime <= end) {
+                    readRecord(point);
+                    return true;
+                }
+                if (sorted && pointTime > end)
+                    break;
+            }
+            iterator.finish();
+            iterator = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (iterator != null) {
+            iterator.finish();
+            iterator = null;
+        }
+    }
+}
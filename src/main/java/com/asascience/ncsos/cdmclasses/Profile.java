@@ -11,10 +11,8 @@ import org.joda.time.DateTime;
 import org.w3c.dom.Document;
 
 import ucar.nc2.ft.PointFeature;
-import ucar.nc2.ft.PointFeatureIterator;
 import ucar.nc2.ft.ProfileFeature;
 import ucar.nc2.ft.ProfileFeatureCollection;
-import ucar.nc2.units.DateFormatter;
 import ucar.unidata.geoloc.Station;
 
 import java.io.IOException;
@@ -22,8 +20,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * Provides methods to gather information from Profile datasets needed for requests: GetCapabilities, GetObservations
@@ -196,18 +192,21 @@ public class Profile extends baseCDMClass implements iStationData {
     }
 
     @Override
-    public String getDataResponse(int stNum) {
-        try {
-            if (profileData != null && profileList.containsKey(stNum)) {
-                return createProfileFeature(stNum);
-            } else {
-                _log.warn("profileData " + stNum + " is null, not creating a string");
-            }
-        } catch (IOException ex) {
-            Logger.getLogger(Profile.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + Profile.class;
+    public ObservationCursor getObservationCursor(int stNum) throws IOException {
+        if (profileData == null || profileList == null || !profileList.containsKey(stNum)) {
+            _log.warn("profileData " + stNum + " is null, no observations");
+            return BaseObservationCursor.empty(variableNames);
         }
-        return DATA_RESPONSE_ERROR + Profile.class;
+        final ProfileFeature pFeature = profileList.get(stNum);
+        // every point of a profile is reported at the time of the profile
+        return new PointFeatureCursor(variableNames, stNum, pFeature.getPointFeatureIterator(-1),
+                Long.MIN_VALUE, Long.MAX_VALUE) {
+            @Override
+            protected void readRecord(PointFeature point) throws IOException {
+                super.readRecord(point);
+                time = pFeature.getTime().getTime();
+            }
+        };
     }
 
     @Override
@@ -292,58 +291,6 @@ public class Profile extends baseCDMClass implements iStationData {
     
     /**************************************************************************/
     
-    private void addProfileData(List<String> valueList, DateFormatter dateFormatter, StringBuilder builder, ProfileFeature profileFeature, int stNum) {
-        //set the iterator the the correct profile
-        try {
-            PointFeatureIterator pointIterator = profileFeature.getPointFeatureIterator(-1);
-            while (pointIterator.hasNext()) {
-                PointFeature pointFeature = pointIterator.next();
-
-                String profileID = profileFeature.getName();
-                //if there is a profile id use it against the data that is requested
-                if (profileID != null) {
-                    valueList.clear();
-                    valueList.add("time=" + dateFormatter.toDateTimeStringISO(profileFeature.getTime()));
-                    valueList.add("station=" + stNum);
-                    addProfileDataToBuilder(valueList, pointFeature, builder);
-                }
-            }
-        } catch (Exception ex) {
-            // error reading
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(". Most likely this property does not exist or is improperly stored in the dataset.");
-        }
-    }
-
-    private void addProfileDataToBuilder(List<String> valueList, PointFeature pointFeature, StringBuilder builder) throws IOException {
-        for (String variableName : variableNames) {
-            valueList.add(variableName + "=" + pointFeature.getData().getScalarObject(variableName).toString());
-        }
-
-        for (int i = 0; i < valueList.size(); i++) {
-            builder.append(valueList.get(i));
-            if (i < valueList.size() - 1) {
-                builder.append(",");
-            }
-        }
-
-        builder.append(";");
-    }
-
-    private String createProfileFeature(int stNum) throws IOException {
-        if (profileList != null && profileList.containsKey((Integer)stNum)) {
-            StringBuilder builder = new StringBuilder();
-            DateFormatter dateFormatter = new DateFormatter();
-            List<String> valueList = new ArrayList<String>();
-
-            ProfileFeature pFeature = profileList.get(stNum);
-            addProfileData(valueList, dateFormatter, builder, pFeature, stNum);
-
-            return builder.toString();
-        }
-        return "";
-    }
-
     public List<String> getLocationsString(int stNum) {
         List<String> retval = new ArrayList<String>();
         retval.add(this.getLowerLat(stNum) + " " + this.getLowerLon(stNum));
@@ -11,7 +11,6 @@ import org.w3c.dom.Document;
 import ucar.nc2.ft.*;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateRange;
-import ucar.nc2.units.DateFormatter;
 import ucar.unidata.geoloc.LatLonPointImpl;
 import ucar.unidata.geoloc.LatLonRect;
 import ucar.unidata.geoloc.Station;
@@ -191,16 +190,27 @@ public class Section extends baseCDMClass implements iStationData {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
-    public String getDataResponse(int stNum) {
-        try {
-            if (sectionData != null) {
-                return createSectionData(stNum);
-            }
-        } catch (Exception ex) {
-//            Logger.getLogger(Trajectory.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + Profile.class;
+    public ObservationCursor getObservationCursor(int stNum) throws IOException {
+        if (sectionData == null || sectionList == null || stNum >= sectionList.size()) {
+            return BaseObservationCursor.empty(variableNames);
         }
-        return DATA_RESPONSE_ERROR + Profile.class;
+        long[] window = getEventWindow(eventTimes);
+        final PointFeatureCollectionIterator profileCollectionIter = sectionList.get(stNum).getPointFeatureCollectionIterator(-1);
+        // section observations are not tied to a station; read the profiles one after the other
+        return new PointFeatureCursor(variableNames, ObservationCursor.NO_STATION, null, window[0], window[1]) {
+            @Override
+            protected PointFeatureIterator nextIterator() throws IOException {
+                if (profileCollectionIter.hasNext())
+                    return profileCollectionIter.next().getPointFeatureIterator(-1);
+                return null;
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                profileCollectionIter.finish();
+            }
+        };
     }
 
     @Override
@@ -290,100 +300,6 @@ public class Section extends baseCDMClass implements iStationData {
     
     /**************************************************************************/
 
-    private String createSectionData(int stNum) {
-        StringBuilder builder = new StringBuilder();
-        SectionFeature sectionFeature = sectionList.get(stNum);
-        addTrajectoryProfileData(builder, sectionFeature, stNum);
-        return builder.toString();
-    }
-
-    private void addTrajectoryProfileData(StringBuilder builder, SectionFeature sectionFeature, int stNum) {
-        try {
-            List<String> valueList = new LinkedList<String>();
-            PointFeatureCollectionIterator profileCollectionIter = sectionFeature.getPointFeatureCollectionIterator(-1);
-            
-            for (;profileCollectionIter.hasNext();) {
-                PointFeatureIterator pointIter = profileCollectionIter.next().getPointFeatureIterator(-1);
-                DateTime pointTime;
-                DateTime dtStart;
-                DateTime dtEnd;
-
-                if (eventTimes != null && eventTimes.size() > 0) {
-                    if (eventTimes.size() == 2) {
-                        dtStart = new DateTime(df.getISODate(eventTimes.get(0)), chrono);
-                        dtEnd = new DateTime(df.getISODate(eventTimes.get(1)), chrono);
-
-                        for (;pointIter.hasNext();) {
-                            PointFeature point = pointIter.next();
-                            valueList.clear();
-                            
-                            pointTime = new DateTime(point.getObservationTimeAsCalendarDate().toDate());
-                            
-                            if (pointTime.isEqual(dtStart) || pointTime.isEqual(dtEnd) || (pointTime.isAfter(dtStart) && pointTime.isBefore(dtEnd))) {
-                                addDataLine(valueList, point, builder);
-                            }
-                            // exit if we get an error
-                            if (builder.toString().contains("ERROR"))
-                                break;
-                        }
-                    } else {
-                        dtStart = new DateTime(df.getISODate(eventTimes.get(0)), chrono);
-
-                        for (;pointIter.hasNext();) {
-                            PointFeature point = pointIter.next();
-                            valueList.clear();
-                            
-                            pointTime = new DateTime(point.getObservationTimeAsCalendarDate().toDate());
-                            
-                            if (pointTime.isEqual(dtStart)) {
-                                addDataLine(valueList, point, builder);
-                            }
-                            
-                            // exit if we get an error
-                            if (builder.toString().contains("ERROR"))
-                                break;
-                        }
-                    }
-                } else {
-                    for (;pointIter.hasNext();) {
-                        PointFeature point = pointIter.next();
-                        valueList.clear();
-                        addDataLine(valueList, point, builder);
-                        // exit if we get an error
-                        if (builder.toString().contains("ERROR"))
-                            break;
-                    }
-                }
-                pointIter.finish();
-            }
-            profileCollectionIter.finish();
-        } catch (Exception e) {
-            // add exception to output
-            builder.delete(0, builder.length());
-            builder.append("ERROR =building data: ").append(e.getLocalizedMessage()).append(".");
-        }
-    }
-
-    private void addDataLine(List<String> valueList, PointFeature point, StringBuilder builder) {
-        valueList.add("time=" + df.toDateTimeStringISO(point.getObservationTimeAsCalendarDate().toDate()));
-
-        try {
-            for (String variableName : variableNames) {
-                valueList.add(variableName + "=" + point.getData().getScalarObject(variableName).toString());
-            }
-
-            for (String str : valueList) {
-                builder.append(str).append(",");
-            }
-            if(builder.length() > 0)
-                builder.deleteCharAt(builder.length()-1).append(";");
-        } catch (Exception ex) {
-            // error in reading data
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(". Most likely this property does not exist or is improperly stored in the dataset.");
-        }
-    }
-    
     private static CalendarDateRange getDateRange(SectionFeature section) {
         CalendarDateRange retval = new CalendarDateRange(CalendarDate.of(0), 60);
         
@@ -0,0 +1,136 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
+import ucar.nc2.Dimension;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cursor over the records of one station of a multidimensional time series dataset,
+ * reading each variable directly as a (station, time range) section instead of going
+ * through the point features. Sections are read in chunks so memory stays bounded for
+ * long windows.
+ */
+class StationArrayCursor extends BaseObservationCursor {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final StationTimeIndex timeIndex;
+    private final int fileStation;
+    private final Variable[] variables;
+    // position of the station and observation dimensions of each variable; -1 if absent
+    private final int[] stationAxis;
+    private final int[] obsAxis;
+    private final Array[] chunk;
+    private final int lastPosition;
+    private final int lastObs;
+    private int position;
+    private int chunkStart;
+    private int chunkEnd;
+
+    private StationArrayCursor(String[] variableNames, int stationIndex, StationTimeIndex timeIndex, int fileStation,
+                               Variable[] variables, int[] stationAxis, int[] obsAxis, int first, int last) {
+        super(variableNames);
+        this.stationIndex = stationIndex;
+        this.timeIndex = timeIndex;
+        this.fileStation = fileStation;
+        this.variables = variables;
+        this.stationAxis = stationAxis;
+        this.obsAxis = obsAxis;
+        this.chunk = new Array[variables.length];
+        this.position = first;
+        this.lastPosition = last;
+        this.lastObs = timeIndex.getObsIndex(fileStation, last);
+    }
+
+    /**
+     * Creates a cursor over the records of a station between two positions of the time index
+     * @param dataset the open dataset
+     * @param timeIndex time index of the dataset
+     * @param variableNames variables of every record
+     * @param stationIndex station index of every record
+     * @param fileStation index of the station in the dataset
+     * @param first first position of the window
+     * @param last last position of the window
+     * @return the cursor; null if a variable is not dimensioned by station and time only
+     */
+    static StationArrayCursor create(NetcdfDataset dataset, StationTimeIndex timeIndex, String[] variableNames,
+                                     int stationIndex, int fileStation, int first, int last) {
+        Variable[] variables = new Variable[variableNames.length];
+        int[] stationAxis = new int[variableNames.length];
+        int[] obsAxis = new int[variableNames.length];
+        for (int i = 0; i < variableNames.length; i++) {
+            Variable var = dataset.findVariable(variableNames[i]);
+            if (var == null || !(var.getDataType().isNumeric() || var.getDataType().isString()))
+                return null;
+            stationAxis[i] = -1;
+            obsAxis[i] = -1;
+            List<Dimension> dims = var.getDimensions();
+            for (int d = 0; d < dims.size(); d++) {
+                String name = dims.get(d).getShortName();
+                if (name != null && name.equals(timeIndex.getStationDimension()))
+                    stationAxis[i] = d;
+                else if (name != null && name.equals(timeIndex.getObsDimension()))
+                    obsAxis[i] = d;
+                else
+                    return null;
+            }
+            variables[i] = var;
+        }
+        return new StationArrayCursor(variableNames, stationIndex, timeIndex, fileStation,
+                variables, stationAxis, obsAxis, first, last);
+    }
+
+    /**
+     * Reads the sections of all variables for the observations starting at obs
+     */
+    private void readChunk(int obs) throws IOException {
+        chunkStart = obs;
+        chunkEnd = Math.min(obs + CHUNK_SIZE, lastObs + 1);
+        try {
+            for (int i = 0; i < variables.length; i++) {
+                // values that do not vary in time are read once
+                if (obsAxis[i] < 0 && chunk[i] != null)
+                    continue;
+                List<Range> ranges = new ArrayList<Range>();
+                for (int d = 0; d < variables[i].getRank(); d++) {
+                    if (d == stationAxis[i])
+                        ranges.add(new Range(fileStation, fileStation));
+                    else
+                        ranges.add(new Range(chunkStart, chunkEnd - 1));
+                }
+                chunk[i] = variables[i].read(new Section(ranges));
+            }
+        } catch (InvalidRangeException ex) {
+            throw new IOException("could not read the data of station " + fileStation + ": " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (position > lastPosition)
+            return false;
+        int obs = timeIndex.getObsIndex(fileStation, position);
+        if (obs >= chunkEnd)
+            readChunk(obs);
+        time = timeIndex.getTime(fileStation, position);
+        for (int i = 0; i < variables.length; i++) {
+            // sections keep a length of one along the station dimension, so the flat index is the time offset
+            int index = (obsAxis[i] >= 0) ? obs - chunkStart : 0;
+            Array array = chunk[i];
+            if (array.getDataType().isNumeric())
+                setValue(i, array.getDouble(index), array.getDataType());
+            else
+                setValue(i, String.valueOf(array.getObject(index)));
+        }
+        position++;
+        return true;
+    }
+}
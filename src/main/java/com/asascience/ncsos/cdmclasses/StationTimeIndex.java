@@ -0,0 +1,253 @@
+package com.asascience.ncsos.cdmclasses;
+
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.util.LruCache;
+import com.asascience.ncsos.util.TimeUtils;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.VariableDS;
+import ucar.nc2.time.CalendarDateUnit;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Time coordinate of every station of a multidimensional time series dataset
+ * (CF orthogonal or incomplete multidimensional array representation), loaded once as
+ * sorted arrays of epoch millis so that the records of a requested time window are found
+ * by binary search instead of by scanning every record of the station.
+ * <p>
+ * Indexes are shared between requests; they are keyed by the dataset location and are
+ * dropped once the dataset's modification time changes.
+ */
+public final class StationTimeIndex {
+
+    /** System property used to override the number of datasets kept */
+    public static final String MAX_ENTRIES_PROPERTY = "ncsos.timeIndexCache.maxEntries";
+    private static final int DEFAULT_MAX_ENTRIES = 32;
+
+    private static final LruCache<String, StationTimeIndex> cache =
+            new LruCache<String, StationTimeIndex>(Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(StationTimeIndex.class);
+
+    private final long lastModified;
+    private final boolean orthogonal;
+    private final String stationDimension;
+    private final String obsDimension;
+    // valid times of each station, in file order; null if a station's times are not sorted
+    private final long[][] times;
+    // observation index of each valid time; null if every observation of the station has a time
+    private final int[][] obsIndices;
+
+    private StationTimeIndex(long lastModified, boolean orthogonal, String stationDimension, String obsDimension,
+                             long[][] times, int[][] obsIndices) {
+        this.lastModified = lastModified;
+        this.orthogonal = orthogonal;
+        this.stationDimension = stationDimension;
+        this.obsDimension = obsDimension;
+        this.times = times;
+        this.obsIndices = obsIndices;
+    }
+
+    /**
+     * Returns the time index of a dataset, building it on first use
+     * @param dataset the open dataset
+     * @param timeVariable time coordinate of the observations
+     * @param stationVariable variable holding the station ids; may be null for a single station
+     * @return the index; null if the dataset does not use a multidimensional representation
+     */
+    public static StationTimeIndex get(NetcdfDataset dataset, Variable timeVariable, Variable stationVariable) {
+        if (dataset == null || timeVariable == null)
+            return null;
+        String location = dataset.getLocation();
+        long lastModified = DatasetHandlerAdapter.getLastModified(dataset);
+        if (location != null && lastModified > 0) {
+            StationTimeIndex index = cache.get(location);
+            if (index != null && index.lastModified == lastModified)
+                return index;
+        }
+        StationTimeIndex index = null;
+        try {
+            index = build(dataset, timeVariable, stationVariable, lastModified);
+        } catch (Exception ex) {
+            _log.warn("Could not index the times of " + location + ": " + ex.getMessage());
+        }
+        // without a modification time (remote datasets, aggregations) the index could not be told to be stale
+        if (index != null && location != null && lastModified > 0)
+            cache.put(location, index);
+        return index;
+    }
+
+    /**
+     * Removes all cached indexes
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    private static StationTimeIndex build(NetcdfDataset dataset, Variable timeVariable, Variable stationVariable,
+                                          long lastModified) throws IOException {
+        // ragged arrays are indexed by a count or index variable, not by the station dimension
+        for (Variable var : dataset.getVariables()) {
+            if (var.findAttribute("sample_dimension") != null || var.findAttribute("instance_dimension") != null)
+                return null;
+        }
+        String units = timeVariable.getUnitsString();
+        if (units == null)
+            return null;
+        Attribute calendar = timeVariable.findAttribute("calendar");
+        CalendarDateUnit dateUnit = CalendarDateUnit.of(calendar == null ? null : calendar.getStringValue(), units);
+
+        // the last dimension of a char station id is the string length
+        int stationRank = (stationVariable == null) ? 0 : stationVariable.getRank();
+        if (stationVariable != null && stationVariable.getDataType() == DataType.CHAR)
+            stationRank--;
+        Dimension stationDim = (stationRank > 0) ? stationVariable.getDimension(0) : null;
+        String stationDimName = (stationDim == null) ? null : stationDim.getShortName();
+        Array values = timeVariable.read();
+        if (timeVariable.getRank() == 1) {
+            // orthogonal: one time coordinate shared by all stations
+            Dimension obsDim = timeVariable.getDimension(0);
+            if (stationDim != null && stationDim.equals(obsDim))
+                return null;
+            int numStations = (stationDim == null) ? 1 : stationDim.getLength();
+            long[][] times = new long[1][];
+            int[][] obsIndices = new int[1][];
+            indexStation(timeVariable, dateUnit, values, 0, (int) values.getSize(), times, obsIndices, 0);
+            long[][] stationTimes = new long[numStations][];
+            int[][] stationObs = new int[numStations][];
+            Arrays.fill(stationTimes, times[0]);
+            Arrays.fill(stationObs, obsIndices[0]);
+            return new StationTimeIndex(lastModified, true, stationDimName, obsDim.getShortName(), stationTimes, stationObs);
+        }
+        if (timeVariable.getRank() == 2 && stationDim != null && stationDim.equals(timeVariable.getDimension(0))) {
+            // incomplete: a time coordinate per station
+            int numStations = timeVariable.getShape()[0];
+            int numObs = timeVariable.getShape()[1];
+            long[][] times = new long[numStations][];
+            int[][] obsIndices = new int[numStations][];
+            for (int s = 0; s < numStations; s++) {
+                indexStation(timeVariable, dateUnit, values, s * numObs, numObs, times, obsIndices, s);
+            }
+            return new StationTimeIndex(lastModified, false, stationDimName, timeVariable.getDimension(1).getShortName(), times, obsIndices);
+        }
+        return null;
+    }
+
+    /**
+     * Converts the times of one station, skipping missing values
+     */
+    private static void indexStation(Variable timeVariable, CalendarDateUnit dateUnit, Array values, int offset, int length,
+                                     long[][] times, int[][] obsIndices, int station) {
+        VariableDS enhanced = (timeVariable instanceof VariableDS) ? (VariableDS) timeVariable : null;
+        long[] stationTimes = new long[length];
+        int[] stationObs = new int[length];
+        int count = 0;
+        boolean sorted = true;
+        for (int i = 0; i < length; i++) {
+            double value = values.getDouble(offset + i);
+            if (Double.isNaN(value) || (enhanced != null && enhanced.hasMissing() && enhanced.isMissing(value)))
+                continue;
+            long millis = dateUnit.makeCalendarDate(value).getMillis();
+            if (count > 0 && millis < stationTimes[count - 1])
+                sorted = false;
+            stationTimes[count] = millis;
+            stationObs[count] = i;
+            count++;
+        }
+        if (!sorted) {
+            times[station] = null;
+            obsIndices[station] = null;
+        } else {
+            times[station] = (count == length) ? stationTimes : Arrays.copyOf(stationTimes, count);
+            obsIndices[station] = (count == length) ? null : Arrays.copyOf(stationObs, count);
+        }
+    }
+
+    /**
+     * @return whether all stations share one time coordinate (orthogonal representation)
+     */
+    public boolean isOrthogonal() {
+        return orthogonal;
+    }
+
+    /**
+     * @return name of the station dimension; null for a single station without one
+     */
+    public String getStationDimension() {
+        return stationDimension;
+    }
+
+    /**
+     * @return name of the observation dimension
+     */
+    public String getObsDimension() {
+        return obsDimension;
+    }
+
+    /**
+     * @param station index of the station in the dataset
+     * @return whether the times of the station are indexed
+     */
+    public boolean isIndexed(int station) {
+        return station >= 0 && station < times.length && times[station] != null;
+    }
+
+    /**
+     * @param station index of the station in the dataset
+     * @return whether every observation of the station has a time
+     */
+    public boolean isDense(int station) {
+        return obsIndices[station] == null;
+    }
+
+    /**
+     * Finds the records of a station within a time window. A window of a single instant
+     * matches the record nearest to it, if that record is at the same instant.
+     * @param station index of an indexed station
+     * @param start earliest time, in millis
+     * @param end latest time, in millis
+     * @return first and last position of the matching records; the first is greater than
+     * the last if no record matches
+     */
+    public int[] getWindow(int station, long start, long end) {
+        long[] stationTimes = times[station];
+        if (start == end) {
+            int nearest = TimeUtils.findNearestTimeIndex(stationTimes, start);
+            if (nearest < 0 || stationTimes[nearest] != start)
+                return new int[]{0, -1};
+        }
+        return new int[]{TimeUtils.firstIndexNotBefore(stationTimes, start), TimeUtils.lastIndexNotAfter(stationTimes, end)};
+    }
+
+    /**
+     * @param station index of an indexed station
+     * @return number of records of the station with a time
+     */
+    public int getCount(int station) {
+        return times[station].length;
+    }
+
+    /**
+     * @param station index of an indexed station
+     * @param position position of the record among the station's records
+     * @return time of the record, in millis
+     */
+    public long getTime(int station, int position) {
+        return times[station][position];
+    }
+
+    /**
+     * @param station index of an indexed station
+     * @param position position of the record among the station's records
+     * @return index of the record along the observation dimension
+     */
+    public int getObsIndex(int station, int position) {
+        return (obsIndices[station] == null) ? position : obsIndices[station][position];
+    }
+}
@@ -8,16 +8,14 @@ import com.asascience.ncsos.go.ObservationOffering;
 import com.asascience.ncsos.service.BaseRequestHandler;
 import com.asascience.ncsos.util.DatasetHandlerAdapter;
 
-import org.joda.time.Chronology;
 import org.joda.time.DateTime;
 import org.w3c.dom.Document;
 
 import ucar.nc2.Variable;
-import ucar.nc2.ft.PointFeature;
+import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.ft.PointFeatureIterator;
 import ucar.nc2.ft.StationTimeSeriesFeature;
 import ucar.nc2.ft.StationTimeSeriesFeatureCollection;
-import ucar.nc2.units.DateFormatter;
 import ucar.nc2.units.DateRange;
 import ucar.nc2.units.DateUnit;
 import ucar.unidata.geoloc.Station;
@@ -36,12 +34,14 @@ import java.util.logging.Logger;
  * @author abird
  * @version 1.0.0
  */
-public class TimeSeries extends baseCDMClass implements iStationData {
+public class TimeSeries extends baseCDMClass implements iStationData, ParallelReadable {
 
     private StationTimeSeriesFeatureCollection tsData;
     private List<Station> tsStationList;
     private final ArrayList<String> eventTimes;
     private final String[] variableNames;
+    private StationTimeIndex timeIndex;
+    private NetcdfDataset dataset;
 
     /**
      * 
@@ -63,111 +63,6 @@ public class TimeSeries extends baseCDMClass implements iStationData {
             this.eventTimes = null;
     }
 
-    /*******************TIMSERIES*************************/
-    private String createTimeSeriesData(int stNum) throws IOException {
-        //create the iterator for the feature
-        PointFeatureIterator iterator = tsData.getStationFeature(tsStationList.get(stNum)).getPointFeatureIterator(-1);
-
-        //create the string builders and other things needed
-        StringBuilder builder = new StringBuilder();
-        DateFormatter dateFormatter = new DateFormatter();
-        List<String> valueList = new ArrayList<String>();
-
-        while (iterator.hasNext()) {
-            PointFeature pointFeature = iterator.next();
-
-            //if no event time
-            if (eventTimes == null) {
-                createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
-                //count = (stationTimeSeriesFeature.size());
-            } //if bounded event time        
-            else if (eventTimes.size() > 1) {
-                parseMultiTimeEventTimeSeries(df, chrono, pointFeature, valueList, dateFormatter, builder, stNum);
-            } //if single event time        
-            else {
-                if (eventTimes.get(0).contentEquals(dateFormatter.toDateTimeStringISO(
-                		new Date(pointFeature.getObservationTimeAsCalendarDate().getMillis())))){
-                    createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
-                }
-            }
-        }
-        iterator.finish();
-        //setCount(count);
-        return builder.toString();
-    }
-
-
-    private void createTimeSeriesData(List<String> valueList, DateFormatter dateFormatter, 
-    								  PointFeature pointFeature, StringBuilder builder, int stNum) {
-        //count++;
-        valueList.clear();
-        
-        Date valDate = new Date(pointFeature.getObservationTimeAsCalendarDate().getMillis());
-        valueList.add("time=" + dateFormatter.toDateTimeStringISO(valDate));
-        valueList.add(STATION_STR + stNum);
-        try {
-            for (String variableName : variableNames) {
-                valueList.add(variableName + "=" + pointFeature.getData().getScalarObject(variableName).toString());
-            }
-        } catch (Exception ex) {
-            // couldn't find a data var
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(
-            			". Most likely this property does not exist or is improperly stored in the dataset.");
-            return;
-        }
-
-        for (int i = 0; i < valueList.size(); i++) {
-            builder.append(valueList.get(i));
-            if (i < valueList.size() - 1) {
-                builder.append(",");
-            }
-        }
-        try {
-            //builder.append(tokenJoiner.join(valueList));
-            // TODO:  conditional inside loop...
-            if (tsData.getStationFeature(tsStationList.get(stNum)).size() > 1) {
-                builder.append(";");
-            }
-        } catch (Exception ex) {
-            builder = new StringBuilder();
-            builder.append("ERROR=received the following error when reading the data of the dataset: ").append(ex.getLocalizedMessage());
-        }
-    }
-
-    /**
-     * 
-     * @param df
-     * @param chrono
-     * @param pointFeature
-     * @param valueList
-     * @param dateFormatter
-     * @param builder
-     * @param stNum
-     * @throws IOException
-     */
-    public void parseMultiTimeEventTimeSeries(DateFormatter df, Chronology chrono, PointFeature pointFeature, 
-    										  List<String> valueList, DateFormatter dateFormatter, 
-    										  StringBuilder builder, int stNum) throws IOException {
-        //get start/end date based on iso date format date        
-
-        DateTime dtStart = new DateTime(df.getISODate(eventTimes.get(0)), chrono);
-        DateTime dtEnd = new DateTime(df.getISODate(eventTimes.get(1)), chrono);
-        DateTime tsDt = new DateTime(new Date(pointFeature.getObservationTimeAsCalendarDate().getMillis()));
-     
-        //find out if current time(searchtime) is one or after startTime
-        //same as start
-        if (tsDt.isEqual(dtStart)) {
-            createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
-        } //equal end
-        else if (tsDt.isEqual(dtEnd)) {
-            createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
-        } //afterStart and before end       
-        else if (tsDt.isAfter(dtStart) && (tsDt.isBefore(dtEnd))) {
-            createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
-        }
-    }
-
     @Override
     public void setInitialLatLonBoundaries(List<Station> tsStationList) {
         upperLat = tsStationList.get(0).getLatitude();
@@ -251,17 +146,81 @@ public class TimeSeries extends baseCDMClass implements iStationData {
         }
     }
 
+    /**
+     * Sets the sorted times of the dataset's stations, used to find the records of the
+     * requested event time without scanning every record of a station, and to read the
+     * records of the window directly from the dataset's arrays
+     * @param dataset the open dataset
+     * @param timeIndex index of the dataset; may be null
+     */
+    public void setTimeIndex(NetcdfDataset dataset, StationTimeIndex timeIndex) {
+        this.dataset = dataset;
+        this.timeIndex = timeIndex;
+    }
+
     @Override
-    public String getDataResponse(int stNum) {
-        try {
-            if (tsData != null) {
-                return createTimeSeriesData(stNum);
+    public ObservationCursor getObservationCursor(int stNum) throws IOException {
+        if (tsData == null || stNum >= tsStationList.size()) {
+            return BaseObservationCursor.empty(variableNames);
+        }
+        return openCursor(stNum, tsData, tsStationList.get(stNum), dataset);
+    }
+
+    @Override
+    public ObservationCursor getObservationCursor(int stNum, Object featureCollection, NetcdfDataset dataset) throws IOException {
+        if (tsData == null || stNum >= tsStationList.size()) {
+            return BaseObservationCursor.empty(variableNames);
+        }
+        // stations are listed in the same order by every copy of the dataset
+        StationTimeSeriesFeatureCollection copy = (StationTimeSeriesFeatureCollection) featureCollection;
+        Station station = copy.getStations().get(tsData.getStations().indexOf(tsStationList.get(stNum)));
+        return openCursor(stNum, copy, station, dataset);
+    }
+
+    private ObservationCursor openCursor(int stNum, StationTimeSeriesFeatureCollection collection, Station station,
+                                         NetcdfDataset dataset) throws IOException {
+        boolean boundaryOnly = isFirstRecordOnly() || isLatestRecordOnly();
+        long[] window = boundaryOnly ? new long[]{Long.MIN_VALUE, Long.MAX_VALUE} : getEventWindow(eventTimes);
+        int fileIndex = (timeIndex != null) ? collection.getStations().indexOf(station) : -1;
+        int[] positions = null;
+        if (fileIndex >= 0 && timeIndex.isIndexed(fileIndex)) {
+            if (isLatestRecordOnly()) {
+                // answered from the latest values kept for the dataset, when its variables allow it
+                ObservationCursor latest = LatestObservationTable.get(dataset, timeIndex)
+                        .cursor(dataset, variableNames, stNum, fileIndex);
+                if (latest != null)
+                    return latest;
             }
-        } catch (IOException ex) {
-            Logger.getLogger(TimeSeries.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + TimeSeries.class;
+            if (boundaryOnly) {
+                // the first or latest record of a sorted station is at the end of its index
+                int count = timeIndex.getCount(fileIndex);
+                if (count == 0) {
+                    return BaseObservationCursor.empty(variableNames);
+                }
+                int position = isLatestRecordOnly() ? count - 1 : 0;
+                positions = new int[]{position, position};
+                window[0] = window[1] = timeIndex.getTime(fileIndex, position);
+            } else {
+                // indexed stations are sorted by time, so a paged request can start at its resume time
+                window[0] = Math.max(window[0], getResumeTime(stNum));
+                positions = timeIndex.getWindow(fileIndex, window[0], window[1]);
+            }
+            if (positions[0] > positions[1]) {
+                return BaseObservationCursor.empty(variableNames);
+            }
+            ObservationCursor arrayCursor = StationArrayCursor.create(dataset, timeIndex, variableNames,
+                    stNum, fileIndex, positions[0], positions[1]);
+            if (arrayCursor != null)
+                return arrayCursor;
         }
-        return DATA_RESPONSE_ERROR + TimeSeries.class;
+        PointFeatureIterator iterator = collection.getStationFeature(station).getPointFeatureIterator(-1);
+        PointFeatureCursor cursor = new PointFeatureCursor(variableNames, stNum, iterator, window[0], window[1]);
+        // without missing times the iterator returns one point per indexed position
+        if (positions != null && timeIndex.isDense(fileIndex))
+            cursor.setSortedWindow(positions[0]);
+        if (boundaryOnly && positions == null)
+            return new BoundaryRecordCursor(cursor, isLatestRecordOnly());
+        return cursor;
     }
 
     @Override
@@ -12,9 +12,9 @@ import org.w3c.dom.Document;
 
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.CoordinateAxis;
+import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.ft.*;
 import ucar.nc2.time.CalendarDateFormatter;
-import ucar.nc2.units.DateFormatter;
 import ucar.unidata.geoloc.Station;
 
 import java.io.IOException;
@@ -34,7 +34,7 @@ import java.util.logging.Logger;
  * @author abird
  * @version 1.0.0
  */
-public class TimeSeriesProfile extends baseCDMClass implements iStationData {
+public class TimeSeriesProfile extends baseCDMClass implements iStationData, ParallelReadable {
 
     private StationProfileFeatureCollection tsProfileData;
     private List<Station> tsStationList;
@@ -76,35 +76,18 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
     }
 
     /****************TIMESERIESPROFILE*******************/
-    private String createStationProfileFeature(int stNum) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        DateFormatter dateFormatter = new DateFormatter();
-        List<String> valueList = new ArrayList<String>();
-
-        StationProfileFeature stationProfileFeature = tsProfileData.getStationProfileFeature(tsStationList.get(stNum));
-        List<Date> z = stationProfileFeature.getTimes();
-
-        ProfileFeature pf = null;
-        Set<Date> processedDates = new HashSet<Date>();
-      
-        //if not event time is specified get all the data
+    /**
+     * Selects the times of the profiles to return, according to the requested event times
+     * @param z times of the profiles of the station
+     * @return the selected times, in order; null if every profile is returned
+     */
+    private List<Date> selectProfileTimes(List<Date> z) {
         if (eventTimes == null) {
-            //test getting items by date(index(0))
-            stationProfileFeature.resetIteration();
-//            for (int i = 0; i < z.size(); i++) {
-            while(stationProfileFeature.hasNext()){
-               // pf = stationProfileFeature.getProfileByDate(z.get(i));
-                pf = stationProfileFeature.next();
-                System.out.println(pf.getTime().toGMTString());
-                if(this.multDimTimVar || !processedDates.contains(pf.getTime()) ){
-                    createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
-                    if (builder.toString().contains("ERROR"))
-                        break;
-                    processedDates.add(pf.getTime());
-                }
-             
-            }
-        } else if (eventTimes.size() > 1) {
+            return null;
+        }
+        List<Date> selected = new ArrayList<Date>();
+        Set<Date> processedDates = new HashSet<Date>();
+        if (eventTimes.size() > 1) {
             Date startDate = null;
             Date endDate = null;
             if(this.requestedFirst){
@@ -113,7 +96,6 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
                     endDate = startDate;
                 }
             }
-       
             if(this.requestedLast){
                 endDate = z.get(z.size() - 1);
                 if(!requestedFirst && eventTimes.get(0).equals(eventTimes.get(1))){
@@ -126,52 +108,76 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
             if(startDate == null) {
                 startDate = CalendarDateFormatter.isoStringToDate( eventTimes.get(0));
             }
-            for (int i = 0; i < z.size(); i++) {
-
+            for (Date time : z) {
                 // check to make sure the data is within the start/stop
-                if(z.get(i).compareTo(startDate) >= 0 &&  z.get(i).compareTo(endDate)  <= 0){
-                    if(this.multDimTimVar || !processedDates.contains(z.get(i)) ){
-                        pf = stationProfileFeature.getProfileByDate(z.get(i));
-
-                        DateTime dtStart = new DateTime(startDate, chrono);
-                        DateTime dtEnd = new DateTime(endDate, chrono);
-                        DateTime tsDt = new DateTime(pf.getTime(), chrono);
-
-                        //find out if current time(searchtime) is one or after startTime
-                        //same as start
-                        if (tsDt.isEqual(dtStart)) {
-                            createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
-                        } //equal end
-                        else if (tsDt.isEqual(dtEnd)) {
-                            createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
-                        } //afterStart and before end       
-                        else if (tsDt.isAfter(dtStart) && (tsDt.isBefore(dtEnd))) {
-                            createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
-                        }
-                        if (builder.toString().contains("ERROR"))
-                            break;
-                        processedDates.add(z.get(i));
+                if (time.compareTo(startDate) >= 0 && time.compareTo(endDate) <= 0) {
+                    if (this.multDimTimVar || processedDates.add(time)) {
+                        selected.add(time);
                     }
                 }
             }
-        } //if the event time is specified get the correct data        
-        else {
-            for (int i = 0; i < z.size(); i++) {
-
-                if (df.toDateTimeStringISO(z.get(i)).contentEquals(eventTimes.get(0).toString())) {
-                    pf = stationProfileFeature.getProfileByDate(z.get(i));
-                    createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
+        } else {
+            // stations may be read on several threads, and the formatter is not thread safe
+            synchronized (df) {
+                for (Date time : z) {
+                    if (df.toDateTimeStringISO(time).contentEquals(eventTimes.get(0))) {
+                        selected.add(time);
+                    }
                 }
-                
-                if (builder.toString().contains("ERROR"))
-                    break;
             }
         }
-        return builder.toString();
+        return selected;
     }
 
+    /**
+     * Cursor over the points of the selected profiles of a station
+     */
+    private class StationProfileCursor extends PointFeatureCursor {
+        private final StationProfileFeature feature;
+        private final List<Date> profileTimes;
+        private final List<Double> binAlts;
+        private final Set<Date> processedDates = new HashSet<Date>();
+        private int profileIndex = 0;
+
+        StationProfileCursor(StationProfileFeature feature, int stNum, List<Date> profileTimes, List<Double> binAlts) throws IOException {
+            super(TimeSeriesProfile.this.variableNames, stNum, null, Long.MIN_VALUE, Long.MAX_VALUE);
+            this.feature = feature;
+            this.profileTimes = profileTimes;
+            this.binAlts = binAlts;
+            if (profileTimes == null) {
+                feature.resetIteration();
+            }
+        }
+
+        @Override
+        protected PointFeatureIterator nextIterator() throws IOException {
+            if (profileTimes == null) {
+                while (feature.hasNext()) {
+                    ProfileFeature pf = feature.next();
+                    if (multDimTimVar || processedDates.add(pf.getTime())) {
+                        return pf.getPointFeatureIterator(-1);
+                    }
+                }
+                return null;
+            }
+            if (profileIndex < profileTimes.size()) {
+                return feature.getProfileByDate(profileTimes.get(profileIndex++)).getPointFeatureIterator(-1);
+            }
+            return null;
+        }
+
+        @Override
+        protected void readRecord(PointFeature point) throws IOException {
+            super.readRecord(point);
+            double alt = Double.NaN;
+            if (heightAxis != null)
+                alt = readDouble(point.getData(), heightAxis.getShortName());
+            if (Double.isNaN(alt))
+                alt = point.getLocation().getAltitude();
+            bin = (binAlts != null) ? binAlts.indexOf(alt) : NO_BIN;
+        }
+    }
 
-    
     // returns the number of unique depths ie alt(profile,z) will return profile*z
     public int getNumberProfilesForStation(String station){
         int numProfiles = 0;
@@ -212,60 +218,6 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
     }
     
     
-    private void createStationProfileData(ProfileFeature pf, List<String> valueList, 
-                                           DateFormatter dateFormatter, StringBuilder builder, int stNum) {
-
-        try {
-            PointFeatureIterator it = pf.getPointFeatureIterator(-1);
-            List<Double> binAlts = this.getProfileHeightsForStation(tsStationList.get(stNum).getName());
-            while (it.hasNext()) {
-                PointFeature pointFeature = it.next();
-                valueList.clear();
-                valueList.add(TIME_STR + dateFormatter.toDateTimeStringISO(
-                		new Date(pointFeature.getObservationTimeAsCalendarDate().getMillis())));
-                valueList.add(STATION_STR + stNum);
-                Object heightOb = null;
-                if(this.heightAxis != null)
-                    heightOb = pointFeature.getData().getScalarObject(this.heightAxis.getShortName());
-               
-                double alt;
-                if(heightOb != null)
-                    alt = Double.valueOf(heightOb.toString());
-                else
-                    alt = pointFeature.getLocation().getAltitude();
-                
-                if(binAlts != null && binAlts.contains(alt)){
-                    valueList.add(BIN_STR + binAlts.indexOf(alt));
-                }
-                for (String variableName : variableNames) {
-                    valueList.add(variableName + "=" + pointFeature.getData().getScalarObject(variableName).toString());
-                }
-
-                for (int i = 0; i < valueList.size(); i++) {
-                    builder.append(valueList.get(i));
-                    if (i < valueList.size() - 1) {
-                        builder.append(",");
-                    }
-                }
-
-                //builder.append(tokenJoiner.join(valueList));
-                // TODO:  conditional inside loop...
-                if (tsProfileData.getStationProfileFeature(tsStationList.get(stNum)).size() > 1) {
-    //                builder.append(" ");
-    //                builder.append("\n");
-                    builder.append(";");
-                }
-            }
-        } catch (Exception ex ) {
-            // print error
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(". Most likely this property does not exist or is improperly stored in the dataset.");
-        }
-    }
-
-    
-    
-    
     /**
      * sets the time series profile data
      * @param featureProfileCollection 
@@ -393,16 +345,28 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
     }
 
     @Override
-    public String getDataResponse(int stNum) {
-        try {
-            if (tsProfileData != null) {
-                return createStationProfileFeature(stNum);
-            }
-        } catch (IOException ex) {
-            Logger.getLogger(TimeSeriesProfile.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + TimeSeries.class;
+    public ObservationCursor getObservationCursor(int stNum) throws IOException {
+        if (tsProfileData == null || stNum >= tsStationList.size()) {
+            return BaseObservationCursor.empty(variableNames);
         }
-        return DATA_RESPONSE_ERROR + TimeSeries.class;
+        return openCursor(stNum, tsProfileData.getStationProfileFeature(tsStationList.get(stNum)));
+    }
+
+    @Override
+    public ObservationCursor getObservationCursor(int stNum, Object featureCollection, NetcdfDataset dataset) throws IOException {
+        if (tsProfileData == null || stNum >= tsStationList.size()) {
+            return BaseObservationCursor.empty(variableNames);
+        }
+        // stations are listed in the same order by every copy of the dataset
+        StationProfileFeatureCollection copy = (StationProfileFeatureCollection) featureCollection;
+        Station station = copy.getStations().get(tsProfileData.getStations().indexOf(tsStationList.get(stNum)));
+        return openCursor(stNum, copy.getStationProfileFeature(station));
+    }
+
+    private ObservationCursor openCursor(int stNum, StationProfileFeature stationProfileFeature) throws IOException {
+        List<Date> profileTimes = selectProfileTimes(stationProfileFeature.getTimes());
+        return new StationProfileCursor(stationProfileFeature, stNum, profileTimes,
+                this.getProfileHeightsForStation(tsStationList.get(stNum).getName()));
     }
 
     @Override
@@ -7,17 +7,13 @@ import org.joda.time.DateTime;
 import org.w3c.dom.Document;
 
 import ucar.nc2.ft.*;
-import ucar.nc2.units.DateFormatter;
 import ucar.unidata.geoloc.Station;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * Provides methods to gather information from Trajectory datasets needed for requests: GetCapabilities, GetObservations
@@ -55,35 +51,6 @@ public class Trajectory extends baseCDMClass implements iStationData {
         lowerAlt = Double.POSITIVE_INFINITY;
     }
 
-    private void addAllTrajectoryData(PointFeatureIterator trajFeatureIterator, List<String> valueList, DateFormatter dateFormatter, StringBuilder builder) throws IOException {
-        while (trajFeatureIterator.hasNext()) {
-            PointFeature trajFeature = trajFeatureIterator.next();
-            valueList.clear();
-            addDataLine(valueList, dateFormatter, trajFeature, builder);
-        }
-    }
-
-    private void addDataLine(List<String> valueList, DateFormatter dateFormatter, PointFeature trajFeature, StringBuilder builder) {
-        valueList.add("time=" + dateFormatter.toDateTimeStringISO(
-        		new Date(trajFeature.getObservationTimeAsCalendarDate().getMillis())));
-
-        try {
-            for (int i = 0; i < variableNames.length; i++) {
-                valueList.add(variableNames[i] + "=" + trajFeature.getData().getScalarObject(variableNames[i]).toString());
-            }
-
-            for (String str : valueList) {
-                builder.append(str).append(",");
-            }
-            if(builder.length() > 0)
-                builder.deleteCharAt(builder.length() - 1).append(";");
-        } catch (Exception ex) {
-            // print error
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(". Most likely this property does not exist or is improperly stored in the dataset.");
-        }
-    }
-
     @Override
     public void setData(Object featureCollection) throws IOException {
         this.trajectoryData = (TrajectoryFeatureCollection) featureCollection;
@@ -213,16 +180,14 @@ public class Trajectory extends baseCDMClass implements iStationData {
     }
 
     @Override
-    public String getDataResponse(int stNum) {
-        try {
-            if (trajectoryData != null) {
-                return createTrajectoryFeature(stNum);
-            }
-        } catch (IOException ex) {
-            Logger.getLogger(Trajectory.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + Profile.class;
+    public ObservationCursor getObservationCursor(int stNum) throws IOException {
+        if (trajectoryData == null || trajList == null || stNum >= trajList.size()) {
+            return BaseObservationCursor.empty(variableNames);
         }
-        return DATA_RESPONSE_ERROR + Profile.class;
+        long[] window = getEventWindow(eventTimes);
+        // trajectory observations are not tied to a station
+        return new PointFeatureCursor(variableNames, ObservationCursor.NO_STATION,
+                trajList.get(stNum).getPointFeatureIterator(-1), window[0], window[1]);
     }
 
     @Override
@@ -317,68 +282,6 @@ public class Trajectory extends baseCDMClass implements iStationData {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
-    private String createTrajectoryFeature(int stNum) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        DateFormatter dateFormatter = new DateFormatter();
-        TrajectoryFeature trajFeature = trajList.get(stNum);
-        addTrajectoryData(dateFormatter, builder, trajFeature, stNum);
-        return builder.toString();
-    }
-
-    private void addTrajectoryData(DateFormatter dateFormatter, StringBuilder builder, TrajectoryFeature traj, int stNum) throws IOException {
-
-        List<String> valueList = new ArrayList<String>();
-        PointFeatureIterator trajFeatureIterator = traj.getPointFeatureIterator(-1);
-
-        DateTime trajTime;
-        DateTime dtStart;
-        DateTime dtEnd;
-
-        //if no times are specified
-        if (eventTimes == null) {
-            addAllTrajectoryData(trajFeatureIterator, valueList, dateFormatter, builder);
-        } //if more than one date is specified
-        else if (eventTimes.size() > 1) {
-            //get the dates in iso format
-            dtStart = new DateTime(df.getISODate(eventTimes.get(0)), chrono);
-            dtEnd = new DateTime(df.getISODate(eventTimes.get(1)), chrono);
-
-            while (trajFeatureIterator.hasNext()) {
-                PointFeature trajFeature = trajFeatureIterator.next();
-                valueList.clear();
-
-                trajTime = new DateTime(new Date(trajFeature.getObservationTimeAsCalendarDate().getMillis()));
-
-                if (trajTime.isEqual(dtStart)) {
-                    addDataLine(valueList, dateFormatter, trajFeature, builder);
-                } else if (trajTime.isEqual(dtEnd)) {
-                    addDataLine(valueList, dateFormatter, trajFeature, builder);
-                } else if (trajTime.isAfter(dtStart) && (trajTime.isBefore(dtEnd))) {
-                    addDataLine(valueList, dateFormatter, trajFeature, builder);
-                }
-
-            }
-        } //if start and end time were specified
-        else if (eventTimes.size() == 1) {
-            //get the single date in iso format
-            dtStart = new DateTime(df.getISODate(eventTimes.get(0)), chrono);
-            while (trajFeatureIterator.hasNext()) {
-                PointFeature trajFeature = trajFeatureIterator.next();
-                valueList.clear();
-                trajTime = new DateTime(new Date(trajFeature.getObservationTimeAsCalendarDate().getMillis()));
-
-                if (trajTime.isEqual(dtStart)) {
-                    addDataLine(valueList, dateFormatter, trajFeature, builder);
-                    //if it matches return...
-                    break;
-                }
-            }
-        } //times specified are weird, report all
-        else {
-            addAllTrajectoryData(trajFeatureIterator, valueList, dateFormatter, builder);
-        }
-    }
-
     public List<String> getLocationsString(int stNum) {
         try {
             if (trajList != null) {
@@ -7,6 +7,7 @@ package com.asascience.ncsos.cdmclasses;
 import org.joda.time.Chronology;
 import org.joda.time.chrono.ISOChronology;
 
+import ucar.nc2.time.CalendarDateFormatter;
 import ucar.nc2.units.DateFormatter;
 import ucar.nc2.units.DateUnit;
 import ucar.unidata.geoloc.Station;
@@ -25,7 +26,6 @@ public abstract class baseCDMClass implements iStationData {
     protected String endDate;
     protected List<String> reqStationNames;
     protected int numberOfStations;
-    protected static final String DATA_RESPONSE_ERROR = "Data Response IO Error: ";
     protected static final String ERROR_NULL_DATE = "ERROR NULL Date!!!!";
     protected static final int Invalid_Value = -9999999;
     public static final String STATION_STR = "station=";
@@ -37,6 +37,13 @@ public abstract class baseCDMClass implements iStationData {
     protected DateFormatter df = new DateFormatter();
     
     protected static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(baseCDMClass.class);
+
+    // station a paged request resumes in, and the time it resumes at
+    private int resumeStation = -1;
+    private long resumeTime = Long.MIN_VALUE;
+    // only the first or the latest record of each station is requested
+    private boolean firstRecordOnly = false;
+    private boolean latestRecordOnly = false;
     
     
     @Override
@@ -65,6 +72,94 @@ public abstract class baseCDMClass implements iStationData {
         }
     }
 
+    /**
+     * Converts the requested event times into a time window
+     * @param eventTimes requested times (none, a single time or a start and end time); may be null
+     * @return earliest and latest time of the window, in millis
+     * @throws IllegalArgumentException if a time can not be parsed; requests are checked
+     * with {@link #isEventTime(String)} before they get here
+     */
+    protected long[] getEventWindow(List<String> eventTimes) {
+        if (eventTimes == null || eventTimes.isEmpty())
+            return new long[]{Long.MIN_VALUE, Long.MAX_VALUE};
+        // stations may be read on several threads, and the formatter is not thread safe
+        synchronized (df) {
+            long start = parseEventTime(eventTimes.get(0));
+            long end = (eventTimes.size() > 1) ? parseEventTime(eventTimes.get(1)) : start;
+            return new long[]{start, end};
+        }
+    }
+
+    private long parseEventTime(String eventTime) {
+        Date date = df.getISODate(eventTime);
+        if (date == null) {
+            // throws IllegalArgumentException if it is no ISO 8601 time either
+            return CalendarDateFormatter.isoStringToCalendarDate(null, eventTime).getMillis();
+        }
+        return date.getTime();
+    }
+
+    /**
+     * @param eventTime a requested event time
+     * @return whether the feature types can read the time
+     */
+    public static boolean isEventTime(String eventTime) {
+        if (new DateFormatter().getISODate(eventTime) != null)
+            return true;
+        try {
+            CalendarDateFormatter.isoStringToCalendarDate(null, eventTime);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Lets the cursor of a station start at a time, for a paged request that resumes within
+     * the station. The records before that time have already been returned.
+     * @param stNum index of the station in the request
+     * @param time time to resume at, in millis
+     */
+    public void setResumePoint(int stNum, long time) {
+        this.resumeStation = stNum;
+        this.resumeTime = time;
+    }
+
+    /**
+     * @param stNum index of the station in the request
+     * @return time the cursor of the station may start at, in millis; Long.MIN_VALUE for none.
+     * Only sources whose records are sorted by time can start there.
+     */
+    protected long getResumeTime(int stNum) {
+        return (stNum == resumeStation) ? resumeTime : Long.MIN_VALUE;
+    }
+
+    /**
+     * Limits the observations of each station to its first or its latest record, for
+     * requests of the "first" or "latest" event time. Sources that support it return that
+     * record whatever its time; the others keep matching the requested event time.
+     * @param first only the first record of each station
+     * @param latest only the latest record of each station
+     */
+    public void setBoundaryRecordOnly(boolean first, boolean latest) {
+        this.firstRecordOnly = first;
+        this.latestRecordOnly = latest;
+    }
+
+    /**
+     * @return whether only the first record of each station is requested
+     */
+    protected boolean isFirstRecordOnly() {
+        return firstRecordOnly;
+    }
+
+    /**
+     * @return whether only the latest record of each station is requested
+     */
+    protected boolean isLatestRecordOnly() {
+        return latestRecordOnly;
+    }
+
     protected Date getDateForTime(double timeVal, DateUnit dateUnit){
     	if (Double.isNaN(timeVal)) return null;
     	double secs = dateUnit.getTimeUnit().getValueInSeconds(timeVal); //
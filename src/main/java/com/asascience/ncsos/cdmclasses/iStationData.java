@@ -119,11 +119,12 @@ public interface iStationData {
     public boolean isStationInFinalList(int stNum);
     
     /**
-     * call to actually get the data response in the form of a create then add
+     * Opens a cursor over the requested observations of a station
      * @param stNum station index of the set of queried stations
-     * @return String that contains a formatted response of values for Get Observation response
+     * @return cursor over the observations; must be closed by the caller
+     * @throws IOException if the observations could not be opened
      */
-    public String getDataResponse(int stNum);
+    public ObservationCursor getObservationCursor(int stNum) throws IOException;
     
     /**
      * Does what is says on the tin
@@ -0,0 +1,105 @@
+package com.asascience.ncsos.gc;
+
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable time and space extents of a dataset, per station and for the whole network,
+ * as reported in the Contents section of a GetCapabilities response. Each request
+ * computes its own instance, so concurrent requests never share extents.
+ */
+public final class CapabilitiesExtents {
+
+    private final CalendarDate startDate;
+    private final CalendarDate endDate;
+    private final Map<Integer, CalendarDateRange> stationDateRange;
+    private final Map<Integer, LatLonRect> stationBBox;
+
+    /**
+     * @param startDate earliest time of the dataset; may be null
+     * @param endDate latest time of the dataset; may be null
+     * @param stationDateRange time range per station index
+     * @param stationBBox bounding box per station index
+     */
+    public CapabilitiesExtents(CalendarDate startDate, CalendarDate endDate,
+                               Map<Integer, CalendarDateRange> stationDateRange,
+                               Map<Integer, LatLonRect> stationBBox) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.stationDateRange = Collections.unmodifiableMap(new HashMap<Integer, CalendarDateRange>(stationDateRange));
+        this.stationBBox = Collections.unmodifiableMap(new HashMap<Integer, LatLonRect>(stationBBox));
+    }
+
+    /**
+     * @return time range of the whole dataset; null if the start or end is unknown
+     */
+    public CalendarDateRange getDateRange() {
+        if (startDate != null && endDate != null) {
+            return CalendarDateRange.of(startDate, endDate);
+        }
+        return null;
+    }
+
+    /**
+     * @return bounding box enclosing every station
+     */
+    public LatLonRect getBoundingBox() {
+        Double latMin = Double.MAX_VALUE, latMax = Double.NEGATIVE_INFINITY, lonMin = Double.MAX_VALUE, lonMax = Double.NEGATIVE_INFINITY;
+        for (LatLonRect rect : stationBBox.values()) {
+            latMin = (latMin > rect.getLatMin()) ? rect.getLatMin() : latMin;
+            latMax = (latMax < rect.getLatMax()) ? rect.getLatMax() : latMax;
+            lonMin = (lonMin > rect.getLonMin()) ? rect.getLonMin() : lonMin;
+            lonMax = (lonMax < rect.getLonMax()) ? rect.getLonMax() : lonMax;
+        }
+        return new LatLonRect(new LatLonPointImpl(latMin, lonMin), new LatLonPointImpl(latMax, lonMax));
+    }
+
+    /**
+     * Restricts the extents to some of the stations, e.g. those within a requested
+     * bounding box. The time range of the result is the union of the stations' ranges.
+     * @param stationIndexes indexes of the stations to keep
+     * @return extents of the given stations only
+     */
+    public CapabilitiesExtents forStations(Collection<Integer> stationIndexes) {
+        CalendarDate start = null, end = null;
+        Map<Integer, CalendarDateRange> dateRanges = new HashMap<Integer, CalendarDateRange>();
+        Map<Integer, LatLonRect> boxes = new HashMap<Integer, LatLonRect>();
+        for (Integer stationIndex : stationIndexes) {
+            CalendarDateRange range = stationDateRange.get(stationIndex);
+            if (range != null) {
+                dateRanges.put(stationIndex, range);
+                if (start == null || start.isAfter(range.getStart()))
+                    start = range.getStart();
+                if (end == null || end.isBefore(range.getEnd()))
+                    end = range.getEnd();
+            }
+            LatLonRect box = stationBBox.get(stationIndex);
+            if (box != null)
+                boxes.put(stationIndex, box);
+        }
+        return new CapabilitiesExtents(start, end, dateRanges, boxes);
+    }
+
+    /**
+     * @param stationIndex index of the station
+     * @return time range of the station; null if unknown
+     */
+    public CalendarDateRange getStationDateRange(int stationIndex) {
+        return stationDateRange.get(stationIndex);
+    }
+
+    /**
+     * @param stationIndex index of the station
+     * @return bounding box of the station; null if unknown
+     */
+    public LatLonRect getStationBoundingBox(int stationIndex) {
+        return stationBBox.get(stationIndex);
+    }
+}
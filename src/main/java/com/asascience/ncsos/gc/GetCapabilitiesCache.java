@@ -0,0 +1,192 @@
+package com.asascience.ncsos.gc;
+
+import com.asascience.ncsos.outputformatter.CachedResponseFormatter;
+import com.asascience.ncsos.outputformatter.CapturingWriter;
+import com.asascience.ncsos.outputformatter.OutputFormatter;
+import com.asascience.ncsos.outputformatter.gc.GetCapsFormatter;
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory cache of rendered GetCapabilities documents, keyed by dataset location,
+ * request url and requested sections. A cached document is served without touching
+ * NetCDF-Java or JDOM and is dropped once the dataset's modification time changes.
+ * The cache is bounded in number of documents, in the total size of the documents and in
+ * the size of a single document, and evicts the least recently used documents first;
+ * documents are captured while they are streamed to the first client.
+ */
+public class GetCapabilitiesCache {
+
+    /** System property overriding the number of documents kept */
+    public static final String MAX_ENTRIES_PROPERTY = "ncsos.capabilitiesCache.maxEntries";
+    /** System property overriding the largest document (in characters) that is cached */
+    public static final String MAX_DOCUMENT_SIZE_PROPERTY = "ncsos.capabilitiesCache.maxDocumentSize";
+    /** System property overriding the most bytes of documents kept */
+    public static final String MAX_BYTES_PROPERTY = "ncsos.capabilitiesCache.maxBytes";
+
+    private static final int maxEntries = Math.max(1, Integer.getInteger(MAX_ENTRIES_PROPERTY, 128));
+    private static final long maxBytes = Math.max(2, Long.getLong(MAX_BYTES_PROPERTY, 64L * 1024 * 1024));
+    private static final int maxDocumentSize = (int) Math.min(
+            Integer.getInteger(MAX_DOCUMENT_SIZE_PROPERTY, 4 * 1024 * 1024), maxBytes / 2);
+
+    // least recently used first
+    private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private static long bytes = 0;
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(GetCapabilitiesCache.class);
+
+    /**
+     * Returns the cached capabilities document for the request
+     * @param dataset dataset of the request
+     * @param threddsURI url of the request; it is part of the document
+     * @param sections requested sections
+     * @return formatter writing the cached document, or null if there is no current document
+     */
+    public static OutputFormatter get(NetcdfDataset dataset, String threddsURI, String sections) {
+        String key = getKey(dataset, threddsURI, sections);
+        if (key == null)
+            return null;
+        Entry entry = lookup(key, DatasetHandlerAdapter.getLastModified(dataset));
+        if (entry == null)
+            return null;
+        return new CachedResponseFormatter(entry.content, entry.contentType);
+    }
+
+    /**
+     * Wraps the capabilities formatter so that the document is cached while it is streamed
+     * to the client. Documents larger than the size limit are streamed without being kept;
+     * error documents are not cached.
+     * @param dataset dataset of the request
+     * @param threddsURI url of the request
+     * @param sections requested sections
+     * @param lastModified modification time of the dataset before the document was built
+     * @param formatter formatter holding the finished document
+     * @return a formatter writing the document and caching it; the given formatter if it is not cacheable
+     */
+    public static OutputFormatter put(NetcdfDataset dataset, String threddsURI, String sections,
+                                      long lastModified, OutputFormatter formatter) {
+        String key = getKey(dataset, threddsURI, sections);
+        // without a modification time (remote datasets, aggregations) the document could not be told to be stale
+        if (key == null || lastModified <= 0 || formatter == null || !(formatter instanceof GetCapsFormatter)
+                || formatter.hasError())
+            return formatter;
+        return new CachingFormatter(key, lastModified, formatter);
+    }
+
+    /**
+     * Removes all cached documents
+     */
+    public static synchronized void clear() {
+        cache.clear();
+        bytes = 0;
+    }
+
+    private static synchronized Entry lookup(String key, long lastModified) {
+        if (lastModified <= 0)
+            return null;
+        Entry entry = cache.get(key);
+        if (entry != null && entry.lastModified != lastModified) {
+            cache.remove(key);
+            bytes -= entry.size;
+            return null;
+        }
+        return entry;
+    }
+
+    private static synchronized void store(String key, Entry entry) {
+        Entry replaced = cache.put(key, entry);
+        if (replaced != null)
+            bytes -= replaced.size;
+        bytes += entry.size;
+        // evict the least recently used documents until the cache is within its bounds
+        Iterator<Entry> eldest = cache.values().iterator();
+        while ((bytes > maxBytes || cache.size() > maxEntries) && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            bytes -= evicted.size;
+        }
+    }
+
+    private static String getKey(NetcdfDataset dataset, String threddsURI, String sections) {
+        if (dataset == null || dataset.getLocation() == null)
+            return null;
+        return dataset.getLocation() + "|" + threddsURI + "|" + normalizeSections(sections);
+    }
+
+    /**
+     * Puts the sections in a canonical form so equivalent requests share an entry
+     * @param sections comma separated list of sections
+     * @return lower case, sorted, de-duplicated list of sections
+     */
+    static String normalizeSections(String sections) {
+        if (sections == null)
+            return "all";
+        TreeSet<String> sorted = new TreeSet<String>();
+        for (String section : sections.toLowerCase().split(",")) {
+            section = section.trim();
+            if (section.equals("all"))
+                return "all";
+            if (section.length() > 0)
+                sorted.add(section);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String section : sorted) {
+            if (builder.length() > 0)
+                builder.append(",");
+            builder.append(section);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes a document through to the client and keeps a copy of it, up to the size limit
+     */
+    private static final class CachingFormatter extends OutputFormatter {
+        private final String key;
+        private final long lastModified;
+        private final OutputFormatter formatter;
+
+        CachingFormatter(String key, long lastModified, OutputFormatter formatter) {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.formatter = formatter;
+        }
+
+        public void writeOutput(Writer writer) throws IOException {
+            CapturingWriter capture = new CapturingWriter(writer, maxDocumentSize);
+            formatter.writeOutput(capture);
+            String content = capture.getContent();
+            if (content != null) {
+                store(key, new Entry(lastModified, content, formatter.getContentType(), key));
+            } else {
+                _log.debug("Capabilities document of " + key + " exceeds " + maxDocumentSize + " characters, not cached");
+            }
+        }
+
+        public String getContentType() {
+            return formatter.getContentType();
+        }
+    }
+
+    private static final class Entry {
+        final long lastModified;
+        final String content;
+        final String contentType;
+        // approximate bytes held by the entry
+        final long size;
+
+        Entry(long lastModified, String content, String contentType, String key) {
+            this.lastModified = lastModified;
+            this.content = content;
+            this.contentType = contentType;
+            this.size = 2L * (content.length() + key.length());
+        }
+    }
+}
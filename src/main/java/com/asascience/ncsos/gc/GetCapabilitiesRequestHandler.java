@@ -3,7 +3,8 @@ package com.asascience.ncsos.gc;
 import com.asascience.ncsos.outputformatter.ErrorFormatter;
 import com.asascience.ncsos.outputformatter.gc.GetCapsFormatter;
 import com.asascience.ncsos.service.BaseRequestHandler;
-import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.service.FeatureTypeCache;
+import com.asascience.ncsos.service.StationSpatialIndex;
 
 import ucar.nc2.constants.FeatureType;
 import ucar.nc2.dataset.NetcdfDataset;
@@ -11,12 +12,12 @@ import ucar.nc2.dt.GridDataset;
 import ucar.nc2.ft.*;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateRange;
-import ucar.unidata.geoloc.LatLonPointImpl;
 import ucar.unidata.geoloc.LatLonRect;
 
 import java.io.IOException;
 import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Creates basic Get Capabilites request handler that can read from a netcdf dataset
@@ -35,10 +36,10 @@ public class GetCapabilitiesRequestHandler extends BaseRequestHandler {
     private String sections;
     private BitSet requestedSections;
     private static final int SECTION_COUNT = 4;
-    private static CalendarDate setStartDate;
-    private static CalendarDate setEndDate;
-    private static HashMap<Integer, CalendarDateRange> stationDateRange;
-    private static HashMap<Integer, LatLonRect> stationBBox;
+    // extents of this request's dataset
+    private CapabilitiesExtents extents;
+    // bounding box the listed stations must be in; null for every station
+    private String boundingBox;
     private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(GetCapabilitiesRequestHandler.class);
 
     /**
@@ -71,20 +72,28 @@ public class GetCapabilitiesRequestHandler extends BaseRequestHandler {
                 StringBuffer sb = new StringBuffer();
                 if(netCDFDataset == null) {
                   ((ErrorFormatter)formatter).setException("Unable to read the dataset's feature type. NULL dataset.");
-                } else if(FeatureDatasetFactoryManager.findFeatureType(netCDFDataset) == null) {
+                } else if(getDetectedFeatureType() == null) {
                   ((ErrorFormatter)formatter).setException("Unable to read the dataset's feature type. Null feature type reported by netCDF");
                 } else {
-                  ((ErrorFormatter)formatter).setException("Unable to read the dataset's feature type. Reported as " + FeatureDatasetFactoryManager.findFeatureType(netCDFDataset).toString() + "; unable to process.");
+                  ((ErrorFormatter)formatter).setException("Unable to read the dataset's feature type. Reported as " + getDetectedFeatureType().toString() + "; unable to process.");
                 }
                 return;
             }
-            CalculateBoundsForFeatureSet();
+            extents = CalculateBoundsForFeatureSet();
             
 
     		
     	}
     	
     }
+    /**
+     * Lists only the stations within a bounding box
+     * @param bbox bounding box from the request, as minLon,minLat,maxLon,maxLat; null for every station
+     */
+    public void setBoundingBox(String bbox) {
+        this.boundingBox = bbox;
+    }
+
     public void resetCapabilitiesSections(String sections) throws IOException {
         this.sections = sections.toLowerCase();
         this.requestedSections = new BitSet(SECTION_COUNT);
@@ -127,6 +136,11 @@ public class GetCapabilitiesRequestHandler extends BaseRequestHandler {
             out.removeServiceProvider();
         }
         HashMap<Integer, String> stationNames = getStationNames();
+        if (boundingBox != null && isInitialized) {
+            stationNames = getStationsInBoundingBox(stationNames);
+            if (stationNames == null)
+                return;
+        }
         int stationNameSize = stationNames.values().size();
         // operations metadata; parse if it is the section identified or 'all'
         if (this.requestedSections.get(Sections.OPERATIONSMETADATA.ordinal())) {
@@ -152,232 +166,116 @@ public class GetCapabilitiesRequestHandler extends BaseRequestHandler {
             // get the bounds
         	// early exit if we have an exception output
         
-            Double latMin = Double.MAX_VALUE, latMax = Double.NEGATIVE_INFINITY, lonMin = Double.MAX_VALUE, lonMax = Double.NEGATIVE_INFINITY;
-            for (LatLonRect rect : stationBBox.values()) {
-                latMin = (latMin > rect.getLatMin()) ? rect.getLatMin() : latMin;
-                latMax = (latMax < rect.getLatMax()) ? rect.getLatMax() : latMax;
-                lonMin = (lonMin > rect.getLonMin()) ? rect.getLonMin() : lonMin;
-                lonMax = (lonMax < rect.getLonMax()) ? rect.getLonMax() : lonMax;
-            }
-            LatLonRect setRange = new LatLonRect(new LatLonPointImpl(latMin, lonMin), new LatLonPointImpl(latMax, lonMax));
-            CalendarDateRange setTime = null;
-            if (setStartDate != null && setEndDate != null) {
-                setTime = CalendarDateRange.of(setStartDate, setEndDate);
-            }
+            // with a bounding box, the network covers the stations within it only
+            CapabilitiesExtents networkExtents = (boundingBox != null) ? extents.forStations(stationNames.keySet()) : extents;
+            LatLonRect setRange = networkExtents.getBoundingBox();
+            CalendarDateRange setTime = networkExtents.getDateRange();
 
             out.setObservationOfferingNetwork(setRange, stationNames.values().toArray(
             		new String[stationNames.values().size()]), getSensorNames().keySet(), 
             		setTime, this.getFeatureDataset().getFeatureType());
-            // Add an offering for every station
-            for (Integer index : stationNames.keySet()) {
-                ((GetCapsFormatter) formatter).setObservationOffering(
-                		this.getUrnName(stationNames.get(index)), 
-                		stationBBox.get(index), getSensorNames().keySet(), 
-                		stationDateRange.get(index), this.getFeatureDataset().getFeatureType());
-            }
+            // Add an offering for every station; offerings are streamed when the response is written
+            out.setObservationOfferings(stationNames, getSensorNames().keySet(), extents,
+                    this.getFeatureDataset().getFeatureType());
         } else {
             // remove Contents node
             out.removeContents();
         }
     }
 
-    private void CalculateBoundsForFeatureSet() throws IOException {
+    /**
+     * Finds the stations within the requested bounding box through the station index
+     * @param stationNames station names by station index
+     * @return the stations in the bounding box; null if the box is not valid for the
+     * dataset, with the error set on the formatter
+     */
+    private HashMap<Integer, String> getStationsInBoundingBox(HashMap<Integer, String> stationNames) {
+        StationSpatialIndex index = getStationSpatialIndex();
+        if (index == null) {
+            formatter = new ErrorFormatter();
+            ((ErrorFormatter)formatter).setException("bbox is only supported for station datasets",
+                    OPTION_NOT_SUPPORTED, BBOX);
+            return null;
+        }
+        double[] box;
+        try {
+            box = StationSpatialIndex.parseBoundingBox(boundingBox);
+        } catch (IllegalArgumentException ex) {
+            formatter = new ErrorFormatter();
+            ((ErrorFormatter)formatter).setException(ex.getMessage(), INVALID_PARAMETER, BBOX);
+            return null;
+        }
+        HashMap<Integer, String> inBox = new HashMap<Integer, String>();
+        for (Integer stationIndex : index.within(box[0], box[1], box[2], box[3])) {
+            if (stationNames.containsKey(stationIndex))
+                inBox.put(stationIndex, stationNames.get(stationIndex));
+        }
+        return inBox;
+    }
+
+    /**
+     * Calculates the time range and bounding box of every station of the dataset
+     * @return the extents; null if the feature type is not supported, in which case
+     * the formatter has been replaced with an error
+     */
+    private CapabilitiesExtents CalculateBoundsForFeatureSet() throws IOException {
         FeatureType featype = this.getDatasetFeatureType();
+        HashMap<Integer, CalendarDateRange> stationDateRange = new HashMap<Integer, CalendarDateRange>();
+        HashMap<Integer, LatLonRect> stationBBox = new HashMap<Integer, LatLonRect>();
         if (featype != null) {
-            this.stationDateRange = new HashMap<Integer, CalendarDateRange>();
-            this.stationBBox = new HashMap<Integer, LatLonRect>();
             CalendarDate start = null, end = null;
-            int stationIndex = 0;
             switch (featype) {
                 case TRAJECTORY:
-                    try {
-                        TrajectoryFeatureCollection collection = (TrajectoryFeatureCollection) getFeatureTypeDataSet();
-                        collection.resetIteration();
-                        while (collection.hasNext()) {
-                            TrajectoryFeature feature = collection.next();
-                            if (DatasetHandlerAdapter.calcBounds(feature)) {
-                                if (start == null || start.isAfter(feature.getCalendarDateRange().getStart())) {
-                                    start = feature.getCalendarDateRange().getStart();
-                                }
-                                if (end == null || end.isBefore(feature.getCalendarDateRange().getEnd())) {
-                                    end = feature.getCalendarDateRange().getEnd();
-                                }
-                                this.stationDateRange.put(stationIndex, feature.getCalendarDateRange());
-                                this.stationBBox.put(stationIndex, feature.getBoundingBox());
-                                stationIndex++;
-                            } else {
-                                GetExtentsFromSubFeatures(feature, stationIndex);
-                            }
-                        }
-                    } catch (Exception ex) {
-                        _log.error(ex.getMessage(), ex);
-                    }
-                    break;
                 case STATION:
-                    try {
-                        StationTimeSeriesFeatureCollection collection = (StationTimeSeriesFeatureCollection) getFeatureTypeDataSet();
-                        collection.resetIteration();
-                        while (collection.hasNext()) {
-                            StationTimeSeriesFeature feature = collection.next();
-                            if (DatasetHandlerAdapter.calcBounds(feature)) {
-                                if (start == null || start.isAfter(feature.getCalendarDateRange().getStart())) {
-                                    start = feature.getCalendarDateRange().getStart();
-                                }
-                                if (end == null || end.isBefore(feature.getCalendarDateRange().getEnd())) {
-                                    end = feature.getCalendarDateRange().getEnd();
-                                }
-                                this.stationDateRange.put(stationIndex, feature.getCalendarDateRange());
-                                this.stationBBox.put(stationIndex, feature.getBoundingBox());
-                            } else {
-                                GetExtentsFromSubFeatures(feature, stationIndex);
-                            }
-                            stationIndex++;
-                        }
-                    } catch (Exception ex) {
-                        _log.error(ex.getMessage(), ex);
-                    }
-                    break;
                 case PROFILE:
-                    try {
-                        ProfileFeatureCollection collection = (ProfileFeatureCollection) getFeatureTypeDataSet();
-                        collection.resetIteration();
-                        while (collection.hasNext()) {
-                            ProfileFeature feature = collection.next();
-                            if (DatasetHandlerAdapter.calcBounds(feature)) {
-                                CalendarDate profileDate = CalendarDate.of(feature.getTime());
-                                if (start == null || start.isAfter(profileDate)) {
-                                    start = profileDate;
-                                }
-                                if (end == null || end.isBefore(profileDate)) {
-                                    end = profileDate;
-                                }
-                                this.stationDateRange.put(stationIndex, CalendarDateRange.of(profileDate, profileDate));
-                                this.stationBBox.put(stationIndex, new LatLonRect(feature.getLatLon(), feature.getLatLon()));
-                                stationIndex++;
-                            } else {
-                                GetExtentsFromSubFeatures(feature, stationIndex);
+                case STATION_PROFILE:
+                case SECTION:
+                    FeatureTypeCache.Entry featureTypeEntry = FeatureTypeCache.get(netCDFDataset);
+                    List<StationExtentsCalculator.FeatureExtent> extents = StationExtentsCalculator.calculate(netCDFDataset,
+                            (featureTypeEntry != null) ? featureTypeEntry.getWrapType() : null,
+                            featype, getFeatureTypeDataSet(), getStationNames().size());
+                    int stationIndex = 0;
+                    for (StationExtentsCalculator.FeatureExtent extent : extents) {
+                        stationDateRange.put(stationIndex, extent.getDateRange());
+                        stationBBox.put(stationIndex, extent.getBoundingBox());
+                        if (extent.isBoundsCalculated()) {
+                            if (start == null || start.isAfter(extent.getDateRange().getStart())) {
+                                start = extent.getDateRange().getStart();
                             }
+                            if (end == null || end.isBefore(extent.getDateRange().getEnd())) {
+                                end = extent.getDateRange().getEnd();
+                            }
+                        }
+                        // stations keep their index; other features that had to be read
+                        // point by point are overwritten by the next feature
+                        if (featype == FeatureType.STATION || extent.isBoundsCalculated()) {
+                            stationIndex++;
                         }
-                    } catch (Exception ex) {
-                        _log.error(ex.getMessage(), ex);
                     }
                     break;
                 case GRID:
                 	GridDataset gridData = getGridDataset();
                     start = gridData.getCalendarDateStart();
                     end = gridData.getCalendarDateEnd();
-                    this.stationDateRange.put(0, CalendarDateRange.of(start, end));
-                    this.stationBBox.put(0, gridData.getBoundingBox());
-                    break;
-                case STATION_PROFILE:
-                    try {
-                        CalendarDateRange nullrange = null;
-                        StationProfileFeatureCollection collection = (StationProfileFeatureCollection) getFeatureTypeDataSet();
-                        collection.resetIteration();
-                        while (collection.hasNext()) {
-                            StationProfileFeature feature = collection.next();
-                            PointFeatureCollection flattened = feature.flatten(null, nullrange);
-                            if (DatasetHandlerAdapter.calcBounds(flattened)) {
-                                if (start == null || start.isAfter(flattened.getCalendarDateRange().getStart())) {
-                                    start = flattened.getCalendarDateRange().getStart();
-                                }
-                                if (end == null || end.isBefore(flattened.getCalendarDateRange().getEnd())) {
-                                    end = flattened.getCalendarDateRange().getEnd();
-                                }
-                                this.stationDateRange.put(stationIndex, flattened.getCalendarDateRange());
-                                this.stationBBox.put(stationIndex, flattened.getBoundingBox());
-                                stationIndex++;
-                            } else {
-                                GetExtentsFromSubFeatures(flattened, stationIndex);
-                            }
-                        }
-                    } catch (Exception ex) {
-                        _log.error(ex.getMessage(), ex);
-                    }
-                    break;
-                case SECTION:
-                    try {
-                        CalendarDateRange nullrange = null;
-                        SectionFeatureCollection collection = (SectionFeatureCollection) getFeatureTypeDataSet();
-                        collection.resetIteration();
-                        while (collection.hasNext()) {
-                            SectionFeature feature = collection.next();
-                            PointFeatureCollection flattened = feature.flatten(null, nullrange);
-                            if (DatasetHandlerAdapter.calcBounds(flattened)) {
-                                if (start == null || start.isAfter(flattened.getCalendarDateRange().getStart())) {
-                                    start = flattened.getCalendarDateRange().getStart();
-                                }
-                                if (end == null || end.isBefore(flattened.getCalendarDateRange().getEnd())) {
-                                    end = flattened.getCalendarDateRange().getEnd();
-                                }
-                                this.stationDateRange.put(stationIndex, flattened.getCalendarDateRange());
-                                this.stationBBox.put(stationIndex, flattened.getBoundingBox());
-                                stationIndex++;
-                            } else {
-                                GetExtentsFromSubFeatures(flattened, stationIndex);
-                            }
-                        }
-                    } catch (Exception ex) {
-                        _log.error(ex.getMessage(), ex);
-                    }
+                    stationDateRange.put(0, CalendarDateRange.of(start, end));
+                    stationBBox.put(0, gridData.getBoundingBox());
                     break;
                 case POINT:
                     _log.error("NcSOS does not support the Point featureType at this time.");
                     formatter = new ErrorFormatter();
                     ((ErrorFormatter)formatter).setException("NcSOS does not support the Point featureType at this time.");
-                    return;
+                    return null;
                 default:
                     _log.error("Unknown feature type - NetCDF-Java could not figure out what this dataset was!");
                     formatter = new ErrorFormatter();
                     ((ErrorFormatter)formatter).setException("Unknown feature type - NetCDF-Java could not figure out what this dataset was!");
-                    return;
+                    return null;
             }
-            this.setStartDate = start;
-            this.setEndDate = end;
+            return new CapabilitiesExtents(start, end, stationDateRange, stationBBox);
         } else {
             _log.error("Unknown feature type - getDatasetFeatureType is null");
         }
-    }
-
-    private void GetExtentsFromSubFeatures(PointFeatureCollection coll, int index) {
-        try {
-            // calculate the bounds of this particular station
-            CalendarDate start = CalendarDate.present();
-            CalendarDate end = CalendarDate.of(0);
-            double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY, minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
-            for (coll.resetIteration(); coll.hasNext();) {
-                PointFeature pf = coll.next();
-                if (pf.getObservationTimeAsCalendarDate().isAfter(end)) {
-                    end = pf.getObservationTimeAsCalendarDate();
-                } else if (pf.getObservationTimeAsCalendarDate().isBefore(start)) {
-                    start = pf.getObservationTimeAsCalendarDate();
-                }
-
-                if (minLat > pf.getLocation().getLatitude()) {
-                    minLat = pf.getLocation().getLatitude();
-                } else if (maxLat < pf.getLocation().getLatitude()) {
-                    maxLat = pf.getLocation().getLatitude();
-                }
-
-                if (minLon > pf.getLocation().getLongitude()) {
-                    minLon = pf.getLocation().getLongitude();
-                } else if (maxLon < pf.getLocation().getLongitude()) {
-                    maxLon = pf.getLocation().getLongitude();
-                }
-            }
-            // add the values to the table
-            this.stationDateRange.put(index, CalendarDateRange.of(start, end));
-            this.stationBBox.put(index, new LatLonRect(new LatLonPointImpl(minLat, minLon), new LatLonPointImpl(maxLat, maxLon)));
-        } catch (Exception ex) {
-            // failed, um just add global bounds
-            _log.error("GetExtentsFromSubFeatures: Could not manually get extents, adding globals...\n\t" + ex.toString());
-            this.stationDateRange.put(index, CalendarDateRange.of(CalendarDate.of(0), CalendarDate.of(CalendarDate.present().getDifferenceInMsecs(CalendarDate.of(0)))));
-            this.stationBBox.put(index, new LatLonRect(new LatLonPointImpl(-90, -180), new LatLonPointImpl(90, 180)));
-        } catch (Error err) {
-            _log.error("GetExtentsFromSubFeatures: Could not manually get extents, adding globals...\n\t" + err.toString());
-            this.stationDateRange.put(index, CalendarDateRange.of(CalendarDate.of(0), CalendarDate.of(CalendarDate.present().getDifferenceInMsecs(CalendarDate.of(0)))));
-            this.stationBBox.put(index, new LatLonRect(new LatLonPointImpl(-90, -180), new LatLonPointImpl(90, 180)));
-        }
+        return new CapabilitiesExtents(null, null, stationDateRange, stationBBox);
     }
 
     private void SetSectionBits() throws IOException {
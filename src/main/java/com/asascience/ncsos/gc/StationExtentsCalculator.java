@@ -0,0 +1,372 @@
+package com.asascience.ncsos.gc;
+
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.util.DiscreteSamplingGeometryUtil;
+
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ft.*;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the time range and bounding box of every feature (station, trajectory, profile...)
+ * of a point dataset. Large datasets are split into contiguous ranges of features that are
+ * processed on a bounded, shared worker pool. A NetcdfDataset is not safe for concurrent
+ * reads, so each worker checks out its own copy of the dataset from the dataset handle
+ * pool, opened the same way as the request's dataset. The per-feature results are
+ * returned in feature order, so they can be merged exactly as the serial results are.
+ */
+public class StationExtentsCalculator {
+
+    /** System property overriding the number of worker threads */
+    public static final String THREADS_PROPERTY = "ncsos.extents.threads";
+    /** System property overriding the number of features below which the serial path is used */
+    public static final String MIN_FEATURES_PROPERTY = "ncsos.extents.minFeatures";
+
+    private static final int THREADS = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+    private static final int MIN_FEATURES = Integer.getInteger(MIN_FEATURES_PROPERTY, 64);
+    private static ExecutorService executor;
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(StationExtentsCalculator.class);
+
+    /**
+     * Extent of a single feature
+     */
+    public static final class FeatureExtent {
+        private final boolean boundsCalculated;
+        private final CalendarDateRange dateRange;
+        private final LatLonRect boundingBox;
+
+        /**
+         * @param boundsCalculated true if NetCDF-Java calculated the bounds, false if they
+         * were computed from the individual points
+         * @param dateRange time range of the feature
+         * @param boundingBox bounding box of the feature
+         */
+        public FeatureExtent(boolean boundsCalculated, CalendarDateRange dateRange, LatLonRect boundingBox) {
+            this.boundsCalculated = boundsCalculated;
+            this.dateRange = dateRange;
+            this.boundingBox = boundingBox;
+        }
+
+        public boolean isBoundsCalculated() {
+            return boundsCalculated;
+        }
+
+        public CalendarDateRange getDateRange() {
+            return dateRange;
+        }
+
+        public LatLonRect getBoundingBox() {
+            return boundingBox;
+        }
+    }
+
+    /**
+     * Computes the extents of all features of the collection, in the collection's order.
+     * Uses the worker pool when the dataset is large enough and can be reopened, otherwise
+     * reads the features serially from the given collection.
+     * @param dataset the request's dataset
+     * @param wrapType FeatureType the dataset was wrapped with; null forces the serial path
+     * @param featureType FeatureType of the feature collection
+     * @param collection the request's feature collection
+     * @param expectedFeatures estimated number of features
+     * @return extents in feature order; features after a read failure are missing
+     */
+    public static List<FeatureExtent> calculate(NetcdfDataset dataset, FeatureType wrapType, FeatureType featureType,
+                                                FeatureCollection collection, int expectedFeatures) {
+        int workers = Math.min(THREADS, expectedFeatures / Math.max(1, MIN_FEATURES / 2));
+        if (workers > 1 && expectedFeatures >= MIN_FEATURES) {
+            if (wrapType == null || dataset == null || dataset.getLocation() == null) {
+                _log.warn("The " + expectedFeatures + " features of " + ((dataset != null) ? dataset.getLocation() : null)
+                        + " can not be read from a copy of the dataset, using the serial path");
+            } else {
+                try {
+                    return calculateParallel(dataset, wrapType, featureType, expectedFeatures, workers);
+                } catch (Exception ex) {
+                    _log.warn("Parallel extent calculation failed for " + dataset.getLocation() + ", using the serial path", ex);
+                }
+            }
+        }
+        return calculateSerial(featureType, collection, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Computes the extents of the features in [first, last) of a collection
+     * @param featureType FeatureType of the feature collection
+     * @param collection the feature collection
+     * @param first index of the first feature
+     * @param last index after the last feature
+     * @return extents in feature order; stops at the first read failure
+     */
+    public static List<FeatureExtent> calculateSerial(FeatureType featureType, FeatureCollection collection, int first, int last) {
+        List<FeatureExtent> extents = new ArrayList<FeatureExtent>();
+        try {
+            FeatureIterator features = new FeatureIterator(featureType, collection);
+            for (int index = 0; index < last && features.hasNext(); index++) {
+                if (index < first) {
+                    features.skip();
+                    continue;
+                }
+                PointFeatureCollection feature = features.next();
+                extents.add(calculateExtent(featureType, feature));
+            }
+        } catch (Exception ex) {
+            _log.error(ex.getMessage(), ex);
+        }
+        return extents;
+    }
+
+    /**
+     * Shuts the worker pool down
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Computes the extents of all features on the worker pool, each worker reading a
+     * contiguous range of features from its own copy of the dataset
+     * @param dataset the request's dataset
+     * @param wrapType FeatureType the dataset was wrapped with
+     * @param featureType FeatureType of the feature collection
+     * @param expectedFeatures estimated number of features
+     * @param workers number of feature ranges
+     * @return extents in feature order
+     * @throws Exception if a range could not be read; the serial path should be used instead
+     */
+    static List<FeatureExtent> calculateParallel(final NetcdfDataset dataset, final FeatureType wrapType,
+                                                 final FeatureType featureType, int expectedFeatures,
+                                                 int workers) throws Exception {
+        int chunk = (expectedFeatures + workers - 1) / workers;
+        List<Future<List<FeatureExtent>>> futures = new ArrayList<Future<List<FeatureExtent>>>();
+        List<Integer> expectedSizes = new ArrayList<Integer>();
+        ExecutorService pool = getExecutor();
+        for (int w = 0; w < workers; w++) {
+            final int first = w * chunk;
+            // the last worker takes everything left, in case the estimate was low
+            final int last = (w == workers - 1) ? Integer.MAX_VALUE : first + chunk;
+            expectedSizes.add(last - first);
+            futures.add(pool.submit(new Callable<List<FeatureExtent>>() {
+                public List<FeatureExtent> call() throws Exception {
+                    return calculateOnCopy(dataset, wrapType, featureType, first, last);
+                }
+            }));
+        }
+        List<FeatureExtent> extents = new ArrayList<FeatureExtent>();
+        try {
+            for (int w = 0; w < futures.size(); w++) {
+                List<FeatureExtent> part = futures.get(w).get();
+                extents.addAll(part);
+                if (w < futures.size() - 1 && part.size() != expectedSizes.get(w)) {
+                    // short range: either the estimate was high or a read failed; let the
+                    // serial path decide so the result is identical
+                    throw new IOException("feature range " + w + " returned " + part.size() + " features");
+                }
+            }
+        } finally {
+            for (Future<List<FeatureExtent>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return extents;
+    }
+
+    private static List<FeatureExtent> calculateOnCopy(NetcdfDataset dataset, FeatureType wrapType, FeatureType featureType,
+                                                       int first, int last) throws IOException {
+        NetcdfDataset copy = DatasetHandlerAdapter.acquireCopy(dataset);
+        boolean failed = true;
+        try {
+            FeatureDataset featureDataset = FeatureDatasetFactoryManager.wrap(wrapType, copy, null, new Formatter());
+            if (featureDataset == null)
+                throw new IOException("Unable to wrap " + dataset.getLocation() + " as " + wrapType);
+            FeatureCollection collection = DiscreteSamplingGeometryUtil.extractFeatureDatasetCollection(featureDataset);
+            if (collection == null)
+                throw new IOException("No feature collection in " + dataset.getLocation());
+            List<FeatureExtent> extents = calculateSerial(featureType, collection, first, last);
+            failed = false;
+            return extents;
+        } finally {
+            DatasetHandlerAdapter.releaseDataset(copy, failed);
+        }
+    }
+
+    /**
+     * Calculates the extent of a single feature, falling back to iterating its points if
+     * NetCDF-Java could not calculate the bounds
+     */
+    private static FeatureExtent calculateExtent(FeatureType featureType, PointFeatureCollection feature) {
+        if (DatasetHandlerAdapter.calcBounds(feature)) {
+            if (featureType == FeatureType.PROFILE) {
+                ProfileFeature profile = (ProfileFeature) feature;
+                CalendarDate profileDate = CalendarDate.of(profile.getTime());
+                return new FeatureExtent(true, CalendarDateRange.of(profileDate, profileDate),
+                        new LatLonRect(profile.getLatLon(), profile.getLatLon()));
+            }
+            return new FeatureExtent(true, feature.getCalendarDateRange(), feature.getBoundingBox());
+        }
+        return calculateExtentFromPoints(feature);
+    }
+
+    private static FeatureExtent calculateExtentFromPoints(PointFeatureCollection coll) {
+        try {
+            // calculate the bounds of this particular station
+            CalendarDate start = CalendarDate.present();
+            CalendarDate end = CalendarDate.of(0);
+            double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY, minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+            for (coll.resetIteration(); coll.hasNext();) {
+                PointFeature pf = coll.next();
+                if (pf.getObservationTimeAsCalendarDate().isAfter(end)) {
+                    end = pf.getObservationTimeAsCalendarDate();
+                } else if (pf.getObservationTimeAsCalendarDate().isBefore(start)) {
+                    start = pf.getObservationTimeAsCalendarDate();
+                }
+
+                if (minLat > pf.getLocation().getLatitude()) {
+                    minLat = pf.getLocation().getLatitude();
+                } else if (maxLat < pf.getLocation().getLatitude()) {
+                    maxLat = pf.getLocation().getLatitude();
+                }
+
+                if (minLon > pf.getLocation().getLongitude()) {
+                    minLon = pf.getLocation().getLongitude();
+                } else if (maxLon < pf.getLocation().getLongitude()) {
+                    maxLon = pf.getLocation().getLongitude();
+                }
+            }
+            return new FeatureExtent(false, CalendarDateRange.of(start, end),
+                    new LatLonRect(new LatLonPointImpl(minLat, minLon), new LatLonPointImpl(maxLat, maxLon)));
+        } catch (Exception ex) {
+            // failed, um just add global bounds
+            _log.error("GetExtentsFromSubFeatures: Could not manually get extents, adding globals...\n\t" + ex.toString());
+            return globalExtent();
+        } catch (Error err) {
+            _log.error("GetExtentsFromSubFeatures: Could not manually get extents, adding globals...\n\t" + err.toString());
+            return globalExtent();
+        }
+    }
+
+    private static FeatureExtent globalExtent() {
+        return new FeatureExtent(false,
+                CalendarDateRange.of(CalendarDate.of(0), CalendarDate.of(CalendarDate.present().getDifferenceInMsecs(CalendarDate.of(0)))),
+                new LatLonRect(new LatLonPointImpl(-90, -180), new LatLonPointImpl(90, 180)));
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(Math.max(1, THREADS), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ncsos-extents-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Walks the features of a collection as PointFeatureCollections, flattening the
+     * nested collection types the same way capabilities always has.
+     */
+    private static final class FeatureIterator {
+        private final FeatureType featureType;
+        private final FeatureCollection collection;
+
+        FeatureIterator(FeatureType featureType, FeatureCollection collection) throws IOException {
+            this.featureType = featureType;
+            this.collection = collection;
+            switch (featureType) {
+                case TRAJECTORY:
+                    ((TrajectoryFeatureCollection) collection).resetIteration();
+                    break;
+                case STATION:
+                    ((StationTimeSeriesFeatureCollection) collection).resetIteration();
+                    break;
+                case PROFILE:
+                    ((ProfileFeatureCollection) collection).resetIteration();
+                    break;
+                case STATION_PROFILE:
+                    ((StationProfileFeatureCollection) collection).resetIteration();
+                    break;
+                case SECTION:
+                    ((SectionFeatureCollection) collection).resetIteration();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported feature type " + featureType);
+            }
+        }
+
+        boolean hasNext() throws IOException {
+            switch (featureType) {
+                case TRAJECTORY:
+                    return ((TrajectoryFeatureCollection) collection).hasNext();
+                case STATION:
+                    return ((StationTimeSeriesFeatureCollection) collection).hasNext();
+                case PROFILE:
+                    return ((ProfileFeatureCollection) collection).hasNext();
+                case STATION_PROFILE:
+                    return ((StationProfileFeatureCollection) collection).hasNext();
+                default:
+                    return ((SectionFeatureCollection) collection).hasNext();
+            }
+        }
+
+        /**
+         * Moves past a feature without reading or flattening it
+         */
+        void skip() throws IOException {
+            switch (featureType) {
+                case TRAJECTORY:
+                    ((TrajectoryFeatureCollection) collection).next();
+                    break;
+                case STATION:
+                    ((StationTimeSeriesFeatureCollection) collection).next();
+                    break;
+                case PROFILE:
+                    ((ProfileFeatureCollection) collection).next();
+                    break;
+                case STATION_PROFILE:
+                    ((StationProfileFeatureCollection) collection).next();
+                    break;
+                default:
+                    ((SectionFeatureCollection) collection).next();
+                    break;
+            }
+        }
+
+        PointFeatureCollection next() throws IOException {
+            CalendarDateRange nullrange = null;
+            switch (featureType) {
+                case TRAJECTORY:
+                    return ((TrajectoryFeatureCollection) collection).next();
+                case STATION:
+                    return ((StationTimeSeriesFeatureCollection) collection).next();
+                case PROFILE:
+                    return ((ProfileFeatureCollection) collection).next();
+                case STATION_PROFILE:
+                    return ((StationProfileFeatureCollection) collection).next().flatten(null, nullrange);
+                default:
+                    return ((SectionFeatureCollection) collection).next().flatten(null, nullrange);
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.asascience.ncsos.go;
+
+import com.asascience.ncsos.outputformatter.CachedResponseFormatter;
+import com.asascience.ncsos.outputformatter.CapturingWriter;
+import com.asascience.ncsos.outputformatter.ErrorFormatter;
+import com.asascience.ncsos.outputformatter.OutputFormatter;
+import com.asascience.ncsos.service.BaseRequestHandler;
+import com.asascience.ncsos.service.Parser;
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.units.DateFormatter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of rendered GetObservation responses, keyed by dataset location, the
+ * dataset's modification time and the canonical form of the request's parameters, so
+ * that repeated requests are served without initializing the dataset or reading any data.
+ * The cache is bounded by the total size of the responses it holds and evicts the least
+ * recently used ones first. Responses to requests that reach the end of the data (no
+ * event time, "latest", a single instant, or a range ending in the future) also expire
+ * after a time to live, since newer observations may arrive without the dataset being
+ * seen as modified (e.g. an aggregation that is rescanned periodically). Datasets whose
+ * modification time does not tell when their data changed, remote datasets and NcML
+ * aggregations, are not cached.
+ */
+public class GetObservationCache {
+
+    /** System property overriding the most bytes of responses kept; 0 disables the cache */
+    public static final String MAX_BYTES_PROPERTY = "ncsos.observationCache.maxBytes";
+    /** System property overriding the largest response (in characters) that is cached */
+    public static final String MAX_RESPONSE_SIZE_PROPERTY = "ncsos.observationCache.maxResponseSize";
+    /** System property overriding how long (in seconds) responses reaching the end of the data are kept */
+    public static final String LATEST_TTL_PROPERTY = "ncsos.observationCache.latestTtl";
+
+    private static final String LATEST_TIME = "latest";
+
+    // the parameters Parser hands to the GetObservation handler, in the key's order
+    private static final String[] PARAMETERS = {
+            GetObservationRequestHandler.AGGREGATION_FUNCTION,
+            GetObservationRequestHandler.AGGREGATION_INTERVAL,
+            BaseRequestHandler.BBOX,
+            GetObservationRequestHandler.CONTINUATION_TOKEN,
+            Parser.DEPTH,
+            Parser.EVENT_TIME,
+            Parser.LAT,
+            Parser.LON,
+            GetObservationRequestHandler.MAX_RECORDS,
+            Parser.OBSERVED_PROPERTY,
+            Parser.OFFERING,
+            Parser.PROCEDURE,
+            Parser.RESPONSE_FORMAT};
+
+    private static final long maxBytes = Long.getLong(MAX_BYTES_PROPERTY, 32L * 1024 * 1024);
+    private static final int maxResponseSize = (int) Math.min(
+            Integer.getInteger(MAX_RESPONSE_SIZE_PROPERTY, 1024 * 1024), maxBytes / 2);
+    private static final long latestTtl = Long.getLong(LATEST_TTL_PROPERTY, 60) * 1000;
+
+    // least recently used first
+    private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private static long bytes = 0;
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(GetObservationCache.class);
+
+    /**
+     * Computes the cache key of a request. The key is taken before the request is handled,
+     * as handling it resolves some parameters in place (e.g. "latest" event times).
+     * @param dataset dataset of the request
+     * @param queryParameters parsed parameters of the request
+     * @return the key; null if the request is not cached
+     */
+    public static Key getKey(NetcdfDataset dataset, Map<String, Object> queryParameters) {
+        if (maxBytes <= 0 || dataset == null || dataset.getLocation() == null || queryParameters == null)
+            return null;
+        // without a modification time (remote datasets, aggregations) a cached response
+        // could not be told to be stale
+        long lastModified = DatasetHandlerAdapter.getLastModified(dataset);
+        if (lastModified <= 0)
+            return null;
+        return new Key(dataset.getLocation() + "|" + lastModified + "|" + canonicalQuery(queryParameters),
+                reachesEndOfData(queryParameters, System.currentTimeMillis()));
+    }
+
+    /**
+     * Returns the cached response for a request
+     * @param key key of the request; may be null
+     * @return formatter writing the cached response, or null if there is no current response
+     */
+    public static OutputFormatter get(Key key) {
+        if (key == null)
+            return null;
+        Entry entry = lookup(key.value);
+        if (entry == null)
+            return null;
+        return new CachedResponseFormatter(entry.content, entry.contentType);
+    }
+
+    /**
+     * Wraps the GetObservation formatter so that the response is cached while it is streamed
+     * to the client. Responses larger than the size limit are streamed without being kept;
+     * error responses are not cached.
+     * @param key key of the request, taken before the response was built; may be null
+     * @param formatter formatter of the response
+     * @return a formatter writing the response and caching it; the given formatter if it is not cacheable
+     */
+    public static OutputFormatter put(Key key, OutputFormatter formatter) {
+        if (key == null || formatter == null || formatter instanceof ErrorFormatter || formatter.hasError())
+            return formatter;
+        return new CachingFormatter(key, formatter);
+    }
+
+    /**
+     * Removes all cached responses
+     */
+    public static synchronized void clear() {
+        cache.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Puts the parameters of a request in a canonical form so equivalent requests share an
+     * entry. Only the parameters the handler reads make up the form, each looked up the way
+     * Parser does, whatever the case of its key; values are trimmed, and event times written
+     * as ISO 8601 instants. The order of the procedures and observed properties is kept, as
+     * it is the order of the stations and values in the response.
+     * @param queryParameters parsed parameters of the request
+     * @return canonical form of the request
+     */
+    static String canonicalQuery(Map<String, Object> queryParameters) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : PARAMETERS) {
+            Object parameter = getParameter(queryParameters, name);
+            if (parameter == null)
+                continue;
+            String[] values = (parameter instanceof String[])
+                    ? ((String[]) parameter).clone() : new String[]{String.valueOf(parameter)};
+            if (name.equals(Parser.EVENT_TIME)) {
+                values = normalizeEventTime(values);
+            }
+            if (builder.length() > 0)
+                builder.append("&");
+            builder.append(name).append("=");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    builder.append(",");
+                String trimmed = values[i].trim();
+                builder.append(name.equals(Parser.RESPONSE_FORMAT)
+                        ? trimmed.toLowerCase().replaceAll(";\\s+subtype", ";subtype") : trimmed);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param queryParameters parsed parameters of the request
+     * @param name name of a parameter, as the handler spells it
+     * @return the value of the parameter, whatever the case of its key; null if it is absent
+     */
+    private static Object getParameter(Map<String, Object> queryParameters, String name) {
+        // Parser's map already looks its keys up regardless of case
+        Object value = queryParameters.get(name);
+        if (value != null)
+            return value;
+        for (Map.Entry<String, Object> entry : queryParameters.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name))
+                return entry.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * @param eventTimes requested event time, a single time or a start and end time
+     * @return the start and end time, as ISO 8601 instants when they can be parsed
+     */
+    private static String[] normalizeEventTime(String[] eventTimes) {
+        if (eventTimes.length == 1)
+            eventTimes = new String[]{eventTimes[0], eventTimes[0]};
+        DateFormatter formatter = new DateFormatter();
+        for (int i = 0; i < eventTimes.length; i++) {
+            String time = eventTimes[i].trim();
+            Date date = (time.equalsIgnoreCase(LATEST_TIME)) ? null : formatter.getISODate(time);
+            eventTimes[i] = (date != null) ? formatter.toDateTimeStringISO(date) : time.toLowerCase();
+        }
+        return eventTimes;
+    }
+
+    /**
+     * @param queryParameters parsed parameters of the request
+     * @param now current time, in millis
+     * @return whether the response may change as observations are appended to the dataset:
+     * true unless the request is for a range of times ending before now
+     */
+    static boolean reachesEndOfData(Map<String, Object> queryParameters, long now) {
+        Object eventTime = getParameter(queryParameters, Parser.EVENT_TIME);
+        String[] eventTimes = (eventTime instanceof String[]) ? (String[]) eventTime : null;
+        // all the observations, or the one nearest to an instant, which may be a newer one
+        if (eventTimes == null || eventTimes.length < 2)
+            return true;
+        for (String time : eventTimes) {
+            if (time.trim().equalsIgnoreCase(LATEST_TIME))
+                return true;
+        }
+        Date end = new DateFormatter().getISODate(eventTimes[eventTimes.length - 1].trim());
+        return end == null || end.getTime() >= now;
+    }
+
+    private static synchronized Entry lookup(String key) {
+        Entry entry = cache.get(key);
+        if (entry != null && entry.expires < System.currentTimeMillis()) {
+            cache.remove(key);
+            bytes -= entry.size;
+            return null;
+        }
+        return entry;
+    }
+
+    private static synchronized void store(String key, Entry entry) {
+        Entry replaced = cache.put(key, entry);
+        if (replaced != null)
+            bytes -= replaced.size;
+        bytes += entry.size;
+        // evict the least recently used responses until the cache is within its budget
+        Iterator<Entry> eldest = cache.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            bytes -= evicted.size;
+        }
+    }
+
+    /**
+     * Writes a response through to the client and keeps a copy of it, up to the size limit
+     */
+    private static final class CachingFormatter extends OutputFormatter {
+        private final Key key;
+        private final OutputFormatter formatter;
+
+        CachingFormatter(Key key, OutputFormatter formatter) {
+            this.key = key;
+            this.formatter = formatter;
+        }
+
+        public void writeOutput(Writer writer) throws IOException {
+            CapturingWriter capture = new CapturingWriter(writer, maxResponseSize);
+            formatter.writeOutput(capture);
+            String content = capture.getContent();
+            if (formatter.hasError()) {
+                return;
+            }
+            if (content != null) {
+                long expires = key.reachesEndOfData ? System.currentTimeMillis() + latestTtl : Long.MAX_VALUE;
+                store(key.value, new Entry(expires, content, formatter.getContentType(), key.value));
+            } else {
+                _log.debug("GetObservation response of " + key + " exceeds " + maxResponseSize + " characters, not cached");
+            }
+        }
+
+        public String getContentType() {
+            return formatter.getContentType();
+        }
+    }
+
+    /**
+     * Cache key of a request
+     */
+    public static final class Key {
+        final String value;
+        // the response expires after the time to live
+        final boolean reachesEndOfData;
+
+        Key(String value, boolean reachesEndOfData) {
+            this.value = value;
+            this.reachesEndOfData = reachesEndOfData;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    private static final class Entry {
+        final long expires;
+        final String content;
+        final String contentType;
+        // approximate bytes held by the entry
+        final long size;
+
+        Entry(long expires, String content, String contentType, String key) {
+            this.expires = expires;
+            this.content = content;
+            this.contentType = contentType;
+            this.size = 2L * (content.length() + key.length());
+        }
+    }
+}
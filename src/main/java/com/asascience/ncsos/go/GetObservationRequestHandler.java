@@ -7,10 +7,13 @@ import com.asascience.ncsos.outputformatter.go.Ioos10Formatter;
 import com.asascience.ncsos.outputformatter.go.JsonFormatter;
 import com.asascience.ncsos.outputformatter.go.OosTethysFormatter;
 import com.asascience.ncsos.service.BaseRequestHandler;
+import com.asascience.ncsos.service.StationSpatialIndex;
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.util.DiscreteSamplingGeometryUtil;
 import com.asascience.ncsos.util.ListComprehension;
 import com.asascience.ncsos.util.VocabDefinitions;
 
-import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Attribute;
 import ucar.nc2.Variable;
 import ucar.nc2.VariableSimpleIF;
@@ -18,8 +21,11 @@ import ucar.nc2.constants.AxisType;
 import ucar.nc2.constants.CF;
 import ucar.nc2.constants.FeatureType;
 import ucar.nc2.dataset.CoordinateAxis;
-import ucar.nc2.dataset.CoordinateAxis1D;
 import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ft.FeatureCollection;
+import ucar.nc2.ft.FeatureDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+import ucar.nc2.units.DateFormatter;
 import ucar.nc2.units.DateUnit;
 
 import java.io.IOException;
@@ -27,6 +33,10 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +49,12 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
     public static final String TEXTXML = "text/xml";
 
     private String[] obsProperties;
+    private ParallelObservationReader parallelReader;
+    private final DateFormatter timeFormatter = new DateFormatter();
+    private ObservationPage page;
+    private ObservationAggregation aggregation;
+    // last station opened for the page, to notice a formatter's new pass over the stations
+    private int lastPagedIndex = -1;
     private String[] procedures;
     private iStationData CDMDataSet;
     private org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(GetObservationRequestHandler.class);
@@ -47,10 +63,16 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
     public static final String OOSTETHYS_RESPONSE_FORMAT = "text/xml;subtype=\"om/1.0.0\"";
     public static final String CSV_RESPONSE_FORMAT = "text/csv";
     public static final String JSON_RESPONSE_FORMAT = "text/json";
+    public static final String MAX_RECORDS = "maxRecords";
+    public static final String CONTINUATION_TOKEN = "continuationToken";
+    public static final String AGGREGATION_INTERVAL = "aggregationInterval";
+    public static final String AGGREGATION_FUNCTION = "aggregationFunction";
     private final List<String> eventTimes;
     private boolean requestFirstTime;
     private boolean requestLastTime;
     private static final String LATEST_TIME = "latest";
+    // feature dataset wrapping a pooled copy of the dataset, kept with the handle
+    private static final String POINT_DATASET_ATTRIBUTE = "ncsos.go.featureDataset";
     private static final String FIRST_TIME = "first";
     private static final String ALL_OBS = "all";
     private String latAxisName;
@@ -73,6 +95,27 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
                                         String[] eventTime,
                                         String responseFormat,
                                         Map<String, String> latLonRequest) throws Exception {
+        this(netCDFDataset, requestedProcedures, offering, variableNames, eventTime, responseFormat, latLonRequest,
+                null, null, null);
+    }
+
+    /**
+     * SOS get obs request handler returning a page of the observations
+     * @param bbox bounding box the stations must be in, as minLon,minLat,maxLon,maxLat; null for any station
+     * @param maxRecords most records of the response from the request; null for the server's limit
+     * @param continuationToken token of the previous page from the request; null for the first page
+     * @see #GetObservationRequestHandler(NetcdfDataset, String[], String, String[], String[], String, Map)
+     */
+    public GetObservationRequestHandler(NetcdfDataset netCDFDataset,
+                                        String[] requestedProcedures,
+                                        String offering,
+                                        String[] variableNames,
+                                        String[] eventTime,
+                                        String responseFormat,
+                                        Map<String, String> latLonRequest,
+                                        String bbox,
+                                        String maxRecords,
+                                        String continuationToken) throws Exception {
         super(netCDFDataset);
         this.requestFirstTime = false;
         this.requestLastTime = false;
@@ -85,8 +128,47 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
                                         variableNames,
                                         eventTime,
                                         responseFormat,
-                                        latLonRequest);
-        
+                                        latLonRequest,
+                                        bbox);
+        if (CDMDataSet != null && !(formatter instanceof ErrorFormatter)) {
+            setupPage(maxRecords, continuationToken);
+        }
+    }
+
+    /**
+     * Limits the response to a page when the request or the server sets a most number of
+     * records, or when the request continues a previous page
+     */
+    private void setupPage(String maxRecords, String continuationToken) {
+        int limit = ObservationPage.getServerMaxRecords();
+        if (maxRecords != null) {
+            int requested;
+            try {
+                requested = Integer.parseInt(maxRecords);
+            } catch (NumberFormatException ex) {
+                requested = 0;
+            }
+            if (requested < 1) {
+                formatter = new ErrorFormatter();
+                ((ErrorFormatter)formatter).setException("maxRecords must be a positive integer: " + maxRecords,
+                        INVALID_PARAMETER, MAX_RECORDS);
+                return;
+            }
+            limit = (limit > 0) ? Math.min(limit, requested) : requested;
+        }
+        if (limit == 0 && continuationToken == null)
+            return;
+        try {
+            page = new ObservationPage(limit, continuationToken, this.procedures.length);
+        } catch (IllegalArgumentException ex) {
+            formatter = new ErrorFormatter();
+            ((ErrorFormatter)formatter).setException("Invalid continuationToken " + continuationToken +
+                    ". Use the token of the previous response with the same request.", INVALID_PARAMETER, CONTINUATION_TOKEN);
+            return;
+        }
+        if (page.resumesByTime() && CDMDataSet instanceof baseCDMClass) {
+            ((baseCDMClass) CDMDataSet).setResumePoint(page.getStartStation(), page.getStartTime());
+        }
     }
 
     
@@ -96,7 +178,8 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
             String[] variableNames,
             String[] eventTime,
             String responseFormat,
-            Map<String, String> latLonRequest) throws Exception{
+            Map<String, String> latLonRequest,
+            String bbox) throws Exception{
         List<String> localEventTime = new ArrayList<String>();
         // Translate back to an URN.  (gml:id fields in XML can't have colons)
         offering = offering.replace("_-_",":");
@@ -216,16 +299,21 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
         if (offering != null) {
             checkProceduresAgainstOffering(offering);
         }
+        // and are within the bounding box
+        if (bbox != null && !filterProceduresByBoundingBox(bbox)) {
+            CDMDataSet = null;
+            return localEventTime;
+        }
 
+        boolean boundaryRecordOnly = false;
         if (eventTime != null && eventTime.length > 0) {
-            Array timeVals = null;
             DateUnit dateUnit = null;
+            // a lone "first" or "latest" asks for the first or latest record of each station
+            boundaryRecordOnly = eventTime.length == 1 &&
+                    (eventTime[0].equals(LATEST_TIME) || eventTime[0].equals(FIRST_TIME));
             for(int eventTimeI = 0; eventTimeI < eventTime.length; eventTimeI++){
                 if(eventTime[eventTimeI].equals(LATEST_TIME) ||
                         eventTime[eventTimeI].equals(FIRST_TIME)){
-                    int timeIndex = 0;
-                    if(timeVals == null)
-                        timeVals = this.timeVariable.read();
                     if(dateUnit == null)
                         dateUnit = new DateUnit(timeVariable.getUnitsString());
                     if(eventTime[eventTimeI].equals(FIRST_TIME)){
@@ -233,10 +321,9 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
                     }
                     
                     if(eventTime[eventTimeI].equals(LATEST_TIME)) {
-                        timeIndex = (int)timeVals.getSize() - 1;
                         this.requestLastTime = true;
                     }
-                    double lastT = timeVals.getDouble(timeIndex);
+                    double lastT = readBoundaryTime(eventTime[eventTimeI].equals(LATEST_TIME));
                     eventTime[eventTimeI] = dateUnit.makeStandardDateString(lastT);
                 }
 
@@ -250,15 +337,46 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
                 eventTime[0] = currEntry;
                 eventTime[1] = currEntry;
             }
+            for (String time : eventTime) {
+                if (!baseCDMClass.isEventTime(time)) {
+                    formatter = new ErrorFormatter();
+                    ((ErrorFormatter)formatter).setException("Invalid eventTime " + time, INVALID_PARAMETER, "eventTime");
+                    CDMDataSet = null;
+                    return localEventTime;
+                }
+            }
             localEventTime = Arrays.asList(eventTime);
 
         } 
         setCDMDatasetForStations(netCDFDataset, eventTime, latLonRequest, heightAxis);
+        if (boundaryRecordOnly && CDMDataSet instanceof baseCDMClass) {
+            ((baseCDMClass) CDMDataSet).setBoundaryRecordOnly(this.requestFirstTime, this.requestLastTime);
+        }
 
         return localEventTime;
 
     }
     
+    /**
+     * Reads the first or the last value of the time coordinate, without reading the rest of it
+     * @param last true for the last value, false for the first
+     * @return the time value, in the units of the time coordinate
+     */
+    private double readBoundaryTime(boolean last) throws IOException {
+        int[] shape = timeVariable.getShape();
+        int[] origin = new int[shape.length];
+        int[] size = new int[shape.length];
+        for (int d = 0; d < shape.length; d++) {
+            origin[d] = last ? shape[d] - 1 : 0;
+            size[d] = 1;
+        }
+        try {
+            return timeVariable.read(origin, size).getDouble(0);
+        } catch (InvalidRangeException ex) {
+            throw new IOException("could not read the time coordinate: " + ex.getMessage());
+        }
+    }
+
     public boolean is3dGrid(String station){
     	boolean is3dGrid = false;
     	if(this.getCDMDataset() instanceof Grid){
@@ -307,9 +425,7 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
 
             List<String> lats = Arrays.asList(latLonRequest.get(LAT).split(","));
             for (String s : lats) {
-                try {
-                    Double.parseDouble(s);
-                } catch (NumberFormatException e) {
+                if (!isCoordinate(s)) {
                     formatter = new ErrorFormatter();
                     ((ErrorFormatter)formatter).setException("Invalid latitude specified", INVALID_PARAMETER, "latitude");
                     CDMDataSet = null;
@@ -318,9 +434,7 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
             }
             List<String> lons = Arrays.asList(latLonRequest.get(LON).split(","));
             for (String s : lons) {
-                try {
-                    Double.parseDouble(s);
-                } catch (NumberFormatException e) {
+                if (!isCoordinate(s)) {
                     formatter = new ErrorFormatter();
                     ((ErrorFormatter)formatter).setException("Invalid longitude specified", INVALID_PARAMETER, "longitude");
                     CDMDataSet = null;
@@ -336,7 +450,7 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
                 depthAxis = netCDFDataset.findCoordinateAxis(AxisType.Height);
                 if (depthAxis != null) {
                 	this.depthAxisName = depthAxis.getFullName();
-                    this.obsProperties = checkNetcdfFileForAxis((CoordinateAxis1D) depthAxis, this.obsProperties);
+                    this.obsProperties = checkNetcdfFileForAxis((CoordinateAxis) depthAxis, this.obsProperties);
                 }
                 CoordinateAxis lonAxis = netCDFDataset.findCoordinateAxis(AxisType.Lon);
                 this.lonAxisName = lonAxis.getFullName();
@@ -362,7 +476,9 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
             if (currType == FeatureType.TRAJECTORY) {
                 CDMDataSet = new Trajectory(stationsNamesFromUrn, eventTime, this.obsProperties);
             } else if (currType  == FeatureType.STATION) {
-                CDMDataSet = new TimeSeries(stationsNamesFromUrn, eventTime, this.obsProperties);
+                TimeSeries timeSeries = new TimeSeries(stationsNamesFromUrn, eventTime, this.obsProperties);
+                timeSeries.setTimeIndex(netCDFDataset, StationTimeIndex.get(netCDFDataset, timeVariable, stationVariable));
+                CDMDataSet = timeSeries;
             } else if (currType  == FeatureType.STATION_PROFILE) {
                 
                 CDMDataSet = new TimeSeriesProfile(stationsNamesFromUrn, eventTime, 
@@ -519,10 +635,181 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
         return getUnitsOfVariable(dataVarName);
     }
 
-    public String getValueBlockForAllObs(String block, String decimal, String token, int relIndex) {
+    /**
+     * Opens a cursor over the observations of a requested station; for a paged response,
+     * only the observations of the station in the page. Stations are expected in request
+     * order, a lower index starting a new pass over the page.
+     * @param relIndex index of the station in the request
+     * @return cursor to be closed by the caller
+     * @throws IOException if the data could not be read
+     */
+    public ObservationCursor getObservationCursor(int relIndex) throws IOException {
         _log.info("Getting data for index: " + relIndex);
-        String retval = CDMDataSet.getDataResponse(relIndex);
-        return retval.replaceAll("\\.", decimal).replaceAll(",", token).replaceAll(";", block);
+        if (page == null)
+            return openCursor(relIndex);
+        if (relIndex <= lastPagedIndex)
+            page.restart();
+        lastPagedIndex = relIndex;
+        if (relIndex < page.getStartStation())
+            return BaseObservationCursor.empty(obsProperties);
+        if (page.isFull()) {
+            page.stopAt(relIndex);
+            return BaseObservationCursor.empty(obsProperties);
+        }
+        return page.open(relIndex, openCursor(relIndex));
+    }
+
+    /**
+     * Reduces the observations of each station to one record per time bucket, while they
+     * are read. A paged response counts the reduced records.
+     * @param interval ISO 8601 duration of a bucket from the request (e.g. PT1H, P1D)
+     * @param function reduction from the request (mean, min, max, count, first or last);
+     * null for mean
+     */
+    public void setAggregation(String interval, String function) {
+        if (formatter instanceof ErrorFormatter || CDMDataSet == null)
+            return;
+        if (interval == null) {
+            formatter = new ErrorFormatter();
+            ((ErrorFormatter)formatter).setException("aggregationInterval is required with aggregationFunction",
+                    INVALID_PARAMETER, AGGREGATION_INTERVAL);
+            return;
+        }
+        long millis;
+        try {
+            millis = ObservationAggregation.parseInterval(interval);
+        } catch (IllegalArgumentException ex) {
+            formatter = new ErrorFormatter();
+            ((ErrorFormatter)formatter).setException(ex.getMessage(), INVALID_PARAMETER, AGGREGATION_INTERVAL);
+            return;
+        }
+        ObservationAggregation.Function reduction;
+        try {
+            reduction = (function == null)
+                    ? ObservationAggregation.Function.MEAN : ObservationAggregation.parseFunction(function);
+        } catch (IllegalArgumentException ex) {
+            formatter = new ErrorFormatter();
+            ((ErrorFormatter)formatter).setException(ex.getMessage(), INVALID_PARAMETER, AGGREGATION_FUNCTION);
+            return;
+        }
+        // by name, as the cursors read the properties in their own order (e.g. a grid's
+        // depth, lat and lon come first)
+        Map<String, Double> fillValues = new HashMap<String, Double>();
+        for (String property : obsProperties) {
+            try {
+                if (hasFillValue(property))
+                    fillValues.put(property, Double.parseDouble(getFillValue(property)));
+            } catch (NumberFormatException ex) {
+                // treated as having no fill value
+            }
+        }
+        aggregation = new ObservationAggregation(millis, reduction, fillValues);
+    }
+
+    /**
+     * Formats the time of an observation as the responses write it
+     * @param millis time of the observation, in millis
+     * @return the ISO 8601 time
+     */
+    public String formatTime(long millis) {
+        if (CDMDataSet instanceof Grid)
+            return ((Grid) CDMDataSet).formatTime(millis);
+        return timeFormatter.toDateTimeStringISO(new Date(millis));
+    }
+
+    /**
+     * @return the token to request the next page of the response with, once the
+     * observations have been written; null if the response is complete
+     */
+    public String getContinuationToken() {
+        return (page != null) ? page.getContinuationToken() : null;
+    }
+
+    /**
+     * @param value a requested latitude or longitude
+     * @return whether it is a single value, parsed the way the grid reads it; ranges are not
+     * accepted, those of a regular grid would not pair with the other coordinate
+     */
+    private static boolean isCoordinate(String value) {
+        try {
+            return Grid.parseBounds(value).length == 1;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Cancels the stations still to be read ahead, e.g. when the response ended early
+     */
+    @Override
+    public void close() {
+        if (parallelReader != null)
+            parallelReader.cancel();
+    }
+
+    private ObservationCursor openCursor(int relIndex) throws IOException {
+        if (parallelReader == null && canReadInParallel()) {
+            parallelReader = new ParallelObservationReader(this.procedures.length, new ParallelObservationReader.StationReader() {
+                public ObservationCursor read(int index) throws IOException {
+                    return readFromCopy(index);
+                }
+            });
+        }
+        if (parallelReader != null)
+            return parallelReader.getObservationCursor(relIndex);
+        return aggregate(CDMDataSet.getObservationCursor(relIndex));
+    }
+
+    /**
+     * @return the cursor reduced to the requested time buckets; the cursor itself if the
+     * request is not aggregated
+     */
+    private ObservationCursor aggregate(ObservationCursor cursor) {
+        return (aggregation != null) ? aggregation.open(cursor) : cursor;
+    }
+
+    /**
+     * Stations of a multi station request are read in parallel from copies of local datasets;
+     * not for a page, whose cost should not depend on the stations after it
+     */
+    private boolean canReadInParallel() {
+        return ParallelObservationReader.isEnabled() && this.procedures.length > 1 && page == null
+                && CDMDataSet instanceof ParallelReadable && getFeatureDataset() != null
+                && DatasetHandlerAdapter.getLastModified(netCDFDataset.getLocation()) > 0;
+    }
+
+    /**
+     * Reads a station from another handle on the dataset, as a NetcdfDataset must not be
+     * read from several threads at once. The wrapped copy is kept with the pooled handle.
+     * @param relIndex index of the station in the request
+     * @return the records of the station, held in memory
+     * @throws IOException if the station could not be read
+     */
+    private ObservationCursor readFromCopy(int relIndex) throws IOException {
+        NetcdfDataset copy = DatasetHandlerAdapter.acquireCopy(netCDFDataset);
+        boolean failed = true;
+        try {
+            FeatureDataset copyFeatures = (FeatureDataset) DatasetHandlerAdapter.getHandleAttribute(copy, POINT_DATASET_ATTRIBUTE);
+            if (copyFeatures == null) {
+                copyFeatures = FeatureDatasetFactoryManager.wrap(getFeatureDataset().getFeatureType(), copy, null,
+                        new Formatter(System.err));
+                if (copyFeatures == null)
+                    throw new IOException("could not open another handle on " + netCDFDataset.getLocation());
+                DatasetHandlerAdapter.setHandleAttribute(copy, POINT_DATASET_ATTRIBUTE, copyFeatures);
+            }
+            FeatureCollection collection = DiscreteSamplingGeometryUtil.extractFeatureDatasetCollection(copyFeatures);
+            // reduced before it is held in memory
+            ObservationCursor cursor = aggregate(((ParallelReadable) CDMDataSet).getObservationCursor(relIndex, collection, copy));
+            try {
+                ObservationCursor records = BufferedObservationCursor.read(cursor);
+                failed = false;
+                return records;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            DatasetHandlerAdapter.releaseDataset(copy, failed);
+        }
     }
     //</editor-fold>
 
@@ -587,6 +874,45 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
                 INVALID_PARAMETER, "offering");   
     }
     
+    /**
+     * Keeps the requested procedures whose station is within a bounding box, found through
+     * the station index before any data is read
+     * @param bbox bounding box from the request, as minLon,minLat,maxLon,maxLat
+     * @return false if the request cannot be answered, with the error set on the formatter
+     */
+    private boolean filterProceduresByBoundingBox(String bbox) {
+        StationSpatialIndex index = getStationSpatialIndex();
+        if (getDatasetFeatureType() == FeatureType.GRID || index == null) {
+            formatter = new ErrorFormatter();
+            ((ErrorFormatter)formatter).setException("bbox is only supported for station datasets",
+                    OPTION_NOT_SUPPORTED, BBOX);
+            return false;
+        }
+        double[] box;
+        try {
+            box = StationSpatialIndex.parseBoundingBox(bbox);
+        } catch (IllegalArgumentException ex) {
+            formatter = new ErrorFormatter();
+            ((ErrorFormatter)formatter).setException(ex.getMessage(), INVALID_PARAMETER, BBOX);
+            return false;
+        }
+        Set<Integer> inBox = new HashSet<Integer>(index.within(box[0], box[1], box[2], box[3]));
+        Map<String, String> urnMap = this.getUrnToStationName();
+        List<String> kept = new ArrayList<String>();
+        for (String proc : this.procedures) {
+            if (inBox.contains(getStationIndex(urnMap.get(proc))))
+                kept.add(proc);
+        }
+        if (kept.isEmpty()) {
+            formatter = new ErrorFormatter();
+            ((ErrorFormatter)formatter).setException("No requested station is within the bounding box " + bbox,
+                    INVALID_PARAMETER, BBOX);
+            return false;
+        }
+        this.procedures = kept.toArray(new String[kept.size()]);
+        return true;
+    }
+
     private void checkProceduresAgainstOffering(String offering) throws IOException {
         // if the offering is 'network-all' no error (network-all should have all procedures)
         if (offering.equalsIgnoreCase(this.getUrnNetworkAll())) {
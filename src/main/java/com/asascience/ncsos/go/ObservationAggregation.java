@@ -0,0 +1,271 @@
+package com.asascience.ncsos.go;
+
+import com.asascience.ncsos.cdmclasses.BaseObservationCursor;
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
+
+import org.joda.time.Period;
+
+import ucar.ma2.DataType;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reduces the observations of a station to one record per time bucket (e.g. hourly or
+ * daily means), while the formatter reads them. Buckets are aligned to the epoch and the
+ * records are stamped with the start of their bucket; the records of a profile are reduced
+ * per bin, and those of a cursor over several locations (e.g. the points of a grid) per
+ * location. Only the bucket being read is held, so sources sorted by time are reduced in
+ * a single pass with constant memory; unsorted sources may yield a bucket more than once.
+ */
+class ObservationAggregation {
+
+    /**
+     * Reductions of the values of a bucket. Missing values are left out of mean, min, max
+     * and count; first and last take the first and last record of the bucket.
+     */
+    enum Function {
+        MEAN, MIN, MAX, COUNT, FIRST, LAST
+    }
+
+    private final long interval;
+    private final Function function;
+    // fill value of the variables that have one, by name
+    private final Map<String, Double> fillValues;
+
+    /**
+     * @param interval length of a bucket, in millis
+     * @param function reduction of the values of a bucket
+     * @param fillValues fill value of the variables that have one, by name; the cursors
+     * may read the variables in any order, along with others
+     */
+    ObservationAggregation(long interval, Function function, Map<String, Double> fillValues) {
+        this.interval = interval;
+        this.function = function;
+        this.fillValues = fillValues;
+    }
+
+    /**
+     * Parses the length of a bucket
+     * @param interval ISO 8601 duration of a fixed length (e.g. PT1H, P1D)
+     * @return the length, in millis
+     * @throws IllegalArgumentException if the duration is not valid or not of a fixed length
+     */
+    static long parseInterval(String interval) {
+        long millis;
+        try {
+            millis = Period.parse(interval.trim().toUpperCase()).toStandardDuration().getMillis();
+        } catch (UnsupportedOperationException ex) {
+            throw new IllegalArgumentException("aggregation interval must not use months or years: " + interval);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("aggregation interval must be an ISO 8601 duration such as PT1H: " + interval);
+        }
+        if (millis <= 0)
+            throw new IllegalArgumentException("aggregation interval must be positive: " + interval);
+        return millis;
+    }
+
+    /**
+     * Parses a reduction
+     * @param function name of the reduction, in any case
+     * @return the reduction
+     * @throws IllegalArgumentException if there is no such reduction
+     */
+    static Function parseFunction(String function) {
+        try {
+            return Function.valueOf(function.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("aggregation function must be one of mean, min, max, count, first, last: "
+                    + function);
+        }
+    }
+
+    /**
+     * Reduces a cursor over the records of a station
+     * @param source cursor over the records of the station
+     * @return cursor over the reduced records
+     */
+    ObservationCursor open(ObservationCursor source) {
+        return new AggregatingCursor(source);
+    }
+
+    private long bucketOf(long time) {
+        long bucket = time / interval;
+        if (time % interval < 0)
+            bucket--;
+        return bucket * interval;
+    }
+
+    /**
+     * Values of the records of one location and bin within a bucket
+     */
+    private static final class Bucket {
+        final long time;
+        final int stationIndex;
+        final int location;
+        final int bin;
+        final long[] counts;
+        final double[] sums;
+        final double[] mins;
+        final double[] maxs;
+        final double[] firsts;
+        final double[] lasts;
+        final String[] firstStrings;
+        final String[] lastStrings;
+        final DataType[] types;
+        boolean started = false;
+
+        Bucket(long time, int stationIndex, int location, int bin, int width) {
+            this.time = time;
+            this.stationIndex = stationIndex;
+            this.location = location;
+            this.bin = bin;
+            this.counts = new long[width];
+            this.sums = new double[width];
+            this.mins = new double[width];
+            this.maxs = new double[width];
+            this.firsts = new double[width];
+            this.lasts = new double[width];
+            this.firstStrings = new String[width];
+            this.lastStrings = new String[width];
+            this.types = new DataType[width];
+            Arrays.fill(mins, Double.NaN);
+            Arrays.fill(maxs, Double.NaN);
+        }
+
+        /**
+         * @param fillValues fill value of each variable of the record, NaN if it has none
+         */
+        void add(ObservationCursor record, double[] fillValues) {
+            for (int i = 0; i < types.length; i++) {
+                if (!record.isNumeric(i)) {
+                    String value = record.getStringValue(i);
+                    if (!started)
+                        firstStrings[i] = value;
+                    lastStrings[i] = value;
+                    types[i] = DataType.STRING;
+                    if (value != null)
+                        counts[i]++;
+                    continue;
+                }
+                double value = record.getValue(i);
+                if (types[i] == null)
+                    types[i] = record.getDataType(i);
+                if (!started)
+                    firsts[i] = value;
+                lasts[i] = value;
+                if (Double.isNaN(value) || value == fillValues[i])
+                    continue;
+                counts[i]++;
+                sums[i] += value;
+                if (Double.isNaN(mins[i]) || value < mins[i])
+                    mins[i] = value;
+                if (Double.isNaN(maxs[i]) || value > maxs[i])
+                    maxs[i] = value;
+            }
+            started = true;
+        }
+    }
+
+    /**
+     * Cursor over the buckets of a station
+     */
+    private final class AggregatingCursor extends BaseObservationCursor {
+        private final ObservationCursor source;
+        // fill value of each variable of the source, NaN if it has none
+        private final double[] sourceFillValues;
+        // buckets of the current time bucket, by location and bin in the order they are read
+        private final Map<Long, Bucket> current = new LinkedHashMap<Long, Bucket>();
+        private final ArrayDeque<Bucket> finished = new ArrayDeque<Bucket>();
+        private long currentTime;
+        private boolean sourceDone = false;
+
+        AggregatingCursor(ObservationCursor source) {
+            super(source.getVariableNames());
+            this.source = source;
+            this.sourceFillValues = new double[variableNames.length];
+            for (int i = 0; i < variableNames.length; i++) {
+                Double fillValue = fillValues.get(variableNames[i]);
+                sourceFillValues[i] = (fillValue != null) ? fillValue : Double.NaN;
+            }
+        }
+
+        private void finishCurrent() {
+            finished.addAll(current.values());
+            current.clear();
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (finished.isEmpty()) {
+                if (sourceDone)
+                    return false;
+                if (!source.next()) {
+                    sourceDone = true;
+                    finishCurrent();
+                    continue;
+                }
+                long time = bucketOf(source.getTime());
+                if (!current.isEmpty() && time != currentTime)
+                    finishCurrent();
+                currentTime = time;
+                Long key = ((long) source.getLocation() << 32) | (source.getBin() & 0xffffffffL);
+                Bucket bucket = current.get(key);
+                if (bucket == null) {
+                    bucket = new Bucket(time, source.getStationIndex(), source.getLocation(), source.getBin(),
+                            variableNames.length);
+                    current.put(key, bucket);
+                }
+                bucket.add(source, sourceFillValues);
+            }
+            emit(finished.poll());
+            return true;
+        }
+
+        /**
+         * Makes the reduction of a bucket the current record
+         */
+        private void emit(Bucket bucket) {
+            time = bucket.time;
+            stationIndex = bucket.stationIndex;
+            location = bucket.location;
+            bin = bucket.bin;
+            for (int i = 0; i < variableNames.length; i++) {
+                DataType type = bucket.types[i];
+                if (function == Function.COUNT) {
+                    setValue(i, bucket.counts[i], DataType.INT);
+                } else if (type == DataType.STRING) {
+                    setValue(i, (function == Function.LAST) ? bucket.lastStrings[i] : bucket.firstStrings[i]);
+                } else if (function == Function.FIRST) {
+                    setValue(i, bucket.firsts[i], type);
+                } else if (function == Function.LAST) {
+                    setValue(i, bucket.lasts[i], type);
+                } else if (function == Function.MIN) {
+                    setValue(i, (bucket.counts[i] > 0) ? bucket.mins[i] : missingValue(i), type);
+                } else if (function == Function.MAX) {
+                    setValue(i, (bucket.counts[i] > 0) ? bucket.maxs[i] : missingValue(i), type);
+                } else {
+                    // means of whole numbers are not whole numbers
+                    DataType meanType = (type == DataType.FLOAT) ? DataType.FLOAT : DataType.DOUBLE;
+                    setValue(i, (bucket.counts[i] > 0) ? bucket.sums[i] / bucket.counts[i] : missingValue(i), meanType);
+                }
+            }
+        }
+
+        /**
+         * @return the value of a bucket without any value: the variable's fill value, so
+         * that formatters see it as missing, or NaN
+         */
+        private double missingValue(int variable) {
+            return sourceFillValues[variable];
+        }
+
+        @Override
+        public void close() {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.asascience.ncsos.go;
+
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
+
+import ucar.ma2.DataType;
+
+import java.io.IOException;
+
+/**
+ * Limits the records of a GetObservation response to a page, and encodes where the next
+ * page starts as an opaque continuation token. Records are counted as the formatter reads
+ * them from the station cursors, so a page only reads the records it returns, plus the
+ * first record of the next page to know that there is one.
+ * <p>
+ * A token holds the station to resume at, the number of records of that station already
+ * returned, and the time of the next record with the number of records at that time
+ * already returned. While the records of a station come in time order, the page resumes
+ * at that time, which lets sources sorted by time start reading there; otherwise the
+ * records already returned are skipped by count.
+ */
+class ObservationPage {
+
+    /** System property setting the most records returned by a response; 0 (the default) for no limit */
+    public static final String MAX_RECORDS_PROPERTY = "ncsos.getObservation.maxRecords";
+
+    private static final String SEPARATOR = ".";
+    private static final int RADIX = 36;
+
+    // most records of the page, 0 for no limit
+    private final int maxRecords;
+    // where the page starts
+    private final int startStation;
+    private final long startOffset;
+    private final long startTime;
+    private final long startSkip;
+    private final boolean startOrdered;
+
+    // records returned by the current pass over the stations
+    private int returned = 0;
+    private String continuation = null;
+
+    /**
+     * @param maxRecords most records of the page; 0 for no limit
+     * @param token continuation token of the previous page; null for the first page
+     * @param stations number of stations of the request
+     * @throws IllegalArgumentException if the token is not valid for the request
+     */
+    ObservationPage(int maxRecords, String token, int stations) {
+        this.maxRecords = maxRecords;
+        if (token == null) {
+            this.startStation = 0;
+            this.startOffset = 0;
+            this.startTime = Long.MIN_VALUE;
+            this.startSkip = 0;
+            this.startOrdered = true;
+            return;
+        }
+        String[] fields = token.split("\\" + SEPARATOR);
+        if (fields.length != 5)
+            throw new IllegalArgumentException("malformed continuation token " + token);
+        try {
+            this.startStation = Integer.parseInt(fields[0], RADIX);
+            this.startOffset = Long.parseLong(fields[1], RADIX);
+            this.startTime = Long.parseLong(fields[2], RADIX);
+            this.startSkip = Long.parseLong(fields[3], RADIX);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("malformed continuation token " + token);
+        }
+        this.startOrdered = fields[4].equals("1");
+        if (startStation < 0 || startOffset < 0 || startSkip < 0 || !(startOrdered || fields[4].equals("0")))
+            throw new IllegalArgumentException("malformed continuation token " + token);
+        if (startStation >= stations)
+            throw new IllegalArgumentException("continuation token " + token + " is past the last station");
+    }
+
+    /**
+     * @return the most records of a response set on the server; 0 for no limit
+     */
+    static int getServerMaxRecords() {
+        return Math.max(0, Integer.getInteger(MAX_RECORDS_PROPERTY, 0));
+    }
+
+    private static String encode(int station, long offset, long time, long skip, boolean ordered) {
+        return Integer.toString(station, RADIX) + SEPARATOR + Long.toString(offset, RADIX) + SEPARATOR
+                + Long.toString(time, RADIX) + SEPARATOR + Long.toString(skip, RADIX) + SEPARATOR
+                + (ordered ? "1" : "0");
+    }
+
+    /**
+     * @return index of the first station of the page, in the request
+     */
+    int getStartStation() {
+        return startStation;
+    }
+
+    /**
+     * @return time the first station of the page resumes at; only meaningful if {@link #resumesByTime()}
+     */
+    long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return whether the first station resumes at a time, so its source may skip the earlier records itself
+     */
+    boolean resumesByTime() {
+        return startOrdered && startOffset > 0;
+    }
+
+    /**
+     * Starts a new pass over the stations of the page (e.g. a formatter counting the
+     * records before writing them)
+     */
+    void restart() {
+        returned = 0;
+        continuation = null;
+    }
+
+    /**
+     * @return whether the page holds as many records as it may
+     */
+    boolean isFull() {
+        return maxRecords > 0 && returned >= maxRecords;
+    }
+
+    /**
+     * Ends the page before a station that is not read
+     * @param station index of the station, in the request
+     */
+    void stopAt(int station) {
+        if (continuation == null)
+            continuation = encode(station, 0, Long.MIN_VALUE, 0, true);
+    }
+
+    /**
+     * @return the token to request the next page with, once the records of the page have
+     * been read; null if the response is complete
+     */
+    String getContinuationToken() {
+        return continuation;
+    }
+
+    /**
+     * Limits a cursor over the records of a station to the page
+     * @param station index of the station, in the request
+     * @param source cursor over all the records of the station; from the resume time on
+     * for the first station if {@link #resumesByTime()}
+     * @return cursor over the records of the station in the page
+     */
+    ObservationCursor open(int station, ObservationCursor source) {
+        return new PagedCursor(station, source);
+    }
+
+    /**
+     * Cursor over the records of a station that belong to the page
+     */
+    private class PagedCursor implements ObservationCursor {
+        private final int station;
+        private final ObservationCursor source;
+        private boolean started = false;
+        private boolean ended = false;
+        // the source is positioned on a record that has not been returned yet
+        private boolean pending = false;
+        // records of the station before the current one, whether they came in time order,
+        // the time of the current record and the number of records in a row at that time
+        private long offset;
+        private boolean ordered = true;
+        private long lastTime = Long.MIN_VALUE;
+        private long runLength = 0;
+
+        PagedCursor(int station, ObservationCursor source) {
+            this.station = station;
+            this.source = source;
+        }
+
+        /**
+         * Skips the records of the first station returned by the previous pages
+         */
+        private void skipReturned() throws IOException {
+            if (station != startStation || startOffset == 0)
+                return;
+            offset = startOffset;
+            if (startOrdered) {
+                long equal = 0;
+                while (source.next()) {
+                    long time = source.getTime();
+                    if (time < startTime || (time == startTime && equal < startSkip)) {
+                        if (time == startTime)
+                            equal++;
+                        continue;
+                    }
+                    pending = true;
+                    break;
+                }
+                lastTime = startTime;
+                runLength = startSkip;
+            } else {
+                for (long i = 0; i < startOffset && source.next(); i++) {
+                }
+                ordered = false;
+            }
+        }
+
+        public boolean next() throws IOException {
+            if (ended)
+                return false;
+            if (!started) {
+                started = true;
+                skipReturned();
+            }
+            boolean hasNext = pending || source.next();
+            pending = false;
+            if (!hasNext) {
+                ended = true;
+                return false;
+            }
+            long time = source.getTime();
+            if (isFull()) {
+                // the record starts the next page
+                boolean inOrder = ordered && time >= lastTime;
+                continuation = encode(station, offset, time, (time == lastTime) ? runLength : 0, inOrder);
+                ended = true;
+                return false;
+            }
+            if (time == lastTime) {
+                runLength++;
+            } else {
+                if (time < lastTime)
+                    ordered = false;
+                lastTime = time;
+                runLength = 1;
+            }
+            offset++;
+            returned++;
+            return true;
+        }
+
+        public String[] getVariableNames() {
+            return source.getVariableNames();
+        }
+
+        public long getTime() {
+            return source.getTime();
+        }
+
+        public int getStationIndex() {
+            return source.getStationIndex();
+        }
+
+        public int getBin() {
+            return source.getBin();
+        }
+
+        public int getLocation() {
+            return source.getLocation();
+        }
+
+        public boolean isNumeric(int variable) {
+            return source.isNumeric(variable);
+        }
+
+        public double getValue(int variable) {
+            return source.getValue(variable);
+        }
+
+        public String getStringValue(int variable) {
+            return source.getStringValue(variable);
+        }
+
+        public DataType getDataType(int variable) {
+            return source.getDataType(variable);
+        }
+
+        public String formatValue(int variable) {
+            return source.formatValue(variable);
+        }
+
+        public void close() {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.asascience.ncsos.go;
+
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the stations of a GetObservation request ahead of the formatter on a shared,
+ * bounded thread pool, and hands them over in the order they are asked for. At most a
+ * window of stations is read or held in memory at any time; asking for a station out of
+ * order (e.g. a formatter's second pass over the stations) restarts the window there.
+ */
+public class ParallelObservationReader {
+
+    /** System property overriding the number of threads reading stations; 1 disables parallel reads */
+    public static final String THREADS_PROPERTY = "ncsos.getObservation.threads";
+    private static final int THREADS = Math.max(1,
+            Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+
+    private static ExecutorService executor;
+
+    /**
+     * Reads the records of a station
+     */
+    public interface StationReader {
+        /**
+         * @param index index of the station in the request
+         * @return the records of the station, held in memory
+         * @throws IOException if the station could not be read
+         */
+        ObservationCursor read(int index) throws IOException;
+    }
+
+    private final StationReader reader;
+    private final int count;
+    private final int window;
+    private final Map<Integer, Future<ObservationCursor>> pending = new HashMap<Integer, Future<ObservationCursor>>();
+    private int nextIndex = 0;
+
+    /**
+     * @param count number of stations of the request
+     * @param reader reads a station; called from the pool's threads
+     */
+    public ParallelObservationReader(int count, StationReader reader) {
+        this(count, THREADS * 2, reader);
+    }
+
+    /**
+     * @param count number of stations of the request
+     * @param window number of stations read or held ahead at most
+     * @param reader reads a station; called from the pool's threads
+     */
+    ParallelObservationReader(int count, int window, StationReader reader) {
+        this.count = count;
+        this.reader = reader;
+        this.window = window;
+    }
+
+    /**
+     * @return whether stations may be read on more than one thread
+     */
+    public static boolean isEnabled() {
+        return THREADS > 1;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                private final AtomicInteger number = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ncsos-station-reader-" + number.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the records of a station, waiting for it to be read if needed
+     * @param index index of the station in the request
+     * @return cursor over the records of the station
+     * @throws IOException if the station could not be read
+     */
+    public ObservationCursor getObservationCursor(int index) throws IOException {
+        if (index < 0 || index >= count)
+            return reader.read(index);
+        if (!pending.containsKey(index)) {
+            cancel();
+            nextIndex = index;
+        }
+        fill();
+        Future<ObservationCursor> future = pending.remove(index);
+        // keep the window full while the station is read
+        fill();
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new IOException("interrupted while reading station " + index);
+        } catch (ExecutionException ex) {
+            cancel();
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("could not read station " + index + ": " + cause, cause);
+        }
+    }
+
+    /**
+     * Cancels the stations that have not started to be read; the ones being read finish
+     */
+    public void cancel() {
+        for (Future<ObservationCursor> future : pending.values()) {
+            future.cancel(false);
+        }
+        pending.clear();
+    }
+
+    private void fill() {
+        while (nextIndex < count && pending.size() < window) {
+            final int index = nextIndex++;
+            pending.put(index, getExecutor().submit(new Callable<ObservationCursor>() {
+                public ObservationCursor call() throws IOException {
+                    return reader.read(index);
+                }
+            }));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.asascience.ncsos.outputformatter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a response that has already been rendered, e.g. one served from an in-memory cache.
+ */
+public class CachedResponseFormatter extends OutputFormatter {
+
+    private final String content;
+    private final String contentType;
+
+    /**
+     * @param content the rendered response
+     * @param contentType the Content-type of the response
+     */
+    public CachedResponseFormatter(String content, String contentType) {
+        this.content = content;
+        this.contentType = contentType;
+    }
+
+    public void writeOutput(Writer writer) throws IOException {
+        writer.write(content);
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the rendered response
+     */
+    public String getContent() {
+        return content;
+    }
+}
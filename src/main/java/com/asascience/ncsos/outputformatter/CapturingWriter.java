@@ -0,0 +1,53 @@
+package com.asascience.ncsos.outputformatter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Forwards everything to a writer and records it until a limit is exceeded, so that a
+ * response can be cached while it is streamed to the client.
+ */
+public class CapturingWriter extends Writer {
+
+    private final Writer writer;
+    private final int limit;
+    private StringBuilder content = new StringBuilder();
+
+    /**
+     * @param writer writer everything is forwarded to
+     * @param limit most characters recorded
+     */
+    public CapturingWriter(Writer writer, int limit) {
+        this.writer = writer;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        writer.write(cbuf, off, len);
+        if (content != null) {
+            if (content.length() + len > limit) {
+                content = null;
+            } else {
+                content.append(cbuf, off, len);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * @return everything written; null if the limit was exceeded
+     */
+    public String getContent() {
+        return (content != null) ? content.toString() : null;
+    }
+}
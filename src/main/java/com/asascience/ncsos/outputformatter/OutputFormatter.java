@@ -19,6 +19,13 @@ public abstract class OutputFormatter {
      */
     public abstract String getContentType();
 
+    /**
+     * Whether the formatter has replaced its output with an exception response
+     */
+    public boolean hasError() {
+        return hasError;
+    }
+
     
 
 }
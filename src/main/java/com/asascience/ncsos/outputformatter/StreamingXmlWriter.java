@@ -0,0 +1,424 @@
+package com.asascience.ncsos.outputformatter;
+
+import org.jdom.Attribute;
+import org.jdom.Comment;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.Text;
+
+import javax.xml.stream.XMLStreamException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes indented XML straight to a response writer, laid out byte for byte as JDOM's
+ * pretty format (two space indents, CRLF line ends, empty elements as &lt;x /&gt;, and
+ * namespaces declared where they first come into scope), so that streamed responses are
+ * the same as the documents that used to be built in memory. Formatters use it to write
+ * responses whose size grows with the dataset (one element per station, per observation,
+ * ...) without building the whole document in memory. Fixed parts of a response can
+ * still come from a JDOM template and be copied with {@link #writeElement(Element, Map)}.
+ */
+public class StreamingXmlWriter {
+
+    private static final String INDENT = "  ";
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    /**
+     * Writes content that is generated while the document is written
+     */
+    public interface ContentWriter {
+        /**
+         * @param out writer positioned inside the element the content belongs to
+         */
+        void write(StreamingXmlWriter out) throws XMLStreamException;
+    }
+
+    /**
+     * Element whose end tag has not been written yet
+     */
+    private static final class OpenElement {
+        final String qualifiedName;
+        // written with empty(): ends with its start tag
+        final boolean empty;
+        boolean hasChildren = false;
+        // namespaces declared on the element, by prefix; null if none
+        Map<String, String> namespaces;
+
+        OpenElement(String qualifiedName, boolean empty) {
+            this.qualifiedName = qualifiedName;
+            this.empty = empty;
+        }
+    }
+
+    private final Writer writer;
+    // innermost last
+    private final List<OpenElement> openElements = new ArrayList<OpenElement>();
+    // the start tag of the innermost element is waiting for attributes
+    private boolean startTagOpen = false;
+
+    public StreamingXmlWriter(Writer writer) throws IOException {
+        this.writer = writer;
+    }
+
+    public void startDocument() throws XMLStreamException {
+        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    }
+
+    /**
+     * Closes any open element and flushes the writer; the underlying writer is not closed
+     */
+    public void endDocument() throws XMLStreamException {
+        while (!openElements.isEmpty()) {
+            end();
+        }
+        // JDOM ends the root element's line, then writes a final line separator
+        write(LINE_SEPARATOR);
+        write(LINE_SEPARATOR);
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
+    }
+
+    /**
+     * Opens an element; attributes may be added until content is written
+     * @param ns namespace of the element
+     * @param name local name of the element
+     */
+    public StreamingXmlWriter start(Namespace ns, String name) throws XMLStreamException {
+        return open(ns, name, false);
+    }
+
+    /**
+     * Writes an element without content; attributes may be added until anything else is written
+     * @param ns namespace of the element
+     * @param name local name of the element
+     */
+    public StreamingXmlWriter empty(Namespace ns, String name) throws XMLStreamException {
+        return open(ns, name, true);
+    }
+
+    /**
+     * Writes an element holding only text; an element without text is written empty
+     * @param ns namespace of the element
+     * @param name local name of the element
+     * @param text text of the element; may be null
+     */
+    public StreamingXmlWriter element(Namespace ns, String name, String text) throws XMLStreamException {
+        if (text == null || text.trim().length() == 0) {
+            return empty(ns, name);
+        }
+        start(ns, name);
+        text(text.trim());
+        return end();
+    }
+
+    /**
+     * Adds an attribute to the element just opened
+     * @param ns namespace of the attribute; null for none
+     * @param name local name of the attribute
+     * @param value value of the attribute
+     */
+    public StreamingXmlWriter attribute(Namespace ns, String name, String value) throws XMLStreamException {
+        if (!startTagOpen)
+            throw new XMLStreamException("attribute " + name + " written outside of a start tag");
+        if (value == null)
+            value = "";
+        if (ns != null && ns.getURI().length() > 0) {
+            declare(ns);
+        }
+        write(" ");
+        write(qualifiedName(ns, name));
+        write("=\"");
+        write(escapeAttribute(value));
+        write("\"");
+        return this;
+    }
+
+    /**
+     * Declares a namespace on the element just opened, unless it is already in scope
+     */
+    public StreamingXmlWriter namespace(Namespace ns) throws XMLStreamException {
+        if (!startTagOpen)
+            throw new XMLStreamException("namespace " + ns.getURI() + " declared outside of a start tag");
+        declare(ns);
+        return this;
+    }
+
+    /**
+     * Writes text into the element just opened
+     */
+    public StreamingXmlWriter text(String text) throws XMLStreamException {
+        if (text != null && text.length() > 0) {
+            closeStartTag();
+            write(escapeText(text));
+        }
+        return this;
+    }
+
+    /**
+     * Writes a comment on its own line
+     */
+    public StreamingXmlWriter comment(String text) throws XMLStreamException {
+        writeComment(" " + text + " ");
+        return this;
+    }
+
+    /**
+     * Closes the innermost open element
+     */
+    public StreamingXmlWriter end() throws XMLStreamException {
+        if (startTagOpen && !current().empty) {
+            // nothing was written into the element
+            startTagOpen = false;
+            openElements.remove(openElements.size() - 1);
+            write(" />");
+            return this;
+        }
+        closeStartTag();
+        OpenElement element = openElements.remove(openElements.size() - 1);
+        if (element.hasChildren) {
+            write(LINE_SEPARATOR);
+            indent(openElements.size());
+        }
+        write("</");
+        write(element.qualifiedName);
+        write(">");
+        return this;
+    }
+
+    /**
+     * Copies a JDOM element, including its namespace declarations, comments and children.
+     * Whitespace around text is trimmed, as with a pretty printed JDOM document.
+     * @param element element to copy
+     * @param generated content written at the end of an element, after its children;
+     * may be null
+     */
+    public void writeElement(Element element, Map<Element, List<ContentWriter>> generated) throws XMLStreamException {
+        start(element.getNamespace(), element.getName());
+        for (Namespace ns : (List<Namespace>) element.getAdditionalNamespaces()) {
+            namespace(ns);
+        }
+        for (Attribute attr : (List<Attribute>) element.getAttributes()) {
+            attribute(attr.getNamespace(), attr.getName(), attr.getValue());
+        }
+        List<Object> content = element.getContent();
+        if (hasOnlyText(content)) {
+            text(element.getTextTrim());
+        } else {
+            StringBuilder text = new StringBuilder();
+            for (Object node : content) {
+                if (node instanceof Text) {
+                    text.append(((Text) node).getText());
+                    continue;
+                }
+                writeTextLine(text);
+                if (node instanceof Element) {
+                    writeElement((Element) node, generated);
+                } else if (node instanceof Comment) {
+                    writeComment(((Comment) node).getText());
+                }
+            }
+            writeTextLine(text);
+        }
+        List<ContentWriter> extra = (generated != null) ? generated.get(element) : null;
+        if (extra != null) {
+            for (ContentWriter contentWriter : extra) {
+                contentWriter.write(this);
+            }
+        }
+        end();
+    }
+
+    private static boolean hasOnlyText(List<Object> content) {
+        for (Object node : content) {
+            if (!(node instanceof Text))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes text between the children of an element on its own line, as JDOM does with
+     * mixed content, and empties the buffer; whitespace only text is left out
+     */
+    private void writeTextLine(StringBuilder text) throws XMLStreamException {
+        String trimmed = text.toString().trim();
+        text.setLength(0);
+        if (trimmed.length() > 0) {
+            newLine();
+            write(escapeText(trimmed));
+        }
+    }
+
+    private void writeComment(String text) throws XMLStreamException {
+        newLine();
+        write("<!--");
+        write(text);
+        write("-->");
+    }
+
+    private StreamingXmlWriter open(Namespace ns, String name, boolean empty) throws XMLStreamException {
+        newLine();
+        String qualifiedName = qualifiedName(ns, name);
+        write("<");
+        write(qualifiedName);
+        openElements.add(new OpenElement(qualifiedName, empty));
+        startTagOpen = true;
+        declare((ns != null) ? ns : Namespace.NO_NAMESPACE);
+        return this;
+    }
+
+    /**
+     * Ends the start tag of the innermost element, and the element itself if it was
+     * written with {@link #empty(Namespace, String)}
+     */
+    private void closeStartTag() throws XMLStreamException {
+        if (!startTagOpen)
+            return;
+        startTagOpen = false;
+        if (current().empty) {
+            openElements.remove(openElements.size() - 1);
+            write(" />");
+        } else {
+            write(">");
+        }
+    }
+
+    /**
+     * Declares a namespace on the element being started, unless it is in scope already
+     */
+    private void declare(Namespace ns) throws XMLStreamException {
+        String prefix = ns.getPrefix();
+        String uri = ns.getURI();
+        if (prefix.equals(Namespace.XML_NAMESPACE.getPrefix()) || uri.equals(namespaceInScope(prefix)))
+            return;
+        write(" xmlns");
+        if (prefix.length() > 0) {
+            write(":");
+            write(prefix);
+        }
+        write("=\"");
+        write(escapeAttribute(uri));
+        write("\"");
+        OpenElement element = current();
+        if (element.namespaces == null)
+            element.namespaces = new HashMap<String, String>();
+        element.namespaces.put(prefix, uri);
+    }
+
+    /**
+     * @return the namespace bound to a prefix by the open elements; "" for the default
+     * namespace if none is, null for other prefixes
+     */
+    private String namespaceInScope(String prefix) {
+        for (int i = openElements.size() - 1; i >= 0; i--) {
+            Map<String, String> namespaces = openElements.get(i).namespaces;
+            if (namespaces != null && namespaces.containsKey(prefix))
+                return namespaces.get(prefix);
+        }
+        return (prefix.length() == 0) ? "" : null;
+    }
+
+    private static String qualifiedName(Namespace ns, String name) {
+        if (ns == null || ns.getPrefix().length() == 0)
+            return name;
+        return ns.getPrefix() + ":" + name;
+    }
+
+    private OpenElement current() {
+        return openElements.get(openElements.size() - 1);
+    }
+
+    private void newLine() throws XMLStreamException {
+        closeStartTag();
+        if (!openElements.isEmpty()) {
+            current().hasChildren = true;
+        }
+        write(LINE_SEPARATOR);
+        indent(openElements.size());
+    }
+
+    private void indent(int depth) throws XMLStreamException {
+        for (int i = 0; i < depth; i++) {
+            write(INDENT);
+        }
+    }
+
+    private void write(String text) throws XMLStreamException {
+        try {
+            writer.write(text);
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
+    }
+
+    /**
+     * Escapes text the way JDOM does: markup characters as entities, carriage returns as
+     * character references and line feeds as the line separator
+     */
+    static String escapeText(String text) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String entity;
+            switch (c) {
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '&': entity = "&amp;"; break;
+                case '\r': entity = "&#xD;"; break;
+                case '\n': entity = LINE_SEPARATOR; break;
+                default: entity = null;
+            }
+            escaped = append(escaped, text, i, c, entity);
+        }
+        return (escaped != null) ? escaped.toString() : text;
+    }
+
+    /**
+     * Escapes an attribute value the way JDOM does, with whitespace other than spaces as
+     * character references so that it survives attribute value normalization
+     */
+    static String escapeAttribute(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String entity;
+            switch (c) {
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '"': entity = "&quot;"; break;
+                case '&': entity = "&amp;"; break;
+                case '\r': entity = "&#xD;"; break;
+                case '\t': entity = "&#x9;"; break;
+                case '\n': entity = "&#xA;"; break;
+                default: entity = null;
+            }
+            escaped = append(escaped, value, i, c, entity);
+        }
+        return (escaped != null) ? escaped.toString() : value;
+    }
+
+    /**
+     * Appends a character or its escape; the buffer is only created at the first escape
+     */
+    private static StringBuilder append(StringBuilder escaped, String text, int index, char c, String entity) {
+        if (entity == null) {
+            if (escaped != null)
+                escaped.append(c);
+            return escaped;
+        }
+        if (escaped == null) {
+            escaped = new StringBuilder(text.length() + 16);
+            escaped.append(text, 0, index);
+        }
+        return escaped.append(entity);
+    }
+}
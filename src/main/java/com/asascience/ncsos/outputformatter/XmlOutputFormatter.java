@@ -8,10 +8,15 @@ import org.jdom.Namespace;
 import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
 
+import javax.xml.stream.XMLStreamException;
+
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides common functions for classes that define the response outputs for various
@@ -101,6 +106,9 @@ public abstract class XmlOutputFormatter extends OutputFormatter {
     public static final String VALUES = "values";
 
     protected Document  document;
+    // content generated while the document is written, by parent element
+    private final Map<Element, List<StreamingXmlWriter.ContentWriter>> generatedContent =
+            new IdentityHashMap<Element, List<StreamingXmlWriter.ContentWriter>>();
 
     public XmlOutputFormatter() {
         this.document = XMLDomUtils.loadFile(getClass().getClassLoader().getResourceAsStream(this.getTemplateLocation()));
@@ -167,6 +175,35 @@ public abstract class XmlOutputFormatter extends OutputFormatter {
         xmlOutput.output(this.document, writer);
     }
 
+    /**
+     * Registers content to be generated at the end of an element of the document when it is
+     * written with {@link #writeStreamingOutput(Writer)}
+     * @param parent element of the document the content belongs to
+     * @param content writes the content
+     */
+    protected void addGeneratedContent(Element parent, StreamingXmlWriter.ContentWriter content) {
+        List<StreamingXmlWriter.ContentWriter> list = this.generatedContent.get(parent);
+        if (list == null) {
+            list = new ArrayList<StreamingXmlWriter.ContentWriter>();
+            this.generatedContent.put(parent, list);
+        }
+        list.add(content);
+    }
+
+    /**
+     * Streams the document to the writer, generating the registered content as it goes
+     */
+    protected void writeStreamingOutput(Writer writer) throws IOException {
+        try {
+            StreamingXmlWriter out = new StreamingXmlWriter(writer);
+            out.startDocument();
+            out.writeElement(this.getRoot(), this.generatedContent);
+            out.endDocument();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+    }
+
     public void setBoundedBy(String srsName, String lowerCorner, String upperCorner) {
         /*
          * <gml:boundedBy>
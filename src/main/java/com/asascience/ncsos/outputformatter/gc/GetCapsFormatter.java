@@ -9,6 +9,9 @@ import com.asascience.ncsos.gc.GetCapabilitiesRequestHandler;
 import com.asascience.ncsos.go.GetObservationRequestHandler;
 import com.asascience.ncsos.outputformatter.XmlOutputFormatter;
 
+import com.asascience.ncsos.gc.CapabilitiesExtents;
+import com.asascience.ncsos.outputformatter.StreamingXmlWriter;
+
 import org.jdom.Element;
 import org.jdom.Namespace;
 
@@ -16,9 +19,14 @@ import ucar.nc2.constants.FeatureType;
 import ucar.nc2.time.CalendarDateRange;
 import ucar.unidata.geoloc.LatLonRect;
 
+import javax.xml.stream.XMLStreamException;
+
+import java.io.IOException;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 
@@ -108,7 +116,7 @@ public class GetCapsFormatter extends XmlOutputFormatter {
         }
     }
 
-    public void setOperationsMetadataGetObs(String threddsURI, Set<String> dataVarShortNames, String[] stationNames) {
+    public void setOperationsMetadataGetObs(String threddsURI, final Set<String> dataVarShortNames, final String[] stationNames) {
         Namespace owsns = this.getNamespace("ows");
         Element si = this.getRoot().getChild(OPERATIONS_METADATA, owsns);
         for (Object e : si.getChildren("Operation", owsns)) {
@@ -117,25 +125,23 @@ public class GetCapsFormatter extends XmlOutputFormatter {
                 for (Object par : op.getChildren("Parameter", owsns)) {
                     Element p = (Element) par;
                     String name = p.getAttributeValue("name");
-                    Element allowed = new Element("AllowedValues", owsns);
-                    if (name.equalsIgnoreCase("offering")) {
-                        for (String s : stationNames) {
-                            allowed.addContent(new Element("Value", owsns).setText(this.handler.getUrnName(s)));
-                        }
-                        // Always add a 'network-all' offering as a URN
-                        allowed.addContent(new Element("Value", owsns).setText(this.handler.getUrnNetworkAll()));
-                        p.addContent(allowed);
+                    if (name.equalsIgnoreCase("offering") || name.equalsIgnoreCase("procedure")) {
+                        this.addGeneratedContent(p, new StreamingXmlWriter.ContentWriter() {
+                            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                                writeStationValues(out, stationNames);
+                            }
+                        });
                     } else if (name.equalsIgnoreCase("observedProperty")) {
-                        for (String s : dataVarShortNames) {
-                            allowed.addContent(new Element("Value", owsns).setText(this.handler.getVariableStandardName(s)));
-                        }
-                        p.addContent(allowed);
-                    } else if (name.equalsIgnoreCase("procedure")) {
-                        for (String s : stationNames) {
-                            allowed.addContent(new Element("Value", owsns).setText(this.handler.getUrnName(s)));
-                        }
-                        allowed.addContent(new Element("Value", owsns).setText(this.handler.getUrnNetworkAll()));
-                        p.addContent(allowed);
+                        this.addGeneratedContent(p, new StreamingXmlWriter.ContentWriter() {
+                            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                                Namespace owsns = getNamespace("ows");
+                                out.start(owsns, ALLOWED_VALUES);
+                                for (String s : dataVarShortNames) {
+                                    out.element(owsns, VALUE, handler.getVariableStandardName(s));
+                                }
+                                out.end();
+                            }
+                        });
                     }
                 }
             }
@@ -164,7 +170,7 @@ public class GetCapsFormatter extends XmlOutputFormatter {
      * @param threddsURI
      * @param stationNames
      */
-    public void setOperationsMetadataDescSen(String threddsURI, String[] stationNames) {
+    public void setOperationsMetadataDescSen(String threddsURI, final String[] stationNames) {
         Namespace owsns = this.getNamespace("ows");
         Element si = this.getRoot().getChild(OPERATIONS_METADATA, owsns);
         for (Object e : si.getChildren("Operation", owsns)) {
@@ -173,143 +179,158 @@ public class GetCapsFormatter extends XmlOutputFormatter {
                 for (Object par : op.getChildren("Parameter", owsns)) {
                     Element p = (Element) par;
                     String name = p.getAttributeValue("name");
-                    Element allowed = new Element("AllowedValues", owsns);
                     if (name.equalsIgnoreCase("procedure")) {
-                        for (String s : stationNames) {
-                            allowed.addContent(new Element("Value", owsns).setText(this.handler.getUrnName(s)));
-                        }
-                        allowed.addContent(new Element("Value", owsns).setText(this.handler.getUrnNetworkAll()));
-                        p.addContent(allowed);
+                        this.addGeneratedContent(p, new StreamingXmlWriter.ContentWriter() {
+                            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                                writeStationValues(out, stationNames);
+                            }
+                        });
                     }
                 }
             }
         }
     }
 
-    private Element buildOffering() {
-        return new Element("ObservationOffering", this.getNamespace("sos"));
+    /**
+     * Writes the allowed values of a station parameter: every station and the network-all urn
+     */
+    private void writeStationValues(StreamingXmlWriter out, String[] stationNames) throws XMLStreamException {
+        Namespace owsns = this.getNamespace("ows");
+        out.start(owsns, ALLOWED_VALUES);
+        for (String s : stationNames) {
+            out.element(owsns, VALUE, this.handler.getUrnName(s));
+        }
+        // Always add a 'network-all' offering as a URN
+        out.element(owsns, VALUE, this.handler.getUrnNetworkAll());
+        out.end();
     }
 
-    public void setObservationOfferingNetwork(LatLonRect datasetRect, String[] stations, Set<String> sensors, CalendarDateRange dates, FeatureType ftype) {
-        Namespace gmlns = this.getNamespace("gml");
-        Namespace sosns = this.getNamespace("sos");
-        Namespace xlinkns = this.getNamespace("xlink");
-        Element cnt = this.getRoot().getChild(CONTENTS, sosns);
-        Element ol = cnt.getChild(OBSERVATION_OFFERING_LIST, sosns);
-
-        Element offering = this.buildOffering();
-        // Id
-        offering.setAttribute("id", "network-all", gmlns);
-        // Description
-        offering.addContent(new Element("description", gmlns).setText("Network offering containing all features in the dataset"));
-        // Name
-        offering.addContent(new Element("name", gmlns).setText(this.handler.getUrnNetworkAll()));
-        // Bounded By
-        offering.addContent(this.getBoundedBy(datasetRect));
-        // Time
-        offering.addContent(this.getTimePeriod(dates));
-        // Procedure
-        offering.addContent(new Element("procedure", sosns).setAttribute("href", this.handler.getUrnNetworkAll(), xlinkns));
-   
-        // ObservedProperty
-        for (String s : sensors) {
-            this.setObservedPropertyForOffering(s, offering, xlinkns, sosns);
+    /**
+     * Adds the network-all offering to the offering list. The offering is written when
+     * the document is written.
+     */
+    public void setObservationOfferingNetwork(final LatLonRect datasetRect, final String[] stations, final Set<String> sensors,
+                                              final CalendarDateRange dates, final FeatureType ftype) {
+        this.addGeneratedContent(this.getOfferingList(), new StreamingXmlWriter.ContentWriter() {
+            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                writeOffering(out, "network-all", "Network offering containing all features in the dataset",
+                        handler.getUrnNetworkAll(), datasetRect, dates, sensors, stations, ftype);
+            }
+        });
+    }
 
-        }
-        // FeatureOfInterest
-        for (String s : stations) {
-            offering.addContent(new Element("featureOfInterest", sosns).setAttribute("href", this.handler.getUrnName(s), xlinkns));
-        }
-        // ResponseFormat
-        offering.addContent(new Element("responseFormat", sosns).setText(GetObservationRequestHandler.OOSTETHYS_RESPONSE_FORMAT));
-        offering.addContent(new Element("responseFormat", sosns).setText(GetObservationRequestHandler.CSV_RESPONSE_FORMAT));
-        offering.addContent(new Element("responseFormat", sosns).setText(GetObservationRequestHandler.JSON_RESPONSE_FORMAT));
+    /**
+     * Adds the offering of a single station to the offering list. The offering is written
+     * when the document is written.
+     */
+    public void setObservationOffering(final String stationName, final LatLonRect datasetRect, final Set<String> sensors,
+                                       final CalendarDateRange dates, final FeatureType ftype) {
+        this.addGeneratedContent(this.getOfferingList(), new StreamingXmlWriter.ContentWriter() {
+            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                writeStationOffering(out, stationName, datasetRect, sensors, dates, ftype);
+            }
+        });
+    }
 
-        switch (ftype) {
-            case STATION:
-            case STATION_PROFILE:
-            case GRID:
-                offering.addContent(new Element("responseFormat", sosns).setText(GetObservationRequestHandler.IOOS10_RESPONSE_FORMAT));
-                break;
-            default:
-                break;
-        }
-        // ResultModel
-        offering.addContent(new Element("resultModel", sosns).setText("om:ObservationCollection"));
-        // ResponseMode
-        offering.addContent(new Element("responseMode", sosns).setText("inline"));
+    /**
+     * Adds an offering for every station to the offering list. Offerings are written one
+     * at a time when the document is written, so memory does not grow with the number
+     * of stations.
+     * @param stationNames station names by station index, in offering order
+     * @param sensors short names of the sensors
+     * @param extents extents of the stations, by station index
+     * @param ftype feature type of the dataset
+     */
+    public void setObservationOfferings(final Map<Integer, String> stationNames, final Set<String> sensors,
+                                        final CapabilitiesExtents extents, final FeatureType ftype) {
+        this.addGeneratedContent(this.getOfferingList(), new StreamingXmlWriter.ContentWriter() {
+            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                for (Map.Entry<Integer, String> station : stationNames.entrySet()) {
+                    writeStationOffering(out, handler.getUrnName(station.getValue()),
+                            extents.getStationBoundingBox(station.getKey()), sensors,
+                            extents.getStationDateRange(station.getKey()), ftype);
+                }
+            }
+        });
+    }
 
-        // Add the offering to the list
-        ol.addContent(offering);
+    private void writeStationOffering(StreamingXmlWriter out, String stationName, LatLonRect rect, Set<String> sensors,
+                                      CalendarDateRange dates, FeatureType ftype) throws XMLStreamException {
+        String urn = this.handler.getUrnName(stationName);
+        // Replace ":" with "_" (gml:id fields in XML can't have colons)
+        writeOffering(out, stationName.replace(":", "_"), null, urn, rect, dates, sensors, new String[]{stationName}, ftype);
     }
 
-    public void setObservationOffering(String stationName, LatLonRect datasetRect, Set<String> sensors, CalendarDateRange dates, FeatureType ftype) {
-        Namespace owsns = this.getNamespace("ows");
+    private void writeOffering(StreamingXmlWriter out, String id, String description, String name, LatLonRect rect,
+                               CalendarDateRange dates, Set<String> sensors, String[] features, FeatureType ftype)
+            throws XMLStreamException {
         Namespace gmlns = this.getNamespace("gml");
         Namespace sosns = this.getNamespace("sos");
         Namespace xlinkns = this.getNamespace("xlink");
-        Element ol = this.getRoot().getChild(CONTENTS, sosns).getChild(OBSERVATION_OFFERING_LIST, sosns);
 
-        Element offering = this.buildOffering();
+        out.start(sosns, OBSERVATION_OFFERING);
         // Id
-        // Replace ":" with "_" (gml:id fields in XML can't have colons)
-        offering.setAttribute("id", stationName.replace(":","_"), gmlns);
-        // Name
-        offering.addContent(new Element("name", gmlns).setText(this.handler.getUrnName(stationName)));
+        out.attribute(gmlns, ID, id);
         // Description
-        // Nowhere to get this?
-
+        if (description != null)
+            out.element(gmlns, DESCRIPTION, description);
+        // Name
+        out.element(gmlns, NAME, name);
         // Bounded By
-        offering.addContent(this.getBoundedBy(datasetRect));
+        this.writeBoundedBy(out, rect);
         // Time
-        offering.addContent(this.getTimePeriod(dates));
+        this.writeTimePeriod(out, dates);
         // Procedure
-        offering.addContent(new Element("procedure", sosns).setAttribute("href", this.handler.getUrnName(stationName), xlinkns));
+        out.empty(sosns, PROCEDURE).attribute(xlinkns, HREF, name);
         // ObservedProperty
         for (String s : sensors) {
-            this.setObservedPropertyForOffering(s, offering, xlinkns, sosns);
+            out.empty(sosns, OBSERVED_PROPERTY).attribute(xlinkns, HREF, this.handler.getObservedOfferingUrl(s));
         }
         // FeatureOfInterest
-        offering.addContent(new Element("featureOfInterest", sosns).setAttribute("href", this.handler.getUrnName(stationName), xlinkns));
+        for (String s : features) {
+            out.empty(sosns, FEATURE_INTEREST).attribute(xlinkns, HREF, this.handler.getUrnName(s));
+        }
         // ResponseFormat
-        offering.addContent(new Element("responseFormat", sosns).setText(GetObservationRequestHandler.OOSTETHYS_RESPONSE_FORMAT));
-        offering.addContent(new Element("responseFormat", sosns).setText(GetObservationRequestHandler.CSV_RESPONSE_FORMAT));
-        offering.addContent(new Element("responseFormat", sosns).setText(GetObservationRequestHandler.JSON_RESPONSE_FORMAT));
+        out.element(sosns, RESPONSE_FORMAT, GetObservationRequestHandler.OOSTETHYS_RESPONSE_FORMAT);
+        out.element(sosns, RESPONSE_FORMAT, GetObservationRequestHandler.CSV_RESPONSE_FORMAT);
+        out.element(sosns, RESPONSE_FORMAT, GetObservationRequestHandler.JSON_RESPONSE_FORMAT);
         switch (ftype) {
             case STATION:
             case STATION_PROFILE:
             case GRID:
-                offering.addContent(new Element("responseFormat", sosns).setText(GetObservationRequestHandler.IOOS10_RESPONSE_FORMAT));
+                out.element(sosns, RESPONSE_FORMAT, GetObservationRequestHandler.IOOS10_RESPONSE_FORMAT);
                 break;
             default:
                 break;
         }
         // ResultModel
-        offering.addContent(new Element("resultModel", sosns).setText("om:ObservationCollection"));
+        out.element(sosns, RESULT_MODEL, "om:ObservationCollection");
         // ResponseMode
-        offering.addContent(new Element("responseMode", sosns).setText("inline"));
-
-        // Add the offering to the list
-        ol.addContent(offering);
+        out.element(sosns, RESPONSE_MODE, "inline");
+        out.end();
     }
 
-   
-    
-    
-    protected void setObservedPropertyForOffering(String sensor, Element offering,  
-                                Namespace xlinkns,  Namespace sosns){
-        String hrefUrl = handler.getObservedOfferingUrl(sensor);
-        offering.addContent(new Element("observedProperty", sosns).setAttribute("href", hrefUrl, xlinkns));
-    }
-    
     public void removeContents() {
         this.getRoot().removeChild(CONTENTS, this.getNamespace("sos"));
     }
 
+    /**
+     * Streams the document: the fixed sections come from the template, station lists and
+     * offerings are generated as they are written.
+     */
+    @Override
+    public void writeOutput(Writer writer) throws IOException {
+        this.writeStreamingOutput(writer);
+    }
+
     /***********************/
     /** Interface Methods **/
     /***********************/
 
+    private Element getOfferingList() {
+        Namespace sosns = this.getNamespace("sos");
+        return this.getRoot().getChild(CONTENTS, sosns).getChild(OBSERVATION_OFFERING_LIST, sosns);
+    }
 
     private void setHTTPMethods(Element parent, String threddsURI) {
         Namespace owsns = this.getNamespace("ows");
@@ -318,12 +339,9 @@ public class GetCapsFormatter extends XmlOutputFormatter {
         // TODO: When (if) we ever support POST methods, add an additional Post tag here with the URL
     }
 
-    private Element getBoundedBy(LatLonRect rect) {
+    private void writeBoundedBy(StreamingXmlWriter out, LatLonRect rect) throws XMLStreamException {
         Namespace gmlns = this.getNamespace("gml");
-        Element bb = new Element("boundedBy", gmlns);
-        Element env = new Element("Envelope", gmlns);
         DecimalFormat df = new DecimalFormat("0.0##");
-        env.setAttribute("srsName", handler.getCrsName());
         String lc = null;
         String uc = null;
         try {
@@ -332,31 +350,37 @@ public class GetCapsFormatter extends XmlOutputFormatter {
         } catch(Exception e) {
             lc = "UNKNOWN";
             uc = "UNKNOWN";
-        } finally {
-            env.addContent(new Element("lowerCorner", gmlns).setText(lc));
-            env.addContent(new Element("upperCorner", gmlns).setText(uc));
         }
-        bb.addContent(env);
-        return bb;
+        out.start(gmlns, BOUNDED_BY);
+        out.start(gmlns, ENVELOPE).attribute(null, SRS_NAME, handler.getCrsName());
+        out.element(gmlns, LOWER_CORNER, lc);
+        out.element(gmlns, UPPER_CORNER, uc);
+        out.end();
+        out.end();
     }
 
-    private Element getTimePeriod(CalendarDateRange dateRange) {
+    private void writeTimePeriod(StreamingXmlWriter out, CalendarDateRange dateRange) throws XMLStreamException {
         Namespace gmlns = this.getNamespace("gml");
         Namespace sosns = this.getNamespace("sos");
-        Element tm = new Element("time", sosns);
-        Element tp = new Element("TimePeriod", gmlns);
-        tm.addContent(tp);
         String st = null;
         String et = null;
         try {
             st = dateRange.getStart().toString();
             et = dateRange.getEnd().toString();
-            tp.addContent(new Element("beginPosition", gmlns).setText(st));
-            tp.addContent(new Element("endPosition", gmlns).setText(et));
         } catch (Exception e) {
-            tp.addContent(new Element("beginPosition", gmlns).setAttribute("indeterminatePosition", "unknown"));
-            tp.addContent(new Element("endPosition", gmlns).setAttribute("indeterminatePosition", "unknown"));
+            st = null;
+            et = null;
+        }
+        out.start(sosns, TIME);
+        out.start(gmlns, TIME_PERIOD);
+        if (st != null && et != null) {
+            out.element(gmlns, BEGIN_POSITION, st);
+            out.element(gmlns, END_POSITION, et);
+        } else {
+            out.empty(gmlns, BEGIN_POSITION).attribute(null, "indeterminatePosition", "unknown");
+            out.empty(gmlns, END_POSITION).attribute(null, "indeterminatePosition", "unknown");
         }
-        return tm;
+        out.end();
+        out.end();
     }
 }
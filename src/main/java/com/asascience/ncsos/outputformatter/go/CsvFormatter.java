@@ -3,178 +3,148 @@ package com.asascience.ncsos.outputformatter.go;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+
 
 import com.asascience.ncsos.cdmclasses.Grid;
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
 import com.asascience.ncsos.cdmclasses.TimeSeriesProfile;
-import com.asascience.ncsos.cdmclasses.baseCDMClass;
 import com.asascience.ncsos.go.GetObservationRequestHandler;
 import com.asascience.ncsos.outputformatter.OutputFormatter;
 
+/**
+ * Writes GetObservation responses as CSV. The header is computed once from the requested
+ * properties, then every record is written to the response while the data is read, so
+ * memory does not grow with the size of the response.
+ */
 public class CsvFormatter extends OutputFormatter {
 	private GetObservationRequestHandler handler;
 	public CsvFormatter(GetObservationRequestHandler getObservationRequestHandler) {
 		this.handler = getObservationRequestHandler;
 	}
 
-	
-	  @Override
-	  public void writeOutput(Writer writer) throws IOException {
-		  if (!hasError) {
-			  List<String> obsProps = this.handler.getRequestedObservedProperties();
-			  StringBuilder newString = new StringBuilder();
-			  Boolean isFirstBlock = true;
-			  String headerStr = "";
-			  Map<String, List<Double>> heightMap = new HashMap<String, List<Double>>();
-
-          	  boolean isProfile = handler.getCDMDataset() instanceof TimeSeriesProfile;
-          	  boolean is3dGrid =  this.handler.is3dGrid(this.handler.getCDMDataset().getStationName(0));
-          	  List<String> allObsInHeader = new ArrayList<String>();
-			  for (int p = 0; p < this.handler.getProcedures().length; p++) {
-				  String keyVals = this.handler.getValueBlockForAllObs(BLOCK_SEPERATOR, DECIMAL_SEPERATOR, TOKEN_SEPERATOR, p);
-				  for (String block :keyVals.split(BLOCK_SEPERATOR)) {
-					  // split on token seperator
-					  StringBuilder newBlock = new StringBuilder();
-					  boolean appendedHeader = false;
-					  Integer stNum = null;
-					  Integer bin = null;
-					  String currTime = null;
-					  String lat = null;
-					  String currDepth = null;
-					  String lon = null;
-					  for (String token : block.split(TOKEN_SEPERATOR)) {
-						  String[] tokenSplit = token.split("=");
-						  
-						  if(isFirstBlock && appendedHeader){
-							  headerStr = headerStr + TOKEN_SEPERATOR;
-							  appendedHeader = false;
-						  }
-						  
-						  if (token.contains(baseCDMClass.TIME_STR)) {
-							  currTime  = tokenSplit[1];
-							  if (isFirstBlock){
-								  headerStr = headerStr + tokenSplit[0];
-								  appendedHeader = true;
-							  }
-
-						  } 
-
-						  else if (token.contains(baseCDMClass.STATION_STR)) {
-							  stNum = Integer.parseInt(tokenSplit[1]);
-							  
-							  if(isFirstBlock){
-								  headerStr = headerStr  + tokenSplit[0];
-								  appendedHeader = true;
-
-							  }
-						  } 
-						  else if (tokenSplit[0].equals("lat") || tokenSplit[0].equals("lon")){
-							  if(isFirstBlock){
-								  headerStr = headerStr  + tokenSplit[0];
-								  appendedHeader = true;
-							  }
-							  if(tokenSplit[0].equals("lat"))
-								  lat = tokenSplit[1];
-							  else
-								  lon = tokenSplit[1];
-						  }
-					
-						  else if(token.startsWith("BIN") && (isProfile || is3dGrid)){
-							  bin = Integer.valueOf(tokenSplit[1]);
-						  }
-						  else if(tokenSplit[0].equals(this.handler.getDepthAxisName())){
-							  currDepth = tokenSplit[1];
-						  }
-						  else {
-							  if (obsProps.contains(tokenSplit[0]) && tokenSplit.length > 1) {
-								  String station = "";
-								  if(stNum != null)
-									  station = this.handler.stationToFieldName(this.handler.getProcedures()[stNum]) + "_";
-								  String stationSensor = station + tokenSplit[0];
-								  if(isFirstBlock){
-									  headerStr += "variable"+TOKEN_SEPERATOR;
-									  if(!(isProfile || is3dGrid) && currDepth != null){
-										  headerStr += this.handler.getDepthAxisName()+ "(" + this.handler.getDepthUnits() +")"+TOKEN_SEPERATOR;
-									  }
-								  }
-								  if((isProfile || is3dGrid) && !heightMap.containsKey(stationSensor)) {
-									  if(isProfile){
-										  if(isFirstBlock)
-											  headerStr = headerStr + "height(" +  ((TimeSeriesProfile )handler.getCDMDataset()).getHeightAxisUnits() +")"+TOKEN_SEPERATOR;
-										  heightMap.put(stationSensor, ((TimeSeriesProfile )
-													handler.getCDMDataset()).getProfileHeightsForStation(stNum));
-										 
-									  }
-									  
-									  else {
-										  Grid grid = ((Grid) this.handler.getCDMDataset());
-										  heightMap.put(stationSensor, grid.getDepths(tokenSplit[0]));
-										  if(isFirstBlock)
-											  headerStr = headerStr + this.handler.getDepthAxisName()+ "(" +
-													  ((Grid) this.handler.getCDMDataset()).getDepthUnits(tokenSplit[0])  +")"+TOKEN_SEPERATOR;
-									  }
-									  appendedHeader = true;
-
-								  }
-								  newBlock.append(currTime).append(TOKEN_SEPERATOR);
-								  if(lat != null){
-									  newBlock.append(lat).append(TOKEN_SEPERATOR);
-								  }
-								  if(lon != null){
-									  newBlock.append(lon).append(TOKEN_SEPERATOR);
-								  }
-								  
-								  newBlock.append(stationSensor);
-								  if(isProfile || is3dGrid){
-									  if (bin != null)
-										  newBlock.append(TOKEN_SEPERATOR).append(heightMap.get(stationSensor).get(bin));
-									  else{
-										  newBlock.append(TOKEN_SEPERATOR).append("");
-									  }
-								  }
-								  else if(currDepth != null){
-									  newBlock.append(TOKEN_SEPERATOR).append(currDepth);
-								  }
-								  newBlock.append(TOKEN_SEPERATOR).append(tokenSplit[1]).append(BLOCK_SEPERATOR);
-								  String sensorUnits = this.handler.getUnitsString(tokenSplit[0]);
-								  if(sensorUnits == null)
-									  sensorUnits = "none";
-								  if(isFirstBlock){
-									  headerStr += "value";
-								  }
-								  if(!allObsInHeader.contains(tokenSplit[0])){
-									  String statName = "";
-									  if(stNum != null){
-										  statName = this.handler.stationToFieldName(this.handler.getProcedures()[stNum]) + "_";
-									  }
-									  headerStr = statName+ tokenSplit[0] + " => " +this.handler.getVariableStandardName(tokenSplit[0]) + 
-											  "(" + sensorUnits +")"+"\n" + headerStr;
-									  allObsInHeader.add(tokenSplit[0]);
-									  appendedHeader = true;
-
-								  }
-								  isFirstBlock = false;
-
-							  }
-						  }
-					  }
-
-					  newString.append(newBlock.toString());
-					  //newString.append(BLOCK_SEPERATOR);
-				  }
-				  writer.write(headerStr + BLOCK_SEPERATOR + newString.toString());
-			  }
-		  }
-	  }
-
 
+	@Override
+	public void writeOutput(Writer writer) throws IOException {
+		if (hasError || this.handler.getProcedures().length == 0) {
+			return;
+		}
+		List<String> obsProps = this.handler.getRequestedObservedProperties();
+		boolean isProfile = handler.getCDMDataset() instanceof TimeSeriesProfile;
+		boolean is3dGrid = this.handler.is3dGrid(this.handler.getCDMDataset().getStationName(0));
+
+		ObservationCursor cursor = this.handler.getObservationCursor(0);
+		try {
+			List<String> names = Arrays.asList(cursor.getVariableNames());
+			int latIndex = names.indexOf(this.handler.getLatAxisName());
+			int lonIndex = names.indexOf(this.handler.getLonAxisName());
+			int depthIndex = (isProfile || is3dGrid) ? -1 : names.indexOf(this.handler.getDepthAxisName());
+			// the observed properties, in the order of the records
+			List<Integer> obsIndices = new ArrayList<Integer>();
+			for (int i = 0; i < names.size(); i++) {
+				if (obsProps.contains(names.get(i))) {
+					obsIndices.add(i);
+				}
+			}
+			writeHeader(writer, obsIndices, names, latIndex >= 0 && lonIndex >= 0, depthIndex >= 0, isProfile, is3dGrid);
+
+			for (int p = 0; p < this.handler.getProcedures().length; p++) {
+				if (p > 0) {
+					cursor.close();
+					cursor = this.handler.getObservationCursor(p);
+				}
+				// heights of the bins, per observed property
+				List<List<Double>> binHeights = new ArrayList<List<Double>>();
+				for (int i : obsIndices) {
+					if (isProfile) {
+						binHeights.add(((TimeSeriesProfile) handler.getCDMDataset()).getProfileHeightsForStation(p));
+					} else if (is3dGrid) {
+						binHeights.add(((Grid) handler.getCDMDataset()).getDepths(names.get(i)));
+					}
+				}
+				String station = null;
+				int stationIndex = ObservationCursor.NO_STATION;
+				while (cursor.next()) {
+					if (station == null || cursor.getStationIndex() != stationIndex) {
+						stationIndex = cursor.getStationIndex();
+						station = (stationIndex != ObservationCursor.NO_STATION)
+								? this.handler.stationToFieldName(this.handler.getProcedures()[stationIndex]) + "_" : "";
+					}
+					String time = this.handler.formatTime(cursor.getTime());
+					for (int o = 0; o < obsIndices.size(); o++) {
+						int i = obsIndices.get(o);
+						writer.write(time);
+						writer.write(TOKEN_SEPERATOR);
+						if (latIndex >= 0 && lonIndex >= 0) {
+							writer.write(cursor.formatValue(latIndex));
+							writer.write(TOKEN_SEPERATOR);
+							writer.write(cursor.formatValue(lonIndex));
+							writer.write(TOKEN_SEPERATOR);
+						}
+						writer.write(station);
+						writer.write(names.get(i));
+						if (isProfile || is3dGrid) {
+							writer.write(TOKEN_SEPERATOR);
+							List<Double> heights = binHeights.get(o);
+							int bin = cursor.getBin();
+							if (heights != null && bin >= 0 && bin < heights.size()) {
+								writer.write(String.valueOf(heights.get(bin)));
+							}
+						} else if (depthIndex >= 0) {
+							writer.write(TOKEN_SEPERATOR);
+							writer.write(cursor.formatValue(depthIndex));
+						}
+						writer.write(TOKEN_SEPERATOR);
+						writer.write(cursor.formatValue(i));
+						writer.write(BLOCK_SEPERATOR);
+					}
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		// a paged response ends with the token of its next page
+		String token = this.handler.getContinuationToken();
+		if (token != null) {
+			writer.write("# " + GetObservationRequestHandler.CONTINUATION_TOKEN + "=" + token + BLOCK_SEPERATOR);
+		}
+	}
 
+	/**
+	 * Writes one line per observed property (name, standard name and units), then the column names
+	 */
+	private void writeHeader(Writer writer, List<Integer> obsIndices, List<String> names, boolean hasLatLon,
+			boolean hasDepth, boolean isProfile, boolean is3dGrid) throws IOException {
+		for (int i : obsIndices) {
+			String sensorUnits = this.handler.getUnitsString(names.get(i));
+			if (sensorUnits == null)
+				sensorUnits = "none";
+			writer.write(names.get(i) + " => " + this.handler.getVariableStandardName(names.get(i)) +
+					"(" + sensorUnits + ")" + BLOCK_SEPERATOR);
+		}
+		StringBuilder columns = new StringBuilder("time").append(TOKEN_SEPERATOR);
+		if (hasLatLon) {
+			columns.append("lat").append(TOKEN_SEPERATOR).append("lon").append(TOKEN_SEPERATOR);
+		}
+		columns.append("variable").append(TOKEN_SEPERATOR);
+		if (isProfile) {
+			columns.append("height(").append(((TimeSeriesProfile) handler.getCDMDataset()).getHeightAxisUnits())
+					.append(")").append(TOKEN_SEPERATOR);
+		} else if (is3dGrid) {
+			String units = obsIndices.isEmpty() ? null : ((Grid) handler.getCDMDataset()).getDepthUnits(names.get(obsIndices.get(0)));
+			columns.append(this.handler.getDepthAxisName()).append("(").append(units).append(")").append(TOKEN_SEPERATOR);
+		} else if (hasDepth) {
+			columns.append(this.handler.getDepthAxisName()).append("(").append(this.handler.getDepthUnits())
+					.append(")").append(TOKEN_SEPERATOR);
+		}
+		columns.append("value").append(BLOCK_SEPERATOR);
+		writer.write(columns.toString());
+	}
 
 	@Override
 	public String getContentType() {
-		
+
 		return "text/csv";
 	}
 }
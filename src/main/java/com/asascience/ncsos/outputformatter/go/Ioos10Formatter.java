@@ -1,20 +1,22 @@
 package com.asascience.ncsos.outputformatter.go;
 
 import com.asascience.ncsos.cdmclasses.Grid;
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
 import com.asascience.ncsos.cdmclasses.TimeSeriesProfile;
-import com.asascience.ncsos.cdmclasses.baseCDMClass;
 import com.asascience.ncsos.go.GetObservationRequestHandler;
+import com.asascience.ncsos.outputformatter.StreamingXmlWriter;
 import com.asascience.ncsos.outputformatter.XmlOutputFormatter;
 import com.asascience.ncsos.service.BaseRequestHandler;
 
 import org.jdom.Element;
 import org.jdom.Namespace;
-import org.springframework.util.StringUtils;
 
 import ucar.nc2.Attribute;
 import ucar.nc2.Variable;
 import ucar.nc2.constants.FeatureType;
 
+import javax.xml.stream.XMLStreamException;
+
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -137,6 +139,15 @@ public class Ioos10Formatter extends XmlOutputFormatter {
             Element res = new Element("result", this.OM_NS);
             res.addContent(this.createDataRecordTree());
             obsElement.addContent(res);
+
+            // a paged response ends with the token of its next page, known once the values are written
+            this.addGeneratedContent(this.getRoot(), new StreamingXmlWriter.ContentWriter() {
+                public void write(StreamingXmlWriter out) throws XMLStreamException {
+                    String token = handler.getContinuationToken();
+                    if (token != null)
+                        out.comment(GetObservationRequestHandler.CONTINUATION_TOKEN + "=" + token);
+                }
+            });
             
 
         } catch (Exception ex) {
@@ -369,39 +380,41 @@ public class Ioos10Formatter extends XmlOutputFormatter {
 
         Element dynamic_array = new Element("DataArray", this.SWE2_NS);
         dynamic_array.setAttribute(DEFINITION, OBS_COLLECTION_DEF);
-        // get the count of records (total)
-        StringBuilder strBuilder = new StringBuilder();
-        for (int p = 0; p < this.handler.getProcedures().length; p++) {
-            strBuilder.append(this.handler.getValueBlockForAllObs(BLOCK_SEPERATOR, DECIMAL_SEPERATOR, TOKEN_SEPERATOR, p));
-        }
-
-        if (StringUtils.countOccurrencesOf(strBuilder.toString(), "ERROR") > 0) {
+        // count the value blocks first, so that elementCount can precede the values
+        // without holding them in memory; the values are streamed when the document is written
+        final boolean profileBlocks = this.handler.getCDMDataset() instanceof TimeSeriesProfile
+                || this.handler.is3dGrid(this.handler.getCDMDataset().getStationName(0));
+        int count;
+        try {
+            count = this.writeValueBlocks(null, profileBlocks);
+        } catch (Exception ex) {
+            _log.error("Error reading data from dataset", ex);
             this.hasError = true;
-            this.setupException(strBuilder.toString());
+            this.setupException("ERROR =reading data from dataset: " + ex.getLocalizedMessage());
             return dr;
         }
 
-        boolean is3dGrid = this.handler.is3dGrid(this.handler.getCDMDataset().getStationName(0));
-
-      
-
-        if(this.handler.getCDMDataset() instanceof TimeSeriesProfile || is3dGrid){
-            this.createValuesElementTimeSeriesProfile(strBuilder, dynamic_array);
-        }
-        else {
-            int count = StringUtils.countOccurrencesOf(strBuilder.toString(), BLOCK_SEPERATOR);
-            // create count element
-            dynamic_array.addContent(this.createElementCount(count));
-
+        // create count element
+        dynamic_array.addContent(this.createElementCount(count));
 
-            // create elementType "observations" element
-            dynamic_array.addContent(this.createObservationsElement());
+        // create elementType "observations" element
+        dynamic_array.addContent(this.createObservationsElement());
 
-            // create encoding element
-            dynamic_array.addContent(this.createEncodingElement());
-            // add value block to values
-            dynamic_array.addContent(this.createValuesElement(strBuilder));
-        }
+        // create encoding element
+        dynamic_array.addContent(this.createEncodingElement());
+
+        // add value block to values
+        this.addGeneratedContent(dynamic_array, new StreamingXmlWriter.ContentWriter() {
+            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                out.start(SWE2_NS, VALUES);
+                try {
+                    writeValueBlocks(out, profileBlocks);
+                } catch (IOException ex) {
+                    throw new XMLStreamException(ex);
+                }
+                out.end();
+            }
+        });
 
         dynamic_data.addContent(dynamic_array);
 
@@ -645,145 +658,107 @@ public class Ioos10Formatter extends XmlOutputFormatter {
         }
     }
 
-    private void createValuesElementTimeSeriesProfile(StringBuilder strBuilder, Element dynamicArray) {
-        /*
-         * Creates:
-         * <swe2:valuse>data_blocks</swe2:values>
-         */
-        // need to operate to pull out the unwanted information from the data string
-        // here is what it looks like from the observation handler:
-        //time=1990-01-01T00:00:00Z,station=0,temperature=22.0,alt=5.6375227[BLOCK_SEPERATOR]time=1990-01-01T00:00:00Z,station=1,temperature=14.0,alt=7.396358
-        // we need to remove all of the 'keys' (ie time, station, etc) and replace with desired info
-        StringBuilder newString = new StringBuilder();
+    /**
+     * Writes the value blocks of all procedures, one block per observation:
+     * <pre>time,station_sensor,value</pre>
+     * or, for profiles, one block per profile and sensor:
+     * <pre>time,station_sensor,bin,value,bin,value,...</pre>
+     * @param out writer of the values; null to only count the blocks
+     * @param profileBlocks whether the observations are grouped by profile
+     * @return the number of blocks
+     */
+    private int writeValueBlocks(StreamingXmlWriter out, boolean profileBlocks) throws IOException, XMLStreamException {
         List<String> obsProps = this.handler.getRequestedObservedProperties();
-        String previousTime = null;
-        int countElems = 0;
-        boolean firstProp = true;
-        for(String obsProp : obsProps){
-            previousTime = null;
-            for (String block : strBuilder.toString().split(BLOCK_SEPERATOR)) {
-            	
-                // split on token seperator
-                StringBuilder newBlock = new StringBuilder();
-                String binDef = null;
-                
-                boolean inPrevBlock = false;
-                String currTime = null;
-                for (String token : block.split(TOKEN_SEPERATOR)) {
-                    if (token.contains(baseCDMClass.TIME_STR)) {
-                        currTime = token.replaceAll("time=", "");
- 
-                        if((previousTime != null && !previousTime.equals(currTime)) ||
-                            (previousTime == null && !firstProp)){
-                            newBlock.append(BLOCK_SEPERATOR);
-
-                            inPrevBlock = false;
+        int count = 0;
+        for (int p = 0; p < this.handler.getProcedures().length; p++) {
+            ObservationCursor cursor = this.handler.getObservationCursor(p);
+            try {
+                String[] names = cursor.getVariableNames();
+                List<Integer> obsIndices = new ArrayList<Integer>();
+                for (int i = 0; i < names.length; i++) {
+                    if (obsProps.contains(names[i])) {
+                        obsIndices.add(i);
+                    }
+                }
+                // values of the current profile, per sensor
+                StringBuilder[] profileValues = new StringBuilder[obsIndices.size()];
+                int[] profileSizes = new int[obsIndices.size()];
+                for (int o = 0; o < profileValues.length; o++) {
+                    profileValues[o] = new StringBuilder();
+                }
+                String blockStart = null;
+                long profileTime = 0;
+                int profileStation = ObservationCursor.NO_STATION;
+                while (cursor.next()) {
+                    boolean newProfile = blockStart == null || cursor.getTime() != profileTime
+                            || cursor.getStationIndex() != profileStation;
+                    if (newProfile) {
+                        if (profileBlocks && blockStart != null) {
+                            count = writeProfileBlocks(out, count, blockStart, names, obsIndices, profileValues, profileSizes);
                         }
-                        else if(previousTime != null) {
-                            inPrevBlock = true;
+                        profileTime = cursor.getTime();
+                        profileStation = cursor.getStationIndex();
+                        if (out == null) {
+                            blockStart = "";
+                        } else {
+                            blockStart = this.handler.formatTime(profileTime) + TOKEN_SEPERATOR;
+                            if (profileStation != ObservationCursor.NO_STATION) {
+                                blockStart += this.handler.stationToFieldName(this.handler.getProcedures()[profileStation]) + "_";
+                            }
                         }
-                        newBlock.append(currTime).append(TOKEN_SEPERATOR);
-                    } 
-                    else if(token.startsWith(TimeSeriesProfile.BIN_STR)){
-                        binDef = token.replaceAll(TimeSeriesProfile.BIN_STR, "");
-
                     }
-                    else if (token.contains(baseCDMClass.STATION_STR)) {
-                        String[] tokenSplit = token.split("=");
-                        int stNum = Integer.parseInt(tokenSplit[1]);
-
-                        if(!inPrevBlock){
-                            newBlock.append(this.handler.stationToFieldName(this.handler.getProcedures()[stNum])).append("_");
-                        }
-
-                    } 
-                    else {
-                        String[] tokenSplit = token.split("=");
-                        if (obsProp.equals(tokenSplit[0]) && tokenSplit.length > 1) {
-                            previousTime = currTime;
-
-                            // create a new block for each measurement
-                            // add name of measurement to match the data choice 
-                            if(!inPrevBlock){
-                                newString.append(newBlock.toString()).append(tokenSplit[0]);
-                                countElems++;
+                    for (int o = 0; o < obsIndices.size(); o++) {
+                        if (profileBlocks) {
+                            if (out != null) {
+                                profileValues[o].append(TOKEN_SEPERATOR);
+                                if (cursor.getBin() != ObservationCursor.NO_BIN) {
+                                    profileValues[o].append(cursor.getBin()).append(TOKEN_SEPERATOR);
+                                }
+                                profileValues[o].append(cursor.formatValue(obsIndices.get(o)));
                             }
-
-                            newString.append(TOKEN_SEPERATOR);
-
-                            if(binDef != null){
-                                newString.append(binDef).append(TOKEN_SEPERATOR);
+                            profileSizes[o]++;
+                        } else {
+                            if (out != null) {
+                                if (count > 0) {
+                                    out.text(BLOCK_SEPERATOR);
+                                }
+                                out.text(blockStart + names[obsIndices.get(o)] + TOKEN_SEPERATOR + cursor.formatValue(obsIndices.get(o)));
                             }
-                            newString.append(tokenSplit[1]);
-
+                            count++;
                         }
                     }
                 }
+                if (profileBlocks && blockStart != null) {
+                    count = writeProfileBlocks(out, count, blockStart, names, obsIndices, profileValues, profileSizes);
+                }
+            } finally {
+                cursor.close();
             }
-            firstProp = false;
         }
-        // remove the last block seperator
-        Element values = new Element("values", this.SWE2_NS);
-        int endIndex = newString.length() - BLOCK_SEPERATOR.length();
-        if(endIndex < 0)
-            endIndex = 0;
-        values.setText(newString.substring(0, endIndex));
-        
-        // create count element
-        dynamicArray.addContent(this.createElementCount(countElems));
-
-
-        // create elementType "observations" element
-        dynamicArray.addContent(this.createObservationsElement());
-
-        // create encoding element
-        dynamicArray.addContent(this.createEncodingElement());
-        
-        dynamicArray.addContent(values);
+        return count;
     }
-    private Element createValuesElement(StringBuilder strBuilder) {
-        /*
-         * Creates:
-         * <swe2:valuse>data_blocks</swe2:values>
-         */
-        // need to operate to pull out the unwanted information from the data string
-        // here is what it looks like from the observation handler:
-        //time=1990-01-01T00:00:00Z,station=0,temperature=22.0,alt=5.6375227[BLOCK_SEPERATOR]time=1990-01-01T00:00:00Z,station=1,temperature=14.0,alt=7.396358
-        // we need to remove all of the 'keys' (ie time, station, etc) and replace with desired info
-        StringBuilder newString = new StringBuilder();
-        List<String> obsProps = this.handler.getRequestedObservedProperties();
-        for (String block : strBuilder.toString().split(BLOCK_SEPERATOR)) {
-            // split on token seperator
-            StringBuilder newBlock = new StringBuilder();
-     
-            for (String token : block.split(TOKEN_SEPERATOR)) {
-                if (token.contains(baseCDMClass.TIME_STR)) {
-                    newBlock.append(token.replaceAll("time=", "")).append(TOKEN_SEPERATOR);
-                } 
- 
-                else if (token.contains(baseCDMClass.STATION_STR)) {
-                    String[] tokenSplit = token.split("=");
-                    int stNum = Integer.parseInt(tokenSplit[1]);
-                    newBlock.append(this.handler.stationToFieldName(this.handler.getProcedures()[stNum])).append("_");
-                } else {
-                    String[] tokenSplit = token.split("=");
-                    if (obsProps.contains(tokenSplit[0]) && tokenSplit.length > 1) {
-                        // create a new block for each measurement
-                        // add name of measurement to match the data choice
-                        newString.append(newBlock.toString()).append(tokenSplit[0]).append(TOKEN_SEPERATOR);
-                        newString.append(tokenSplit[1]);
-                        newString.append(BLOCK_SEPERATOR);
-                    }
+
+    /**
+     * Writes one block per sensor with values in the current profile and clears the profile
+     * @return the number of blocks written so far
+     */
+    private int writeProfileBlocks(StreamingXmlWriter out, int count, String blockStart, String[] names,
+                                   List<Integer> obsIndices, StringBuilder[] profileValues, int[] profileSizes) throws XMLStreamException {
+        for (int o = 0; o < obsIndices.size(); o++) {
+            if (profileSizes[o] == 0)
+                continue;
+            if (out != null) {
+                if (count > 0) {
+                    out.text(BLOCK_SEPERATOR);
                 }
+                out.text(blockStart + names[obsIndices.get(o)]);
+                out.text(profileValues[o].toString());
+                profileValues[o].setLength(0);
             }
+            profileSizes[o] = 0;
+            count++;
         }
-        // remove the last block seperator
-        Element values = new Element("values", this.SWE2_NS);
-        int endIndex = newString.length() - BLOCK_SEPERATOR.length();
-        if(endIndex < 0)
-            endIndex = 0;
-        values.setText(newString.substring(0, endIndex));
-        return values;
+        return count;
     }
 
     private Element createElementCount(Integer count) {
@@ -1079,12 +1054,15 @@ public class Ioos10Formatter extends XmlOutputFormatter {
     }
 
 
+    /**
+     * Writes the static station and sensor metadata, then streams the observation values
+     */
     @Override
     public void writeOutput(Writer writer) throws IOException {
         if (!hasError) {
             this.createIoosSosResponse();
         }
-        super.writeOutput(writer);
+        this.writeStreamingOutput(writer);
     }
 
 
@@ -2,157 +2,49 @@ package com.asascience.ncsos.outputformatter.go;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import ucar.ma2.DataType;
 import ucar.nc2.constants.AxisType;
 import ucar.nc2.dataset.CoordinateAxis;
 
 import com.asascience.ncsos.cdmclasses.Grid;
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
 import com.asascience.ncsos.cdmclasses.TimeSeriesProfile;
-import com.asascience.ncsos.cdmclasses.baseCDMClass;
 import com.asascience.ncsos.go.GetObservationRequestHandler;
 import com.asascience.ncsos.outputformatter.OutputFormatter;
 import com.asascience.ncsos.service.BaseRequestHandler;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+/**
+ * Writes GetObservation responses as JSON. The observations of a procedure are collected
+ * in primitive arrays and written as soon as the procedure has been read, so only one
+ * station is held in memory at a time.
+ */
 public class JsonFormatter extends OutputFormatter {
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
 	private GetObservationRequestHandler handler;
-	
-	
+
+
 	public JsonFormatter(
 			GetObservationRequestHandler getObservationRequestHandler) {
 		this.handler = getObservationRequestHandler;
 	}
-	
-	public void createDataStructs(Map<String, Map<String, JsonFormatterData>> stationData,
-			Map<String, Integer> stationToNum){
-
-		List<String> obsProps = handler.getRequestedObservedProperties();
-		String time_keyname = baseCDMClass.TIME_STR.replace("=","");
-		String station_keyname = baseCDMClass.STATION_STR.replace("=", "");
-		String binKeyname = TimeSeriesProfile.BIN_STR.replace("=","");
-		Map<String, List<Double>> heightMap = new HashMap<String, List<Double>>();
-		boolean isProfile = handler.getCDMDataset() instanceof TimeSeriesProfile;
-		boolean is3dGrid =  this.handler.is3dGrid(this.handler.getCDMDataset().getStationName(0));
-		int cStat = 0;
-		for (int p = 0; p < handler.getProcedures().length; p++) {
-			String keyVals = handler.getValueBlockForAllObs(BLOCK_SEPERATOR, DECIMAL_SEPERATOR, TOKEN_SEPERATOR, p);
-			for (String block :keyVals.split(BLOCK_SEPERATOR)) {
-				String blockAr[] = block.split(TOKEN_SEPERATOR);
-				String station = "station";
-				String time = null;
-				int stationNum = -1;
-				String currDepth = null;
-				int bin = 0; // default when not a profile
-				for (String token : blockAr) {
-					String[] tokenSplit = token.split("=");
-					if (tokenSplit[0].equals(station_keyname)) {
-						stationNum = Integer.parseInt(tokenSplit[1]);
-						station = this.handler.stationToFieldName(this.handler.getProcedures()[stationNum]);
-					}
-					else if (tokenSplit[0].equals(time_keyname)) {
-						time = tokenSplit[1];
-					}
-					else if(tokenSplit[0].equals(binKeyname)){
-						bin = Integer.parseInt(tokenSplit[1]);
-					}
-					else if(tokenSplit[0].equals(this.handler.getDepthAxisName())){
-						currDepth = tokenSplit[1];
-					}
-				}
-				
-				if(time == null) continue;
-
-		
-				
-				for (String token : blockAr) {
-					String[] tokenSplit = token.split("=");
-					String var = tokenSplit[0];
-					if (var.equals(time_keyname) || var.equals(station_keyname)) {
-						continue;
-					}
-					if (obsProps.contains(var) && tokenSplit.length > 1) {
-						String varValue = tokenSplit[1];
-						station = station + "_" + var;
-						if(!stationData.containsKey(station)){
-							if(stationNum != -1)
-								stationToNum.put(station, stationNum);
-							else {
-								stationToNum.put(station, cStat);
-								cStat++;
-							}
-							stationData.put(station, new HashMap<String, JsonFormatterData>());
-						}
-						String varStandard = handler.getVariableStandardName(var);
-						if(varStandard.equals(BaseRequestHandler.UNKNOWN)){
-							varStandard = station;
-						}
-						Map<String, JsonFormatterData> cData = stationData.get(station);
-
-						if (!cData.containsKey(varStandard)){
-							String heightUnits = null;
-							if(isProfile){
-								heightUnits = ((TimeSeriesProfile )
-										handler.getCDMDataset()).getHeightAxisUnits();
-
-								heightMap.put(station, ((TimeSeriesProfile )
-										handler.getCDMDataset()).getProfileHeightsForStation(stationNum));
-							}
-							else if(is3dGrid){
-						      	Grid grid = ((Grid) this.handler.getCDMDataset());
-					        	heightMap.put(station, grid.getDepths(var));
-					        	heightUnits = grid.getDepthUnits(var);
-							}
-							else {
-								heightUnits = null;
-								CoordinateAxis zAxis = this.handler.getNetCDFDataset().findCoordinateAxis(AxisType.Height);
-								if(zAxis != null && zAxis.getSize() > 1){
-										heightUnits = this.handler.getDepthUnits();
-								}
-							}
-							// 
-							JsonFormatterData jdata = new JsonFormatterData(varStandard,
-									(handler.getUnitsString(var)), heightUnits);
-							cData.put(varStandard, jdata);
-						}
-						JsonFormatterData data = cData.get(varStandard);
-
-						data.getTimeValues().add(time);
-						data.getDataValues().add(varValue);
-						if(isProfile || is3dGrid)
-							data.getHeightValues().add(heightMap.get(station).get(bin));
-						else if(currDepth != null && data.heightValues != null)
-							data.heightValues.add(Double.valueOf(currDepth));
-					}
-				}
-			}
-		}
-	}
-	
+
 	  @Override
 	  public void writeOutput(Writer writer) throws IOException {
-		  JsonGenerator jsonGen = new JsonFactory().createGenerator(writer);
-		  Map<String, Map<String, JsonFormatterData>> stationData = new HashMap<String, Map<String, JsonFormatterData>>();
-		  Map<String, Integer> stationToNum = new HashMap<String, Integer>();
-		  String times = "times";
-		  String units = "units";
-		  String stationstr = "station";
-		  String values = "values";
-		  String coordinates = "coordinates";
-		  String heightstr = "height";
-		  if (!hasError) {
-			  this.createDataStructs(stationData, stationToNum);
-	  
-		  }
-		  
+		  JsonGenerator jsonGen = jsonFactory.createGenerator(writer);
+
 		  /*{
 		   * station {
 		   *   coordinates   []
-		   *   name 
+		   *   name
 		   * }
 		   * data {
 		   *   variable_name {
@@ -164,62 +56,159 @@ public class JsonFormatter extends OutputFormatter {
 		   * }
 		   */
 		  jsonGen.writeStartObject();
+		  if (!hasError) {
+			  List<String> obsProps = handler.getRequestedObservedProperties();
+			  boolean isProfile = handler.getCDMDataset() instanceof TimeSeriesProfile;
+			  boolean is3dGrid =  this.handler.is3dGrid(this.handler.getCDMDataset().getStationName(0));
+			  String depthUnits = null;
+			  if (!isProfile && !is3dGrid) {
+				  CoordinateAxis zAxis = this.handler.getNetCDFDataset().findCoordinateAxis(AxisType.Height);
+				  if(zAxis != null && zAxis.getSize() > 1){
+					  depthUnits = this.handler.getDepthUnits();
+				  }
+			  }
+			  // observations that are not tied to a station (trajectories, sections) are merged over all procedures
+			  Map<String, JsonFormatterData> unstationedData = new LinkedHashMap<String, JsonFormatterData>();
+			  Map<String, Integer> stationToNum = new HashMap<String, Integer>();
+			  Map<String, List<Double>> heightMap = new HashMap<String, List<Double>>();
+			  int cStat = 0;
+
+			  for (int p = 0; p < handler.getProcedures().length; p++) {
+				  Map<String, JsonFormatterData> stationData = new LinkedHashMap<String, JsonFormatterData>();
+				  ObservationCursor cursor = handler.getObservationCursor(p);
+				  try {
+					  List<String> names = Arrays.asList(cursor.getVariableNames());
+					  int depthIndex = (isProfile || is3dGrid) ? -1 : names.indexOf(this.handler.getDepthAxisName());
+					  List<Integer> obsIndices = new ArrayList<Integer>();
+					  for (int i = 0; i < names.size(); i++) {
+						  if (obsProps.contains(names.get(i))) {
+							  obsIndices.add(i);
+						  }
+					  }
+					  int stationNum = ObservationCursor.NO_STATION;
+					  String station = null;
+					  while (cursor.next()) {
+						  if (station == null || cursor.getStationIndex() != stationNum) {
+							  stationNum = cursor.getStationIndex();
+							  station = (stationNum != ObservationCursor.NO_STATION)
+									  ? this.handler.stationToFieldName(this.handler.getProcedures()[stationNum]) : "station";
+						  }
+						  for (int i : obsIndices) {
+							  String var = names.get(i);
+							  String key = station + "_" + var;
+							  Map<String, JsonFormatterData> target = (stationNum != ObservationCursor.NO_STATION) ? stationData : unstationedData;
+							  JsonFormatterData data = target.get(key);
+							  if (data == null) {
+								  stationToNum.put(key, (stationNum != ObservationCursor.NO_STATION) ? stationNum : cStat++);
+								  String varStandard = handler.getVariableStandardName(var);
+								  if(varStandard.equals(BaseRequestHandler.UNKNOWN)){
+									  varStandard = key;
+								  }
+								  String heightUnits = depthUnits;
+								  if(isProfile){
+									  heightUnits = ((TimeSeriesProfile )
+											  handler.getCDMDataset()).getHeightAxisUnits();
+									  heightMap.put(key, ((TimeSeriesProfile )
+											  handler.getCDMDataset()).getProfileHeightsForStation(stationNum));
+								  }
+								  else if(is3dGrid){
+									  Grid grid = ((Grid) this.handler.getCDMDataset());
+									  heightMap.put(key, grid.getDepths(var));
+									  heightUnits = grid.getDepthUnits(var);
+								  }
+								  data = new JsonFormatterData(varStandard, handler.getUnitsString(var), heightUnits);
+								  target.put(key, data);
+							  }
+
+							  data.add(cursor.getTime(), cursor.getValue(i), cursor.getDataType(i));
+							  if(isProfile || is3dGrid) {
+								  List<Double> heights = heightMap.get(key);
+								  int bin = Math.max(cursor.getBin(), 0);
+								  if (heights != null && bin < heights.size())
+									  data.addHeight(heights.get(bin));
+							  }
+							  else if(depthIndex >= 0 && data.isProfileData())
+								  data.addHeight(cursor.getValue(depthIndex));
+						  }
+					  }
+				  } finally {
+					  cursor.close();
+				  }
+				  writeStations(jsonGen, stationData, stationToNum);
+			  }
+			  writeStations(jsonGen, unstationedData, stationToNum);
+			  // a paged response ends with the token of its next page
+			  String token = handler.getContinuationToken();
+			  if (token != null)
+				  jsonGen.writeStringField(GetObservationRequestHandler.CONTINUATION_TOKEN, token);
+		  }
+		  jsonGen.writeEndObject();
 
-		  for(String stationKey : stationData.keySet()){
+		  jsonGen.flush();
+
+	  }
 
-			  int stationNum = stationToNum.get(stationKey);
-			  jsonGen.writeObjectFieldStart(stationKey);
+	  /**
+	   * Writes one object per station and variable
+	   */
+	  private void writeStations(JsonGenerator jsonGen, Map<String, JsonFormatterData> stationData,
+			  Map<String, Integer> stationToNum) throws IOException {
+		  String times = "times";
+		  String units = "units";
+		  String values = "values";
+		  String coordinates = "coordinates";
+		  String heightstr = "height";
+		  for(Map.Entry<String, JsonFormatterData> entry : stationData.entrySet()){
+
+			  int stationNum = stationToNum.get(entry.getKey());
+			  jsonGen.writeObjectFieldStart(entry.getKey());
 			  jsonGen.writeArrayFieldStart(coordinates);
 			  jsonGen.writeNumber((this.handler.getCDMDataset().getLowerLat(stationNum)));
 			  jsonGen.writeNumber((this.handler.getCDMDataset().getLowerLon(stationNum)));
 			  jsonGen.writeEndArray();
 
 			  jsonGen.writeObjectFieldStart("data");
-			  Map<String, JsonFormatterData> cData = stationData.get(stationKey);
-			  for(String var : cData.keySet()){
-				  JsonFormatterData data = cData.get(var);
-				  jsonGen.writeObjectFieldStart(var);
-				  jsonGen.writeArrayFieldStart(times);
-				  List<Object> timesL = data.getTimeValues();
-				  for(Object t : timesL){
-					  jsonGen.writeString((String)t);
-				  }
-				  jsonGen.writeEndArray();
-				  
-				  if(data.isProfileData){
-					  jsonGen.writeObjectFieldStart(heightstr);
-					  jsonGen.writeStringField(units, data.getHeightUnits());
-					  List<Double> heightL = data.getHeightValues();
-					  jsonGen.writeArrayFieldStart(values);
-					  for(Double h: heightL){
-						  jsonGen.writeNumber(h);
-					  }
-					  jsonGen.writeEndArray();
-					  jsonGen.writeEndObject();
-				  }
+			  JsonFormatterData data = entry.getValue();
+			  jsonGen.writeObjectFieldStart(data.getDataVariable());
+			  jsonGen.writeArrayFieldStart(times);
+			  for(int i = 0; i < data.size(); i++){
+				  jsonGen.writeString(this.handler.formatTime(data.getTime(i)));
+			  }
+			  jsonGen.writeEndArray();
+
+			  if(data.isProfileData()){
+				  jsonGen.writeObjectFieldStart(heightstr);
+				  jsonGen.writeStringField(units, data.getHeightUnits());
 				  jsonGen.writeArrayFieldStart(values);
-				  List<Object> dAr = data.getDataValues();
-				  for(Object dv : dAr){
-						  jsonGen.writeNumber(Double.valueOf((String) dv));					  
+				  for(int i = 0; i < data.heightSize(); i++){
+					  jsonGen.writeNumber(data.getHeight(i));
 				  }
 				  jsonGen.writeEndArray();
-				  jsonGen.writeStringField(units, data.getUnits());
 				  jsonGen.writeEndObject();
-
 			  }
+			  jsonGen.writeArrayFieldStart(values);
+			  DataType type = data.getValueType();
+			  for(int i = 0; i < data.size(); i++){
+				  double value = data.getValue(i);
+				  // write the value with the precision of its type, as it is stored in the dataset
+				  if (type == DataType.FLOAT)
+					  jsonGen.writeNumber((float) value);
+				  else if (type != null && type.isIntegral() && !Double.isNaN(value))
+					  jsonGen.writeNumber((long) value);
+				  else
+					  jsonGen.writeNumber(value);
+			  }
+			  jsonGen.writeEndArray();
+			  jsonGen.writeStringField(units, data.getUnits());
+			  jsonGen.writeEndObject();
+
 			  jsonGen.writeEndObject();
 			  jsonGen.writeEndObject();
 			  jsonGen.flush();
-
-			  
 		  }
-		  jsonGen.writeEndObject();
-
-		  jsonGen.flush();
-
 	  }
 
-	 
+
 	@Override
 	public String getContentType() {
 		return "text/json";
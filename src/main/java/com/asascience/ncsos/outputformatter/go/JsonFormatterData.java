@@ -1,33 +1,67 @@
 package com.asascience.ncsos.outputformatter.go;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+import ucar.ma2.DataType;
+
+/**
+ * Observations of one variable of one station, kept in primitive arrays until they are written
+ */
 public class JsonFormatterData {
+	private static final int INITIAL_CAPACITY = 64;
+
 	String dataVariable;
 	String units;
 	String heightUnits;
 	boolean isProfileData;
-	List<Object> dataValues;
-	List<Double> heightValues;
-	List<Object> timeValues;
+	DataType dataType;
+	long[] timeValues = new long[INITIAL_CAPACITY];
+	double[] dataValues = new double[INITIAL_CAPACITY];
+	double[] heightValues;
+	int size = 0;
+	int heightSize = 0;
 
 
 	public JsonFormatterData(String dataVariable, String units, String heightUnits){
 		isProfileData = heightUnits != null;
 
 		if(isProfileData)
-			heightValues = new ArrayList<Double>();
-		dataValues = new ArrayList<Object>();
-	
-		timeValues = new ArrayList<Object>();
+			heightValues = new double[INITIAL_CAPACITY];
 		this.heightUnits = heightUnits;
 		this.dataVariable = dataVariable;
 		this.units = units;
 		if(this.units == null)
 			this.units = "none";
 	}
-	
+
+	/**
+	 * Adds an observation
+	 * @param time time of the observation, in millis
+	 * @param value value of the observation
+	 * @param type data type of the value
+	 */
+	protected void add(long time, double value, DataType type) {
+		if (size == timeValues.length) {
+			timeValues = Arrays.copyOf(timeValues, size * 2);
+			dataValues = Arrays.copyOf(dataValues, size * 2);
+		}
+		timeValues[size] = time;
+		dataValues[size] = value;
+		size++;
+		if (dataType == null)
+			dataType = type;
+	}
+
+	/**
+	 * Adds the height of an observation
+	 */
+	protected void addHeight(double height) {
+		if (heightSize == heightValues.length) {
+			heightValues = Arrays.copyOf(heightValues, heightSize * 2);
+		}
+		heightValues[heightSize++] = height;
+	}
+
 	protected String getDataVariable() {
 		return dataVariable;
 	}
@@ -46,34 +80,25 @@ public class JsonFormatterData {
 	protected void setHeightUnits(String heightUnits) {
 		this.heightUnits = heightUnits;
 	}
-	
-	
-	protected List<Double> getHeightValues() {
-		return heightValues;
+	protected boolean isProfileData() {
+		return isProfileData;
 	}
-
-	protected void setHeightValues(List<Double> heightValues) {
-		this.heightValues = heightValues;
+	protected int size() {
+		return size;
 	}
-
-	protected List<Object> getTimeValues() {
-		return timeValues;
+	protected long getTime(int i) {
+		return timeValues[i];
 	}
-	protected void setTimeValues(List<Object> timeValues) {
-		this.timeValues = timeValues;
+	protected double getValue(int i) {
+		return dataValues[i];
 	}
-	protected boolean isProfileData() {
-		return isProfileData;
+	protected DataType getValueType() {
+		return dataType;
 	}
-
-
-	protected List<Object> getDataValues() {
-		return dataValues;
+	protected int heightSize() {
+		return heightSize;
 	}
-
-	protected void setDataValues(List<Object> dataValues) {
-		this.dataValues = dataValues;
+	protected double getHeight(int i) {
+		return heightValues[i];
 	}
-
-
 }
@@ -1,13 +1,18 @@
 package com.asascience.ncsos.outputformatter.go;
 
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
 import com.asascience.ncsos.go.GetObservationRequestHandler;
+import com.asascience.ncsos.outputformatter.StreamingXmlWriter;
 import com.asascience.ncsos.outputformatter.XmlOutputFormatter;
 import org.jdom.Element;
 import org.jdom.Namespace;
 
+import javax.xml.stream.XMLStreamException;
+
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.List;
 
 public class OosTethysFormatter extends XmlOutputFormatter {
 
@@ -40,12 +45,16 @@ public class OosTethysFormatter extends XmlOutputFormatter {
         return TEMPLATE;
     }
 
+    /**
+     * Writes the observation metadata from the template; the result block of each
+     * observation is streamed while the station's data is read.
+     */
     public void writeOutput(Writer writer) throws IOException {
         // create output if we don't already have an exception
         if (!hasError) {
             parseObservations(this.handler.getProcedures());
         }
-        super.writeOutput(writer);
+        this.writeStreamingOutput(writer);
     }
 
     private void parseObservations(String[] procedures) {
@@ -59,6 +68,14 @@ public class OosTethysFormatter extends XmlOutputFormatter {
             setObservationMeta(parent, proc, index);
             parent.addContent(getResultElement(index));
         }
+        // a paged response ends with the token of its next page, known once the values are written
+        this.addGeneratedContent(this.getRoot(), new StreamingXmlWriter.ContentWriter() {
+            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                String token = handler.getContinuationToken();
+                if (token != null)
+                    out.comment(GetObservationRequestHandler.CONTINUATION_TOKEN + "=" + token);
+            }
+        });
     }
     
     
@@ -213,74 +230,107 @@ public class OosTethysFormatter extends XmlOutputFormatter {
         
         dataArray.addContent(getEncodingElement());
         
-//        dataArray.appendChild(createNodeWithText("swe:values", obsHandler.getValueBlockForAllObs(BLOCK_SEPERATOR, DECIMAL_SEPERATOR, TOKEN_SEPERATOR, index)));
-        dataArray.addContent(createNodeWithText(SWE_NS, "values",
-                processDataBlock(this.handler.getValueBlockForAllObs(BLOCK_SEPERATOR, DECIMAL_SEPERATOR, TOKEN_SEPERATOR, index))));
-        
+        final int stationIndex = index;
+        this.addGeneratedContent(dataArray, new StreamingXmlWriter.ContentWriter() {
+            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                out.start(SWE_NS, VALUES);
+                try {
+                    writeValues(out, stationIndex);
+                } catch (IOException ex) {
+                    throw new XMLStreamException(ex);
+                }
+                out.end();
+            }
+        });
+
         parent.addContent(dataArray);
         
         return parent;
     }
     
-    private String processDataBlock(String dataBlock) {
-        // split on token separator then on '='
-        StringBuilder retval = new StringBuilder();
-        String[] blockSplit = dataBlock.split(BLOCK_SEPERATOR);
-        String lastTime = null;
+    /**
+     * Writes the values of a station: the time and the requested observed properties of each
+     * record. Records sharing a time are merged into one block, without repeating the time
+     * and location, unless they have a depth.
+     */
+    private void writeValues(StreamingXmlWriter out, int index) throws IOException, XMLStreamException {
         String latAxisName = this.handler.getLatAxisName();
         String lonAxisName = this.handler.getLonAxisName();
         String depthAxisName = this.handler.getDepthAxisName();
-        boolean skipLatLonBlock;
-        String lastDepth = null;
-        for (String block : blockSplit) {
-        	String[] tokenSplit = block.split(TOKEN_SEPERATOR);
-        	skipLatLonBlock = false;
-        	String skippedStr = "";
-        	for (String obsValue : tokenSplit) {
-        		String[] obs = obsValue.split("=");
-        		if (obs.length > 1 && (obs[0].equals("time") || isInRequestObservedProperties(obs[0]))){
-        			if(lastTime != null && obs[0].equals("time")) {
-        				if(!lastTime.equals(obs[1])){
-        					// remove last token seperator
-        					if (retval.length() > 1)
-        						retval.deleteCharAt(retval.length()-1);
-        					retval.append(BLOCK_SEPERATOR);
-        				}
-        				else
-        					skipLatLonBlock = true;
-        			}
-        			if(depthAxisName !=  null && obs[0].equals(depthAxisName)){
-        				if(skipLatLonBlock){
-        					if(lastDepth != obs[1]){
-        						skipLatLonBlock = false;
-        						if (retval.length() > 1)
-            						retval.deleteCharAt(retval.length()-1);
-        						retval.append(BLOCK_SEPERATOR);
-                				retval.append(skippedStr);
-                				skippedStr = "";
-        					}
-        				}
-        				lastDepth = obs[1];
-        			}
-        			if(! ((obs[0].equals(latAxisName)  || obs[0].equals(lonAxisName) || obs[0].equals("time") ||
-        					(depthAxisName !=  null && obs[0].equals(depthAxisName))) && skipLatLonBlock)){
-        				retval.append(obs[1]).append(TOKEN_SEPERATOR);
-        			}
-        			else {
-        				skippedStr += obs[1] + TOKEN_SEPERATOR;
-        			}
-        			if(obs[0].equals("time") )
-        				lastTime = obs[1];
-        		}
-        	}
+        ValueBlockWriter values = new ValueBlockWriter(out);
+        List<String> skipped = new ArrayList<String>();
+        String lastTime = null;
+        ObservationCursor cursor = this.handler.getObservationCursor(index);
+        try {
+            String[] names = cursor.getVariableNames();
+            boolean[] requested = new boolean[names.length];
+            for (int i = 0; i < names.length; i++) {
+                requested[i] = isInRequestObservedProperties(names[i]);
+            }
+            while (cursor.next()) {
+                String time = this.handler.formatTime(cursor.getTime());
+                boolean skipLatLonBlock = false;
+                skipped.clear();
+                if (lastTime != null) {
+                    if (!lastTime.equals(time))
+                        values.newBlock();
+                    else
+                        skipLatLonBlock = true;
+                }
+                if (skipLatLonBlock)
+                    skipped.add(time);
+                else
+                    values.add(time);
+                lastTime = time;
+                for (int i = 0; i < names.length; i++) {
+                    if (!requested[i])
+                        continue;
+                    boolean isDepth = depthAxisName != null && names[i].equals(depthAxisName);
+                    if (isDepth && skipLatLonBlock) {
+                        // a new depth starts a new block, with the time and location written so far
+                        skipLatLonBlock = false;
+                        values.newBlock();
+                        for (String value : skipped) {
+                            values.add(value);
+                        }
+                        skipped.clear();
+                    }
+                    String value = cursor.formatValue(i);
+                    if (skipLatLonBlock && (names[i].equals(latAxisName) || names[i].equals(lonAxisName) || isDepth))
+                        skipped.add(value);
+                    else
+                        values.add(value);
+                }
+            }
+        } finally {
+            cursor.close();
         }
-        // remove last block separator
-        if (retval.length() > 1)
-                retval.deleteCharAt(retval.length()-1);
-        
-        return retval.toString();
     }
-    
+
+    /**
+     * Writes values separated by the token separator into blocks separated by the block separator
+     */
+    private static class ValueBlockWriter {
+        private final StreamingXmlWriter out;
+        private boolean firstInBlock = true;
+
+        ValueBlockWriter(StreamingXmlWriter out) {
+            this.out = out;
+        }
+
+        void add(String value) throws XMLStreamException {
+            if (!firstInBlock)
+                out.text(TOKEN_SEPERATOR);
+            out.text(value);
+            firstInBlock = false;
+        }
+
+        void newBlock() throws XMLStreamException {
+            out.text(BLOCK_SEPERATOR);
+            firstInBlock = true;
+        }
+    }
+
     private boolean isInRequestObservedProperties(String name) {
         for (String obsProp : this.handler.getObservedProperties()) {
             if (obsProp.equals(name))
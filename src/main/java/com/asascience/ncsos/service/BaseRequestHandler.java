@@ -2,6 +2,7 @@ package com.asascience.ncsos.service;
 
 import com.asascience.ncsos.outputformatter.OutputFormatter;
 import com.asascience.ncsos.outputformatter.XmlOutputFormatter;
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
 import com.asascience.ncsos.util.DiscreteSamplingGeometryUtil;
 import com.asascience.ncsos.util.ListComprehension;
 import com.asascience.ncsos.util.VocabDefinitions;
@@ -53,7 +54,10 @@ public abstract class BaseRequestHandler {
     public static final String IOOS_CODE = "ioos_code";
     public static final String INSTRUMENT = "instrument";
     public static final String LONG_NAME = "long_name";
+    public static final String BBOX = "bbox";
     private static final NumberFormat FORMAT_DEGREE;
+    // handle attribute holding the GridDataset wrapped around a pooled dataset
+    private static final String GRID_DATASET_ATTRIBUTE = "gridDataset";
     // list of keywords to filter variables on to remove non-data variables from the list
     private static final String[] NON_DATAVAR_NAMES = { "rowsize", "row_size", PROFILE, "info", "time", "z", "alt", "height", "station_info" };
     private FeatureDataset featureDataset;
@@ -68,6 +72,9 @@ public abstract class BaseRequestHandler {
     protected Variable latVariable, lonVariable, timeVariable, depthVariable;
     protected Variable stationVariable;
     private HashMap<Integer, String> stationNames;
+    // station index by name, built on first lookup
+    private HashMap<String, Integer> stationIndices;
+    private StationSpatialIndex stationSpatialIndex;
     private HashMap<String, String> urnToStationName;
     private HashMap<String, VariableSimpleIF> sensorNames;
     private HashMap<String, Variable> platformVariableMap;
@@ -91,6 +98,7 @@ public abstract class BaseRequestHandler {
         FORMAT_DEGREE.setMaximumFractionDigits(14);
     }
     private FeatureType dataFeatureType;
+    private FeatureType detectedFeatureType;
     protected OutputFormatter formatter;
 
     /**
@@ -117,6 +125,13 @@ public abstract class BaseRequestHandler {
         	initializeDataset();
         }
     }
+
+    /**
+     * Releases what the handler holds while its response is written; called once the
+     * response has been written, or has failed
+     */
+    public void close() {
+    }
     
     
     /**
@@ -184,10 +199,10 @@ public abstract class BaseRequestHandler {
     
     protected void initializeDataset() throws IOException{
         // get the feature dataset (wraps the dataset in variety of accessor methods)
-        findFeatureDataset(FeatureDatasetFactoryManager.findFeatureType(netCDFDataset));
+        findFeatureDataset();
         // verify we could get a dataset (make sure the dataset is CF 1.6 compliant or whatever)
         if (gridDataSet == null && featureDataset == null) {
-            _log.error("Unknown feature type! " + FeatureDatasetFactoryManager.findFeatureType(netCDFDataset));
+            _log.error("Unknown feature type! " + detectedFeatureType);
             return;
         }
         // if dataFeatureType is none/null (not GRID) get the point feature collection
@@ -196,10 +211,19 @@ public abstract class BaseRequestHandler {
             dataFeatureType = CDMPointFeatureCollection.getCollectionFeatureType();
 
         }
+        // reuse the metadata parsed by an earlier request if the dataset is unchanged
+        DatasetMetadataCache.Metadata metadata = DatasetMetadataCache.get(netCDFDataset);
+        if (metadata != null) {
+            applyCachedMetadata(metadata);
+            isInitialized = true;
+            return;
+        }
+        long lastModified = DatasetHandlerAdapter.getLastModified(netCDFDataset);
         // find the global attributes
         parseGlobalAttributes();
         // get the station variable and several other bits needed
         findAndParseStationVariable();
+        stationSpatialIndex = StationSpatialIndex.forStations(CDMPointFeatureCollection, stationNames);
         // get sensor Variable names
         parseSensorNames();
         // get Axis vars (location, time, depth)
@@ -207,56 +231,157 @@ public abstract class BaseRequestHandler {
         lonVariable = netCDFDataset.findCoordinateAxis(AxisType.Lon);
         timeVariable = netCDFDataset.findCoordinateAxis(AxisType.Time);
         depthVariable = netCDFDataset.findCoordinateAxis(AxisType.Height);
+        DatasetMetadataCache.put(netCDFDataset, createCachedMetadata(lastModified));
         isInitialized = true;
     }
+
+    /**
+     * Creates a snapshot of the parsed metadata that can be shared with later requests
+     * @param lastModified modification time of the dataset when parsing started
+     * @return metadata snapshot
+     */
+    private DatasetMetadataCache.Metadata createCachedMetadata(long lastModified) {
+        Map<String, String> platformVariableNames = new HashMap<String, String>();
+        for (Map.Entry<String, Variable> entry : platformVariableMap.entrySet()) {
+            if (entry.getValue() != null)
+                platformVariableNames.put(entry.getKey(), entry.getValue().getFullNameEscaped());
+        }
+        return new DatasetMetadataCache.Metadata(lastModified,
+                stationNames,
+                stationSpatialIndex,
+                urnToStationName,
+                sensorNames.keySet(),
+                platformVariableNames,
+                gridVariableMap,
+                global_attributes,
+                getVariableName(stationVariable),
+                getVariableName(latVariable),
+                getVariableName(lonVariable),
+                getVariableName(timeVariable),
+                getVariableName(depthVariable));
+    }
+
+    /**
+     * Fills in the handler's metadata from a cached snapshot, resolving the variables
+     * against this handler's dataset.
+     * @param metadata metadata snapshot
+     */
+    private void applyCachedMetadata(DatasetMetadataCache.Metadata metadata) {
+        this.global_attributes = new HashMap<String, Object>(metadata.globalAttributes);
+        this.stationNames = new HashMap<Integer, String>(metadata.stationNames);
+        this.stationSpatialIndex = metadata.stationSpatialIndex;
+        this.urnToStationName = new HashMap<String, String>(metadata.urnToStationName);
+        this.gridVariableMap = new HashMap<String, String>(metadata.gridVariableMap);
+        this.platformVariableMap = new HashMap<String, Variable>();
+        for (Map.Entry<String, String> entry : metadata.platformVariableNames.entrySet()) {
+            this.platformVariableMap.put(entry.getKey(), netCDFDataset.findVariable(entry.getValue()));
+        }
+        this.sensorNames = new HashMap<String, VariableSimpleIF>();
+        for (VariableSimpleIF var : getFeatureDataset().getDataVariables()) {
+            if (metadata.sensorNames.contains(var.getShortName()))
+                this.sensorNames.put(var.getShortName(), var);
+        }
+        this.stationVariable = findVariable(metadata.stationVariableName);
+        latVariable = findVariable(metadata.latAxisName);
+        lonVariable = findVariable(metadata.lonAxisName);
+        timeVariable = findVariable(metadata.timeAxisName);
+        depthVariable = findVariable(metadata.depthAxisName);
+    }
+
+    private Variable findVariable(String fullName) {
+        return (fullName == null) ? null : netCDFDataset.findVariable(fullName);
+    }
+
+    private static String getVariableName(Variable var) {
+        return (var == null) ? null : var.getFullNameEscaped();
+    }
+    /**
+     * Attempts to set the feature dataset based on the dataset's FeatureType. The detected
+     * FeatureType and the wrapping that succeeded are cached, so later requests on an
+     * unchanged dataset do not have to probe the feature dataset factories.
+     * @throws IOException 
+     */
+    private void findFeatureDataset() throws IOException {
+        FeatureTypeCache.Entry cached = FeatureTypeCache.get(netCDFDataset);
+        if (cached != null) {
+            detectedFeatureType = cached.getDetectedType();
+            if (cached.getWrapType() != null && wrapFeatureDataset(cached.getWrapType()))
+                return;
+        } else {
+            detectedFeatureType = FeatureDatasetFactoryManager.findFeatureType(netCDFDataset);
+        }
+        long lastModified = DatasetHandlerAdapter.getLastModified(netCDFDataset);
+        FeatureType wrapType = probeFeatureDataset(detectedFeatureType);
+        FeatureTypeCache.put(netCDFDataset, new FeatureTypeCache.Entry(lastModified, detectedFeatureType, wrapType));
+    }
+
     /**
-     * Attempts to set the feature dataset based on the dataset's FeatureType
+     * Tries the feature types the dataset may be wrapped with, in order
      * @param datasetFT The FeatureType of the netcdf dataset, found with the factory manager
+     * @return the FeatureType that wrapped the dataset; null if none did
      * @throws IOException 
      */
-    private void findFeatureDataset(FeatureType datasetFT) throws IOException {
+    private FeatureType probeFeatureDataset(FeatureType datasetFT) throws IOException {
         if (datasetFT != null) {
+            FeatureType wrapType;
             switch (datasetFT) {
                 case STATION_PROFILE:
-                    featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.STATION_PROFILE, netCDFDataset, null, new Formatter(System.err));
-                    break;
                 case PROFILE:
-                    featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.PROFILE, netCDFDataset, null, new Formatter(System.err));
-                    break;
                 case STATION:
-                    featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.STATION, netCDFDataset, null, new Formatter(System.err));
-                    break;
                 case TRAJECTORY:
-                    featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.TRAJECTORY, netCDFDataset, null, new Formatter(System.err));
-                    break;
                 case SECTION:
-                    featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.SECTION, netCDFDataset, null, new Formatter(System.err));
-                    break;
                 case POINT:
-                    featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.POINT, netCDFDataset, null, new Formatter(System.err));
-                    break;
                 case GRID:
-                    featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.GRID, netCDFDataset, null, new Formatter(System.err));
-                    gridDataSet = DiscreteSamplingGeometryUtil.extractGridDatasetCollection(featureDataset);
-                    dataFeatureType = FeatureType.GRID;
+                    wrapType = datasetFT;
                     break;
                 default:
-                    featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.ANY_POINT, netCDFDataset, null, new Formatter(System.err));
+                    wrapType = FeatureType.ANY_POINT;
                     break;
             }
+            if (wrapFeatureDataset(wrapType))
+                return wrapType;
         }
-        
-        if (featureDataset == null) {
-            // attempt to get the dataset from an any_point
-            featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.ANY_POINT, netCDFDataset, null, new Formatter(System.err));
-            
-            if (featureDataset == null) {
-                // null, which means the dataset should be grid...
-                featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.GRID, netCDFDataset, null, new Formatter(System.err));
+        // attempt to get the dataset from an any_point
+        if (wrapFeatureDataset(FeatureType.ANY_POINT))
+            return FeatureType.ANY_POINT;
+        // null, which means the dataset should be grid...
+        if (wrapFeatureDataset(FeatureType.GRID))
+            return FeatureType.GRID;
+        return null;
+    }
+
+    /**
+     * Wraps the dataset as the given feature type. A GridDataset is kept with the pooled
+     * dataset handle and reused by later requests.
+     * @param wrapType FeatureType to wrap the dataset with
+     * @return true if the dataset could be wrapped
+     * @throws IOException 
+     */
+    private boolean wrapFeatureDataset(FeatureType wrapType) throws IOException {
+        if (wrapType == FeatureType.GRID) {
+            FeatureDataset gridFeatureDataset = (FeatureDataset) DatasetHandlerAdapter.getHandleAttribute(netCDFDataset, GRID_DATASET_ATTRIBUTE);
+            if (gridFeatureDataset == null) {
+                gridFeatureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.GRID, netCDFDataset, null, new Formatter(System.err));
+                if (gridFeatureDataset != null)
+                    DatasetHandlerAdapter.setHandleAttribute(netCDFDataset, GRID_DATASET_ATTRIBUTE, gridFeatureDataset);
+            }
+            featureDataset = gridFeatureDataset;
+            if (featureDataset != null) {
                 gridDataSet = DiscreteSamplingGeometryUtil.extractGridDatasetCollection(featureDataset);
                 dataFeatureType = FeatureType.GRID;
             }
+        } else {
+            featureDataset = FeatureDatasetFactoryManager.wrap(wrapType, netCDFDataset, null, new Formatter(System.err));
         }
+        return featureDataset != null;
+    }
+
+    /**
+     * Returns the FeatureType reported by NetCDF-Java for the dataset
+     * @return detected FeatureType; null if it could not be determined
+     */
+    public FeatureType getDetectedFeatureType() {
+        return detectedFeatureType;
     }
     
     /**
@@ -557,20 +682,17 @@ public abstract class BaseRequestHandler {
         try {
             if (stationToLookFor == null)
                 throw new Exception("Looking for null station");
-            // look for the station in the hashmap and return its index
-            int retval = -1;
-            if (stationNames != null && stationNames.containsValue(stationToLookFor)) {
-                int index = 0;
-                for (String stationName : stationNames.values()) {
-                    if (stationToLookFor.equalsIgnoreCase(stationName)) {
-                        retval = index;
-                        break;
-                    }
-                    index++;
+            if (stationNames == null)
+                return -1;
+            if (stationIndices == null) {
+                stationIndices = new HashMap<String, Integer>();
+                for (Map.Entry<Integer, String> entry : new TreeMap<Integer, String>(stationNames).entrySet()) {
+                    if (!stationIndices.containsKey(entry.getValue()))
+                        stationIndices.put(entry.getValue(), entry.getKey());
                 }
             }
-
-            return retval;
+            Integer retval = stationIndices.get(stationToLookFor);
+            return (retval != null) ? retval : -1;
         } catch (Exception ex) {
             ex.printStackTrace();
         }
@@ -578,6 +700,13 @@ public abstract class BaseRequestHandler {
         return -1;
     }
     
+    /**
+     * @return index of the station locations; null if the dataset is not a station collection
+     */
+    public StationSpatialIndex getStationSpatialIndex() {
+        return stationSpatialIndex;
+    }
+
     /**
      * Get the station names, parsed from a Variable containing "station" and "name"
      * @return list of station names
@@ -634,6 +763,8 @@ public abstract class BaseRequestHandler {
         try {
             // get the lat/lon of the station
             if (stationIndex >= 0) {
+                if (stationSpatialIndex != null && stationSpatialIndex.getLocation(stationIndex) != null)
+                    return stationSpatialIndex.getLocation(stationIndex);
                 double[] coords = new double[] { Double.NaN, Double.NaN };
             
                 // find lat/lon values for the station
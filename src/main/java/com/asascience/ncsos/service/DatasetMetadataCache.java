@@ -0,0 +1,130 @@
+package com.asascience.ncsos.service;
+
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.util.LruCache;
+
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shares the metadata derived by {@link BaseRequestHandler#initializeDataset()} between
+ * requests. Parsing the station names requires a full iteration of the feature collection,
+ * which on large station datasets costs more than the data read itself. Entries are keyed
+ * by the dataset location and are dropped once the dataset's modification time changes.
+ * <p>
+ * Only names are held here; Variables belong to an open dataset, so the handler resolves
+ * them again against its own dataset.
+ */
+public class DatasetMetadataCache {
+
+    /** System property used to override the number of datasets kept */
+    public static final String MAX_ENTRIES_PROPERTY = "ncsos.metadataCache.maxEntries";
+    private static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static final LruCache<String, Metadata> cache =
+            new LruCache<String, Metadata>(Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+
+    /**
+     * Returns the cached metadata for a dataset, if the dataset has not been modified
+     * since it was cached
+     * @param dataset the open dataset
+     * @return cached metadata or null
+     */
+    public static Metadata get(NetcdfDataset dataset) {
+        String location = getKey(dataset);
+        if (location == null)
+            return null;
+        Metadata metadata = cache.get(location);
+        if (metadata != null && metadata.lastModified != DatasetHandlerAdapter.getLastModified(dataset)) {
+            cache.remove(location);
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * Caches the metadata for a dataset
+     * @param dataset the open dataset the metadata was derived from
+     * @param metadata the metadata
+     */
+    public static void put(NetcdfDataset dataset, Metadata metadata) {
+        String location = getKey(dataset);
+        // without a modification time (remote datasets, aggregations) the metadata could not be told to be stale
+        if (location != null && metadata.lastModified > 0)
+            cache.put(location, metadata);
+    }
+
+    /**
+     * Removes the cached metadata of a dataset
+     * @param location location of the dataset
+     */
+    public static void invalidate(String location) {
+        if (location != null)
+            cache.remove(location);
+    }
+
+    /**
+     * Removes all cached metadata
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    private static String getKey(NetcdfDataset dataset) {
+        return (dataset == null) ? null : dataset.getLocation();
+    }
+
+    /**
+     * Immutable snapshot of the metadata parsed from a dataset
+     */
+    public static final class Metadata {
+        final long lastModified;
+        final Map<Integer, String> stationNames;
+        final StationSpatialIndex stationSpatialIndex;
+        final Map<String, String> urnToStationName;
+        final Set<String> sensorNames;
+        final Map<String, String> platformVariableNames;
+        final Map<String, String> gridVariableMap;
+        final Map<String, Object> globalAttributes;
+        final String stationVariableName;
+        final String latAxisName, lonAxisName, timeAxisName, depthAxisName;
+
+        Metadata(long lastModified,
+                 Map<Integer, String> stationNames,
+                 StationSpatialIndex stationSpatialIndex,
+                 Map<String, String> urnToStationName,
+                 Set<String> sensorNames,
+                 Map<String, String> platformVariableNames,
+                 Map<String, String> gridVariableMap,
+                 Map<String, Object> globalAttributes,
+                 String stationVariableName,
+                 String latAxisName, String lonAxisName, String timeAxisName, String depthAxisName) {
+            this.lastModified = lastModified;
+            this.stationNames = Collections.unmodifiableMap(new HashMap<Integer, String>(stationNames));
+            this.stationSpatialIndex = stationSpatialIndex;
+            this.urnToStationName = Collections.unmodifiableMap(new HashMap<String, String>(urnToStationName));
+            this.sensorNames = Collections.unmodifiableSet(new LinkedHashSet<String>(sensorNames));
+            this.platformVariableNames = Collections.unmodifiableMap(new HashMap<String, String>(platformVariableNames));
+            this.gridVariableMap = Collections.unmodifiableMap(new HashMap<String, String>(gridVariableMap));
+            this.globalAttributes = Collections.unmodifiableMap(new HashMap<String, Object>(globalAttributes));
+            this.stationVariableName = stationVariableName;
+            this.latAxisName = latAxisName;
+            this.lonAxisName = lonAxisName;
+            this.timeAxisName = timeAxisName;
+            this.depthAxisName = depthAxisName;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public Map<Integer, String> getStationNames() {
+            return stationNames;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.asascience.ncsos.service;
+
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.util.LruCache;
+
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * Remembers, per dataset location, the FeatureType reported by NetCDF-Java and the
+ * FeatureType that was successfully used to wrap the dataset. Later requests wrap
+ * the dataset directly instead of probing the feature dataset factories again.
+ * Entries are dropped once the dataset's modification time changes.
+ */
+public class FeatureTypeCache {
+
+    /** System property used to override the number of datasets kept */
+    public static final String MAX_ENTRIES_PROPERTY = "ncsos.featureTypeCache.maxEntries";
+    private static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final LruCache<String, Entry> cache =
+            new LruCache<String, Entry>(Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+
+    /**
+     * Returns the cached feature type information for a dataset, if the dataset has not
+     * been modified since it was cached
+     * @param dataset the open dataset
+     * @return cached entry or null
+     */
+    public static Entry get(NetcdfDataset dataset) {
+        if (dataset == null || dataset.getLocation() == null)
+            return null;
+        Entry entry = cache.get(dataset.getLocation());
+        if (entry != null && entry.lastModified != DatasetHandlerAdapter.getLastModified(dataset)) {
+            cache.remove(dataset.getLocation());
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the feature type information of a dataset
+     * @param dataset the open dataset
+     * @param entry the feature type information
+     */
+    public static void put(NetcdfDataset dataset, Entry entry) {
+        // without a modification time (remote datasets, aggregations) the entry could not be told to be stale
+        if (dataset != null && dataset.getLocation() != null && entry.lastModified > 0)
+            cache.put(dataset.getLocation(), entry);
+    }
+
+    /**
+     * Removes all cached entries
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    /**
+     * The detected and wrapped feature types of a dataset
+     */
+    public static final class Entry {
+        private final long lastModified;
+        private final FeatureType detectedType;
+        private final FeatureType wrapType;
+
+        /**
+         * @param lastModified modification time of the dataset when the type was detected
+         * @param detectedType type reported by FeatureDatasetFactoryManager.findFeatureType; may be null
+         * @param wrapType type the dataset was successfully wrapped with; null if wrapping failed
+         */
+        public Entry(long lastModified, FeatureType detectedType, FeatureType wrapType) {
+            this.lastModified = lastModified;
+            this.detectedType = detectedType;
+            this.wrapType = wrapType;
+        }
+
+        public FeatureType getDetectedType() {
+            return detectedType;
+        }
+
+        public FeatureType getWrapType() {
+            return wrapType;
+        }
+    }
+}
@@ -2,10 +2,14 @@ package com.asascience.ncsos.service;
 
 import com.asascience.ncsos.ds.BaseDSHandler;
 import com.asascience.ncsos.error.ExceptionResponseHandler;
+import com.asascience.ncsos.gc.GetCapabilitiesCache;
 import com.asascience.ncsos.gc.GetCapabilitiesRequestHandler;
+import com.asascience.ncsos.go.GetObservationCache;
 import com.asascience.ncsos.go.GetObservationRequestHandler;
 import com.asascience.ncsos.outputformatter.CachedFileFormatter;
+import com.asascience.ncsos.outputformatter.OutputFormatter;
 import com.asascience.ncsos.outputformatter.XmlOutputFormatter;
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
 import com.asascience.ncsos.util.LogUtils;
 import com.asascience.ncsos.util.LowerCaseStringMap;
 
@@ -28,6 +32,7 @@ public class Parser {
     public static final String GETOBSERVATION = "GetObservation";
     public static final String DESCRIBESENSOR = "DescribeSensor";
     public static final String OUTPUT_FORMATTER = "outputFormatter";
+    public static final String REQUEST_HANDLER = "requestHandler";
     public static final String SECTIONS = "sections";
     public static final String USECACHE = "usecache";
     public static final String XML = "xml";
@@ -123,8 +128,18 @@ public class Parser {
                 if (queryParameters.containsKey(SECTIONS)) {
                     sections = queryParameters.get(SECTIONS).toString();
                 }
+                if (queryParameters.containsKey(BaseRequestHandler.BBOX)) {
+                    // the stations listed depend on the bounding box, so the response is not cached
+                    try {
+                        capHandler = new GetCapabilitiesRequestHandler(dataset, threddsURI, sections);
+                        capHandler.setBoundingBox(queryParameters.get(BaseRequestHandler.BBOX).toString());
+                    } catch (IOException ex) {
+                        _log.error(ex.getMessage(), ex);
+                        capHandler = null;
+                    }
+                }
                 // check to see if cache is enabled
-                if (queryParameters.containsKey(USECACHE) && queryParameters.get(USECACHE).toString().equals(TRUE_STRING) && savePath != null) {
+                else if (queryParameters.containsKey(USECACHE) && queryParameters.get(USECACHE).toString().equals(TRUE_STRING) && savePath != null) {
                     //Check to see if get caps exists, if it does not actual parse the file
                     _log.debug("Cache enabled for GetCapabilities");
                     File f = new File(savePath + getCacheXmlFileName(threddsURI));
@@ -159,12 +174,25 @@ public class Parser {
                         }
                     }
                 } else {
+                    OutputFormatter cached = GetCapabilitiesCache.get(dataset, threddsURI, sections);
+                    if (cached != null) {
+                        _log.debug("Using in-memory get capabilities doc");
+                        retval.put(OUTPUT_FORMATTER, cached);
+                        return retval;
+                    }
                     try {
                         capHandler = new GetCapabilitiesRequestHandler(dataset, threddsURI, sections);
                     } catch (IOException ex) {
                         _log.error(ex.getMessage(), ex);
                         capHandler = null;
                     }
+                    if (capHandler != null) {
+                        long lastModified = DatasetHandlerAdapter.getLastModified(dataset);
+                        parseGetCaps(capHandler);
+                        retval.put(OUTPUT_FORMATTER, GetCapabilitiesCache.put(dataset, threddsURI, sections,
+                                lastModified, capHandler.getOutputFormatter()));
+                        return retval;
+                    }
                 }
                 if (capHandler != null) {
                     parseGetCaps(capHandler);
@@ -175,6 +203,13 @@ public class Parser {
                 }
             } else if (request.equalsIgnoreCase(GETOBSERVATION)) {
                 GetObservationRequestHandler obsHandler = null;
+                GetObservationCache.Key cacheKey = GetObservationCache.getKey(dataset, queryParameters);
+                OutputFormatter cached = GetObservationCache.get(cacheKey);
+                if (cached != null) {
+                    _log.debug("Using in-memory get observation response");
+                    retval.put(OUTPUT_FORMATTER, cached);
+                    return retval;
+                }
                 // setup our coordsHash
                 if (queryParameters.containsKey(LAT)) {
                     coordsHash.put(LAT, queryParameters.get(LAT).toString());
@@ -197,6 +232,18 @@ public class Parser {
                     if (queryParameters.containsKey(EVENT_TIME)) {
                         eventTime = (String[]) queryParameters.get(EVENT_TIME);
                     }
+                    String bbox = null;
+                    String maxRecords = null;
+                    String continuationToken = null;
+                    if (queryParameters.containsKey(BaseRequestHandler.BBOX)) {
+                        bbox = queryParameters.get(BaseRequestHandler.BBOX).toString();
+                    }
+                    if (queryParameters.containsKey(GetObservationRequestHandler.MAX_RECORDS)) {
+                        maxRecords = queryParameters.get(GetObservationRequestHandler.MAX_RECORDS).toString();
+                    }
+                    if (queryParameters.containsKey(GetObservationRequestHandler.CONTINUATION_TOKEN)) {
+                        continuationToken = queryParameters.get(GetObservationRequestHandler.CONTINUATION_TOKEN).toString();
+                    }
                     // create a new handler for our get observation request and then write its result to output
                     obsHandler = new GetObservationRequestHandler(dataset,
                             procedure,
@@ -204,7 +251,17 @@ public class Parser {
                             (String[]) queryParameters.get(OBSERVED_PROPERTY),
                             eventTime,
                             queryParameters.get(RESPONSE_FORMAT).toString(),
-                            coordsHash);
+                            coordsHash,
+                            bbox,
+                            maxRecords,
+                            continuationToken);
+                    if (queryParameters.containsKey(GetObservationRequestHandler.AGGREGATION_INTERVAL)
+                            || queryParameters.containsKey(GetObservationRequestHandler.AGGREGATION_FUNCTION)) {
+                        Object interval = queryParameters.get(GetObservationRequestHandler.AGGREGATION_INTERVAL);
+                        Object function = queryParameters.get(GetObservationRequestHandler.AGGREGATION_FUNCTION);
+                        obsHandler.setAggregation((interval != null) ? interval.toString() : null,
+                                (function != null) ? function.toString() : null);
+                    }
 
                     if (obsHandler.getFeatureDataset() == null) {
                         errorHandler.setException("NetCDF-Java can not determine the FeatureType of the dataset.");
@@ -216,7 +273,9 @@ public class Parser {
                         return retval;
                     } 
                     // add our handler to the return value
-                    retval.put(OUTPUT_FORMATTER, obsHandler.getOutputFormatter());
+                    retval.put(OUTPUT_FORMATTER, GetObservationCache.put(cacheKey, obsHandler.getOutputFormatter()));
+                    // closed by the caller once the response has been written
+                    retval.put(REQUEST_HANDLER, obsHandler);
                 } catch (Exception ex) {
                     _log.error("Internal Error in creating output for GetObservation request:", ex);
                     errorHandler.setException("Internal Error in creating output for GetObservation request - " + ex.toString());
@@ -0,0 +1,217 @@
+package com.asascience.ncsos.service;
+
+import ucar.nc2.ft.FeatureCollection;
+import ucar.nc2.ft.StationCollection;
+import ucar.unidata.geoloc.Station;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Locations of the stations of a dataset, kept in a packed R-tree so that the stations
+ * within a bounding box are found without scanning every station. The tree is built once
+ * with the station metadata and shared through {@link DatasetMetadataCache}.
+ * <p>
+ * Stations are packed into nodes with the Sort-Tile-Recursive method: sorted by longitude
+ * into vertical slices, then by latitude within a slice. The nodes of a level cover
+ * consecutive nodes (or stations) of the level below. Longitudes are normalized to
+ * [-180, 180); a box whose western bound is east of its eastern bound crosses the
+ * antimeridian.
+ */
+public final class StationSpatialIndex {
+
+    private static final int NODE_SIZE = 16;
+
+    private final double[] lats;
+    private final double[] lons;
+    // longitudes in [-180, 180), as the tree is built on
+    private final double[] normalizedLons;
+    // station indices, in the order they are packed into the leaves
+    private final int[] order;
+    // per level, from the leaves up: latMin, latMax, lonMin, lonMax of every node
+    private final List<double[]> levels = new ArrayList<double[]>();
+
+    /**
+     * @param lats latitude of each station, by station index; NaN if unknown
+     * @param lons longitude of each station, by station index; NaN if unknown
+     */
+    public StationSpatialIndex(double[] lats, double[] lons) {
+        this.lats = lats;
+        this.lons = lons;
+        this.normalizedLons = new double[lons.length];
+        List<Integer> located = new ArrayList<Integer>();
+        for (int i = 0; i < lats.length; i++) {
+            normalizedLons[i] = normalizeLon(lons[i]);
+            if (!Double.isNaN(lats[i]) && !Double.isNaN(normalizedLons[i]))
+                located.add(i);
+        }
+        Integer[] sorted = located.toArray(new Integer[located.size()]);
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(normalizedLons[a], normalizedLons[b]);
+            }
+        });
+        int leaves = (sorted.length + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+        for (int start = 0; start < sorted.length; start += sliceSize) {
+            Arrays.sort(sorted, start, Math.min(start + sliceSize, sorted.length), new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(StationSpatialIndex.this.lats[a], StationSpatialIndex.this.lats[b]);
+                }
+            });
+        }
+        this.order = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            order[i] = sorted[i];
+        }
+        buildLevels();
+    }
+
+    /**
+     * Builds the index of the stations of a station collection
+     * @param collection feature collection of the dataset
+     * @param stationNames station names by station index
+     * @return the index; null if the collection has no station locations
+     */
+    public static StationSpatialIndex forStations(FeatureCollection collection, Map<Integer, String> stationNames) {
+        if (!(collection instanceof StationCollection) || stationNames == null || stationNames.isEmpty())
+            return null;
+        StationCollection stations = (StationCollection) collection;
+        int size = Collections.max(stationNames.keySet()) + 1;
+        double[] lats = new double[size];
+        double[] lons = new double[size];
+        Arrays.fill(lats, Double.NaN);
+        Arrays.fill(lons, Double.NaN);
+        for (Map.Entry<Integer, String> entry : stationNames.entrySet()) {
+            Station station = stations.getStation(entry.getValue());
+            if (station == null)
+                return null;
+            lats[entry.getKey()] = station.getLatitude();
+            lons[entry.getKey()] = station.getLongitude();
+        }
+        return new StationSpatialIndex(lats, lons);
+    }
+
+    /**
+     * Parses a bounding box request parameter
+     * @param bbox "minLon,minLat,maxLon,maxLat", in degrees
+     * @return latMin, latMax, lonMin, lonMax
+     * @throws IllegalArgumentException if the bounding box is not valid
+     */
+    public static double[] parseBoundingBox(String bbox) {
+        String[] values = bbox.split(",");
+        if (values.length != 4)
+            throw new IllegalArgumentException("bbox must be minLon,minLat,maxLon,maxLat: " + bbox);
+        double[] corners = new double[4];
+        try {
+            for (int i = 0; i < 4; i++) {
+                corners[i] = Double.parseDouble(values[i].trim());
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("bbox must be minLon,minLat,maxLon,maxLat: " + bbox);
+        }
+        if (corners[1] > corners[3] || Double.isNaN(corners[0]) || Double.isNaN(corners[2]))
+            throw new IllegalArgumentException("bbox must be minLon,minLat,maxLon,maxLat: " + bbox);
+        return new double[]{corners[1], corners[3], corners[0], corners[2]};
+    }
+
+    private static double normalizeLon(double lon) {
+        if (Double.isNaN(lon) || (lon >= -180 && lon < 180))
+            return lon;
+        return ((lon + 180) % 360 + 360) % 360 - 180;
+    }
+
+    private void buildLevels() {
+        // leaves bound stations, every other level bounds the nodes below it
+        int count = order.length;
+        double[] below = null;
+        do {
+            int nodes = Math.max((count + NODE_SIZE - 1) / NODE_SIZE, 1);
+            double[] bounds = new double[nodes * 4];
+            for (int n = 0; n < nodes; n++) {
+                double latMin = Double.POSITIVE_INFINITY, latMax = Double.NEGATIVE_INFINITY;
+                double lonMin = Double.POSITIVE_INFINITY, lonMax = Double.NEGATIVE_INFINITY;
+                for (int c = n * NODE_SIZE; c < Math.min((n + 1) * NODE_SIZE, count); c++) {
+                    if (below == null) {
+                        int station = order[c];
+                        latMin = Math.min(latMin, lats[station]);
+                        latMax = Math.max(latMax, lats[station]);
+                        lonMin = Math.min(lonMin, normalizedLons[station]);
+                        lonMax = Math.max(lonMax, normalizedLons[station]);
+                    } else {
+                        latMin = Math.min(latMin, below[c * 4]);
+                        latMax = Math.max(latMax, below[c * 4 + 1]);
+                        lonMin = Math.min(lonMin, below[c * 4 + 2]);
+                        lonMax = Math.max(lonMax, below[c * 4 + 3]);
+                    }
+                }
+                bounds[n * 4] = latMin;
+                bounds[n * 4 + 1] = latMax;
+                bounds[n * 4 + 2] = lonMin;
+                bounds[n * 4 + 3] = lonMax;
+            }
+            levels.add(bounds);
+            below = bounds;
+            count = nodes;
+        } while (count > 1);
+    }
+
+    /**
+     * @param stationIndex index of the station
+     * @return latitude and longitude of the station, as in the dataset; null if unknown
+     */
+    public double[] getLocation(int stationIndex) {
+        if (stationIndex < 0 || stationIndex >= lats.length || Double.isNaN(lats[stationIndex]))
+            return null;
+        return new double[]{lats[stationIndex], lons[stationIndex]};
+    }
+
+    /**
+     * Finds the stations within a bounding box, edges included
+     * @param latMin southern bound, in degrees
+     * @param latMax northern bound, in degrees
+     * @param lonMin western bound, in degrees
+     * @param lonMax eastern bound, in degrees
+     * @return indices of the stations in the box, in increasing order
+     */
+    public List<Integer> within(double latMin, double latMax, double lonMin, double lonMax) {
+        List<Integer> found = new ArrayList<Integer>();
+        if (lonMax - lonMin >= 360) {
+            search(levels.size() - 1, 0, latMin, latMax, -180, 180, found);
+        } else {
+            lonMin = normalizeLon(lonMin);
+            lonMax = normalizeLon(lonMax);
+            if (lonMin <= lonMax) {
+                search(levels.size() - 1, 0, latMin, latMax, lonMin, lonMax, found);
+            } else {
+                search(levels.size() - 1, 0, latMin, latMax, lonMin, 180, found);
+                search(levels.size() - 1, 0, latMin, latMax, -180, lonMax, found);
+            }
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    private void search(int level, int node, double latMin, double latMax, double lonMin, double lonMax,
+                        List<Integer> found) {
+        double[] bounds = levels.get(level);
+        if (bounds[node * 4] > latMax || bounds[node * 4 + 1] < latMin
+                || bounds[node * 4 + 2] > lonMax || bounds[node * 4 + 3] < lonMin)
+            return;
+        int count = (level == 0) ? order.length : levels.get(level - 1).length / 4;
+        for (int c = node * NODE_SIZE; c < Math.min((node + 1) * NODE_SIZE, count); c++) {
+            if (level > 0) {
+                search(level - 1, c, latMin, latMax, lonMin, lonMax, found);
+            } else {
+                int station = order[c];
+                if (lats[station] >= latMin && lats[station] <= latMax
+                        && normalizedLons[station] >= lonMin && normalizedLons[station] <= lonMax)
+                    found.add(station);
+            }
+        }
+    }
+}
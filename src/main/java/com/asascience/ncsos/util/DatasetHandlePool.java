@@ -0,0 +1,380 @@
+package com.asascience.ncsos.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps opened (and enhanced) NetcdfDatasets around between requests so that hot
+ * datasets do not pay for the file open, header parse and NcML enhancement on every hit.
+ * <p>
+ * A NetcdfDataset is not safe for concurrent reads, so a handle is only ever checked out
+ * to one request at a time; concurrent requests on the same dataset get their own handles.
+ * Each handle is reference counted while checked out, closed once it has been idle for
+ * longer than the idle timeout, and discarded when the dataset's modification time changes;
+ * aggregations, which have none, are opened again on every checkout.
+ * Idle handles are closed by a background sweep that runs while the pool holds any handle,
+ * so datasets that are no longer requested do not stay open.
+ * The total number of open handles is bounded; when the bound is reached the least recently
+ * used idle handle is closed.
+ */
+public class DatasetHandlePool {
+
+    /** System property overriding the maximum number of open datasets */
+    public static final String MAX_OPEN_PROPERTY = "ncsos.datasetPool.maxOpen";
+    /** System property overriding the idle timeout, in seconds */
+    public static final String IDLE_TIMEOUT_PROPERTY = "ncsos.datasetPool.idleTimeout";
+
+    private static final Logger _log = LogManager.getLogger(DatasetHandlePool.class.getName());
+
+    private final int maxOpen;
+    private final long idleTimeoutMillis;
+    // all handles (in use or idle) by pool key
+    private final Map<String, List<Handle>> handles = new HashMap<String, List<Handle>>();
+    // checked out handles by dataset identity
+    private final Map<NetcdfDataset, Handle> checkedOut = new IdentityHashMap<NetcdfDataset, Handle>();
+    private int openCount = 0;
+    // closes idle handles while the pool holds any; null when it holds none
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Opens a dataset for a pool key
+     */
+    public interface Opener {
+        NetcdfDataset open() throws IOException;
+    }
+
+    public DatasetHandlePool() {
+        this(Integer.getInteger(MAX_OPEN_PROPERTY, 32), Long.getLong(IDLE_TIMEOUT_PROPERTY, 300L) * 1000L);
+    }
+
+    /**
+     * @param maxOpen maximum number of open datasets held by the pool
+     * @param idleTimeoutMillis time after which an unused dataset is closed
+     */
+    public DatasetHandlePool(int maxOpen, long idleTimeoutMillis) {
+        if (maxOpen < 1)
+            throw new IllegalArgumentException("maxOpen must be positive: " + maxOpen);
+        this.maxOpen = maxOpen;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Checks out a dataset, reusing an idle handle if one exists and the dataset has not
+     * been modified since it was opened.
+     * @param key identifies the dataset (request path or dataset url)
+     * @param opener opens the dataset when no usable handle is pooled
+     * @return the dataset; must be returned with {@link #release(NetcdfDataset, boolean)}
+     * @throws IOException if the dataset could not be opened
+     */
+    public NetcdfDataset acquire(String key, Opener opener) throws IOException {
+        List<NetcdfDataset> toClose = new ArrayList<NetcdfDataset>();
+        Handle handle = null;
+        synchronized (this) {
+            evictIdle(System.currentTimeMillis(), toClose);
+            List<Handle> list = handles.get(key);
+            if (list != null) {
+                for (Handle h : list) {
+                    if (h.refCount == 0) {
+                        handle = h;
+                        break;
+                    }
+                }
+            }
+            if (handle != null) {
+                handle.refCount++;
+                handle.opener = opener;
+                checkedOut.put(handle.dataset, handle);
+            }
+        }
+        closeAll(toClose);
+
+        if (handle != null) {
+            // stat outside of the lock; a changed file gets a fresh handle
+            if (isCurrent(handle))
+                return handle.dataset;
+            _log.debug("Dataset " + key + " has been modified, reopening");
+            release(handle.dataset, true);
+        }
+
+        NetcdfDataset dataset = opener.open();
+        if (dataset == null)
+            return null;
+        Handle created = new Handle(key, dataset, DatasetHandlerAdapter.getLastModified(dataset));
+        created.refCount = 1;
+        created.opener = opener;
+        synchronized (this) {
+            List<Handle> list = handles.get(key);
+            if (list == null) {
+                list = new ArrayList<Handle>();
+                handles.put(key, list);
+            }
+            list.add(created);
+            checkedOut.put(dataset, created);
+            openCount++;
+            evictOverLimit(toClose);
+            startSweeper();
+        }
+        closeAll(toClose);
+        return dataset;
+    }
+
+    /**
+     * An aggregation has no modification time to check, its data may have changed since it
+     * was opened, so it is opened again (through DatasetHandler, which rescans it as configured)
+     */
+    private static boolean isCurrent(Handle handle) {
+        if (handle.lastModified <= 0 && DatasetHandlerAdapter.isAggregated(handle.dataset))
+            return false;
+        return DatasetHandlerAdapter.getLastModified(handle.dataset) == handle.lastModified;
+    }
+
+    /**
+     * Returns a dataset to the pool
+     * @param dataset dataset returned by {@link #acquire(String, Opener)}
+     * @param discard close the dataset rather than keeping it (e.g. after a read failure)
+     */
+    public void release(NetcdfDataset dataset, boolean discard) {
+        if (dataset == null)
+            return;
+        boolean close = false;
+        synchronized (this) {
+            Handle handle = checkedOut.remove(dataset);
+            if (handle == null) {
+                // not pooled
+                close = true;
+            } else {
+                handle.refCount--;
+                handle.lastUsed = System.currentTimeMillis();
+                if (handle.refCount == 0)
+                    handle.opener = null;
+                if (handle.refCount == 0 && (discard || handle.detached || openCount > maxOpen)) {
+                    removeHandle(handle);
+                    close = true;
+                }
+            }
+        }
+        if (close)
+            closeQuietly(dataset);
+    }
+
+    /**
+     * Closes every idle dataset belonging to a key, e.g. when the dataset is known to have changed.
+     * Handles that are checked out are closed when they are released.
+     * @param key pool key
+     */
+    public void invalidate(String key) {
+        List<NetcdfDataset> toClose = new ArrayList<NetcdfDataset>();
+        synchronized (this) {
+            List<Handle> list = handles.get(key);
+            if (list != null) {
+                for (Handle h : new ArrayList<Handle>(list)) {
+                    if (h.refCount == 0) {
+                        removeHandle(h);
+                        toClose.add(h.dataset);
+                    }
+                }
+            }
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Closes the datasets that have been idle for longer than the idle timeout. Called
+     * periodically by the pool's sweep, and on every checkout.
+     */
+    public void closeIdle() {
+        List<NetcdfDataset> toClose = new ArrayList<NetcdfDataset>();
+        synchronized (this) {
+            evictIdle(System.currentTimeMillis(), toClose);
+            if (handles.isEmpty())
+                stopSweeper();
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Closes all idle datasets; checked out datasets are closed on release
+     */
+    public void shutdown() {
+        List<NetcdfDataset> toClose = new ArrayList<NetcdfDataset>();
+        synchronized (this) {
+            stopSweeper();
+            for (List<Handle> list : new ArrayList<List<Handle>>(handles.values())) {
+                for (Handle h : new ArrayList<Handle>(list)) {
+                    removeHandle(h);
+                    if (h.refCount == 0)
+                        toClose.add(h.dataset);
+                }
+            }
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Returns an object attached to a checked out dataset handle. Attributes live as long as
+     * the handle and are used for objects that wrap the open dataset (e.g. a GridDataset).
+     * @param dataset a dataset checked out from this pool
+     * @param name attribute name
+     * @return the attribute, or null if not set or the dataset is not pooled
+     */
+    public synchronized Object getAttribute(NetcdfDataset dataset, String name) {
+        Handle handle = checkedOut.get(dataset);
+        return (handle == null) ? null : handle.attributes.get(name);
+    }
+
+    /**
+     * Attaches an object to a checked out dataset handle; ignored if the dataset is not pooled
+     * @param dataset a dataset checked out from this pool
+     * @param name attribute name
+     * @param value attribute value
+     */
+    public synchronized void setAttribute(NetcdfDataset dataset, String name, Object value) {
+        Handle handle = checkedOut.get(dataset);
+        if (handle != null)
+            handle.attributes.put(name, value);
+    }
+
+    /**
+     * @param dataset a dataset checked out from this pool
+     * @return the pool key of the dataset; null if it is not pooled
+     */
+    public synchronized String getKey(NetcdfDataset dataset) {
+        Handle handle = checkedOut.get(dataset);
+        return (handle == null) ? null : handle.key;
+    }
+
+    /**
+     * @param dataset a dataset checked out from this pool
+     * @return the opener the dataset was checked out with, which opens further handles on
+     * it the same way (e.g. through the same NcML wrapping); null if it is not pooled
+     */
+    public synchronized Opener getOpener(NetcdfDataset dataset) {
+        Handle handle = checkedOut.get(dataset);
+        return (handle == null) ? null : handle.opener;
+    }
+
+    /**
+     * @return number of datasets currently held open by the pool
+     */
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    private void evictIdle(long now, List<NetcdfDataset> toClose) {
+        for (List<Handle> list : new ArrayList<List<Handle>>(handles.values())) {
+            for (Handle h : new ArrayList<Handle>(list)) {
+                if (h.refCount == 0 && now - h.lastUsed > idleTimeoutMillis) {
+                    removeHandle(h);
+                    toClose.add(h.dataset);
+                }
+            }
+        }
+    }
+
+    private void startSweeper() {
+        if (sweeper != null)
+            return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ncsos-dataset-pool-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // often enough that no handle stays idle for much longer than the timeout
+        long period = Math.max(idleTimeoutMillis / 2, 1000L);
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    closeIdle();
+                } catch (RuntimeException ex) {
+                    _log.warn("Failed to close idle datasets", ex);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopSweeper() {
+        if (sweeper != null) {
+            sweeper.shutdown();
+            sweeper = null;
+        }
+    }
+
+    private void evictOverLimit(List<NetcdfDataset> toClose) {
+        while (openCount > maxOpen) {
+            Handle oldest = null;
+            for (List<Handle> list : handles.values()) {
+                for (Handle h : list) {
+                    if (h.refCount == 0 && (oldest == null || h.lastUsed < oldest.lastUsed))
+                        oldest = h;
+                }
+            }
+            if (oldest == null) {
+                // everything is checked out; the surplus is closed as it is released
+                return;
+            }
+            removeHandle(oldest);
+            toClose.add(oldest.dataset);
+        }
+    }
+
+    private void removeHandle(Handle handle) {
+        handle.detached = true;
+        List<Handle> list = handles.get(handle.key);
+        if (list != null && list.remove(handle)) {
+            openCount--;
+            if (list.isEmpty())
+                handles.remove(handle.key);
+        }
+    }
+
+    private static void closeAll(List<NetcdfDataset> datasets) {
+        for (Iterator<NetcdfDataset> it = datasets.iterator(); it.hasNext();) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }
+
+    private static void closeQuietly(NetcdfDataset dataset) {
+        try {
+            dataset.close();
+        } catch (IOException ioe) {
+            _log.warn("Failed to properly close the dataset", ioe);
+        }
+    }
+
+    private static final class Handle {
+        final String key;
+        final NetcdfDataset dataset;
+        final long lastModified;
+        int refCount;
+        long lastUsed;
+        // no longer tracked by the pool; closed once released
+        boolean detached;
+        // opener of the current checkout; it may refer to the request holding the handle
+        Opener opener;
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        Handle(String key, NetcdfDataset dataset, long lastModified) {
+            this.key = key;
+            this.dataset = dataset;
+            this.lastModified = lastModified;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+}
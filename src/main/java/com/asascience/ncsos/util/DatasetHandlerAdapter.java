@@ -10,11 +10,13 @@ import ucar.nc2.ft.PointFeatureCollection;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 public class DatasetHandlerAdapter {
 	  static final Logger _log= LogManager.getLogger(DatasetHandlerAdapter.class.getName());
+	  private static final DatasetHandlePool handlePool = new DatasetHandlePool();
 
   //  private static final Logger _log = Logger.getLogger(DatasetHandlerAdapter.class);
     /** 
@@ -60,6 +62,110 @@ public class DatasetHandlerAdapter {
 
     }
 
+    /**
+     * Checks out a NetcdfDataset for the incoming url request from the shared handle pool,
+     * opening it only if no unmodified idle handle exists. The dataset must be given back
+     * with {@link #releaseDataset(NetcdfDataset, boolean)} rather than closed.
+     *
+     * @param req incoming url request
+     * @param res outgoing web based response
+     * @return dataset a NetcdfDataset as specifing in the request; null if access was denied
+     */
+    public static NetcdfDataset acquireDataset(final HttpServletRequest req,
+            final HttpServletResponse res) throws Exception {
+        String servletPath = req.getServletPath();
+        String key;
+        if (servletPath != null) {
+            String datasetPath = servletPath.substring("/sos".length(), servletPath.length());
+            // pooled handles bypass DatasetHandler, so check access to the dataset first
+            if (!DatasetHandler.resourceControlOk(req, res, datasetPath)) {
+                return null;
+            }
+            key = "path:" + datasetPath;
+        } else {
+            key = "url:" + ServletUtil.getParameterIgnoreCase(req, "dataset");
+        }
+        try {
+            return handlePool.acquire(key, new DatasetHandlePool.Opener() {
+                public NetcdfDataset open() throws IOException {
+                    try {
+                        return openDataset(req, res);
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new Exception(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks out another handle on an open dataset, e.g. for reading it from several threads
+     * at once. An idle pooled handle on the same dataset is reused; otherwise the dataset is
+     * opened again the way the request opened it (through DatasetHandler for catalog paths,
+     * so NcML wrapping applies to the copy as well). Copies must be checked out while the
+     * request holding the dataset is being handled, and given back with
+     * {@link #releaseDataset(NetcdfDataset, boolean)}.
+     *
+     * @param dataset a dataset obtained from {@link #acquireDataset(HttpServletRequest, HttpServletResponse)},
+     * or opened directly from a location outside of the servlet (e.g. by the tests)
+     * @return a separate handle on the same dataset
+     * @throws IOException if the dataset could not be opened again
+     */
+    public static NetcdfDataset acquireCopy(final NetcdfDataset dataset) throws IOException {
+        String key = handlePool.getKey(dataset);
+        DatasetHandlePool.Opener opener = handlePool.getOpener(dataset);
+        if (key == null || opener == null) {
+            // not pooled, so not opened through DatasetHandler; closed again on release
+            return NetcdfDataset.openDataset(dataset.getLocation());
+        }
+        return handlePool.acquire(key, opener);
+    }
+
+    /**
+     * Returns a dataset obtained from {@link #acquireDataset(HttpServletRequest, HttpServletResponse)}
+     * to the handle pool.
+     *
+     * @param dataset the NetcdfDataset to release
+     * @param discard close the dataset instead of keeping it open (e.g. after an error)
+     */
+    public static void releaseDataset(final NetcdfDataset dataset, boolean discard) {
+        handlePool.release(dataset, discard);
+    }
+
+    /**
+     * Returns an object attached to a pooled dataset handle.
+     *
+     * @param dataset a dataset obtained from {@link #acquireDataset(HttpServletRequest, HttpServletResponse)}
+     * @param name attribute name
+     * @return the attribute; null if not set or the dataset is not pooled
+     */
+    public static Object getHandleAttribute(final NetcdfDataset dataset, String name) {
+        return handlePool.getAttribute(dataset, name);
+    }
+
+    /**
+     * Attaches an object to a pooled dataset handle so later requests on the same handle
+     * can reuse it. Ignored for datasets that are not pooled.
+     *
+     * @param dataset a dataset obtained from {@link #acquireDataset(HttpServletRequest, HttpServletResponse)}
+     * @param name attribute name
+     * @param value attribute value
+     */
+    public static void setHandleAttribute(final NetcdfDataset dataset, String name, Object value) {
+        handlePool.setAttribute(dataset, name, value);
+    }
+
+    /**
+     * Closes all pooled datasets.
+     */
+    public static void shutdownHandlePool() {
+        handlePool.shutdown();
+    }
+
     /** 
      * Close a NetcdfDataset.
      * 
@@ -76,6 +182,77 @@ public class DatasetHandlerAdapter {
         }
     }
     
+    /**
+     * Returns the last modification time of the dataset. Uses the value reported
+     * by NetCDF-Java and falls back to the file on disk if that is not available.
+     * Aggregations and NcML datasets have no modification time: theirs is the one of
+     * the NcML file or of the last scan, and does not change with the data they read,
+     * so nothing derived from them may be cached or validated with it.
+     * @param dataset the dataset to check
+     * @return last modified time in millis; 0 if it cannot be determined
+     */
+    public static long getLastModified(final NetcdfDataset dataset) {
+        if (dataset == null || isAggregated(dataset)) {
+            return 0;
+        }
+        long lastModified = 0;
+        try {
+            lastModified = dataset.getLastModified();
+        } catch (Exception ex) {
+            _log.debug("Could not get the last modified time of " + dataset.getLocation() + ": " + ex.getMessage());
+        }
+        if (lastModified <= 0) {
+            lastModified = getLastModified(dataset.getLocation());
+        }
+        return lastModified;
+    }
+
+    /**
+     * Returns the last modification time of a local dataset location
+     * @param location location of the dataset, optionally prefixed with "file:"
+     * @return last modified time in millis; 0 if the location is not a local file, or
+     * is an NcML file
+     */
+    public static long getLastModified(final String location) {
+        if (location == null || isNcml(location)) {
+            return 0;
+        }
+        String path = location.startsWith("file:") ? location.substring("file:".length()) : location;
+        File file = new File(path);
+        return file.exists() ? file.lastModified() : 0;
+    }
+
+    /**
+     * Tells whether a dataset is an aggregation or is defined in NcML, including a dataset
+     * wrapping one (as datasets opened through DatasetHandler do)
+     * @param dataset the dataset to check
+     * @return true if the data of the dataset may change without its modification time
+     */
+    public static boolean isAggregated(final NetcdfDataset dataset) {
+        NetcdfFile file = dataset;
+        while (file != null) {
+            if (isNcml(file.getLocation())) {
+                return true;
+            }
+            if (!(file instanceof NetcdfDataset)) {
+                return false;
+            }
+            NetcdfDataset wrapper = (NetcdfDataset) file;
+            if (wrapper.getAggregation() != null) {
+                return true;
+            }
+            if (wrapper.getReferencedFile() == file) {
+                return false;
+            }
+            file = wrapper.getReferencedFile();
+        }
+        return false;
+    }
+
+    private static boolean isNcml(String location) {
+        return location != null && location.toLowerCase().endsWith(".ncml");
+    }
+
     /**
      * Encapsulates calcBounds in a try-catch block. Returns whether or not the attempt was succesful
      * @since authored by Sean Cowan - 10.16.2012
@@ -0,0 +1,139 @@
+package com.asascience.ncsos.util;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HTTP validators (ETag / Last-Modified) for SOS responses. A response only depends on
+ * the dataset, its modification time, the request url and the query, so those make up
+ * a strong entity tag; conditional requests can then be answered with a 304 before the
+ * dataset is initialized.
+ */
+public class HttpValidators {
+
+    public static final String ETAG = "ETag";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final String eTag;
+    private final long lastModified;
+
+    /**
+     * @param datasetId identity of the dataset (e.g. its location)
+     * @param lastModified modification time of the dataset, in millis
+     * @param requestUrl url of the request (without query)
+     * @param query query string of the request; may be null
+     */
+    public HttpValidators(String datasetId, long lastModified, String requestUrl, String query) {
+        this.lastModified = lastModified;
+        this.eTag = "\"" + digest(datasetId + "|" + lastModified + "|" + requestUrl + "|" + normalizeQuery(query)) + "\"";
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Checks the conditional headers of the request. If-None-Match takes precedence over
+     * If-Modified-Since, as required by RFC 7232.
+     * @param req incoming request
+     * @return true if the client's copy is current and a 304 should be sent
+     */
+    public boolean isNotModified(HttpServletRequest req) {
+        String ifNoneMatch = req.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/"))
+                    tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(eTag))
+                    return true;
+            }
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = req.getDateHeader(IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException ex) {
+            // unparseable date, ignore the header
+            return false;
+        }
+        // http dates have a resolution of one second
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Adds the ETag and Last-Modified headers to the response
+     * @param res outgoing response
+     */
+    public void setHeaders(HttpServletResponse res) {
+        res.setHeader(ETAG, eTag);
+        res.setDateHeader(LAST_MODIFIED, lastModified);
+    }
+
+    /**
+     * Puts a query string in a canonical form: parameters are url decoded, keys are
+     * lower-cased and the parameters are sorted, so equivalent queries share a validator.
+     * @param query query string; may be null
+     * @return canonical query string
+     */
+    public static String normalizeQuery(String query) {
+        if (query == null)
+            return "";
+        List<String> params = new ArrayList<String>();
+        for (String arg : query.split("&")) {
+            if (arg.length() == 0)
+                continue;
+            int eq = arg.indexOf('=');
+            String key = (eq < 0) ? arg : arg.substring(0, eq);
+            String value = (eq < 0) ? "" : arg.substring(eq + 1);
+            try {
+                key = URLDecoder.decode(key, "UTF-8");
+                value = URLDecoder.decode(value, "UTF-8").trim();
+            } catch (UnsupportedEncodingException e) {
+                // UTF-8 is always supported; keep the raw values
+            } catch (IllegalArgumentException e) {
+                // malformed escape, keep the raw values
+            }
+            params.add(key.toLowerCase() + "=" + value);
+        }
+        Collections.sort(params);
+        StringBuilder builder = new StringBuilder();
+        for (String param : params) {
+            if (builder.length() > 0)
+                builder.append('&');
+            builder.append(param);
+        }
+        return builder.toString();
+    }
+
+    private static String digest(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] hash = md.digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
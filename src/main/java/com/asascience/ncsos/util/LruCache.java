@@ -0,0 +1,91 @@
+package com.asascience.ncsos.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small, thread-safe, size-bounded cache with least-recently-used eviction.
+ * Used to share per-dataset information between concurrent requests.
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruCache<K, V> {
+
+    private final int maxEntries;
+    private final LinkedHashMap<K, V> entries;
+
+    /**
+     * Creates a cache that will hold at most maxEntries values
+     * @param maxEntries maximum number of entries held before the least recently used is evicted
+     */
+    public LruCache(int maxEntries) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > LruCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the value for a key, marking it as recently used
+     * @param key cache key
+     * @return the cached value or null
+     */
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Adds (or replaces) a value
+     * @param key cache key
+     * @param value value to cache; null values are ignored
+     */
+    public synchronized void put(K key, V value) {
+        if (value == null)
+            return;
+        entries.put(key, value);
+    }
+
+    /**
+     * Removes a single entry
+     * @param key cache key
+     * @return the removed value or null
+     */
+    public synchronized V remove(K key) {
+        return entries.remove(key);
+    }
+
+    /**
+     * Removes every entry
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return number of entries currently held
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return maximum number of entries held
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return a snapshot of the current keys, least recently used first
+     */
+    public synchronized List<K> keys() {
+        return new ArrayList<K>(entries.keySet());
+    }
+}
@@ -3,6 +3,7 @@ package com.asascience.ncsos.util;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -73,4 +74,65 @@ public class TimeUtils
         }
         return index;
     }
+
+    /**
+     * Searches a sorted array of times (in millis) for the time nearest to the target,
+     * following the same rules as {@link #findNearestTimeIndex(List, DateTime)}
+     * @param times times sorted in ascending order
+     * @param target time to search for, in millis
+     * @return index of the nearest time; -1 if the array is empty
+     */
+    public static int findNearestTimeIndex(long[] times, long target)
+    {
+        if (times.length == 0)
+            return -1;
+        int index = Arrays.binarySearch(times, target);
+        if (index < 0)
+        {
+            int insertionPoint = -(index + 1);
+            if (insertionPoint == 0) {
+                index = 0;
+            } else if (insertionPoint == times.length) {
+                index = times.length - 1;
+            } else {
+                long d1 = Math.abs(target - times[insertionPoint]);
+                long d2 = Math.abs(target - times[insertionPoint - 1]);
+                if (d1 < d2) index = insertionPoint;
+                else index = insertionPoint - 1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param times times sorted in ascending order
+     * @param time time in millis
+     * @return index of the first time that is not before the given time; times.length if none
+     */
+    public static int firstIndexNotBefore(long[] times, long time)
+    {
+        int low = 0, high = times.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @param times times sorted in ascending order
+     * @param time time in millis
+     * @return index of the last time that is not after the given time; -1 if none
+     */
+    public static int lastIndexNotAfter(long[] times, long time)
+    {
+        int low = 0, high = times.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) low = mid + 1;
+            else high = mid;
+        }
+        return low - 1;
+    }
 }
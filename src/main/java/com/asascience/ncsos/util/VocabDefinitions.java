@@ -9,8 +9,9 @@ import java.util.HashSet;
 public final class VocabDefinitions {
     
     private static final String CF_PARAMETERS = "resources/cf_parameters.txt";
-    private static HashSet<String> cfSet;
-    private static HashSet<String> ioosDefs;
+    // built lazily and published once complete; requests read them concurrently
+    private static volatile HashSet<String> cfSet;
+    private static volatile HashSet<String> ioosDefs;
     private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(VocabDefinitions.class);
     private static final String CF_HREF = "http://mmisw.org/ont/cf/parameter/";
     private VocabDefinitions() {}
@@ -43,10 +44,7 @@ public final class VocabDefinitions {
     			isCf = true;
     		}
     		else {
-    			if (cfSet == null)
-    				CreateCFSet();
-        
-    			if (cfSet.contains(standardName))
+    			if (getCFSet().contains(standardName))
     				isCf = true;
     		}
     		if(isCf)
@@ -57,21 +55,30 @@ public final class VocabDefinitions {
     }
     
     public static String GetIoosDefinition(String def) {
-        if (ioosDefs == null)
-            CreateIoosDefs();
-        
-        if (ioosDefs.contains(def.toLowerCase()))
+        if (getIoosDefs().contains(def.toLowerCase()))
             return "http://mmisw.org/ont/ioos/definition/" + def;
             
         return def;
     }
     
-    private static void CreateCFSet() {
+    private static synchronized HashSet<String> getCFSet() {
+        if (cfSet == null)
+            cfSet = CreateCFSet();
+        return cfSet;
+    }
+
+    private static synchronized HashSet<String> getIoosDefs() {
+        if (ioosDefs == null)
+            ioosDefs = CreateIoosDefs();
+        return ioosDefs;
+    }
+
+    private static HashSet<String> CreateCFSet() {
+        HashSet<String> cfSet = new HashSet<String>();
         try {
             InputStream fin = VocabDefinitions.class.getClassLoader().getResourceAsStream(CF_PARAMETERS);
             InputStreamReader freader = new InputStreamReader(fin);
 //            FileReader fin = new FileReader(CF_PARAMETERS);
-            cfSet = new HashSet<String>();
             StringBuilder builder = new StringBuilder();
             char[] buffer = new char[1];
             while(freader.read(buffer) > 0) {
@@ -85,11 +92,12 @@ public final class VocabDefinitions {
         } catch (Exception ex) {
             _log.error(ex.toString());
         }
+        return cfSet;
     }
     
-    private static void CreateIoosDefs() {
+    private static HashSet<String> CreateIoosDefs() {
         // short list of definitions at http://mmisw.org/ont/ioos/definition
-        ioosDefs = new HashSet<String>();
+        HashSet<String> ioosDefs = new HashSet<String>();
         // longName
         ioosDefs.add("longname"); ioosDefs.add("long_name"); ioosDefs.add("long name");
         // networkId
@@ -116,6 +124,7 @@ public final class VocabDefinitions {
         ioosDefs.add("stationid"); ioosDefs.add("station_id"); ioosDefs.add("station id");
         // wmoID
         ioosDefs.add("wmoid"); ioosDefs.add("wmo_id"); ioosDefs.add("wmo id");
+        return ioosDefs;
     }
     
 }
@@ -1,9 +1,12 @@
 package thredds.server.ncsos.controller;
 
+import com.asascience.ncsos.gc.StationExtentsCalculator;
 import com.asascience.ncsos.outputformatter.ErrorFormatter;
 import com.asascience.ncsos.outputformatter.OutputFormatter;
+import com.asascience.ncsos.service.BaseRequestHandler;
 import com.asascience.ncsos.service.Parser;
 import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.util.HttpValidators;
 
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -37,6 +40,8 @@ public class SosController implements ISosContoller {
     }
 
     public void destroy() {
+        DatasetHandlerAdapter.shutdownHandlePool();
+        StationExtentsCalculator.shutdown();
         NetcdfDataset.shutdown();
         _logServerStartup.info("SOS Service - destroy done");
     }
@@ -54,6 +59,8 @@ public class SosController implements ISosContoller {
     public void handleSOSRequest(final HttpServletRequest req, final HttpServletResponse res) throws ServletException, IOException {
 
         NetcdfDataset dataset = null;
+        BaseRequestHandler handler = null;
+        boolean failed = false;
      
        
         respMap = new HashMap<String, Object>();
@@ -62,12 +69,34 @@ public class SosController implements ISosContoller {
             //see http://tomcat.apache.org/tomcat-5.5-doc/config/context.html ----- workdir    
             String tempdir = System.getProperty("java.io.tmpdir");
          
-            dataset = DatasetHandlerAdapter.openDataset(req, res);
+            dataset = DatasetHandlerAdapter.acquireDataset(req, res);
+            if (dataset == null) {
+                // access to the dataset was refused, the response has already been sent
+                return;
+            }
+
+            // answer conditional requests before doing any work on the dataset
+            HttpValidators validators = null;
+            long lastModified = DatasetHandlerAdapter.getLastModified(dataset);
+            if (lastModified > 0) {
+                validators = new HttpValidators(dataset.getLocation(), lastModified,
+                        req.getRequestURL().toString(), req.getQueryString());
+                if (validators.isNotModified(req)) {
+                    validators.setHeaders(res);
+                    res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
 
             Parser md = new Parser();
             respMap = md.enhanceGETRequest(dataset, req.getQueryString(), req.getRequestURL()+"?".toString(),tempdir); 
+            handler = (BaseRequestHandler)respMap.get(Parser.REQUEST_HANDLER);
             OutputFormatter output = (OutputFormatter)respMap.get("outputFormatter");
             res.setContentType(output.getContentType().toString());            
+            // exception responses must not be cached by the client
+            if (validators != null && !(output instanceof ErrorFormatter) && !output.hasError()) {
+                validators.setHeaders(res);
+            }
             output.writeOutput(writer);            
             writer.flush();
             writer.close();
@@ -77,6 +106,16 @@ public class SosController implements ISosContoller {
         
         catch (Exception e) {
             _log.error("Something went wrong", e);
+            failed = true;
+
+            if (res.isCommitted()) {
+                // part of the document has been sent: abort the response rather than append an
+                // exception report to it, so the client cannot take it for a complete document
+                throw new ServletException("Response aborted after it was partly sent", e);
+            }
+            // drop the partial document along with its validators, which describe a successful response
+            res.reset();
+            writer = res.getWriter();
 
             ErrorFormatter  output = new ErrorFormatter();
             res.setContentType(output.getContentType().toString());        
@@ -86,10 +125,12 @@ public class SosController implements ISosContoller {
             output.writeOutput(writer);            
             writer.flush();
             writer.close();
-            //close the dataset remove memory hang
         } finally {  
-        
-            DatasetHandlerAdapter.closeDataset(dataset);
+            // stop reading ahead for a response that ended early, before the dataset goes back
+            if (handler != null)
+                handler.close();
+            // hand the dataset back to the pool; a failed request may have left it in a bad state
+            DatasetHandlerAdapter.releaseDataset(dataset, failed);
             
             
             
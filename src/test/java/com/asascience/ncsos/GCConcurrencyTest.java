@@ -0,0 +1,121 @@
+package com.asascience.ncsos;
+
+import com.asascience.ncsos.gc.GetCapabilitiesCache;
+import com.asascience.ncsos.gc.GetCapabilitiesRequestHandler;
+import com.asascience.ncsos.service.DatasetMetadataCache;
+import com.asascience.ncsos.service.FeatureTypeCache;
+import org.jdom.Element;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs GetCapabilities for several datasets from many threads at once and checks that
+ * every response is identical to the one produced by a serial run. The shared caches are
+ * cleared before every round, so the threads of a round fill them concurrently. A generated
+ * dataset with enough stations has its station extents calculated in parallel.
+ */
+public class GCConcurrencyTest extends NcSOSTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 4;
+    private static final String URI = "http://localhost:8080/thredds/sos/test";
+    // at least the number of features from which station extents are calculated in parallel
+    private static final int MANY_STATIONS = 96;
+
+    private static List<String> datasets = new ArrayList<String>();
+    private static Map<String, String> serialResponses = new HashMap<String, String>();
+    private static File manyStations;
+
+    @BeforeClass
+    public static void setupEnvironment() throws Exception {
+        NcSOSTest.setUpClass();
+        for (Element e : fileElements) {
+            File file = new File("resources" + systemSeparator + "datasets" + systemSeparator + e.getAttributeValue("path"));
+            datasets.add(file.getAbsolutePath());
+        }
+        manyStations = File.createTempFile("ncsos-many-stations", ".nc");
+        double[] hours = new double[48];
+        for (int t = 0; t < hours.length; t++) {
+            hours[t] = t;
+        }
+        TimeSeriesFixture.writeOrthogonal(manyStations, MANY_STATIONS, hours);
+        datasets.add(0, manyStations.getAbsolutePath());
+        for (String dataset : datasets) {
+            clearCaches();
+            serialResponses.put(dataset, getCapabilities(dataset));
+        }
+    }
+
+    @AfterClass
+    public static void tearDownEnvironment() {
+        clearCaches();
+        if (manyStations != null)
+            manyStations.delete();
+    }
+
+    private static void clearCaches() {
+        DatasetMetadataCache.clear();
+        FeatureTypeCache.clear();
+        GetCapabilitiesCache.clear();
+    }
+
+    private static String getCapabilities(String datasetPath) throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(datasetPath);
+        try {
+            GetCapabilitiesRequestHandler handler = new GetCapabilitiesRequestHandler(dataset, URI, "all");
+            handler.parseGetCapabilitiesDocument();
+            CharArrayWriter writer = new CharArrayWriter();
+            handler.getOutputFormatter().writeOutput(writer);
+            return writer.toString();
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsMatchSerial() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                clearCaches();
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<String>> futures = new ArrayList<Future<String>>();
+                List<String> requested = new ArrayList<String>();
+                for (int t = 0; t < THREADS; t++) {
+                    // rotate so that different datasets are processed side by side
+                    final String dataset = datasets.get((round * THREADS + t) % datasets.size());
+                    requested.add(dataset);
+                    futures.add(executor.submit(new Callable<String>() {
+                        public String call() throws Exception {
+                            start.await();
+                            return getCapabilities(dataset);
+                        }
+                    }));
+                }
+                start.countDown();
+                for (int i = 0; i < futures.size(); i++) {
+                    Assert.assertEquals("Concurrent response differs for " + requested.get(i) + " in round " + round,
+                            serialResponses.get(requested.get(i)), futures.get(i).get(5, TimeUnit.MINUTES));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
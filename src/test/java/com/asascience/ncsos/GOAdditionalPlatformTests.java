@@ -76,6 +76,19 @@ public class GOAdditionalPlatformTests extends NcSOSTest {
         Assert.assertNotSame("procedure", NcSOSTest.getExceptionLocator(result));
     }
 
+    @Test
+    public void testBadEventTimeParameter() throws NoSuchMethodException {
+        HashMap<String,String> pairs = (HashMap<String,String>) kvp.clone();
+        pairs.put("eventTime", "1990-01-01T00:00:00Z/NOT A TIME");
+
+        File file = new File("resources" + systemSeparator + "datasets" + systemSeparator + currentFile.getAttributeValue("path"));
+        String output   = new File(outputDir + systemSeparator + testName.getMethodName() + ".xml").getAbsolutePath();
+        Element result = NcSOSTest.makeTestRequest(file.getAbsolutePath(), output, pairs);
+        Assert.assertTrue(NcSOSTest.isException(result));
+        Assert.assertEquals(NcSOSTest.INVALID_PARAMETER, NcSOSTest.getExceptionCode(result));
+        Assert.assertEquals("eventTime", NcSOSTest.getExceptionLocator(result));
+    }
+
     @Test
     public void testBadOfferingParameter() throws NoSuchMethodException {
         HashMap<String,String> pairs = (HashMap<String,String>) kvp.clone();
@@ -0,0 +1,105 @@
+package com.asascience.ncsos;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes a small CF grid with time, depth, lat and lon axes. The same values are written
+ * as a (time, depth, lat, lon) and a (lon, depth, time, lat) variable, "canonical" and
+ * "permuted"; the value of a cell is t * 1000 + z * 100 + y * 10 + x, so tests can tell
+ * which cell they read. Times are hours since 1990-01-01, depths are z * 5 m, latitudes
+ * 10 + y and longitudes 100 + x.
+ */
+public class GridFixture {
+
+    public static final int TIMES = 3;
+    public static final int DEPTHS = 2;
+    public static final int LATS = 5;
+    public static final int LONS = 4;
+
+    /**
+     * @return the value written at a cell, whatever the order of the variable's dimensions
+     */
+    public static float value(int t, int z, int y, int x) {
+        return t * 1000 + z * 100 + y * 10 + x;
+    }
+
+    /**
+     * Writes the grid
+     * @param file file to write
+     */
+    public static void write(File file) throws IOException {
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getAbsolutePath());
+        try {
+            writer.addDimension(null, "time", TIMES);
+            writer.addDimension(null, "depth", DEPTHS);
+            writer.addDimension(null, "lat", LATS);
+            writer.addDimension(null, "lon", LONS);
+            writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.6"));
+            Variable time = writer.addVariable(null, "time", DataType.DOUBLE, "time");
+            writer.addVariableAttribute(time, new Attribute("units", "hours since 1990-01-01 00:00:00"));
+            writer.addVariableAttribute(time, new Attribute("standard_name", "time"));
+            Variable depth = writer.addVariable(null, "depth", DataType.DOUBLE, "depth");
+            writer.addVariableAttribute(depth, new Attribute("units", "m"));
+            writer.addVariableAttribute(depth, new Attribute("positive", "down"));
+            writer.addVariableAttribute(depth, new Attribute("standard_name", "depth"));
+            Variable lat = writer.addVariable(null, "lat", DataType.DOUBLE, "lat");
+            writer.addVariableAttribute(lat, new Attribute("units", "degrees_north"));
+            writer.addVariableAttribute(lat, new Attribute("standard_name", "latitude"));
+            Variable lon = writer.addVariable(null, "lon", DataType.DOUBLE, "lon");
+            writer.addVariableAttribute(lon, new Attribute("units", "degrees_east"));
+            writer.addVariableAttribute(lon, new Attribute("standard_name", "longitude"));
+            Variable canonical = writer.addVariable(null, "canonical", DataType.FLOAT, "time depth lat lon");
+            writer.addVariableAttribute(canonical, new Attribute("units", "K"));
+            Variable permuted = writer.addVariable(null, "permuted", DataType.FLOAT, "lon depth time lat");
+            writer.addVariableAttribute(permuted, new Attribute("units", "K"));
+            writer.create();
+
+            double[] hours = new double[TIMES];
+            for (int t = 0; t < TIMES; t++) {
+                hours[t] = t;
+            }
+            double[] depths = new double[DEPTHS];
+            for (int z = 0; z < DEPTHS; z++) {
+                depths[z] = z * 5;
+            }
+            double[] lats = new double[LATS];
+            for (int y = 0; y < LATS; y++) {
+                lats[y] = 10 + y;
+            }
+            double[] lons = new double[LONS];
+            for (int x = 0; x < LONS; x++) {
+                lons[x] = 100 + x;
+            }
+            float[] canonicalValues = new float[TIMES * DEPTHS * LATS * LONS];
+            float[] permutedValues = new float[canonicalValues.length];
+            for (int t = 0; t < TIMES; t++) {
+                for (int z = 0; z < DEPTHS; z++) {
+                    for (int y = 0; y < LATS; y++) {
+                        for (int x = 0; x < LONS; x++) {
+                            canonicalValues[((t * DEPTHS + z) * LATS + y) * LONS + x] = value(t, z, y, x);
+                            permutedValues[((x * DEPTHS + z) * TIMES + t) * LATS + y] = value(t, z, y, x);
+                        }
+                    }
+                }
+            }
+            writer.write(time, Array.factory(hours));
+            writer.write(depth, Array.factory(depths));
+            writer.write(lat, Array.factory(lats));
+            writer.write(lon, Array.factory(lons));
+            writer.write(canonical, Array.factory(DataType.FLOAT, new int[]{TIMES, DEPTHS, LATS, LONS}, canonicalValues));
+            writer.write(permuted, Array.factory(DataType.FLOAT, new int[]{LONS, DEPTHS, TIMES, LATS}, permutedValues));
+        } catch (InvalidRangeException ex) {
+            throw new IOException(ex.getMessage());
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.asascience.ncsos;
+
+import ucar.ma2.Array;
+import ucar.ma2.ArrayChar;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes CF timeSeries datasets laid out like the H.2.1 (orthogonal) and H.2.2 (incomplete)
+ * templates, with any number of stations. Times are in hours since 1990-01-01 and the
+ * temperature of a record is station * 1000 + its index along the time dimension, so tests
+ * can tell which record they read.
+ */
+public class TimeSeriesFixture {
+
+    /** 1990-01-01T00:00:00Z, the origin of the times, in millis */
+    public static final long ORIGIN = 631152000000L;
+    public static final long HOUR = 3600000L;
+
+    private static final int NAME_LENGTH = 16;
+
+    /**
+     * Writes stations that share one time coordinate
+     * @param file file to write
+     * @param stations number of stations
+     * @param hours times of the records, in hours
+     */
+    public static void writeOrthogonal(File file, int stations, double[] hours) throws IOException {
+        double[][] stationHours = new double[stations][];
+        for (int s = 0; s < stations; s++) {
+            stationHours[s] = hours;
+        }
+        write(file, stationHours, true);
+    }
+
+    /**
+     * Writes stations with a time coordinate each; NaN hours are missing records
+     * @param file file to write
+     * @param hours times of the records of each station, in hours; all of the same length
+     */
+    public static void writeIncomplete(File file, double[][] hours) throws IOException {
+        write(file, hours, false);
+    }
+
+    /**
+     * @return the name of a station of the fixture
+     */
+    public static String stationName(int station) {
+        return "Station-" + station;
+    }
+
+    private static void write(File file, double[][] hours, boolean orthogonal) throws IOException {
+        int stations = hours.length;
+        int times = (stations == 0) ? 0 : hours[0].length;
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getAbsolutePath());
+        try {
+            writer.addDimension(null, "station", stations);
+            writer.addDimension(null, "time", times);
+            writer.addDimension(null, "name_strlen", NAME_LENGTH);
+            writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.6"));
+            writer.addGroupAttribute(null, new Attribute("featureType", "timeSeries"));
+
+            Variable lat = writer.addVariable(null, "lat", DataType.FLOAT, "station");
+            writer.addVariableAttribute(lat, new Attribute("units", "degrees_north"));
+            writer.addVariableAttribute(lat, new Attribute("long_name", "station latitude"));
+            writer.addVariableAttribute(lat, new Attribute("standard_name", "latitude"));
+            Variable lon = writer.addVariable(null, "lon", DataType.FLOAT, "station");
+            writer.addVariableAttribute(lon, new Attribute("units", "degrees_east"));
+            writer.addVariableAttribute(lon, new Attribute("long_name", "station longitude"));
+            writer.addVariableAttribute(lon, new Attribute("standard_name", "longitude"));
+            Variable name = writer.addVariable(null, "station_name", DataType.CHAR, "station name_strlen");
+            writer.addVariableAttribute(name, new Attribute("cf_role", "timeseries_id"));
+            writer.addVariableAttribute(name, new Attribute("long_name", "station name"));
+            Variable alt = writer.addVariable(null, "alt", DataType.FLOAT, "station");
+            writer.addVariableAttribute(alt, new Attribute("long_name", "vertical distance above the surface"));
+            writer.addVariableAttribute(alt, new Attribute("standard_name", "height"));
+            writer.addVariableAttribute(alt, new Attribute("units", "m"));
+            writer.addVariableAttribute(alt, new Attribute("positive", "up"));
+            writer.addVariableAttribute(alt, new Attribute("axis", "Z"));
+            Variable time = writer.addVariable(null, "time", DataType.DOUBLE, orthogonal ? "time" : "station time");
+            writer.addVariableAttribute(time, new Attribute("long_name", "time of measurement"));
+            writer.addVariableAttribute(time, new Attribute("standard_name", "time"));
+            writer.addVariableAttribute(time, new Attribute("units", "hours since 1990-01-01 00:00:00"));
+            Variable temperature = writer.addVariable(null, "temperature", DataType.FLOAT, "station time");
+            writer.addVariableAttribute(temperature, new Attribute("long_name", "Air Temperature"));
+            writer.addVariableAttribute(temperature, new Attribute("standard_name", "air_temperature"));
+            writer.addVariableAttribute(temperature, new Attribute("units", "Celsius"));
+            writer.addVariableAttribute(temperature, new Attribute("coordinates", "lat lon alt"));
+            writer.create();
+
+            float[] lats = new float[stations];
+            float[] lons = new float[stations];
+            float[] alts = new float[stations];
+            ArrayChar.D2 names = new ArrayChar.D2(stations, NAME_LENGTH);
+            float[] temperatures = new float[stations * times];
+            for (int s = 0; s < stations; s++) {
+                // spread the stations over the globe
+                lats[s] = -80 + (s * 37) % 160;
+                lons[s] = -175 + (s * 53) % 350;
+                names.setString(s, stationName(s));
+                for (int t = 0; t < times; t++) {
+                    temperatures[s * times + t] = s * 1000 + t;
+                }
+            }
+            writer.write(lat, Array.factory(lats));
+            writer.write(lon, Array.factory(lons));
+            writer.write(alt, Array.factory(alts));
+            writer.write(name, names);
+            if (orthogonal) {
+                writer.write(time, Array.factory((stations == 0) ? new double[0] : hours[0]));
+            } else {
+                double[] stationTimes = new double[stations * times];
+                for (int s = 0; s < stations; s++) {
+                    System.arraycopy(hours[s], 0, stationTimes, s * times, times);
+                }
+                writer.write(time, Array.factory(DataType.DOUBLE, new int[]{stations, times}, stationTimes));
+            }
+            writer.write(temperature, Array.factory(DataType.FLOAT, new int[]{stations, times}, temperatures));
+        } catch (InvalidRangeException ex) {
+            throw new IOException(ex.getMessage());
+        } finally {
+            writer.close();
+        }
+    }
+}
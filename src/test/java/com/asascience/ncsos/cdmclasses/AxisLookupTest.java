@@ -0,0 +1,108 @@
+package com.asascience.ncsos.cdmclasses;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the lookups of ascending, descending and unordered axes with a scan of their values.
+ */
+public class AxisLookupTest {
+
+    private static final int TRIALS = 500;
+
+    /**
+     * @return the first index of the closest value, found by checking every value
+     */
+    private static int scanNearest(double[] values, double value) {
+        int best = -1;
+        double bestDiff = Double.MAX_VALUE;
+        for (int i = 0; i < values.length; i++) {
+            double diff = Math.abs(values[i] - value);
+            if (diff < bestDiff) {
+                bestDiff = diff;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static List<Integer> scanBetween(double[] values, double min, double max) {
+        List<Integer> indices = new ArrayList<Integer>();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] >= min && values[i] <= max)
+                indices.add(i);
+        }
+        return indices;
+    }
+
+    private static List<Integer> asList(int[] indices) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int index : indices) {
+            list.add(index);
+        }
+        return list;
+    }
+
+    /**
+     * @param order 1 for ascending values, -1 for descending, 0 for unordered
+     */
+    private static double[] randomAxis(Random random, int order) {
+        double[] values = new double[random.nextInt(30)];
+        double value = random.nextInt(20) - 10;
+        for (int i = 0; i < values.length; i++) {
+            // whole and half steps, with repeated values, so lookups land on ties
+            values[i] = (order == 0) ? random.nextInt(40) / 2.0 - 10 : value;
+            value += order * random.nextInt(3) / 2.0;
+        }
+        return values;
+    }
+
+    @Test
+    public void testLookupsMatchScan() {
+        Random random = new Random(17);
+        for (int trial = 0; trial < TRIALS; trial++) {
+            double[] values = randomAxis(random, trial % 3 - 1);
+            AxisLookup lookup = new AxisLookup(values);
+            double value = random.nextInt(60) / 2.0 - 15;
+            Assert.assertEquals("trial " + trial + " nearest " + value, scanNearest(values, value), lookup.nearest(value));
+            double a = random.nextInt(60) / 2.0 - 15;
+            double b = random.nextInt(60) / 2.0 - 15;
+            double min = Math.min(a, b);
+            double max = Math.max(a, b);
+            Assert.assertEquals("trial " + trial + " between " + min + ", " + max,
+                    scanBetween(values, min, max), asList(lookup.indicesBetween(min, max)));
+        }
+    }
+
+    @Test
+    public void testNearestOfEquallyCloseValuesIsFirst() {
+        Assert.assertEquals(0, new AxisLookup(new double[]{0, 2, 4}).nearest(1));
+        Assert.assertEquals(0, new AxisLookup(new double[]{4, 2, 0}).nearest(3));
+        Assert.assertEquals(1, new AxisLookup(new double[]{0, 1, 1, 1, 3}).nearest(1.2));
+        Assert.assertEquals(-1, new AxisLookup(new double[0]).nearest(1));
+        Assert.assertEquals(-1, new AxisLookup(new double[]{1}).nearest(Double.NaN));
+    }
+
+    @Test
+    public void testNearestLongitudeWrapsAround() {
+        double[] zeroTo360 = new double[360];
+        double[] minus180To180 = new double[360];
+        for (int i = 0; i < 360; i++) {
+            zeroTo360[i] = i;
+            minus180To180[i] = i - 180;
+        }
+        AxisLookup east = new AxisLookup(zeroTo360);
+        AxisLookup centered = new AxisLookup(minus180To180);
+        Assert.assertEquals(270, east.nearestLon(-90));
+        Assert.assertEquals(0, east.nearestLon(359.8));
+        Assert.assertEquals(90, centered.nearestLon(270));
+        Assert.assertEquals(0, centered.nearestLon(180));
+        Assert.assertEquals(359, centered.nearestLon(179.2));
+        // unordered longitudes are scanned around the globe as well
+        Assert.assertEquals(2, new AxisLookup(new double[]{10, -170, 179}).nearestLon(-179.5));
+    }
+}
@@ -0,0 +1,75 @@
+package com.asascience.ncsos.cdmclasses;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.ma2.DataType;
+
+/**
+ * Checks that the values of a record are written as the scalars read from the dataset
+ * were before the cursors: boxed in the type of their variable.
+ */
+public class BaseObservationCursorTest {
+
+    /**
+     * Cursor holding one record set by the test
+     */
+    private static class RecordCursor extends BaseObservationCursor {
+        RecordCursor() {
+            super(new String[]{"value"});
+        }
+
+        @Override
+        public boolean next() {
+            return false;
+        }
+
+        String format(double value, DataType type) {
+            setValue(0, value, type);
+            return formatValue(0);
+        }
+    }
+
+    @Test
+    public void testValuesAreFormattedInTheirType() {
+        RecordCursor cursor = new RecordCursor();
+        Assert.assertEquals(Byte.valueOf((byte) -7).toString(), cursor.format(-7, DataType.BYTE));
+        Assert.assertEquals(Short.valueOf((short) 1234).toString(), cursor.format(1234, DataType.SHORT));
+        Assert.assertEquals(Integer.valueOf(-123456).toString(), cursor.format(-123456, DataType.INT));
+        Assert.assertEquals(Long.valueOf(1L << 40).toString(), cursor.format(1L << 40, DataType.LONG));
+        // floats keep their own precision rather than that of the double they are held in
+        Assert.assertEquals(Float.valueOf(0.1f).toString(), cursor.format(0.1f, DataType.FLOAT));
+        Assert.assertEquals(Float.valueOf(25f).toString(), cursor.format(25f, DataType.FLOAT));
+        Assert.assertEquals(Double.valueOf(0.1).toString(), cursor.format(0.1, DataType.DOUBLE));
+        Assert.assertEquals("NaN", cursor.format(Double.NaN, DataType.FLOAT));
+    }
+
+    @Test
+    public void testUnsignedValuesKeepTheirSignedForm() {
+        RecordCursor cursor = new RecordCursor();
+        // an unsigned byte of 200 was written as the Byte holding it
+        Assert.assertEquals(Byte.valueOf((byte) 200).toString(), cursor.format(200, DataType.BYTE));
+        Assert.assertEquals(Short.valueOf((short) 65000).toString(), cursor.format(65000, DataType.SHORT));
+    }
+
+    @Test
+    public void testStringValues() {
+        RecordCursor cursor = new RecordCursor();
+        cursor.setValue(0, "Station-1");
+        Assert.assertFalse(cursor.isNumeric(0));
+        Assert.assertEquals("Station-1", cursor.formatValue(0));
+        Assert.assertTrue(Double.isNaN(cursor.getValue(0)));
+        cursor.setValue(0, 3, DataType.INT);
+        Assert.assertTrue(cursor.isNumeric(0));
+        Assert.assertEquals("3", cursor.formatValue(0));
+    }
+
+    @Test
+    public void testEmptyCursor() throws Exception {
+        ObservationCursor cursor = BaseObservationCursor.empty(new String[]{"a", "b"});
+        Assert.assertArrayEquals(new String[]{"a", "b"}, cursor.getVariableNames());
+        Assert.assertFalse(cursor.next());
+        Assert.assertEquals(ObservationCursor.NO_STATION, cursor.getStationIndex());
+        Assert.assertEquals(ObservationCursor.NO_BIN, cursor.getBin());
+        cursor.close();
+    }
+}
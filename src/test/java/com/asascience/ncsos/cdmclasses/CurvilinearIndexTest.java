@@ -0,0 +1,125 @@
+package com.asascience.ncsos.cdmclasses;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the cells found by the KD-tree with a scan of every cell, for random grids in
+ * both longitude conventions, with cells without coordinates.
+ */
+public class CurvilinearIndexTest {
+
+    private static final int TRIALS = 300;
+
+    private static final double[] SHIFTS = {0, -360, 360};
+
+    /**
+     * @return the cell closest to the location, found by checking every cell
+     */
+    private static int scanNearest(double[] lats, double[] lons, double lat, double lon) {
+        double lonScale = Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+        double bestDistance = Double.MAX_VALUE;
+        int best = -1;
+        for (int cell = 0; cell < lats.length; cell++) {
+            if (Double.isNaN(lats[cell]) || Double.isNaN(lons[cell]))
+                continue;
+            for (double shift : SHIFTS) {
+                double dLat = lat - lats[cell];
+                double dLon = (lon + shift - lons[cell]) * lonScale;
+                double distance = dLat * dLat + dLon * dLon;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = cell;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static List<Integer> scanWithin(double[] lats, double[] lons, double minLat, double maxLat,
+                                            double minLon, double maxLon) {
+        if (maxLon < minLon)
+            maxLon += 360;
+        List<Integer> cells = new ArrayList<Integer>();
+        for (int cell = 0; cell < lats.length; cell++) {
+            if (!(lats[cell] >= minLat && lats[cell] <= maxLat))
+                continue;
+            for (double shift : SHIFTS) {
+                if (lons[cell] >= minLon + shift && lons[cell] <= maxLon + shift) {
+                    cells.add(cell);
+                    break;
+                }
+            }
+        }
+        return cells;
+    }
+
+    private static List<Integer> asCells(List<int[]> found, int nx) {
+        List<Integer> cells = new ArrayList<Integer>();
+        for (int[] yx : found) {
+            cells.add(yx[0] * nx + yx[1]);
+        }
+        return cells;
+    }
+
+    @Test
+    public void testRandomGridsMatchScan() {
+        Random random = new Random(5);
+        for (int trial = 0; trial < TRIALS; trial++) {
+            int ny = 1 + random.nextInt(20);
+            int nx = 1 + random.nextInt(20);
+            // half the grids are in [0, 360), the others in [-180, 180)
+            double lonOffset = (trial % 2 == 0) ? 0 : -180;
+            double[] lats = new double[ny * nx];
+            double[] lons = new double[ny * nx];
+            for (int i = 0; i < lats.length; i++) {
+                // half degrees put cells at equal distances from the requested locations
+                lats[i] = (random.nextInt(10) == 0) ? Double.NaN : random.nextInt(240) / 2.0 - 60;
+                lons[i] = random.nextInt(720) / 2.0 + lonOffset;
+            }
+            CurvilinearIndex index = new CurvilinearIndex(lats, lons, nx);
+            double lat = random.nextInt(160) - 80;
+            double lon = random.nextInt(720) / 2.0 - 180;
+            int expected = scanNearest(lats, lons, lat, lon);
+            int[] nearest = index.nearest(lat, lon);
+            if (expected < 0) {
+                Assert.assertNull(nearest);
+            } else {
+                Assert.assertEquals("trial " + trial + " nearest " + lat + ", " + lon,
+                        expected, nearest[0] * nx + nearest[1]);
+            }
+            double latA = random.nextInt(160) - 80;
+            double latB = random.nextInt(160) - 80;
+            double minLon = random.nextInt(360) - 180;
+            double maxLon = random.nextInt(360) - 180;
+            Assert.assertEquals("trial " + trial + " box " + minLon + ".." + maxLon,
+                    scanWithin(lats, lons, Math.min(latA, latB), Math.max(latA, latB), minLon, maxLon),
+                    asCells(index.within(Math.min(latA, latB), Math.max(latA, latB), minLon, maxLon), nx));
+        }
+    }
+
+    @Test
+    public void testNearestAcrossAntimeridian() {
+        // one row of cells on both sides of the antimeridian, in 0..360 longitudes
+        double[] lats = {0, 0, 0, 0};
+        double[] lons = {170, 179, 181, 190};
+        CurvilinearIndex index = new CurvilinearIndex(lats, lons, 4);
+        Assert.assertArrayEquals(new int[]{0, 2}, index.nearest(0, -179.5));
+        Assert.assertArrayEquals(new int[]{0, 3}, index.nearest(0, -170));
+        Assert.assertEquals(2, index.within(-1, 1, 178, -179).size());
+        Assert.assertEquals(4, index.getXSize());
+        Assert.assertEquals(181, index.getLon(0, 2), 0);
+    }
+
+    @Test
+    public void testGridWithoutCoordinates() {
+        CurvilinearIndex index = new CurvilinearIndex(new double[]{Double.NaN, Double.NaN},
+                new double[]{1, 2}, 2);
+        Assert.assertNull(index.nearest(0, 0));
+        Assert.assertTrue(index.within(-90, 90, -180, 180).isEmpty());
+    }
+}
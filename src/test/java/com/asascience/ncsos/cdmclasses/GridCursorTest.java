@@ -0,0 +1,98 @@
+package com.asascience.ncsos.cdmclasses;
+
+import com.asascience.ncsos.GridFixture;
+import com.asascience.ncsos.TimeSeriesFixture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a generated grid whose variables store their dimensions in different orders and
+ * compares every value of the records with the grid's own slices.
+ * @see GridFixture
+ */
+public class GridCursorTest {
+
+    private static final int TIMES = GridFixture.TIMES;
+    private static final int DEPTHS = GridFixture.DEPTHS;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        AxisLookup.clear();
+        file = File.createTempFile("ncsos-grid", ".nc");
+        GridFixture.write(file);
+    }
+
+    @After
+    public void tearDown() {
+        AxisLookup.clear();
+        file.delete();
+    }
+
+    @Test
+    public void testValuesMatchGridSlices() throws IOException {
+        GridDataset dataset = GridDataset.open(file.getAbsolutePath());
+        try {
+            Map<String, String> latLonRequest = new HashMap<String, String>();
+            latLonRequest.put(Grid.LAT, "11.0,13.0");
+            latLonRequest.put(Grid.LON, "101.0,103.0");
+            String[] grids = {"canonical", "permuted"};
+            Grid grid = new Grid(grids, null, new String[]{"canonical", "permuted", Grid.DEPTH}, latLonRequest);
+            grid.setData(dataset);
+            ObservationCursor cursor = grid.getObservationCursor(0);
+            int records = 0;
+            try {
+                List<String> names = Arrays.asList(cursor.getVariableNames());
+                int depthColumn = names.indexOf("depth");
+                int latColumn = names.indexOf("lat");
+                int lonColumn = names.indexOf("lon");
+                while (cursor.next()) {
+                    int t = (int) ((cursor.getTime() - TimeSeriesFixture.ORIGIN) / TimeSeriesFixture.HOUR);
+                    int z = (int) cursor.getValue(depthColumn) / 5;
+                    int y = (int) cursor.getValue(latColumn) - 10;
+                    int x = (int) cursor.getValue(lonColumn) - 100;
+                    for (String name : grids) {
+                        GridDatatype gridDatatype = dataset.findGridDatatype(name);
+                        float expected = gridDatatype.readDataSlice(t, z, y, x).getFloat(0);
+                        Assert.assertEquals(name + " at " + t + ", " + z + ", " + y + ", " + x,
+                                expected, cursor.getValue(names.indexOf(name)), 0);
+                        Assert.assertEquals(GridFixture.value(t, z, y, x), expected, 0);
+                    }
+                    records++;
+                }
+            } finally {
+                cursor.close();
+            }
+            // every time, location and depth
+            Assert.assertEquals(TIMES * 2 * DEPTHS, records);
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testRequestedCoordinatesAreParsed() {
+        Assert.assertArrayEquals(new double[]{11.5}, Grid.parseBounds("11.5"), 0);
+        Assert.assertArrayEquals(new double[]{-10, 12}, Grid.parseBounds("-10_12"), 0);
+        for (String invalid : new String[]{"NOT CORRECT", "", "1_", "1_2_3"}) {
+            try {
+                Grid.parseBounds(invalid);
+                Assert.fail(invalid + " is not a coordinate");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+}
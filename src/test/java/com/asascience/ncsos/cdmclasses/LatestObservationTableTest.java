@@ -0,0 +1,130 @@
+package com.asascience.ncsos.cdmclasses;
+
+import com.asascience.ncsos.TimeSeriesFixture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads the latest observations of generated timeSeries datasets from the table and checks
+ * them against the records written.
+ */
+public class LatestObservationTableTest {
+
+    private static final long HOUR = TimeSeriesFixture.HOUR;
+    private static final long ORIGIN = TimeSeriesFixture.ORIGIN;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        StationTimeIndex.clear();
+        LatestObservationTable.clear();
+        file = File.createTempFile("ncsos-latest", ".nc");
+    }
+
+    @After
+    public void tearDown() {
+        StationTimeIndex.clear();
+        LatestObservationTable.clear();
+        file.delete();
+    }
+
+    private static StationTimeIndex index(NetcdfDataset dataset) {
+        return StationTimeIndex.get(dataset, dataset.findVariable("time"), dataset.findVariable("station_name"));
+    }
+
+    /**
+     * @return the values of the only record of the cursor, formatted
+     */
+    private static String[] readRecord(ObservationCursor cursor, long time, int stationIndex) throws IOException {
+        try {
+            Assert.assertTrue(cursor.next());
+            Assert.assertEquals(time, cursor.getTime());
+            Assert.assertEquals(stationIndex, cursor.getStationIndex());
+            String[] values = new String[cursor.getVariableNames().length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = cursor.formatValue(i);
+            }
+            Assert.assertFalse(cursor.next());
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testIncompleteStations() throws IOException {
+        double nan = Double.NaN;
+        TimeSeriesFixture.writeIncomplete(file, new double[][]{
+                {0, 1, 2, 3},
+                {0, nan, 2, nan},
+                {nan, nan, nan, nan}});
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            StationTimeIndex timeIndex = index(dataset);
+            LatestObservationTable table = LatestObservationTable.get(dataset, timeIndex);
+            String[] names = {"temperature", "lat"};
+            Assert.assertArrayEquals(new String[]{"3.0", "-80.0"},
+                    readRecord(table.cursor(dataset, names, 5, 0), ORIGIN + 3 * HOUR, 5));
+            // the latest record of a station is its last one with a time
+            Assert.assertArrayEquals(new String[]{"1002.0", "-43.0"},
+                    readRecord(table.cursor(dataset, names, 6, 1), ORIGIN + 2 * HOUR, 6));
+            ObservationCursor empty = table.cursor(dataset, names, 7, 2);
+            Assert.assertFalse(empty.next());
+            empty.close();
+            // the station names have a string length dimension as well
+            Assert.assertNull(table.cursor(dataset, new String[]{"station_name"}, 0, 0));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testOrthogonalStationsShareTheLatestTime() throws IOException {
+        TimeSeriesFixture.writeOrthogonal(file, 3, new double[]{0, 1, 2});
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            StationTimeIndex timeIndex = index(dataset);
+            LatestObservationTable table = LatestObservationTable.get(dataset, timeIndex);
+            String[] names = {"temperature", "time"};
+            for (int s = 0; s < 3; s++) {
+                // the time coordinate has no station dimension, so every station has its value
+                Assert.assertArrayEquals(new String[]{Float.toString(s * 1000 + 2), "2.0"},
+                        readRecord(table.cursor(dataset, names, s, s), ORIGIN + 2 * HOUR, s));
+            }
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testTableFollowsTimeIndex() throws IOException {
+        TimeSeriesFixture.writeOrthogonal(file, 2, new double[]{0, 1});
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        LatestObservationTable first;
+        try {
+            first = LatestObservationTable.get(dataset, index(dataset));
+            Assert.assertSame(first, LatestObservationTable.get(dataset, index(dataset)));
+        } finally {
+            dataset.close();
+        }
+        // a new record was appended
+        TimeSeriesFixture.writeOrthogonal(file, 2, new double[]{0, 1, 2});
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            LatestObservationTable second = LatestObservationTable.get(dataset, index(dataset));
+            Assert.assertNotSame(first, second);
+            Assert.assertArrayEquals(new String[]{"1002.0"},
+                    readRecord(second.cursor(dataset, new String[]{"temperature"}, 1, 1), ORIGIN + 2 * HOUR, 1));
+        } finally {
+            dataset.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.asascience.ncsos.cdmclasses;
+
+import com.asascience.ncsos.TimeSeriesFixture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Indexes the times of generated timeSeries datasets and compares the windows found by
+ * binary search with a scan of the station's times.
+ */
+public class StationTimeIndexTest {
+
+    private static final long HOUR = TimeSeriesFixture.HOUR;
+    private static final long ORIGIN = TimeSeriesFixture.ORIGIN;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        StationTimeIndex.clear();
+        file = File.createTempFile("ncsos-times", ".nc");
+    }
+
+    @After
+    public void tearDown() {
+        StationTimeIndex.clear();
+        file.delete();
+    }
+
+    private StationTimeIndex index(NetcdfDataset dataset) {
+        return StationTimeIndex.get(dataset, dataset.findVariable("time"), dataset.findVariable("station_name"));
+    }
+
+    /**
+     * @return the first and last position of the times within the window, found by a scan
+     */
+    private static int[] scan(long[] times, long start, long end) {
+        int first = times.length;
+        int last = -1;
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] >= start && times[i] <= end) {
+                first = Math.min(first, i);
+                last = i;
+            }
+        }
+        return new int[]{first, last};
+    }
+
+    private static void assertWindow(String message, int[] expected, int[] window) {
+        if (expected[1] < expected[0])
+            Assert.assertTrue(message + " is empty", window[1] < window[0]);
+        else
+            Assert.assertArrayEquals(message, expected, window);
+    }
+
+    @Test
+    public void testOrthogonalWindows() throws IOException {
+        // repeated times, as a station reporting twice in an hour
+        double[] hours = {0, 1, 1, 2, 5, 5, 5, 8, 13};
+        TimeSeriesFixture.writeOrthogonal(file, 3, hours);
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            StationTimeIndex index = index(dataset);
+            Assert.assertNotNull(index);
+            Assert.assertTrue(index.isOrthogonal());
+            Assert.assertEquals("station", index.getStationDimension());
+            Assert.assertEquals("time", index.getObsDimension());
+            long[] times = new long[hours.length];
+            for (int i = 0; i < hours.length; i++) {
+                times[i] = ORIGIN + (long) hours[i] * HOUR;
+            }
+            for (int s = 0; s < 3; s++) {
+                Assert.assertTrue(index.isIndexed(s));
+                Assert.assertTrue(index.isDense(s));
+                Assert.assertEquals(hours.length, index.getCount(s));
+                Assert.assertEquals(times[4], index.getTime(s, 4));
+            }
+            Random random = new Random(7);
+            for (int trial = 0; trial < 500; trial++) {
+                long a = ORIGIN + (random.nextInt(17) - 2) * HOUR + ((trial % 3 == 0) ? HOUR / 2 : 0);
+                long b = ORIGIN + (random.nextInt(17) - 2) * HOUR;
+                long start = Math.min(a, b);
+                long end = Math.max(a, b);
+                assertWindow("window " + start + ".." + end, scan(times, start, end), index.getWindow(1, start, end));
+            }
+            // an instant matches the records at it only
+            Assert.assertArrayEquals(new int[]{4, 6}, index.getWindow(0, times[4], times[4]));
+            int[] between = index.getWindow(0, times[4] + 1, times[4] + 1);
+            Assert.assertTrue(between[1] < between[0]);
+            Assert.assertFalse(index.isIndexed(3));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testIncompleteStations() throws IOException {
+        double nan = Double.NaN;
+        TimeSeriesFixture.writeIncomplete(file, new double[][]{
+                {0, 1, 2, 3},
+                {0, nan, 2, nan},
+                {3, 1, 2, 0},
+                {nan, nan, nan, nan}});
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            StationTimeIndex index = index(dataset);
+            Assert.assertNotNull(index);
+            Assert.assertFalse(index.isOrthogonal());
+            Assert.assertTrue(index.isDense(0));
+            Assert.assertArrayEquals(new int[]{1, 2}, index.getWindow(0, ORIGIN + HOUR, ORIGIN + 2 * HOUR));
+            // missing times are left out, and the records keep their place along the time dimension
+            Assert.assertFalse(index.isDense(1));
+            Assert.assertEquals(2, index.getCount(1));
+            Assert.assertEquals(ORIGIN + 2 * HOUR, index.getTime(1, 1));
+            Assert.assertEquals(2, index.getObsIndex(1, 1));
+            Assert.assertArrayEquals(new int[]{1, 1}, index.getWindow(1, ORIGIN + HOUR, ORIGIN + 3 * HOUR));
+            // unsorted stations are not indexed, so they are scanned
+            Assert.assertFalse(index.isIndexed(2));
+            Assert.assertTrue(index.isIndexed(3));
+            Assert.assertEquals(0, index.getCount(3));
+            int[] window = index.getWindow(3, ORIGIN, ORIGIN + 3 * HOUR);
+            Assert.assertTrue(window[1] < window[0]);
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testIndexIsSharedUntilModified() throws IOException {
+        TimeSeriesFixture.writeOrthogonal(file, 2, new double[]{0, 1});
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        StationTimeIndex first;
+        try {
+            first = index(dataset);
+            Assert.assertSame(first, index(dataset));
+        } finally {
+            dataset.close();
+        }
+        // the time dimension grew
+        TimeSeriesFixture.writeOrthogonal(file, 2, new double[]{0, 1, 2});
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            StationTimeIndex second = index(dataset);
+            Assert.assertNotSame(first, second);
+            Assert.assertEquals(3, second.getCount(0));
+        } finally {
+            dataset.close();
+        }
+    }
+}
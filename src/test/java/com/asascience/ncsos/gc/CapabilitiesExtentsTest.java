@@ -0,0 +1,47 @@
+package com.asascience.ncsos.gc;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Restricts the extents of three stations to some of them and checks the network's extents.
+ */
+public class CapabilitiesExtentsTest {
+
+    private static CalendarDate day(int day) {
+        return CalendarDate.of(null, 2012, 1, day, 0, 0, 0);
+    }
+
+    @Test
+    public void testNetworkCoversRestrictedStationsOnly() {
+        Map<Integer, CalendarDateRange> dateRanges = new HashMap<Integer, CalendarDateRange>();
+        Map<Integer, LatLonRect> boxes = new HashMap<Integer, LatLonRect>();
+        for (int s = 0; s < 3; s++) {
+            dateRanges.put(s, CalendarDateRange.of(day(1 + s * 10), day(5 + s * 10)));
+            LatLonPointImpl point = new LatLonPointImpl(10 * s, -80 + 10 * s);
+            boxes.put(s, new LatLonRect(point, point));
+        }
+        CapabilitiesExtents extents = new CapabilitiesExtents(day(1), day(25), dateRanges, boxes);
+        Assert.assertEquals(20, extents.getBoundingBox().getLatMax(), 0);
+
+        CapabilitiesExtents restricted = extents.forStations(Arrays.asList(0, 1));
+        Assert.assertEquals(day(1), restricted.getDateRange().getStart());
+        Assert.assertEquals(day(15), restricted.getDateRange().getEnd());
+        LatLonRect box = restricted.getBoundingBox();
+        Assert.assertEquals(0, box.getLatMin(), 0);
+        Assert.assertEquals(10, box.getLatMax(), 0);
+        Assert.assertEquals(-80, box.getLonMin(), 0);
+        Assert.assertEquals(-70, box.getLonMax(), 0);
+        // the stations keep their own extents
+        Assert.assertEquals(dateRanges.get(1), restricted.getStationDateRange(1));
+        Assert.assertNull(restricted.getStationBoundingBox(2));
+    }
+}
@@ -0,0 +1,20 @@
+package com.asascience.ncsos.gc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that equivalent section lists share a cached capabilities document.
+ */
+public class GetCapabilitiesCacheTest {
+
+    @Test
+    public void testSectionsAreNormalized() {
+        Assert.assertEquals("all", GetCapabilitiesCache.normalizeSections(null));
+        Assert.assertEquals("all", GetCapabilitiesCache.normalizeSections("Contents,ALL"));
+        Assert.assertEquals("contents,operationsmetadata",
+                GetCapabilitiesCache.normalizeSections(" OperationsMetadata,contents,,Contents "));
+        Assert.assertEquals(GetCapabilitiesCache.normalizeSections("serviceidentification,contents"),
+                GetCapabilitiesCache.normalizeSections("Contents,ServiceIdentification"));
+    }
+}
@@ -0,0 +1,101 @@
+package com.asascience.ncsos.gc;
+
+import com.asascience.ncsos.TimeSeriesFixture;
+import com.asascience.ncsos.util.DiscreteSamplingGeometryUtil;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ft.FeatureCollection;
+import ucar.nc2.ft.FeatureDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Formatter;
+import java.util.List;
+
+/**
+ * Calculates the station extents of a generated timeSeries dataset and of a timeSeriesProfile
+ * dataset on the worker pool and checks them against the serial results, feature by feature.
+ */
+public class StationExtentsCalculatorTest {
+
+    private static final int STATIONS = 96;
+    private static final String STATION_PROFILE = "resources" + File.separator + "datasets" + File.separator
+            + "cf_templates" + File.separator + "timeSeriesProfile-Orthogonal-Multidimensional-MultipleStations-H.5.1.nc";
+
+    private static File manyStations;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        manyStations = File.createTempFile("ncsos-extents", ".nc");
+        double[] hours = new double[48];
+        for (int t = 0; t < hours.length; t++) {
+            hours[t] = t;
+        }
+        TimeSeriesFixture.writeOrthogonal(manyStations, STATIONS, hours);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        StationExtentsCalculator.shutdown();
+        if (manyStations != null)
+            manyStations.delete();
+    }
+
+    /**
+     * Calculates the extents of a dataset both ways and compares them
+     * @param workers number of feature ranges read in parallel
+     * @return number of features compared
+     */
+    private static int assertParallelMatchesSerial(String path, FeatureType featureType, int features, int workers)
+            throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(path);
+        try {
+            FeatureDataset featureDataset = FeatureDatasetFactoryManager.wrap(featureType, dataset, null, new Formatter());
+            Assert.assertNotNull(path, featureDataset);
+            FeatureCollection collection = DiscreteSamplingGeometryUtil.extractFeatureDatasetCollection(featureDataset);
+            List<StationExtentsCalculator.FeatureExtent> serial =
+                    StationExtentsCalculator.calculateSerial(featureType, collection, 0, Integer.MAX_VALUE);
+            List<StationExtentsCalculator.FeatureExtent> parallel =
+                    StationExtentsCalculator.calculateParallel(dataset, featureType, featureType, features, workers);
+            Assert.assertEquals(path, serial.size(), parallel.size());
+            for (int i = 0; i < serial.size(); i++) {
+                String feature = path + ", feature " + i;
+                StationExtentsCalculator.FeatureExtent expected = serial.get(i);
+                StationExtentsCalculator.FeatureExtent actual = parallel.get(i);
+                Assert.assertEquals(feature, expected.isBoundsCalculated(), actual.isBoundsCalculated());
+                Assert.assertEquals(feature, expected.getDateRange().getStart(), actual.getDateRange().getStart());
+                Assert.assertEquals(feature, expected.getDateRange().getEnd(), actual.getDateRange().getEnd());
+                LatLonRect expectedBox = expected.getBoundingBox();
+                LatLonRect actualBox = actual.getBoundingBox();
+                Assert.assertEquals(feature, expectedBox.getLatMin(), actualBox.getLatMin(), 0);
+                Assert.assertEquals(feature, expectedBox.getLatMax(), actualBox.getLatMax(), 0);
+                Assert.assertEquals(feature, expectedBox.getLonMin(), actualBox.getLonMin(), 0);
+                Assert.assertEquals(feature, expectedBox.getLonMax(), actualBox.getLonMax(), 0);
+            }
+            return serial.size();
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testTimeSeriesStations() throws Exception {
+        Assert.assertEquals(STATIONS,
+                assertParallelMatchesSerial(manyStations.getAbsolutePath(), FeatureType.STATION, STATIONS, 4));
+        // a low estimate leaves the remaining features to the last range
+        Assert.assertEquals(STATIONS,
+                assertParallelMatchesSerial(manyStations.getAbsolutePath(), FeatureType.STATION, STATIONS / 2, 3));
+    }
+
+    @Test
+    public void testTimeSeriesProfileStations() throws Exception {
+        // one station per range
+        Assert.assertEquals(2, assertParallelMatchesSerial(STATION_PROFILE, FeatureType.STATION_PROFILE, 2, 2));
+    }
+}
@@ -0,0 +1,85 @@
+package com.asascience.ncsos.go;
+
+import com.asascience.ncsos.util.LowerCaseStringMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks the canonical form of GetObservation requests and which responses expire.
+ */
+public class GetObservationCacheTest {
+
+    // 2013-01-01T00:00:00Z
+    private static final long NOW = 1356998400000L;
+
+    private static Map<String, Object> request(String... eventTimes) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("request", "GetObservation");
+        parameters.put("procedure", new String[]{"urn:ioos:station:a", "urn:ioos:station:b"});
+        if (eventTimes.length > 0)
+            parameters.put("eventTime", eventTimes);
+        return parameters;
+    }
+
+    @Test
+    public void testEquivalentRequestsShareKey() {
+        Map<String, Object> first = request("2012-01-01T00:00:00Z", "2012-02-01T00:00:00Z");
+        first.put("responseFormat", "text/xml; subtype=\"om/1.0.0\"");
+        Map<String, Object> second = request(" 2012-01-01T00:00:00.000Z", "2012-02-01T00:00:00Z ");
+        second.put("RESPONSEFORMAT", "TEXT/XML;subtype=\"om/1.0.0\"");
+        Assert.assertEquals(GetObservationCache.canonicalQuery(first), GetObservationCache.canonicalQuery(second));
+        // a single instant is the range from and to it
+        Assert.assertEquals(GetObservationCache.canonicalQuery(request("2012-01-01T00:00:00Z")),
+                GetObservationCache.canonicalQuery(request("2012-01-01T00:00:00Z", "2012-01-01T00:00:00Z")));
+        // the order of the procedures is the order of the response
+        Map<String, Object> reversed = request();
+        reversed.put("procedure", new String[]{"urn:ioos:station:b", "urn:ioos:station:a"});
+        Assert.assertFalse(GetObservationCache.canonicalQuery(request()).equals(
+                GetObservationCache.canonicalQuery(reversed)));
+    }
+
+    @Test
+    public void testDifferentlyCasedKeysShareKey() {
+        Map<String, Object> first = request("2012-01-01T00:00:00Z", "2012-02-01T00:00:00Z");
+        first.put("maxRecords", "10");
+        first.put("bbox", "-80,30,-70,40");
+        first.put("aggregationInterval", "PT1H");
+        first.put("aggregationFunction", "mean");
+        // the keys as Parser stores them
+        Map<String, Object> second = new LowerCaseStringMap();
+        second.put("REQUEST", "GetObservation");
+        second.put("Procedure", new String[]{"urn:ioos:station:a", "urn:ioos:station:b"});
+        second.put("EVENTTIME", new String[]{"2012-01-01T00:00:00Z", "2012-02-01T00:00:00Z"});
+        second.put("MaxRecords", "10");
+        second.put("BBOX", "-80,30,-70,40");
+        second.put("AggregationInterval", "PT1H");
+        second.put("AGGREGATIONFUNCTION", "mean");
+        Assert.assertEquals(GetObservationCache.canonicalQuery(first), GetObservationCache.canonicalQuery(second));
+        // whatever the case of its key, a parameter the handler reads is part of the key
+        Map<String, Object> longer = new LowerCaseStringMap();
+        longer.putAll(second);
+        longer.put("MAXRECORDS", "20");
+        Assert.assertFalse(GetObservationCache.canonicalQuery(second).equals(GetObservationCache.canonicalQuery(longer)));
+        Map<String, Object> unaggregated = new HashMap<String, Object>(first);
+        unaggregated.remove("aggregationFunction");
+        Assert.assertFalse(GetObservationCache.canonicalQuery(first).equals(GetObservationCache.canonicalQuery(unaggregated)));
+        // parameters the handler does not read do not split the entries
+        Map<String, Object> unread = new HashMap<String, Object>(first);
+        unread.put("_", "1356998400");
+        Assert.assertEquals(GetObservationCache.canonicalQuery(first), GetObservationCache.canonicalQuery(unread));
+        Assert.assertFalse(GetObservationCache.reachesEndOfData(second, NOW));
+    }
+
+    @Test
+    public void testRequestsReachingEndOfDataExpire() {
+        Assert.assertTrue(GetObservationCache.reachesEndOfData(request(), NOW));
+        Assert.assertTrue(GetObservationCache.reachesEndOfData(request("latest"), NOW));
+        Assert.assertTrue(GetObservationCache.reachesEndOfData(request("2012-01-01T00:00:00Z", "LATEST"), NOW));
+        Assert.assertTrue(GetObservationCache.reachesEndOfData(request("2012-01-01T00:00:00Z"), NOW));
+        Assert.assertTrue(GetObservationCache.reachesEndOfData(request("2012-01-01T00:00:00Z", "2014-01-01T00:00:00Z"), NOW));
+        Assert.assertFalse(GetObservationCache.reachesEndOfData(request("2012-01-01T00:00:00Z", "2012-02-01T00:00:00Z"), NOW));
+    }
+}
@@ -0,0 +1,210 @@
+package com.asascience.ncsos.go;
+
+import com.asascience.ncsos.GridFixture;
+import com.asascience.ncsos.TimeSeriesFixture;
+import com.asascience.ncsos.cdmclasses.AxisLookup;
+import com.asascience.ncsos.cdmclasses.BaseObservationCursor;
+import com.asascience.ncsos.cdmclasses.Grid;
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.ma2.DataType;
+import ucar.nc2.dt.grid.GridDataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces small in-memory stations and checks the buckets against values worked out by hand.
+ */
+public class ObservationAggregationTest {
+
+    private static final long HOUR = 3600000L;
+    private static final double FILL = -999;
+
+    /**
+     * Station with one numeric variable, read from arrays
+     */
+    private static class ArrayCursor extends BaseObservationCursor {
+        private final long[] times;
+        private final int[] bins;
+        private final double[] values;
+        private int position = -1;
+
+        ArrayCursor(long[] times, int[] bins, double[] values) {
+            super(new String[]{"value"});
+            this.times = times;
+            this.bins = bins;
+            this.values = values;
+        }
+
+        @Override
+        public boolean next() {
+            if (++position >= times.length)
+                return false;
+            time = times[position];
+            bin = (bins != null) ? bins[position] : NO_BIN;
+            setValue(0, values[position], DataType.DOUBLE);
+            return true;
+        }
+    }
+
+    private static Map<String, Double> fillValues(String name, double fill) {
+        Map<String, Double> fillValues = new HashMap<String, Double>();
+        if (!Double.isNaN(fill))
+            fillValues.put(name, fill);
+        return fillValues;
+    }
+
+    private static List<double[]> reduce(ObservationAggregation.Function function, double fill,
+                                         long[] times, int[] bins, double[] values) throws IOException {
+        ObservationAggregation aggregation = new ObservationAggregation(HOUR, function, fillValues("value", fill));
+        ObservationCursor cursor = aggregation.open(new ArrayCursor(times, bins, values));
+        List<double[]> records = new ArrayList<double[]>();
+        while (cursor.next()) {
+            records.add(new double[]{cursor.getTime(), cursor.getBin(), cursor.getValue(0)});
+        }
+        cursor.close();
+        return records;
+    }
+
+    @Test
+    public void testNegativeTimesAlignToEpochBuckets() throws IOException {
+        // times before the epoch belong to the bucket starting at or before them, not the one after
+        List<double[]> records = reduce(ObservationAggregation.Function.COUNT, FILL,
+                new long[]{-HOUR - 1, -1, 0, HOUR - 1}, null, new double[]{1, 2, 3, 4});
+        Assert.assertEquals(3, records.size());
+        Assert.assertEquals(-2 * HOUR, (long) records.get(0)[0]);
+        Assert.assertEquals(1, records.get(0)[2], 0);
+        Assert.assertEquals(-HOUR, (long) records.get(1)[0]);
+        Assert.assertEquals(1, records.get(1)[2], 0);
+        Assert.assertEquals(0, (long) records.get(2)[0]);
+        Assert.assertEquals(2, records.get(2)[2], 0);
+    }
+
+    @Test
+    public void testFillAndNaNValuesAreExcluded() throws IOException {
+        double[] values = {1, FILL, Double.NaN, 5};
+        long[] times = {0, 10, 20, 30};
+        Assert.assertEquals(3, reduce(ObservationAggregation.Function.MEAN, FILL, times, null, values).get(0)[2], 0);
+        Assert.assertEquals(1, reduce(ObservationAggregation.Function.MIN, FILL, times, null, values).get(0)[2], 0);
+        Assert.assertEquals(5, reduce(ObservationAggregation.Function.MAX, FILL, times, null, values).get(0)[2], 0);
+        Assert.assertEquals(2, reduce(ObservationAggregation.Function.COUNT, FILL, times, null, values).get(0)[2], 0);
+        // first and last take the records as they are
+        Assert.assertEquals(1, reduce(ObservationAggregation.Function.FIRST, FILL, times, null, values).get(0)[2], 0);
+        Assert.assertEquals(5, reduce(ObservationAggregation.Function.LAST, FILL, times, null, values).get(0)[2], 0);
+    }
+
+    @Test
+    public void testBucketWithoutValuesIsFill() throws IOException {
+        long[] times = {0, 10, HOUR};
+        double[] values = {FILL, Double.NaN, 7};
+        List<double[]> records = reduce(ObservationAggregation.Function.MEAN, FILL, times, null, values);
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals(FILL, records.get(0)[2], 0);
+        Assert.assertEquals(7, records.get(1)[2], 0);
+        Assert.assertEquals(FILL, reduce(ObservationAggregation.Function.MAX, FILL, times, null, values).get(0)[2], 0);
+        Assert.assertEquals(0, reduce(ObservationAggregation.Function.COUNT, FILL, times, null, values).get(0)[2], 0);
+        // without a fill value the bucket is NaN
+        Assert.assertTrue(Double.isNaN(reduce(ObservationAggregation.Function.MEAN, Double.NaN,
+                new long[]{0}, null, new double[]{Double.NaN}).get(0)[2]));
+    }
+
+    @Test
+    public void testProfilesAreReducedPerBin() throws IOException {
+        long[] times = {0, 0, HOUR / 2, HOUR / 2, HOUR};
+        int[] bins = {0, 1, 0, 1, 1};
+        double[] values = {1, 10, 3, 30, 50};
+        List<double[]> records = reduce(ObservationAggregation.Function.MEAN, FILL, times, bins, values);
+        Assert.assertEquals(3, records.size());
+        Assert.assertArrayEquals(new double[]{0, 0, 2}, records.get(0), 0);
+        Assert.assertArrayEquals(new double[]{0, 1, 20}, records.get(1), 0);
+        Assert.assertArrayEquals(new double[]{HOUR, 1, 50}, records.get(2), 0);
+    }
+
+    @Test
+    public void testGridLocationsAreReducedApart() throws IOException {
+        AxisLookup.clear();
+        File file = File.createTempFile("ncsos-grid", ".nc");
+        try {
+            GridFixture.write(file);
+            GridDataset dataset = GridDataset.open(file.getAbsolutePath());
+            try {
+                // two points, each with every depth
+                Map<String, String> latLonRequest = new HashMap<String, String>();
+                latLonRequest.put(Grid.LAT, "11.0,13.0");
+                latLonRequest.put(Grid.LON, "101.0,103.0");
+                Grid grid = new Grid(new String[]{"canonical"}, null,
+                        new String[]{"canonical", Grid.DEPTH}, latLonRequest);
+                grid.setData(dataset);
+                // one bucket holds every time of the fixture; the fill value is one of the
+                // grid's values, whose column comes after the depth, lat and lon
+                ObservationAggregation aggregation = new ObservationAggregation(GridFixture.TIMES * HOUR,
+                        ObservationAggregation.Function.MEAN, fillValues("canonical", GridFixture.value(2, 0, 1, 1)));
+                ObservationCursor cursor = aggregation.open(grid.getObservationCursor(0));
+                List<String> names = Arrays.asList(cursor.getVariableNames());
+                int[][] locations = {{1, 1}, {3, 3}};
+                try {
+                    for (int location = 0; location < locations.length; location++) {
+                        int y = locations[location][0];
+                        int x = locations[location][1];
+                        for (int z = 0; z < GridFixture.DEPTHS; z++) {
+                            Assert.assertTrue(cursor.next());
+                            Assert.assertEquals(TimeSeriesFixture.ORIGIN, cursor.getTime());
+                            Assert.assertEquals(location, cursor.getLocation());
+                            Assert.assertEquals(z, cursor.getBin());
+                            Assert.assertEquals(z * 5, cursor.getValue(names.indexOf("depth")), 0);
+                            Assert.assertEquals(10 + y, cursor.getValue(names.indexOf("lat")), 0);
+                            Assert.assertEquals(100 + x, cursor.getValue(names.indexOf("lon")), 0);
+                            double sum = 0;
+                            int count = 0;
+                            for (int t = 0; t < GridFixture.TIMES; t++) {
+                                if (GridFixture.value(t, z, y, x) != GridFixture.value(2, 0, 1, 1)) {
+                                    sum += GridFixture.value(t, z, y, x);
+                                    count++;
+                                }
+                            }
+                            Assert.assertEquals("mean at " + z + ", " + y + ", " + x,
+                                    sum / count, cursor.getValue(names.indexOf("canonical")), 1e-3);
+                        }
+                    }
+                    Assert.assertFalse(cursor.next());
+                } finally {
+                    cursor.close();
+                }
+            } finally {
+                dataset.close();
+            }
+        } finally {
+            file.delete();
+            AxisLookup.clear();
+        }
+    }
+
+    @Test
+    public void testIntervalsAndFunctionsAreParsed() {
+        Assert.assertEquals(HOUR, ObservationAggregation.parseInterval("PT1H"));
+        Assert.assertEquals(24 * HOUR, ObservationAggregation.parseInterval(" p1d "));
+        Assert.assertEquals(ObservationAggregation.Function.MAX, ObservationAggregation.parseFunction("Max"));
+        String[] invalidIntervals = {"P1M", "P1Y", "PT0S", "hourly"};
+        for (String interval : invalidIntervals) {
+            try {
+                ObservationAggregation.parseInterval(interval);
+                Assert.fail(interval + " should not be accepted");
+            } catch (IllegalArgumentException ex) {
+                Assert.assertTrue(ex.getMessage().startsWith("aggregation interval"));
+            }
+        }
+        try {
+            ObservationAggregation.parseFunction("median");
+            Assert.fail("median should not be accepted");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(ex.getMessage().startsWith("aggregation function"));
+        }
+    }
+}
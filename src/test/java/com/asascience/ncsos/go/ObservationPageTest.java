@@ -0,0 +1,177 @@
+package com.asascience.ncsos.go;
+
+import com.asascience.ncsos.cdmclasses.BaseObservationCursor;
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.ma2.DataType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pages through in-memory stations the way GetObservationRequestHandler does, and checks
+ * that the pages put together return every record once, in order, for any page size.
+ */
+public class ObservationPageTest {
+
+    /**
+     * Station read from an array of times; the value of a record is its position
+     */
+    private static class ArrayCursor extends BaseObservationCursor {
+        private final long[] times;
+        private int position;
+
+        /**
+         * @param from time to start at, as a sorted source resuming a page does; Long.MIN_VALUE for all records
+         */
+        ArrayCursor(int station, long[] times, long from) {
+            super(new String[]{"position"});
+            this.times = times;
+            this.stationIndex = station;
+            this.position = -1;
+            while (position + 1 < times.length && times[position + 1] < from)
+                position++;
+        }
+
+        @Override
+        public boolean next() {
+            if (++position >= times.length)
+                return false;
+            time = times[position];
+            setValue(0, position, DataType.INT);
+            return true;
+        }
+    }
+
+    /**
+     * Reads one page of the stations, once or several times as formatters may
+     * @param sortedSources whether the sources of sorted stations start at the resume time
+     * @param records the "station:position" of the records of the page are added to this list
+     * @return the continuation token of the page
+     */
+    private static String readPage(long[][] stations, int maxRecords, String token, boolean sortedSources,
+                                   int passes, List<String> records) throws IOException {
+        ObservationPage page = new ObservationPage(maxRecords, token, stations.length);
+        List<String> firstPass = null;
+        for (int pass = 0; pass < passes; pass++) {
+            page.restart();
+            List<String> read = new ArrayList<String>();
+            for (int s = 0; s < stations.length; s++) {
+                if (s < page.getStartStation())
+                    continue;
+                if (page.isFull()) {
+                    page.stopAt(s);
+                    break;
+                }
+                long from = (sortedSources && s == page.getStartStation() && page.resumesByTime())
+                        ? page.getStartTime() : Long.MIN_VALUE;
+                ObservationCursor cursor = page.open(s, new ArrayCursor(s, stations[s], from));
+                while (cursor.next()) {
+                    read.add(cursor.getStationIndex() + ":" + cursor.formatValue(0));
+                }
+                cursor.close();
+            }
+            if (firstPass == null)
+                firstPass = read;
+            else
+                Assert.assertEquals("a second pass reads the same page", firstPass, read);
+        }
+        records.addAll(firstPass);
+        return page.getContinuationToken();
+    }
+
+    private static List<String> allRecords(long[][] stations) {
+        List<String> records = new ArrayList<String>();
+        for (int s = 0; s < stations.length; s++) {
+            for (int p = 0; p < stations[s].length; p++) {
+                records.add(s + ":" + p);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Reads every page of the stations, for every page size, and compares them with all records
+     */
+    private static void assertPagesCoverRecords(long[][] stations) throws IOException {
+        List<String> expected = allRecords(stations);
+        for (boolean sortedSources : new boolean[]{false, true}) {
+            for (int maxRecords = 1; maxRecords <= expected.size() + 1; maxRecords++) {
+                List<String> records = new ArrayList<String>();
+                String token = null;
+                int pages = 0;
+                do {
+                    int before = records.size();
+                    token = readPage(stations, maxRecords, token, sortedSources, 2, records);
+                    Assert.assertTrue("page of " + maxRecords + " records", records.size() - before <= maxRecords);
+                    Assert.assertTrue("paging does not end", ++pages <= expected.size() + stations.length + 1);
+                } while (token != null);
+                Assert.assertEquals("pages of " + maxRecords + " records", expected, records);
+            }
+        }
+    }
+
+    @Test
+    public void testSortedStations() throws IOException {
+        assertPagesCoverRecords(new long[][]{{1, 2, 3, 4, 5}, {10, 20, 30}, {7}});
+    }
+
+    @Test
+    public void testUnsortedStations() throws IOException {
+        assertPagesCoverRecords(new long[][]{{5, 3, 4, 1, 2}, {30, 10, 20, 20}, {2, 1}});
+    }
+
+    @Test
+    public void testDuplicateTimes() throws IOException {
+        assertPagesCoverRecords(new long[][]{{1, 1, 1, 2, 2, 3, 3, 3, 3}, {5, 5, 5, 5}, {1, 2, 2, 1, 1}});
+    }
+
+    @Test
+    public void testEmptyStations() throws IOException {
+        assertPagesCoverRecords(new long[][]{{}, {1, 2}, {}, {}, {3, 3, 4}, {}});
+        assertPagesCoverRecords(new long[][]{{}, {}});
+    }
+
+    @Test
+    public void testPageEndingWithStation() throws IOException {
+        long[][] stations = {{1, 2, 3}, {4, 5}};
+        List<String> records = new ArrayList<String>();
+        String token = readPage(stations, 3, null, true, 1, records);
+        Assert.assertEquals(allRecords(new long[][]{{1, 2, 3}}), records);
+        // the next page starts at the beginning of the next station
+        ObservationPage next = new ObservationPage(3, token, stations.length);
+        Assert.assertEquals(1, next.getStartStation());
+        Assert.assertFalse(next.resumesByTime());
+        records.clear();
+        Assert.assertNull(readPage(stations, 3, token, true, 1, records));
+        Assert.assertEquals(2, records.size());
+        // the last page is not followed by an empty one
+        records.clear();
+        Assert.assertNull(readPage(stations, 5, null, true, 1, records));
+        Assert.assertEquals(5, records.size());
+    }
+
+    @Test
+    public void testInvalidTokensAreRejected() {
+        String[] invalid = {"", "1", "0.0.0.0", "0.0.0.0.1.1", "x!.0.0.0.1", "0.-1.0.0.1", "0.0.0.-1.1",
+                "0.0.0.0.2", "0.0.zzzzzzzzzzzzzzzzz.0.1"};
+        for (String token : invalid) {
+            try {
+                new ObservationPage(10, token, 3);
+                Assert.fail(token + " should not be accepted");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+        // a token past the last station of the request
+        try {
+            new ObservationPage(10, "3.0.0.0.1", 3);
+            Assert.fail("a token past the last station should not be accepted");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        Assert.assertEquals(2, new ObservationPage(10, "2.0.0.0.1", 3).getStartStation());
+    }
+}
@@ -0,0 +1,130 @@
+package com.asascience.ncsos.go;
+
+import com.asascience.ncsos.cdmclasses.BaseObservationCursor;
+import com.asascience.ncsos.cdmclasses.ObservationCursor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Reads stations through the reader the way the formatters do, from a stub that records
+ * which stations are read, and checks the order, the read ahead window and the errors.
+ */
+public class ParallelObservationReaderTest {
+
+    private static final int STATIONS = 20;
+    private static final int WINDOW = 3;
+
+    /**
+     * Station without records
+     */
+    private static class StationCursor extends BaseObservationCursor {
+        StationCursor(int station) {
+            super(new String[0]);
+            this.stationIndex = station;
+        }
+
+        @Override
+        public boolean next() {
+            return false;
+        }
+    }
+
+    /**
+     * Counts the reads of every station and records the ones read further ahead than the
+     * window allows
+     */
+    private static class CountingReader implements ParallelObservationReader.StationReader {
+        final AtomicIntegerArray reads = new AtomicIntegerArray(STATIONS);
+        final List<String> tooFarAhead = Collections.synchronizedList(new ArrayList<String>());
+        // furthest station asked for by the test; reads submitted before a restart may
+        // still run, so the window is checked against it rather than the current station
+        volatile int furthest = 0;
+
+        public ObservationCursor read(int index) throws IOException {
+            if (index > furthest + WINDOW)
+                tooFarAhead.add(index + " while at " + furthest);
+            reads.incrementAndGet(index);
+            return new StationCursor(index);
+        }
+    }
+
+    private static int get(ParallelObservationReader reader, CountingReader stations, int index) throws IOException {
+        stations.furthest = Math.max(stations.furthest, index);
+        ObservationCursor cursor = reader.getObservationCursor(index);
+        try {
+            return cursor.getStationIndex();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testStationsAreReadInOrderWithinTheWindow() throws IOException {
+        CountingReader stations = new CountingReader();
+        ParallelObservationReader reader = new ParallelObservationReader(STATIONS, WINDOW, stations);
+        for (int s = 0; s < STATIONS; s++) {
+            Assert.assertEquals(s, get(reader, stations, s));
+        }
+        Assert.assertEquals(Collections.<String>emptyList(), stations.tooFarAhead);
+        for (int s = 0; s < STATIONS; s++) {
+            Assert.assertEquals("reads of station " + s, 1, stations.reads.get(s));
+        }
+    }
+
+    @Test
+    public void testOutOfOrderStationRestartsTheWindow() throws IOException {
+        CountingReader stations = new CountingReader();
+        ParallelObservationReader reader = new ParallelObservationReader(STATIONS, WINDOW, stations);
+        for (int s = 0; s < 3; s++) {
+            Assert.assertEquals(s, get(reader, stations, s));
+        }
+        // a second pass over the stations
+        for (int s = 0; s < STATIONS; s++) {
+            Assert.assertEquals(s, get(reader, stations, s));
+            if (s < 3)
+                Assert.assertEquals("reads of station " + s, 2, stations.reads.get(s));
+        }
+        Assert.assertEquals(Collections.<String>emptyList(), stations.tooFarAhead);
+        // skipping ahead past the window
+        Assert.assertEquals(10, get(reader, stations, 10));
+        Assert.assertEquals(5, get(reader, stations, 5));
+        reader.cancel();
+    }
+
+    @Test
+    public void testReadErrorsReachTheCaller() throws IOException {
+        final IllegalStateException failure = new IllegalStateException("broken station");
+        ParallelObservationReader reader = new ParallelObservationReader(STATIONS, WINDOW,
+                new ParallelObservationReader.StationReader() {
+                    public ObservationCursor read(int index) throws IOException {
+                        if (index == 2)
+                            throw new IOException("unreadable station");
+                        if (index == 4)
+                            throw failure;
+                        return new StationCursor(index);
+                    }
+                });
+        Assert.assertEquals(0, reader.getObservationCursor(0).getStationIndex());
+        try {
+            reader.getObservationCursor(2);
+            Assert.fail("station 2 can not be read");
+        } catch (IOException ex) {
+            Assert.assertEquals("unreadable station", ex.getMessage());
+        }
+        try {
+            reader.getObservationCursor(4);
+            Assert.fail("station 4 can not be read");
+        } catch (IOException ex) {
+            Assert.assertSame(failure, ex.getCause());
+        }
+        // the reader goes on after a failed station
+        Assert.assertEquals(5, reader.getObservationCursor(5).getStationIndex());
+        reader.cancel();
+    }
+}
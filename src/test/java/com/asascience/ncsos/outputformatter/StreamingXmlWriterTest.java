@@ -0,0 +1,137 @@
+package com.asascience.ncsos.outputformatter;
+
+import com.asascience.ncsos.util.XMLDomUtils;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the response templates, and content generated into them, and compares the
+ * documents with the ones JDOM's pretty format writes for the same content.
+ */
+public class StreamingXmlWriterTest {
+
+    private static final String[] TEMPLATES = {"templates/GO_oostethys.xml", "templates/GO_ioos10.xml",
+            "templates/GC.xml", "templates/ObservationOffering.xml"};
+
+    private static Document load(String template) {
+        Document document = XMLDomUtils.loadFile(
+                StreamingXmlWriterTest.class.getClassLoader().getResourceAsStream(template));
+        Assert.assertNotNull(template, document);
+        return document;
+    }
+
+    private static String jdom(Document document) throws IOException {
+        StringWriter writer = new StringWriter();
+        XMLOutputter xmlOutput = new XMLOutputter();
+        xmlOutput.setFormat(Format.getPrettyFormat());
+        xmlOutput.output(document, writer);
+        return writer.toString();
+    }
+
+    private static String stream(Document document, Map<Element, List<StreamingXmlWriter.ContentWriter>> generated)
+            throws IOException, XMLStreamException {
+        StringWriter writer = new StringWriter();
+        StreamingXmlWriter out = new StreamingXmlWriter(writer);
+        out.startDocument();
+        out.writeElement(document.getRootElement(), generated);
+        out.endDocument();
+        return writer.toString();
+    }
+
+    @Test
+    public void testTemplatesMatchJdom() throws IOException, XMLStreamException {
+        for (String template : TEMPLATES) {
+            Document document = load(template);
+            Assert.assertEquals(template, jdom(document), stream(document, null));
+        }
+    }
+
+    @Test
+    public void testGeneratedObservationMatchesJdom() throws IOException, XMLStreamException {
+        // an OOSTethys observation, built in memory in one document and streamed into the other
+        Document built = load("templates/GO_oostethys.xml");
+        final Namespace om = built.getRootElement().getNamespace("om");
+        final Namespace gml = built.getRootElement().getNamespace("gml");
+        final Namespace xlink = built.getRootElement().getNamespace("xlink");
+        final Namespace swe = built.getRootElement().getNamespace("swe");
+        Element member = built.getRootElement().getChild("member", om);
+        Element observation = new Element("Observation", om);
+        observation.addContent(new Element("description", gml));
+        Element envelope = new Element("Envelope", gml);
+        envelope.setAttribute("srsName", "EPSG:4326");
+        envelope.addContent(new Element("lowerCorner", gml).setText("-80.5 30"));
+        envelope.addContent(new Element("upperCorner", gml).setText("-70 40.25"));
+        observation.addContent(new Element("boundedBy", gml).addContent(envelope));
+        Element timePeriod = new Element("TimePeriod", gml);
+        timePeriod.setAttribute("id", "DATA_TIME", gml);
+        timePeriod.addContent(new Element("beginPosition", gml).setText("2012-01-01T00:00:00Z"));
+        observation.addContent(new Element("samplingTime", om).addContent(timePeriod));
+        Element procedure = new Element("procedure", om);
+        procedure.setAttribute("href", "urn:ioos:station:a&b \"c\"", xlink);
+        observation.addContent(procedure);
+        observation.addContent(new Element("values", swe).setText("1,<2> 3,4"));
+        member.addContent(observation);
+
+        Document streamed = load("templates/GO_oostethys.xml");
+        Element streamedMember = streamed.getRootElement().getChild("member", om);
+        Map<Element, List<StreamingXmlWriter.ContentWriter>> generated =
+                new IdentityHashMap<Element, List<StreamingXmlWriter.ContentWriter>>();
+        List<StreamingXmlWriter.ContentWriter> content = new ArrayList<StreamingXmlWriter.ContentWriter>();
+        content.add(new StreamingXmlWriter.ContentWriter() {
+            public void write(StreamingXmlWriter out) throws XMLStreamException {
+                out.start(om, "Observation");
+                out.empty(gml, "description");
+                out.start(gml, "boundedBy");
+                out.start(gml, "Envelope").attribute(null, "srsName", "EPSG:4326");
+                out.element(gml, "lowerCorner", "-80.5 30");
+                out.element(gml, "upperCorner", "-70 40.25");
+                out.end().end();
+                out.start(om, "samplingTime");
+                out.start(gml, "TimePeriod").attribute(gml, "id", "DATA_TIME");
+                out.element(gml, "beginPosition", "2012-01-01T00:00:00Z");
+                out.end().end();
+                out.empty(om, "procedure").attribute(xlink, "href", "urn:ioos:station:a&b \"c\"");
+                // values are written as they are read
+                out.start(swe, "values").text("1,<2> ").text("3,4").end();
+                out.end();
+            }
+        });
+        generated.put(streamedMember, content);
+        Assert.assertEquals(jdom(built), stream(streamed, generated));
+    }
+
+    @Test
+    public void testElementsWithoutContentAreEmpty() throws IOException, XMLStreamException {
+        Namespace ns = Namespace.getNamespace("a", "urn:a");
+        Namespace other = Namespace.getNamespace("b", "urn:b");
+        Element root = new Element("root", ns);
+        root.addContent(new Element("blank", ns).setText("  \n "));
+        Element child = new Element("child", other);
+        child.setAttribute("tab", "1\t2\n3");
+        child.addContent(new Element("grandchild", other).setText("x\ny"));
+        root.addContent(child);
+        root.addContent(new Element("plain"));
+        Document document = new Document(root);
+        Assert.assertEquals(jdom(document), stream(document, null));
+
+        StringWriter writer = new StringWriter();
+        StreamingXmlWriter out = new StreamingXmlWriter(writer);
+        out.start(ns, "root").start(ns, "started").end().element(ns, "text", " ").end();
+        Assert.assertEquals("\r\n<a:root xmlns:a=\"urn:a\">\r\n  <a:started />\r\n  <a:text />\r\n</a:root>",
+                writer.toString());
+    }
+}
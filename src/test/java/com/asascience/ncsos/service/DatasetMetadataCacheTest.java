@@ -0,0 +1,126 @@
+package com.asascience.ncsos.service;
+
+import com.asascience.ncsos.TimeSeriesFixture;
+import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/**
+ * Initializes handlers on a generated dataset and checks when the metadata of an earlier
+ * handler is reused.
+ */
+public class DatasetMetadataCacheTest {
+
+    private static final int STATIONS = 5;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        DatasetMetadataCache.clear();
+        file = File.createTempFile("ncsos-metadata", ".nc");
+        TimeSeriesFixture.writeOrthogonal(file, STATIONS, new double[]{0, 1, 2});
+    }
+
+    @After
+    public void tearDown() {
+        DatasetMetadataCache.clear();
+        file.delete();
+    }
+
+    private static HashMap<Integer, String> initialize(NetcdfDataset dataset) throws IOException {
+        return new BaseRequestHandler(dataset) {}.getStationNames();
+    }
+
+    @Test
+    public void testUnchangedDatasetReusesMetadata() throws IOException {
+        NetcdfDataset first = NetcdfDataset.openDataset(file.getAbsolutePath());
+        NetcdfDataset second = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            Assert.assertNull(DatasetMetadataCache.get(first));
+            HashMap<Integer, String> parsed = initialize(first);
+            Assert.assertEquals(STATIONS, parsed.size());
+            // a dataset opened separately shares the metadata of its location
+            DatasetMetadataCache.Metadata metadata = DatasetMetadataCache.get(second);
+            Assert.assertNotNull(metadata);
+            Assert.assertEquals(parsed, metadata.getStationNames());
+            Assert.assertEquals(parsed, initialize(second));
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testModifiedDatasetIsParsedAgain() throws IOException {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            initialize(dataset);
+            Assert.assertNotNull(DatasetMetadataCache.get(dataset));
+        } finally {
+            dataset.close();
+        }
+        // rewrite the dataset with more stations
+        TimeSeriesFixture.writeOrthogonal(file, STATIONS + 2, new double[]{0, 1, 2});
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            Assert.assertNull(DatasetMetadataCache.get(dataset));
+            Assert.assertEquals(STATIONS + 2, initialize(dataset).size());
+            Assert.assertEquals(DatasetHandlerAdapter.getLastModified(dataset),
+                    DatasetMetadataCache.get(dataset).getLastModified());
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testInvalidatedMetadataIsDropped() throws IOException {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getAbsolutePath());
+        try {
+            initialize(dataset);
+            DatasetMetadataCache.invalidate(dataset.getLocation());
+            Assert.assertNull(DatasetMetadataCache.get(dataset));
+            initialize(dataset);
+            DatasetMetadataCache.clear();
+            Assert.assertNull(DatasetMetadataCache.get(dataset));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testAggregationIsNotCached() throws IOException {
+        File ncml = File.createTempFile("ncsos-metadata", ".ncml");
+        Writer writer = new FileWriter(ncml);
+        try {
+            writer.write("<netcdf xmlns=\"http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2\">"
+                    + "<aggregation type=\"union\"><netcdf location=\"" + file.toURI() + "\"/></aggregation></netcdf>");
+        } finally {
+            writer.close();
+        }
+        try {
+            NetcdfDataset dataset = NetcdfDataset.openDataset(ncml.getAbsolutePath());
+            try {
+                // the time of the NcML file says nothing about the data it aggregates
+                Assert.assertTrue(DatasetHandlerAdapter.isAggregated(dataset));
+                Assert.assertEquals(0, DatasetHandlerAdapter.getLastModified(dataset));
+                Assert.assertEquals(STATIONS, initialize(dataset).size());
+                Assert.assertNull(DatasetMetadataCache.get(dataset));
+            } finally {
+                dataset.close();
+            }
+        } finally {
+            ncml.delete();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.asascience.ncsos.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the stations found by the R-tree with a scan of every station, for random
+ * stations and boxes, including boxes crossing the antimeridian or spanning all longitudes.
+ */
+public class StationSpatialIndexTest {
+
+    private static final int TRIALS = 500;
+
+    /**
+     * @return the stations within the box, found by checking every station
+     */
+    private static List<Integer> scan(double[] lats, double[] lons, double latMin, double latMax,
+                                      double lonMin, double lonMax) {
+        List<Integer> found = new ArrayList<Integer>();
+        for (int i = 0; i < lats.length; i++) {
+            if (Double.isNaN(lats[i]) || Double.isNaN(lons[i]) || lats[i] < latMin || lats[i] > latMax)
+                continue;
+            if (lonMax - lonMin >= 360) {
+                found.add(i);
+                continue;
+            }
+            // degrees east of the western bound, against the width of the box
+            double east = ((lons[i] - lonMin) % 360 + 360) % 360;
+            double width = ((lonMax - lonMin) % 360 + 360) % 360;
+            if (east <= width)
+                found.add(i);
+        }
+        return found;
+    }
+
+    @Test
+    public void testRandomBoxesMatchScan() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < TRIALS; trial++) {
+            int size = random.nextInt(400);
+            double[] lats = new double[size];
+            double[] lons = new double[size];
+            for (int i = 0; i < size; i++) {
+                lats[i] = (random.nextInt(20) == 0) ? Double.NaN : random.nextInt(180) - 90;
+                // whole degrees put stations on the edges of the boxes; some are outside [-180, 180)
+                lons[i] = random.nextInt(720) - 360;
+            }
+            StationSpatialIndex index = new StationSpatialIndex(lats, lons);
+            double latA = random.nextInt(180) - 90;
+            double latB = random.nextInt(180) - 90;
+            double lonMin = random.nextInt(400) - 200;
+            double lonMax = random.nextInt(400) - 200;
+            if (trial % 10 == 0) {
+                lonMin = -180;
+                lonMax = 180;
+            }
+            double latMin = Math.min(latA, latB);
+            double latMax = Math.max(latA, latB);
+            Assert.assertEquals("trial " + trial + " box " + lonMin + ".." + lonMax,
+                    scan(lats, lons, latMin, latMax, lonMin, lonMax),
+                    index.within(latMin, latMax, lonMin, lonMax));
+        }
+    }
+
+    @Test
+    public void testBoxCrossingAntimeridian() {
+        double[] lats = {0, 0, 0, 0, 0};
+        double[] lons = {179, -179, 0, 180, 190};
+        StationSpatialIndex index = new StationSpatialIndex(lats, lons);
+        Assert.assertEquals(Arrays.asList(0, 1, 3, 4), index.within(-1, 1, 170, -170));
+        // 190 is -170, on the edge of the box
+        Assert.assertEquals(Arrays.asList(2, 4), index.within(-1, 1, -170, 170));
+    }
+
+    @Test
+    public void testBoxSpanningAllLongitudes() {
+        double[] lats = {10, 20, 30, Double.NaN};
+        double[] lons = {-180, 0, 179.5, 0};
+        StationSpatialIndex index = new StationSpatialIndex(lats, lons);
+        Assert.assertEquals(Arrays.asList(0, 1, 2), index.within(-90, 90, -180, 180));
+        Assert.assertEquals(Arrays.asList(0, 1, 2), index.within(-90, 90, 0, 360));
+        Assert.assertEquals(Arrays.asList(1), index.within(15, 25, -200, 200));
+    }
+
+    @Test
+    public void testLocationsKeepDatasetLongitudes() {
+        StationSpatialIndex index = new StationSpatialIndex(new double[]{45, Double.NaN}, new double[]{270, 0});
+        Assert.assertArrayEquals(new double[]{45, 270}, index.getLocation(0), 0);
+        Assert.assertNull(index.getLocation(1));
+        Assert.assertNull(index.getLocation(2));
+    }
+
+    @Test
+    public void testParseBoundingBox() {
+        Assert.assertArrayEquals(new double[]{-10, 20, -75.5, -60},
+                StationSpatialIndex.parseBoundingBox("-75.5,-10, -60,20"), 0);
+        // a western bound east of the eastern bound crosses the antimeridian
+        Assert.assertArrayEquals(new double[]{-10, 10, 170, -170},
+                StationSpatialIndex.parseBoundingBox("170,-10,-170,10"), 0);
+        String[] invalid = {"1,2,3", "1,2,3,4,5", "a,2,3,4", "0,20,10,10", "NaN,0,10,10", ""};
+        for (String bbox : invalid) {
+            try {
+                StationSpatialIndex.parseBoundingBox(bbox);
+                Assert.fail(bbox + " should not be accepted");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+}
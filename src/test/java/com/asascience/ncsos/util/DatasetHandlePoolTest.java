@@ -0,0 +1,94 @@
+package com.asascience.ncsos.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks out datasets that count how often they are opened and closed.
+ */
+public class DatasetHandlePoolTest {
+
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+
+    private final DatasetHandlePool.Opener opener = new DatasetHandlePool.Opener() {
+        public NetcdfDataset open() {
+            opened.incrementAndGet();
+            return new NetcdfDataset() {
+                @Override
+                public synchronized void close() throws IOException {
+                    closed.incrementAndGet();
+                }
+            };
+        }
+    };
+
+    @Test
+    public void testIdleHandleIsReused() throws IOException {
+        DatasetHandlePool pool = new DatasetHandlePool(4, 60000);
+        NetcdfDataset first = pool.acquire("a", opener);
+        pool.release(first, false);
+        NetcdfDataset second = pool.acquire("a", opener);
+        Assert.assertSame(first, second);
+        Assert.assertEquals("a", pool.getKey(second));
+        pool.release(second, false);
+        Assert.assertEquals(1, opened.get());
+        Assert.assertEquals(0, closed.get());
+        pool.shutdown();
+        Assert.assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void testHandleIsCheckedOutOnce() throws IOException {
+        DatasetHandlePool pool = new DatasetHandlePool(4, 60000);
+        NetcdfDataset first = pool.acquire("a", opener);
+        NetcdfDataset second = pool.acquire("a", opener);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(2, pool.getOpenCount());
+        // a discarded handle is closed rather than pooled
+        pool.release(first, true);
+        Assert.assertEquals(1, closed.get());
+        pool.release(second, false);
+        Assert.assertEquals(1, pool.getOpenCount());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIdleHandleIsClosedOverLimit() throws Exception {
+        DatasetHandlePool pool = new DatasetHandlePool(2, 60000);
+        NetcdfDataset a = pool.acquire("a", opener);
+        pool.release(a, false);
+        Thread.sleep(5);
+        NetcdfDataset b = pool.acquire("b", opener);
+        pool.release(b, false);
+        NetcdfDataset c = pool.acquire("c", opener);
+        Assert.assertEquals(2, pool.getOpenCount());
+        Assert.assertEquals(1, closed.get());
+        // "a" was closed, so it is opened again
+        pool.release(pool.acquire("a", opener), false);
+        Assert.assertEquals(4, opened.get());
+        pool.release(c, false);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testIdleHandlesAreSweptWithoutRequests() throws Exception {
+        DatasetHandlePool pool = new DatasetHandlePool(4, 100);
+        NetcdfDataset idle = pool.acquire("a", opener);
+        NetcdfDataset busy = pool.acquire("b", opener);
+        pool.release(idle, false);
+        // the sweep runs at least every second
+        long deadline = System.currentTimeMillis() + 5000;
+        while (closed.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(1, closed.get());
+        Assert.assertEquals(1, pool.getOpenCount());
+        pool.release(busy, false);
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,117 @@
+package com.asascience.ncsos.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Checks which conditional requests are answered with a 304.
+ */
+public class HttpValidatorsTest {
+
+    private static final String DATASET = "/data/station.nc";
+    private static final String URL = "http://localhost:8080/thredds/sos/station.nc";
+    private static final String QUERY = "request=GetCapabilities&service=SOS";
+    // 2013-01-01T00:00:00.500Z
+    private static final long LAST_MODIFIED = 1356998400500L;
+
+    private static SimpleDateFormat httpDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    /**
+     * @param headers header names and values, alternating
+     * @return a request with only the given headers
+     */
+    private static HttpServletRequest request(String... headers) {
+        final Map<String, String> values = new HashMap<String, String>();
+        for (int i = 0; i < headers.length; i += 2) {
+            values.put(headers[i].toLowerCase(), headers[i + 1]);
+        }
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpValidatorsTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String value = (args != null && args.length == 1 && args[0] instanceof String)
+                                ? values.get(((String) args[0]).toLowerCase()) : null;
+                        if (method.getName().equals("getHeader"))
+                            return value;
+                        if (method.getName().equals("getDateHeader")) {
+                            if (value == null)
+                                return -1L;
+                            try {
+                                return httpDateFormat().parse(value).getTime();
+                            } catch (ParseException ex) {
+                                throw new IllegalArgumentException(value);
+                            }
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static HttpValidators validators() {
+        return new HttpValidators(DATASET, LAST_MODIFIED, URL, QUERY);
+    }
+
+    @Test
+    public void testEntityTagIdentifiesResponse() {
+        String eTag = validators().getETag();
+        Assert.assertTrue(eTag.startsWith("\"") && eTag.endsWith("\""));
+        // an equivalent query has the same tag
+        Assert.assertEquals(eTag, new HttpValidators(DATASET, LAST_MODIFIED, URL,
+                "SERVICE=SOS&request=GetCapabilities&").getETag());
+        Assert.assertFalse(eTag.equals(new HttpValidators(DATASET, LAST_MODIFIED + 1, URL, QUERY).getETag()));
+        Assert.assertFalse(eTag.equals(new HttpValidators("/data/other.nc", LAST_MODIFIED, URL, QUERY).getETag()));
+        Assert.assertFalse(eTag.equals(new HttpValidators(DATASET, LAST_MODIFIED, URL,
+                "request=GetCapabilities&service=SOS&sections=all").getETag()));
+    }
+
+    @Test
+    public void testIfNoneMatch() {
+        String eTag = validators().getETag();
+        Assert.assertTrue(validators().isNotModified(request("If-None-Match", eTag)));
+        Assert.assertTrue(validators().isNotModified(request("If-None-Match", "\"other\", W/" + eTag)));
+        Assert.assertTrue(validators().isNotModified(request("If-None-Match", "*")));
+        Assert.assertFalse(validators().isNotModified(request("If-None-Match", "\"other\"")));
+        Assert.assertFalse(validators().isNotModified(request()));
+    }
+
+    @Test
+    public void testIfModifiedSince() {
+        SimpleDateFormat format = httpDateFormat();
+        // http dates drop the milliseconds of the modification time
+        String modified = format.format(new Date(LAST_MODIFIED));
+        Assert.assertTrue(validators().isNotModified(request("If-Modified-Since", modified)));
+        Assert.assertTrue(validators().isNotModified(request("If-Modified-Since",
+                format.format(new Date(LAST_MODIFIED + 60000)))));
+        Assert.assertFalse(validators().isNotModified(request("If-Modified-Since",
+                format.format(new Date(LAST_MODIFIED - 1000)))));
+        Assert.assertFalse(validators().isNotModified(request("If-Modified-Since", "yesterday")));
+        // If-None-Match takes precedence
+        Assert.assertFalse(validators().isNotModified(request("If-None-Match", "\"other\"",
+                "If-Modified-Since", modified)));
+    }
+
+    @Test
+    public void testNormalizeQuery() {
+        Assert.assertEquals("", HttpValidators.normalizeQuery(null));
+        Assert.assertEquals("request=getcapabilities&service=SOS",
+                HttpValidators.normalizeQuery("service=SOS&REQUEST=getcapabilities"));
+        Assert.assertEquals("eventtime=2012-01-01T00:00:00Z&procedure=a",
+                HttpValidators.normalizeQuery("procedure=a&&eventTime=%202012-01-01T00%3A00%3A00Z"));
+        Assert.assertEquals("a=%zz", HttpValidators.normalizeQuery("a=%zz"));
+    }
+}